@@ -25,6 +25,7 @@ import at.treedb.ci.CI;
 import at.treedb.db.ClassSelector;
 import at.treedb.db.DBentities;
 import at.treedb.db.DBkey;
+import at.treedb.db.FieldAccessor;
 
 /**
  * <p>
@@ -171,21 +172,53 @@ public class ClassDependency {
     }
 
     /**
-     * Creates a list of all fields, including fields of super classes.
+     * Returns the concrete entity classes in deletion order - every class is
+     * ordered before the classes referenced by it. References to abstract
+     * classes are resolved to their concrete subclasses, classes of a
+     * reference cycle are ordered by their registration order.
      * 
-     * @param clazz
-     *            class
-     * @param list
-     *            field list
+     * @return entity classes in deletion order
      */
-    private static void getAllFields(Class<?> clazz, ArrayList<Field> list) {
-        for (Field f : clazz.getDeclaredFields()) {
-            f.setAccessible(true);
-            list.add(f);
+    public static ArrayList<Class<?>> getDeletionOrder() {
+        HashMap<Class<?>, ClassDependency> map = getDependencyTree();
+        ArrayList<Class<?>> concrete = new ArrayList<Class<?>>();
+        for (Class<?> c : DBentities.getClasses()) {
+            if (!map.get(c).isAbstract()) {
+                concrete.add(c);
+            }
+        }
+        // referenced class -> referencing classes
+        HashMap<Class<?>, ArrayList<Class<?>>> referencedBy = new HashMap<Class<?>, ArrayList<Class<?>>>();
+        for (Class<?> c : concrete) {
+            referencedBy.put(c, new ArrayList<Class<?>>());
+        }
+        for (Class<?> c : concrete) {
+            for (Class<?> p : map.get(c).getParents()) {
+                for (Class<?> r : concrete) {
+                    if (r != c && p.isAssignableFrom(r)) {
+                        referencedBy.get(r).add(c);
+                    }
+                }
+            }
+        }
+        ArrayList<Class<?>> order = new ArrayList<Class<?>>();
+        HashSet<Class<?>> visited = new HashSet<Class<?>>();
+        for (Class<?> c : concrete) {
+            visit(c, referencedBy, visited, order);
+        }
+        return order;
+    }
+
+    private static void visit(Class<?> clazz, HashMap<Class<?>, ArrayList<Class<?>>> referencedBy,
+            HashSet<Class<?>> visited, ArrayList<Class<?>> order) {
+        if (!visited.add(clazz)) {
+            return;
         }
-        if (clazz.getSuperclass() != null && !clazz.getSuperclass().equals(Object.class)) {
-            getAllFields(clazz.getSuperclass(), list);
+        // referencing classes first
+        for (Class<?> r : referencedBy.get(clazz)) {
+            visit(r, referencedBy, visited, order);
         }
+        order.add(clazz);
     }
 
     /**
@@ -195,9 +228,7 @@ public class ClassDependency {
      *            class
      */
     public static ArrayList<Field> getAllFields(Class<?> clazz) {
-        ArrayList<Field> list = new ArrayList<Field>();
-        getAllFields(clazz, list);
-        return list;
+        return new ArrayList<Field>(FieldAccessor.getAccessor(clazz).getAllFields());
     }
 
     /**
@@ -47,6 +47,7 @@ import at.treedb.db.DBentities;
 import at.treedb.db.DBinfo;
 import at.treedb.db.DBkey;
 import at.treedb.db.Detach;
+import at.treedb.db.FieldAccessor;
 import at.treedb.db.Iterator;
 import at.treedb.db.UpdateMap;
 import at.treedb.db.HistorizationIface.STATUS;
@@ -315,13 +316,8 @@ public class Export {
                 write(FILES_DIR, f, date);
             }
         } else {
-            HashSet<Field> detachList = new HashSet<Field>();
-            for (Field f : clazz.getDeclaredFields()) {
-                if (f.getAnnotation(Detach.class) != null) {
-                    f.setAccessible(true);
-                    detachList.add(f);
-                }
-            }
+            FieldAccessor accessor = FieldAccessor.getAccessor(clazz);
+            List<Field> detachList = accessor.getDeclaredFields(Detach.class);
             // detach binary data
             if (!detachList.isEmpty()) {
                 ArrayList<Object> l = new ArrayList<Object>();
@@ -335,9 +331,10 @@ public class Export {
                     for (Field f : detachList) {
                         // read optional index - necessary if more than one
                         // binary data element should be detached
-                        int index = f.getAnnotation(Detach.class).index();
-                        if ((byte[]) f.get(export) != null) {
-                            write(createBinaryPath(index, export), (byte[]) f.get(export), date);
+                        int index = accessor.getDetachIndex(f);
+                        byte[] data = (byte[]) f.get(export);
+                        if (data != null) {
+                            write(createBinaryPath(index, export), data, date);
                         }
                         f.set(export, null);
                     }
@@ -361,14 +358,11 @@ public class Export {
      */
     private boolean collectUserFields(Class<?> clazz, ArrayList<Field> fieldList) {
         boolean userFields = false;
-        for (Field f : clazz.getDeclaredFields()) {
-            if (f.getAnnotation(DBkey.class) != null) {
-                f.setAccessible(true);
-                Class<?> c = f.getAnnotation(DBkey.class).value();
-                if (c.equals(User.class)) {
-                    fieldList.add(f);
-                    userFields = true;
-                }
+        FieldAccessor accessor = FieldAccessor.getAccessor(clazz);
+        for (Field f : accessor.getDeclaredFields(DBkey.class)) {
+            if (accessor.getDBkey(f).equals(User.class)) {
+                fieldList.add(f);
+                userFields = true;
             }
         }
         return userFields;
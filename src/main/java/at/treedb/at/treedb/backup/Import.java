@@ -40,6 +40,10 @@ import at.treedb.db.DBentities;
 import at.treedb.db.DBinfo;
 import at.treedb.db.DBkey;
 import at.treedb.db.Detach;
+import at.treedb.db.FieldAccessor;
+import at.treedb.db.HistorizationIface;
+import at.treedb.db.HistoryArchive;
+import at.treedb.db.HistoryDelta;
 import at.treedb.db.Iterator;
 import at.treedb.dbfs.DBFSblock;
 import at.treedb.dbfs.DBfile;
@@ -250,6 +254,8 @@ public class Import {
                     break;
                 }
                 // traverse entities
+                int[] oldIds = new int[list.size()];
+                int index = 0;
                 for (Base b : list) {
                     if (!fieldList.isEmpty()) {
                         for (Field f : fieldList) {
@@ -258,10 +264,34 @@ public class Import {
                             f.set(b, dummyArray);
                         }
                     }
-                    int oldDBid = b.getDBid();
+                    oldIds[index++] = b.getDBid();
+                }
+                // restore the whole data block with JDBC batching
+                try {
                     dao.beginTransaction();
-                    Base.restore(dao, b);
+                    Base.restoreAll(dao, list);
                     dao.endTransaction();
+                } catch (Exception e) {
+                    dao.rollback();
+                    // isolate the failing entity - restore the data block
+                    // entity by entity
+                    index = 0;
+                    for (Base b : list) {
+                        try {
+                            dao.beginTransaction();
+                            Base.restore(dao, b);
+                            dao.endTransaction();
+                        } catch (Exception ex) {
+                            dao.rollback();
+                            throw new Exception("Import.fullRestore(): restoring " + c.getSimpleName()
+                                    + " with DB ID " + oldIds[index] + " failed", ex);
+                        }
+                        ++index;
+                    }
+                }
+                index = 0;
+                for (Base b : list) {
+                    int oldDBid = oldIds[index++];
                     // store the pair old DB ID / new DB ID
                     idMap.put(oldDBid, b.getDBid());
                     if (historicMap.get(b.getHistId()) == null) {
@@ -286,20 +316,21 @@ public class Import {
             dao.beginTransaction();
             Iterator iter = new Iterator(dao, c, null, null, entityFetchThreshold);
             adjustFields(dao, c, iter);
+            // backups of older versions are missing the validity intervals
+            Base.rebuildValidity(dao, (Class<? extends Base>) c);
             dao.endTransaction();
         }
+        // the restored entities bypassed the in-memory indexes
+        Base.clearIndexesAfterCommit(dao);
     }
 
     private void adjustFields(DAOiface dao, Class<?> c, Iterator iter) throws Exception {
-        ArrayList<Field> list = ClassDependency.getAllFields(c);
+        FieldAccessor accessor = FieldAccessor.getAccessor(c);
+        List<Field> detached = accessor.getAllFields(Detach.class);
         ArrayList<Field> dbKeys = new ArrayList<Field>();
-        ArrayList<Field> detached = new ArrayList<Field>();
         // System.out.println("adjust class:" + c.getSimpleName() + ":");
-        for (Field f : list) {
-            f.setAccessible(true);
-            if (f.getAnnotation(Detach.class) != null) {
-                detached.add(f);
-            } else if (f.getAnnotation(DBkey.class) != null) {
+        for (Field f : accessor.getAllFields(DBkey.class)) {
+            if (accessor.getDetachIndex(f) < 0) {
                 dbKeys.add(f);
             }
         }
@@ -311,8 +342,7 @@ public class Import {
             for (Object o : l) {
                 Base b = (Base) o;
                 for (Field f : dbKeys) {
-                    f.setAccessible(true);
-                    Class<?> clazz = f.getAnnotation(DBkey.class).value();
+                    Class<?> clazz = accessor.getDBkey(f);
                     HashMap<Integer, Integer> idMap;
                     Class<?> sel = null;
                     // ClassSelector necessary for ID re-mapping?
@@ -347,7 +377,7 @@ public class Import {
                 }
                 // re-attach detached binary data
                 for (Field f : detached) {
-                    int index = f.getAnnotation(Detach.class).index();
+                    int index = accessor.getDetachIndex(f);
                     String path = Export.createBinaryPath(index, b.getCID(), detachMap.get(b.getDBid()));
                     f.set(b, readData(path));
 
@@ -355,6 +385,18 @@ public class Import {
                 // set new historic ID
 
                 b.setHistId(historicMap.get(b.getHistId()));
+                // DB keys inside the stored field values of the history
+                if (b instanceof HistoryDelta) {
+                    adjustHistoryDelta(dao, (HistoryDelta) b);
+                } else if (b instanceof HistoryArchive) {
+                    HistoryArchive archive = (HistoryArchive) b;
+                    HashMap<String, Object> values = archive.getValues();
+                    // the archived version is complete - it resolves its
+                    // class selectors itself
+                    if (adjustValues(archive.getOwnerCID().toClass(), archive.rebuild(), values)) {
+                        archive.setValues(values);
+                    }
+                }
 
                 if (c.equals(CIfile.class)) {
                     ciFileHashSet.add(((CIfile) b).getDBfile());
@@ -405,6 +447,93 @@ public class Import {
         }
     }
 
+    /**
+     * Re-maps the DB keys of the previous field values stored by a
+     * {@code HistoryDelta}. The owner ID of the delta is already re-mapped.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param delta
+     *            {@code HistoryDelta}
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    private void adjustHistoryDelta(DAOiface dao, HistoryDelta delta) throws Exception {
+        HashMap<String, Object> values = delta.getValues();
+        Class<?> owner = delta.getOwnerCID().toClass();
+        // the current version of the owner resolves class selectors - the
+        // selecting fields are rarely part of a delta
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("id", delta.getOwnerId());
+        map.put("status", HistorizationIface.STATUS.UPDATED);
+        List<Base> list = (List<Base>) dao.query(
+                "select i from " + owner.getSimpleName() + " i where i.histId = :id and i.status <> :status", map);
+        Base state = list.isEmpty() ? null : (Base) list.get(0).clone();
+        if (adjustValues(owner, state, values)) {
+            delta.setValues(values);
+        }
+    }
+
+    /**
+     * Re-maps the DB keys of a map field name/value of an entity class.
+     * 
+     * @param owner
+     *            entity class
+     * @param state
+     *            entity for resolving class selectors, can be {@code null}
+     * @param values
+     *            map field name/value
+     * @return {@code true} if a value was changed
+     * @throws Exception
+     */
+    private boolean adjustValues(Class<?> owner, Base state, HashMap<String, Object> values) throws Exception {
+        FieldAccessor accessor = FieldAccessor.getAccessor(owner);
+        if (state != null) {
+            for (String name : values.keySet()) {
+                try {
+                    accessor.getField(name).set(state, values.get(name));
+                } catch (NoSuchFieldException e) {
+                    // field was removed from the class
+                }
+            }
+        }
+        boolean changed = false;
+        for (Field f : accessor.getAllFields(DBkey.class)) {
+            Object oldKey = values.get(f.getName());
+            if (oldKey == null || accessor.getDetachIndex(f) >= 0) {
+                continue;
+            }
+            Class<?> clazz = accessor.getDBkey(f);
+            Class<?> sel = null;
+            if (clazz.equals(ClassSelector.class)) {
+                sel = state != null ? ((ClassSelector) state).getClass(f) : null;
+                if (sel == null) {
+                    continue;
+                }
+                clazz = sel;
+            }
+            HashMap<Integer, Integer> idMap = classIdMap.get(clazz);
+            if (idMap == null) {
+                continue;
+            }
+            Object newKey = null;
+            if (sel != null && oldKey instanceof Long) {
+                long key = (Long) oldKey;
+                Integer id = idMap.get(UIelement.extractHistIdFromComposedId(key));
+                if (key > 0 && id != null) {
+                    newKey = (key & 0xffffffff00000000L) + id;
+                }
+            } else if (oldKey instanceof Integer && (Integer) oldKey > 0) {
+                newKey = idMap.get(oldKey);
+            }
+            if (newKey != null) {
+                values.put(f.getName(), newKey);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
     public void writeFile(DAOiface dao, DBfile file, String path) throws Exception {
         if (!archiveMap.containsKey(path)) {
             throw new Exception("Import.writeFile(): path not found - " + path);
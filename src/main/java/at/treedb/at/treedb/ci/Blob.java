@@ -41,7 +41,7 @@ import at.treedb.user.User;
 
 @SuppressWarnings("serial")
 @Entity
-@Table(name = "m_blob", indexes = { @Index(columnList = "histId") })
+@Table(name = "m_blob", indexes = { @Index(columnList = "histId,validFrom") })
 public class Blob extends Base implements Cloneable {
     private ClassID classId;
     @Detach
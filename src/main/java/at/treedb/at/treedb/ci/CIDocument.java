@@ -0,0 +1,192 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import at.treedb.db.ClassSelector;
+import at.treedb.db.DAOiface;
+import at.treedb.db.DBkey;
+
+/**
+ * <p>
+ * All data elements of a {@code CI}, keyed by {@code UIelement}. A document
+ * is loaded by {@code CIdata.loadDocument()} or
+ * {@code CIdata.loadDocuments()} with a few queries, instead of one query per
+ * {@code UIelement}.
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class CIDocument {
+    private final int ci;
+    private final Date date;
+    private final LinkedHashMap<Long, ArrayList<CIdata>> elements = new LinkedHashMap<Long, ArrayList<CIdata>>();
+    // UIelements of the blobs, which are loaded on demand
+    private final LinkedHashSet<Long> blobs = new LinkedHashSet<Long>();
+
+    /**
+     * Constructor
+     *
+     * @param ci
+     *            {@code CI} ID
+     * @param date
+     *            temporal bound of the document, {@code null} for the
+     *            current data
+     */
+    CIDocument(@DBkey(CI.class) int ci, Date date) {
+        this.ci = ci;
+        this.date = date;
+    }
+
+    /**
+     * Adds a data element.
+     *
+     * @param data
+     *            data element
+     */
+    void add(CIdata data) {
+        ArrayList<CIdata> list = elements.get(data.getUiElement());
+        if (list == null) {
+            list = new ArrayList<CIdata>();
+            elements.put(data.getUiElement(), list);
+        }
+        list.add(data);
+    }
+
+    /**
+     * Adds the {@code UIelement} of a blob.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     */
+    void addBlob(long uiElement) {
+        blobs.add(uiElement);
+    }
+
+    /**
+     * Returns the {@code CI} ID.
+     *
+     * @return {@code CI} ID
+     */
+    public @DBkey(CI.class) int getCi() {
+        return ci;
+    }
+
+    /**
+     * Returns the IDs of the {@code UIelement}s containing data.
+     *
+     * @return {@code UIelement} IDs
+     */
+    public Set<Long> getUiElements() {
+        return Collections.unmodifiableSet(elements.keySet());
+    }
+
+    /**
+     * Returns the data element of a {@code UIelement}.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @return data element, or {@code null} if the {@code UIelement} contains
+     *         no data
+     */
+    public CIdata get(@DBkey(ClassSelector.class) long uiElement) {
+        ArrayList<CIdata> list = elements.get(uiElement);
+        return list == null ? null : list.get(0);
+    }
+
+    /**
+     * Returns all data elements of a {@code UIelement}, e.g. the images of a
+     * gallery.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @return data elements
+     */
+    public List<CIdata> getAll(@DBkey(ClassSelector.class) long uiElement) {
+        ArrayList<CIdata> list = elements.get(uiElement);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the IDs of the {@code UIelement}s containing a {@code CIblob} -
+     * the blobs aren't part of the document and are loaded by
+     * {@code loadBlob()}.
+     *
+     * @return {@code UIelement} IDs
+     */
+    public Set<Long> getBlobUiElements() {
+        return Collections.unmodifiableSet(blobs);
+    }
+
+    /**
+     * Loads the {@code CIblob} of a {@code UIelement}, valid at the temporal
+     * bound of the document.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @return {@code CIblob}, or {@code null} if the {@code UIelement}
+     *         contains no blob
+     * @throws Exception
+     */
+    public CIblob loadBlob(DAOiface dao, @DBkey(ClassSelector.class) long uiElement) throws Exception {
+        if (!blobs.contains(uiElement)) {
+            return null;
+        }
+        return CIblob.load(dao, ci, uiElement, date);
+    }
+
+    /**
+     * Returns the number of data elements.
+     *
+     * @return number of data elements
+     */
+    public int size() {
+        int size = 0;
+        for (ArrayList<CIdata> list : elements.values()) {
+            size += list.size();
+        }
+        return size;
+    }
+
+    /**
+     * Loads the binary data of the lazy loaded images.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @throws Exception
+     */
+    public void loadBinaryData(DAOiface dao) throws Exception {
+        for (ArrayList<CIdata> list : elements.values()) {
+            for (CIdata data : list) {
+                if (data instanceof CIimage) {
+                    ((CIimage) data).loadImageDataIfIsLazy(dao);
+                }
+            }
+        }
+    }
+}
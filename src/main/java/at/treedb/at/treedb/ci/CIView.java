@@ -0,0 +1,287 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import at.treedb.db.Base;
+import at.treedb.db.DAOiface;
+import at.treedb.i18n.Istring;
+import at.treedb.i18n.Locale;
+import at.treedb.ui.UIelement;
+import at.treedb.ui.UItab;
+
+/**
+ * <p>
+ * Fully assembled, serializable view of a {@code CI} for a language - the
+ * {@code UItab}s and {@code UIelement}s of the {@code CItype} with their
+ * resolved captions and values. Binary data isn't part of the view, images
+ * and files are represented by their names.
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class CIView implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int ci;
+    private int ciType;
+    private String name;
+    private Locale.LANGUAGE language;
+    private int version;
+    private ArrayList<Tab> tabs = new ArrayList<Tab>();
+
+    /**
+     * View of a {@code UItab}.
+     */
+    public static class Tab implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String caption;
+        private ArrayList<Field> fields = new ArrayList<Field>();
+
+        Tab(String caption) {
+            this.caption = caption;
+        }
+
+        /**
+         * Returns the caption of the tab.
+         *
+         * @return caption
+         */
+        public String getCaption() {
+            return caption;
+        }
+
+        /**
+         * Returns the fields of the tab.
+         *
+         * @return fields
+         */
+        public List<Field> getFields() {
+            return Collections.unmodifiableList(fields);
+        }
+    }
+
+    /**
+     * View of an {@code UIelement} and its value.
+     */
+    public static class Field implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String fieldName;
+        private String displayName;
+        private long uiElement;
+        private Serializable value;
+
+        Field(String fieldName, String displayName, long uiElement, Serializable value) {
+            this.fieldName = fieldName;
+            this.displayName = displayName;
+            this.uiElement = uiElement;
+            this.value = value;
+        }
+
+        /**
+         * Returns the internal field name.
+         *
+         * @return field name
+         */
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        /**
+         * Returns the display name of the field.
+         *
+         * @return display name
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * Returns the composed ID of the {@code UIelement}.
+         *
+         * @return {@code UIelement} ID
+         */
+        public long getUiElement() {
+            return uiElement;
+        }
+
+        /**
+         * Returns the value of the field, a list for {@code UIelement}s
+         * containing several data elements.
+         *
+         * @return value, or {@code null} if the field is empty
+         */
+        public Serializable getValue() {
+            return value;
+        }
+    }
+
+    private CIView() {
+    }
+
+    /**
+     * Assembles the view of a {@code CI}.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param ciId
+     *            {@code CI} ID
+     * @param language
+     *            language of the captions and the i18n values
+     * @return view, or {@code null} if the {@code CI} doesn't exist
+     * @throws Exception
+     */
+    static CIView build(DAOiface dao, int ciId, Locale.LANGUAGE language) throws Exception {
+        CI ci = (CI) Base.load(dao, CI.class, ciId);
+        if (ci == null) {
+            return null;
+        }
+        CItype type = ci.getCItypeObj();
+        if (type == null) {
+            throw new Exception("CIView.build(): CItype isn't available: " + ci.getCIType());
+        }
+        CIDocument doc = CIdata.loadDocument(dao, ciId, null);
+        CIView view = new CIView();
+        view.ci = ciId;
+        view.ciType = ci.getCIType();
+        view.name = ci.getName();
+        view.language = language;
+        view.version = ci.getVersion();
+        for (UItab t : type.getUItab()) {
+            Tab tab = new Tab(getText(dao, t.getCaption(), language));
+            for (UIelement e : t.getUIelements()) {
+                long id = e.getComposedId();
+                ArrayList<Serializable> values = new ArrayList<Serializable>();
+                for (CIdata data : doc.getAll(id)) {
+                    view.version = Math.max(view.version, data.getVersion());
+                    Serializable v = getValue(data, language);
+                    if (v != null) {
+                        values.add(v);
+                    }
+                }
+                Serializable value = null;
+                if (values.size() == 1) {
+                    value = values.get(0);
+                } else if (values.size() > 1) {
+                    value = values;
+                }
+                tab.fields.add(new Field(e.getFieldName(), getText(dao, e.getDisplayName(), language), id, value));
+            }
+            view.tabs.add(tab);
+        }
+        return view;
+    }
+
+    private static String getText(DAOiface dao, int id, Locale.LANGUAGE language) throws Exception {
+        if (id == 0) {
+            return null;
+        }
+        Istring s = Istring.load(dao, id, language);
+        return s == null ? null : s.getText();
+    }
+
+    private static Serializable getValue(CIdata data, Locale.LANGUAGE language) {
+        if (data instanceof CIi18nString) {
+            CIi18nString s = (CIi18nString) data;
+            return s.getLanguage() == language ? s.getData() : null;
+        } else if (data instanceof CIimage) {
+            return ((CIimage) data).getName();
+        } else if (data instanceof CIfile) {
+            return ((CIfile) data).getName();
+        }
+        Object o = data.getData();
+        if (o instanceof Base || !(o instanceof Serializable)) {
+            return null;
+        }
+        return (Serializable) o;
+    }
+
+    /**
+     * Returns the {@code CI} ID.
+     *
+     * @return {@code CI} ID
+     */
+    public int getCi() {
+        return ci;
+    }
+
+    /**
+     * Returns the {@code CItype} ID.
+     *
+     * @return {@code CItype} ID
+     */
+    public int getCiType() {
+        return ciType;
+    }
+
+    /**
+     * Returns the name of the {@code CI}.
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the language of the view.
+     *
+     * @return language
+     */
+    public Locale.LANGUAGE getLanguage() {
+        return language;
+    }
+
+    /**
+     * Returns the maximum version of the {@code CI} and its data elements.
+     *
+     * @return version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the tabs.
+     *
+     * @return tabs
+     */
+    public List<Tab> getTabs() {
+        return Collections.unmodifiableList(tabs);
+    }
+
+    /**
+     * Returns a field by its name.
+     *
+     * @param fieldName
+     *            field name
+     * @return field, or {@code null} if the field doesn't exist
+     */
+    public Field getField(String fieldName) {
+        for (Tab t : tabs) {
+            for (Field f : t.fields) {
+                if (f.fieldName.equals(fieldName)) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import at.treedb.db.Base;
+import at.treedb.db.DAOiface;
+import at.treedb.db.DBkey;
+import at.treedb.i18n.Istring;
+import at.treedb.i18n.Locale;
+import at.treedb.ui.UIelement;
+import at.treedb.ui.UItab;
+
+/**
+ * <p>
+ * Cache of the serialized {@code CIView}s, keyed by {@code CI}, language and
+ * version. The heap tier is a LRU map, evicted views are moved to an optional
+ * second tier ({@code CIViewStoreIface}), e.g. a {@code CIViewDiskStore}.
+ * </p>
+ * <p>
+ * The version of a {@code CI} is kept in memory - a read doesn't access the
+ * DB, if the view is cached. The version is incremented after the commit, or
+ * the rollback, of a transaction writing the {@code CI} or one of its data
+ * elements, views of older versions become unreachable. A write of a
+ * {@code CItype}, {@code UItab}, {@code UIelement} or {@code Istring} drops
+ * all views. Writes of other processes aren't seen - {@code clear()} has to be
+ * called, if the DB is shared.
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class CIViewCache {
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    // CI ID -> version of the views, guarded by the class lock
+    private static final HashMap<Integer, Long> versions = new HashMap<Integer, Long>();
+    // incremented by clear() - starts with the time to skip views stored by
+    // a previous run
+    private static long epoch = System.currentTimeMillis();
+    private static int maxEntries = DEFAULT_MAX_ENTRIES;
+    private static CIViewStoreIface store;
+    // views evicted from the heap, written to the store outside of the lock
+    private static final ArrayList<Map.Entry<String, byte[]>> evicted = new ArrayList<Map.Entry<String, byte[]>>();
+    private static final LinkedHashMap<String, byte[]> heap = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            if (size() <= maxEntries) {
+                return false;
+            }
+            if (store != null) {
+                evicted.add(new AbstractMap.SimpleEntry<String, byte[]>(eldest));
+            }
+            return true;
+        }
+    };
+
+    private CIViewCache() {
+    }
+
+    /**
+     * Configures the cache and drops all views.
+     *
+     * @param maxEntries
+     *            maximum number of views kept on the heap
+     * @param store
+     *            second tier for evicted views, {@code null} for none
+     * @throws Exception
+     */
+    public static synchronized void configure(int maxEntries, CIViewStoreIface store) throws Exception {
+        if (maxEntries < 1) {
+            throw new Exception("CIViewCache.configure(): invalid number of entries: " + maxEntries);
+        }
+        CIViewCache.maxEntries = maxEntries;
+        CIViewCache.store = store;
+        clear();
+    }
+
+    /**
+     * Returns the view of a {@code CI}, assembling it if it isn't cached.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param ci
+     *            {@code CI} ID
+     * @param language
+     *            language of the view
+     * @return view, or {@code null} if the {@code CI} doesn't exist
+     * @throws Exception
+     */
+    public static CIView get(DAOiface dao, @DBkey(CI.class) int ci, Locale.LANGUAGE language) throws Exception {
+        String key;
+        byte[] data;
+        CIViewStoreIface s;
+        synchronized (CIViewCache.class) {
+            key = getKey(ci, language);
+            data = heap.get(key);
+            s = store;
+        }
+        if (data == null && s != null) {
+            // disk I/O outside of the lock
+            data = s.get(key);
+            if (data != null) {
+                s.remove(key);
+                put(key, data);
+            }
+        }
+        if (data != null) {
+            return deserialize(data);
+        }
+        // the key is taken before the assembly - a concurrent write
+        // increments the version and the view becomes unreachable
+        CIView view = CIView.build(dao, ci, language);
+        if (view == null) {
+            return null;
+        }
+        put(key, serialize(view));
+        return view;
+    }
+
+    /**
+     * Registers the invalidation of the views of a {@code CI} - the views are
+     * removed after the commit or the rollback, views assembled within the
+     * transaction might contain uncommitted data.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param ci
+     *            {@code CI} ID
+     */
+    public static void invalidate(DAOiface dao, @DBkey(CI.class) final int ci) {
+        dao.afterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    invalidate(ci);
+                } catch (Exception e) {
+                    throw new IllegalStateException("CIViewCache.invalidate(): invalidation failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Invalidates all views of a {@code CI}.
+     *
+     * @param ci
+     *            {@code CI} ID
+     * @throws Exception
+     */
+    public static void invalidate(@DBkey(CI.class) int ci) throws Exception {
+        ArrayList<String> keys = new ArrayList<String>();
+        CIViewStoreIface s;
+        synchronized (CIViewCache.class) {
+            for (Locale.LANGUAGE l : Locale.LANGUAGE.values()) {
+                String key = getKey(ci, l);
+                heap.remove(key);
+                keys.add(key);
+            }
+            Long version = versions.get(ci);
+            versions.put(ci, version == null ? 1 : version + 1);
+            s = store;
+        }
+        if (s != null) {
+            for (String key : keys) {
+                s.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Registers the invalidation of the views affected by a written entity -
+     * the views are removed after the commit or the rollback.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param base
+     *            saved, updated or deleted entity
+     * @throws Exception
+     */
+    public static void invalidate(DAOiface dao, Base base) throws Exception {
+        if (base instanceof CIdata) {
+            invalidate(dao, ((CIdata) base).getCi());
+        } else if (base instanceof CI) {
+            invalidate(dao, base.getHistId());
+        } else if (base instanceof CItype || base instanceof UItab || base instanceof UIelement
+                || base instanceof Istring) {
+            // captions and display names of the views
+            dao.afterCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        clear();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("CIViewCache.invalidate(): clearing failed", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops all views.
+     *
+     * @throws Exception
+     */
+    public static synchronized void clear() throws Exception {
+        heap.clear();
+        evicted.clear();
+        versions.clear();
+        ++epoch;
+        if (store != null) {
+            store.clear();
+        }
+    }
+
+    /**
+     * Caches a view and writes the views evicted from the heap to the store.
+     */
+    private static void put(String key, byte[] data) throws Exception {
+        ArrayList<Map.Entry<String, byte[]>> list;
+        CIViewStoreIface s;
+        synchronized (CIViewCache.class) {
+            heap.put(key, data);
+            list = new ArrayList<Map.Entry<String, byte[]>>(evicted);
+            evicted.clear();
+            s = store;
+        }
+        if (s != null) {
+            for (Map.Entry<String, byte[]> e : list) {
+                try {
+                    s.put(e.getKey(), e.getValue());
+                } catch (Exception ex) {
+                    // the view is rebuilt on the next access
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the current version of a view - the class lock has
+     * to be held.
+     */
+    private static String getKey(int ci, Locale.LANGUAGE language) {
+        Long version = versions.get(ci);
+        return ci + "_" + language.name() + "_" + epoch + "_" + (version == null ? 0 : version);
+    }
+
+    private static byte[] serialize(CIView view) throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(view);
+        out.close();
+        return bout.toByteArray();
+    }
+
+    private static CIView deserialize(byte[] data) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return (CIView) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
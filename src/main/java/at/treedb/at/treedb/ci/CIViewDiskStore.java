@@ -0,0 +1,87 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Disk tier of the {@code CIViewCache} - one file per serialized view.
+ *
+ * @author Peter Sauer
+ *
+ */
+public class CIViewDiskStore implements CIViewStoreIface {
+    private final File dir;
+
+    /**
+     * Constructor
+     *
+     * @param dir
+     *            directory of the view files
+     * @throws Exception
+     */
+    public CIViewDiskStore(File dir) throws Exception {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new Exception("CIViewDiskStore(): Unable to create directory " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+    }
+
+    private File getFile(String key) {
+        // keys consist of digits, letters and underscores
+        return new File(dir, key + ".view");
+    }
+
+    @Override
+    public byte[] get(String key) throws Exception {
+        File f = getFile(key);
+        if (!f.isFile()) {
+            return null;
+        }
+        return Files.readAllBytes(f.toPath());
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws Exception {
+        File tmp = File.createTempFile("view", ".tmp", dir);
+        Files.write(tmp.toPath(), data);
+        File f = getFile(key);
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+                throw new Exception("CIViewDiskStore.put(): Unable to write " + f.getAbsolutePath());
+            }
+        }
+    }
+
+    @Override
+    public void remove(String key) throws Exception {
+        getFile(key).delete();
+    }
+
+    @Override
+    public void clear() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(".view")) {
+                    f.delete();
+                }
+            }
+        }
+    }
+}
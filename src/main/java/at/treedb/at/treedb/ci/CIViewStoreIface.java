@@ -0,0 +1,61 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+/**
+ * Interface of the optional second tier (off-heap, disk) of the
+ * {@code CIViewCache}, storing serialized views evicted from the heap.
+ *
+ * @author Peter Sauer
+ *
+ */
+public interface CIViewStoreIface {
+    /**
+     * Returns a serialized view.
+     *
+     * @param key
+     *            cache key
+     * @return serialized view, or {@code null} if the key isn't stored
+     * @throws Exception
+     */
+    public byte[] get(String key) throws Exception;
+
+    /**
+     * Stores a serialized view.
+     *
+     * @param key
+     *            cache key
+     * @param data
+     *            serialized view
+     * @throws Exception
+     */
+    public void put(String key, byte[] data) throws Exception;
+
+    /**
+     * Removes a serialized view.
+     *
+     * @param key
+     *            cache key
+     * @throws Exception
+     */
+    public void remove(String key) throws Exception;
+
+    /**
+     * Removes all serialized views.
+     *
+     * @throws Exception
+     */
+    public void clear() throws Exception;
+}
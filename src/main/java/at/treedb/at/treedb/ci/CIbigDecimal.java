@@ -44,7 +44,8 @@ import at.treedb.user.User;
  */
 // LDOR: 2013-11-29
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIbigDecimal extends CIdata {
     private static final long serialVersionUID = 1L;
     // TODO: discussion of these values
@@ -43,7 +43,8 @@ import at.treedb.user.User;
 
 @SuppressWarnings("serial")
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIblob extends CIdata {
     @Detach
     @Lob
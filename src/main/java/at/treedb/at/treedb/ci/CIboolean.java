@@ -41,7 +41,8 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIboolean extends CIdata {
     private boolean booleanValue;
 
@@ -58,7 +59,7 @@ public class CIboolean extends CIdata {
     protected CIboolean() {
     }
 
-    private CIboolean(int ci, int ciType, long uiElement, boolean b) {
+    CIboolean(int ci, int ciType, long uiElement, boolean b) {
         super(ci, ciType, uiElement);
         booleanValue = b;
     }
@@ -15,8 +15,12 @@
 package at.treedb.ci;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import javax.persistence.MappedSuperclass;
@@ -24,10 +28,14 @@ import javax.persistence.MappedSuperclass;
 import at.treedb.db.Base;
 import at.treedb.db.ClassID;
 import at.treedb.db.ClassSelector;
+import at.treedb.db.CompiledQuery;
 import at.treedb.db.DAO;
 import at.treedb.db.DAOiface;
+import at.treedb.db.DBentities;
 import at.treedb.db.DBindex;
 import at.treedb.db.DBkey;
+import at.treedb.db.HistoryArchive;
+import at.treedb.db.QueryRegistry;
 import at.treedb.db.SearchCriteria;
 
 /**
@@ -44,7 +52,7 @@ import at.treedb.db.SearchCriteria;
 @DBindex(columnList = { "ci", "uiElement" })
 public abstract class CIdata extends Base implements Cloneable, ClassSelector {
     public enum BaseFields {
-        ciType
+        ciType, ci
     }
 
     @DBkey(CI.class)
@@ -93,6 +101,11 @@ public abstract class CIdata extends Base implements Cloneable, ClassSelector {
         return ciType;
     }
 
+    @Override
+    protected int getHistoryRef() {
+        return ci;
+    }
+
     protected static Base load(DAOiface dao, Class<? extends Base> clazz, int ci, long uiElement, SearchCriteria crit,
             Date date) throws Exception {
         List<Base> list = loadList(dao, clazz, ci, uiElement, crit, date, false);
@@ -130,28 +143,26 @@ public abstract class CIdata extends Base implements Cloneable, ClassSelector {
             if (localDAO) {
                 dao.beginTransaction();
             }
-            HashMap<String, Object> map = new HashMap<String, Object>();
-            map.put("ci", ci);
-            map.put("uiElement", uiElement);
-            String criteria = "";
-            if (crit != null) {
-                String critName = crit.getEnumValue().name();
-                criteria += " and data." + critName + " " + crit.getOperator().toString() + " :" + critName;
-                map.put(critName, crit.getData());
-            }
             // load only active entities
-            String className = clazz.getSimpleName();
             if (date == null) {
-                map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-                list = (List<Base>) dao.query("select data from " + className
-                        + " data where data.ci = :ci and data.uiElement = :uiElement and data.status = :status"
-                        + criteria, map);
-
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.CIDATA_ACTIVE, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, ci, uiElement, at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                } else {
+                    list = (List<Base>) dao.query(query, ci, uiElement, at.treedb.db.HistorizationIface.STATUS.ACTIVE,
+                            crit.getData());
+                }
             } else {
-                map.put("date", date);
-                list = (List<Base>) dao.query("select data from " + className
-                        + " data where data.ci = :ci and data.uiElement = :uiElement and data.lastModified < :date and (data.deletionDate = null or data.deletionDate > :date) "
-                        + criteria + "order by data.version having max(data.version)", map);
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.CIDATA_TEMPORAL, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, ci, uiElement, date);
+                } else {
+                    list = (List<Base>) dao.query(query, ci, uiElement, date, crit.getData());
+                }
+                HashMap<String, Object> fields = new HashMap<String, Object>();
+                fields.put("uiElement", uiElement);
+                list = addHistoric(dao, clazz, list, null, Collections.singletonList(ci), fields,
+                        crit == null ? null : new SearchCriteria[] { crit }, date);
             }
             if (!lazy && !list.isEmpty() && list.get(0).isCallbackAfterLoad()) {
                 for (Base b : list) {
@@ -183,29 +194,28 @@ public abstract class CIdata extends Base implements Cloneable, ClassSelector {
             if (localDAO) {
                 dao.beginTransaction();
             }
-            HashMap<String, Object> map = new HashMap<String, Object>();
-            map.put("domain", domain);
-            map.put("ci", 0);
-            map.put("uiElement", 0L);
-            String criteria = "";
-            if (crit != null) {
-                String critName = crit.getEnumValue().name();
-                criteria += " and data." + critName + " " + crit.getOperator().toString() + " :" + critName;
-                map.put(critName, crit.getData());
-            }
             // load only active entities
-            String className = clazz.getSimpleName();
             if (date == null) {
-                map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-                list = (List<Base>) dao.query("select data from " + className
-                        + " data where data.domain = :domain and data.ci = :ci and data.uiElement = :uiElement and data.status = :status"
-                        + criteria, map);
-
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.CIDATA_DOMAIN_ACTIVE, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, domain, 0, 0L,
+                            at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                } else {
+                    list = (List<Base>) dao.query(query, domain, 0, 0L,
+                            at.treedb.db.HistorizationIface.STATUS.ACTIVE, crit.getData());
+                }
             } else {
-                map.put("date", date);
-                list = (List<Base>) dao.query("select data from " + className
-                        + " data data.domain = :domain and where data.ci = :ci and data.uiElement = :uiElement and data.lastModified < :date and (data.deletionDate = null or data.deletionDate > :date) "
-                        + criteria + "order by data.version having max(data.version)", map);
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.CIDATA_DOMAIN_TEMPORAL, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, domain, 0, 0L, date);
+                } else {
+                    list = (List<Base>) dao.query(query, domain, 0, 0L, date, crit.getData());
+                }
+                HashMap<String, Object> fields = new HashMap<String, Object>();
+                fields.put("ci", 0);
+                fields.put("uiElement", 0L);
+                list = addHistoric(dao, clazz, list, domain, null, fields,
+                        crit == null ? null : new SearchCriteria[] { crit }, date);
             }
             if (!lazy && !list.isEmpty() && list.get(0).isCallbackAfterLoad()) {
                 for (Base b : list) {
@@ -224,6 +234,281 @@ public abstract class CIdata extends Base implements Cloneable, ClassSelector {
         return list;
     }
 
+    /**
+     * Loads the data elements of a {@code UIelement} for a set of {@code CI}s.
+     * The IDs of the data elements are resolved by chunked {@code IN}
+     * queries, the entities are loaded by {@code Base.loadMany()} - cached
+     * entities and historic versions of all history modes are supported.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            data class to be loaded
+     * @param cis
+     *            {@code CI} IDs
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param date
+     *            optional temporal bound
+     * @param lazy
+     *            {@code true} for skipping the binary data
+     * @return map {@code CI} ID/data element - {@code CI}s without data are
+     *         missing
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    protected static HashMap<Integer, Base> loadMany(DAOiface dao, Class<? extends Base> clazz, int[] cis,
+            long uiElement, Date date, boolean lazy) throws Exception {
+        HashMap<Integer, Base> result = new HashMap<Integer, Base>();
+        // remove duplicates
+        LinkedHashSet<Integer> set = new LinkedHashSet<Integer>();
+        for (int ci : cis) {
+            set.add(ci);
+        }
+        ArrayList<Integer> ids = new ArrayList<Integer>(set);
+        if (ids.isEmpty()) {
+            return result;
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            ArrayList<Integer> histIds = new ArrayList<Integer>();
+            for (int i = 0; i < ids.size(); i += LOAD_MANY_CHUNK_SIZE) {
+                ArrayList<Integer> chunk = new ArrayList<Integer>(
+                        ids.subList(i, Math.min(i + LOAD_MANY_CHUNK_SIZE, ids.size())));
+                List<Object[]> list;
+                if (date == null) {
+                    list = (List<Object[]>) dao.query(
+                            QueryRegistry.get(QueryRegistry.Template.CIDATA_MANY_IDS_ACTIVE, clazz), chunk,
+                            uiElement, at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                } else {
+                    list = (List<Object[]>) dao.query(QueryRegistry.get(QueryRegistry.Template.CIDATA_MANY_IDS, clazz),
+                            chunk, uiElement);
+                }
+                for (Object[] o : list) {
+                    histIds.add((Integer) o[0]);
+                }
+            }
+            int[] array = new int[histIds.size()];
+            for (int i = 0; i < array.length; ++i) {
+                array[i] = histIds.get(i);
+            }
+            for (Base b : Base.loadMany(dao, clazz, array, date, !lazy).values()) {
+                if (result.put(((CIdata) b).getCi(), b) != null) {
+                    // 'Houston, we have a problem'
+                    throw new Exception("CIdata.loadMany(): result set size > 1");
+                }
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Loads all data elements of a set of {@code CI}s with one chunked
+     * {@code IN} query per {@code CIdata} class, instead of one query per
+     * {@code UIelement}. Only the {@code UIelement}s of the {@code CIblob}
+     * elements are loaded, the blobs are loaded on demand by
+     * {@code CIDocument.loadBlob()}. Binary data of images are loaded on
+     * demand by {@code CIDocument.loadBinaryData()}.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param cis
+     *            {@code CI} IDs
+     * @param date
+     *            optional temporal bound
+     * @return map {@code CI} ID/document
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<Integer, CIDocument> loadDocuments(DAOiface dao, @DBkey(CI.class) int[] cis, Date date)
+            throws Exception {
+        HashMap<Integer, CIDocument> result = new HashMap<Integer, CIDocument>();
+        // remove duplicates
+        LinkedHashSet<Integer> set = new LinkedHashSet<Integer>();
+        for (int ci : cis) {
+            set.add(ci);
+            result.put(ci, new CIDocument(ci, date));
+        }
+        ArrayList<Integer> ids = new ArrayList<Integer>(set);
+        if (ids.isEmpty()) {
+            return result;
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            for (Class<? extends CIdata> clazz : getDataClasses()) {
+                for (int i = 0; i < ids.size(); i += LOAD_MANY_CHUNK_SIZE) {
+                    ArrayList<Integer> chunk = new ArrayList<Integer>(
+                            ids.subList(i, Math.min(i + LOAD_MANY_CHUNK_SIZE, ids.size())));
+                    List<Base> list;
+                    if (date == null) {
+                        list = (List<Base>) dao.query(
+                                QueryRegistry.get(QueryRegistry.Template.CIDATA_DOCUMENT_ACTIVE, clazz), chunk,
+                                at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                    } else {
+                        list = (List<Base>) dao.query(
+                                QueryRegistry.get(QueryRegistry.Template.CIDATA_DOCUMENT_TEMPORAL, clazz), chunk,
+                                date);
+                        list = addHistoric(dao, clazz, list, null, chunk, null, null, date);
+                    }
+                    for (Base b : list) {
+                        CIdata data = (CIdata) b;
+                        data.setLazyLoad();
+                        result.get(data.getCi()).add(data);
+                    }
+                }
+            }
+            // blobs without the binary data - the blobs are loaded on demand
+            // by CIblob.load()
+            for (int i = 0; i < ids.size(); i += LOAD_MANY_CHUNK_SIZE) {
+                ArrayList<Integer> chunk = new ArrayList<Integer>(
+                        ids.subList(i, Math.min(i + LOAD_MANY_CHUNK_SIZE, ids.size())));
+                HashMap<String, Object> map = new HashMap<String, Object>();
+                map.put("cis", chunk);
+                String condition;
+                if (date == null) {
+                    map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                    condition = "b.status = :status";
+                } else {
+                    map.put("date", date);
+                    condition = "b.validFrom <= :date and (b.validTo is null or b.validTo > :date)";
+                }
+                for (Object[] o : (List<Object[]>) dao.query("select distinct b.ci, b.uiElement from "
+                        + CIblob.class.getSimpleName() + " b where b.ci in :cis and " + condition, map)) {
+                    result.get((Integer) o[0]).addBlob((Long) o[1]);
+                }
+                if (date != null && getHistoryMode(CIblob.class) != HistoryMode.FULL) {
+                    // versions kept by HistoryDelta/HistoryArchive
+                    for (Base b : addHistoric(dao, CIblob.class, new ArrayList<Base>(), null, chunk, null, null,
+                            date)) {
+                        CIdata data = (CIdata) b;
+                        result.get(data.getCi()).addBlob(data.getUiElement());
+                    }
+                }
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Loads all data elements of a {@code CI}.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param ci
+     *            {@code CI} ID
+     * @param date
+     *            optional temporal bound
+     * @return {@code CI} document
+     * @throws Exception
+     */
+    public static CIDocument loadDocument(DAOiface dao, @DBkey(CI.class) int ci, Date date) throws Exception {
+        return loadDocuments(dao, new int[] { ci }, date).get(ci);
+    }
+
+    /**
+     * Adds the current data elements of one {@code CIdata} class to a
+     * {@code CI} document - {@code CIdataBatch} loads only the classes of the
+     * written {@code UIelement}s.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param doc
+     *            {@code CI} document
+     * @param clazz
+     *            data class to be loaded
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    static void loadData(DAOiface dao, CIDocument doc, Class<? extends CIdata> clazz) throws Exception {
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            ArrayList<Integer> cis = new ArrayList<Integer>();
+            cis.add(doc.getCi());
+            for (Base b : (List<Base>) dao.query(
+                    QueryRegistry.get(QueryRegistry.Template.CIDATA_DOCUMENT_ACTIVE, clazz), cis,
+                    at.treedb.db.HistorizationIface.STATUS.ACTIVE)) {
+                CIdata data = (CIdata) b;
+                data.setLazyLoad();
+                doc.add(data);
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+    }
+
+    private static ArrayList<Class<? extends CIdata>> dataClasses;
+
+    /**
+     * Returns the concrete {@code CIdata} classes loaded by
+     * {@code loadDocuments()}.
+     * 
+     * @return data classes
+     */
+    @SuppressWarnings("unchecked")
+    private static synchronized ArrayList<Class<? extends CIdata>> getDataClasses() {
+        if (dataClasses == null) {
+            ArrayList<Class<? extends CIdata>> list = new ArrayList<Class<? extends CIdata>>();
+            for (Class<?> c : DBentities.getClasses()) {
+                if (CIdata.class.isAssignableFrom(c) && !Modifier.isAbstract(c.getModifiers())
+                        && !c.equals(CIblob.class)) {
+                    list.add((Class<? extends CIdata>) c);
+                }
+            }
+            dataClasses = list;
+        }
+        return dataClasses;
+    }
+
+    /**
+     * Marks the binary data of a data element loaded without
+     * {@code callbackAfterLoad()} as not available.
+     */
+    protected void setLazyLoad() {
+    }
+
     /**
      * Generic data access.
      * 
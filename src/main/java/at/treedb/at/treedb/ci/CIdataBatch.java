@@ -0,0 +1,292 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import at.treedb.db.Base;
+import at.treedb.db.BatchException;
+import at.treedb.db.ClassSelector;
+import at.treedb.db.DAO;
+import at.treedb.db.DAOiface;
+import at.treedb.db.DBkey;
+import at.treedb.db.UpdateMap;
+import at.treedb.domain.Domain;
+import at.treedb.i18n.Locale;
+import at.treedb.user.User;
+
+/**
+ * <p>
+ * Collects the new values of the scalar data elements of a {@code CI}, diffs
+ * them against the current data elements and writes only the changed ones -
+ * new elements and updates are written with JDBC batching. The current data
+ * elements are loaded once per {@code CIdata} class on the first write of the
+ * class - classes without written values aren't loaded.
+ * </p>
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * CIdataBatch batch = new CIdataBatch(dao, ci);
+ * batch.setString(name, &quot;server01&quot;);
+ * batch.setLong(memory, 64);
+ * batch.write(dao, domain, user);
+ * </pre>
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class CIdataBatch {
+    private final DAOiface dao;
+    private final CI ci;
+    private final CIDocument doc;
+    // CIdata classes of the document, which are already loaded
+    private final HashSet<Class<? extends CIdata>> loaded = new HashSet<Class<? extends CIdata>>();
+    private final ArrayList<CIdata> created = new ArrayList<CIdata>();
+    private final LinkedHashMap<CIdata, UpdateMap> updates = new LinkedHashMap<CIdata, UpdateMap>();
+
+    /**
+     * Constructor
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object) used for loading the
+     *            current data elements
+     * @param ci
+     *            {@code CI}
+     * @throws Exception
+     */
+    public CIdataBatch(DAOiface dao, CI ci) throws Exception {
+        this.dao = dao;
+        this.ci = ci;
+        this.doc = new CIDocument(ci.getHistId(), null);
+    }
+
+    /**
+     * Returns the current data element of an {@code UIelement}.
+     */
+    private CIdata getCurrent(Class<? extends CIdata> clazz, long uiElement, Locale.LANGUAGE language)
+            throws Exception {
+        if (loaded.add(clazz)) {
+            CIdata.loadData(dao, doc, clazz);
+        }
+        for (CIdata data : doc.getAll(uiElement)) {
+            if (data.getClass().equals(clazz)
+                    && (language == null || ((CIi18nString) data).getLanguage() == language)) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a instanceof Date && b instanceof Date) {
+            // java.sql.Timestamp isn't equal to java.util.Date
+            return ((Date) a).getTime() == ((Date) b).getTime();
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Sets a {@code CIstring} value.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param text
+     *            value
+     * @throws Exception
+     */
+    public void setString(@DBkey(ClassSelector.class) long uiElement, String text) throws Exception {
+        CIstring s = (CIstring) getCurrent(CIstring.class, uiElement, null);
+        if (s == null) {
+            created.add(new CIstring(ci.getHistId(), ci.getCIType(), uiElement, text));
+        } else if (!isEqual(s.getData(), text)) {
+            UpdateMap map = new UpdateMap(CIstring.Fields.class);
+            map.addString(CIstring.Fields.text, text);
+            updates.put(s, map);
+        }
+    }
+
+    /**
+     * Sets a {@code CIlong} value.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param value
+     *            value
+     * @throws Exception
+     */
+    public void setLong(@DBkey(ClassSelector.class) long uiElement, long value) throws Exception {
+        CIlong l = (CIlong) getCurrent(CIlong.class, uiElement, null);
+        if (l == null) {
+            created.add(new CIlong(ci.getHistId(), ci.getCIType(), uiElement, value));
+        } else if (!isEqual(l.getData(), value)) {
+            UpdateMap map = new UpdateMap(CIlong.Fields.class);
+            map.addLong(CIlong.Fields.longValue, value);
+            updates.put(l, map);
+        }
+    }
+
+    /**
+     * Sets a {@code CIdouble} value.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param value
+     *            value
+     * @throws Exception
+     */
+    public void setDouble(@DBkey(ClassSelector.class) long uiElement, double value) throws Exception {
+        CIdouble d = (CIdouble) getCurrent(CIdouble.class, uiElement, null);
+        if (d == null) {
+            created.add(new CIdouble(ci.getHistId(), ci.getCIType(), uiElement, value));
+        } else if (!isEqual(d.getData(), value)) {
+            UpdateMap map = new UpdateMap(CIdouble.Fields.class);
+            map.addDouble(CIdouble.Fields.doubleValue, value);
+            updates.put(d, map);
+        }
+    }
+
+    /**
+     * Sets a {@code CIdate} value.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param value
+     *            value
+     * @throws Exception
+     */
+    public void setDate(@DBkey(ClassSelector.class) long uiElement, Date value) throws Exception {
+        CIdate d = (CIdate) getCurrent(CIdate.class, uiElement, null);
+        if (d == null) {
+            created.add(new CIdate(ci.getHistId(), ci.getCIType(), uiElement, value));
+        } else if (!isEqual(d.getData(), value)) {
+            UpdateMap map = new UpdateMap(CIdate.Fields.class);
+            map.addDate(CIdate.Fields.date, value);
+            updates.put(d, map);
+        }
+    }
+
+    /**
+     * Sets a {@code CIboolean} value.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param value
+     *            value
+     * @throws Exception
+     */
+    public void setBoolean(@DBkey(ClassSelector.class) long uiElement, boolean value) throws Exception {
+        CIboolean b = (CIboolean) getCurrent(CIboolean.class, uiElement, null);
+        if (b == null) {
+            created.add(new CIboolean(ci.getHistId(), ci.getCIType(), uiElement, value));
+        } else if (!isEqual(b.getData(), value)) {
+            UpdateMap map = new UpdateMap(CIboolean.Fields.class);
+            map.addBoolean(CIboolean.Fields.booleanValue, value);
+            updates.put(b, map);
+        }
+    }
+
+    /**
+     * Sets a {@code CIi18nString} value.
+     *
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param text
+     *            value
+     * @param language
+     *            language of the value
+     * @throws Exception
+     */
+    public void setI18nString(@DBkey(ClassSelector.class) long uiElement, String text, Locale.LANGUAGE language)
+            throws Exception {
+        CIi18nString s = (CIi18nString) getCurrent(CIi18nString.class, uiElement, language);
+        if (s == null) {
+            created.add(new CIi18nString(ci.getHistId(), ci.getCIType(), uiElement, text, language));
+        } else if (!isEqual(s.getData(), text)) {
+            UpdateMap map = new UpdateMap(CIi18nString.Fields.class);
+            map.add(CIi18nString.Fields.text, text);
+            updates.put(s, map);
+        }
+    }
+
+    /**
+     * Returns the number of pending writes.
+     *
+     * @return number of new and changed data elements
+     */
+    public int size() {
+        return created.size() + updates.size();
+    }
+
+    /**
+     * Writes the new and changed data elements within one transaction. A
+     * batch without changes doesn't access the DB. Failed updates are
+     * reported together by a {@code BatchException} - a local transaction is
+     * rolled back, the transaction of a caller has to be rolled back by the
+     * caller.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param domain
+     *            {@code Domain} of the data elements
+     * @param user
+     *            {@code User} who writes the data elements
+     * @return number of written data elements
+     * @throws BatchException
+     *             if updates failed
+     * @throws Exception
+     */
+    public int write(DAOiface dao, Domain domain, User user) throws Exception {
+        int count = size();
+        if (count == 0) {
+            return 0;
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            if (!created.isEmpty()) {
+                Base.saveAll(dao, domain, user, created);
+            }
+            if (!updates.isEmpty()) {
+                HashMap<Base, Exception> failed = Base.updateAll(dao, user, updates);
+                if (!failed.isEmpty()) {
+                    throw new BatchException("CIdataBatch.write(): Updates of CI " + ci.getHistId(), failed);
+                }
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        created.clear();
+        updates.clear();
+        return count;
+    }
+}
@@ -43,7 +43,8 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 // LDOR: 30.11.2013
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIdate extends CIdata {
     @Temporal(TemporalType.TIMESTAMP)
     @Column(name = "m_date")
@@ -62,7 +63,7 @@ public class CIdate extends CIdata {
     protected CIdate() {
     }
 
-    private CIdate(int ci, int ciType, long uiElement, Date date) {
+    CIdate(int ci, int ciType, long uiElement, Date date) {
         super(ci, ciType, uiElement);
         this.date = date;
     }
@@ -40,7 +40,8 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 // LDOR: 30.11.2013
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIdouble extends CIdata {
     private double doubleValue;
 
@@ -57,7 +58,7 @@ public class CIdouble extends CIdata {
     protected CIdouble() {
     }
 
-    private CIdouble(int ci, int ciType, long uiElement, double value) {
+    CIdouble(int ci, int ciType, long uiElement, double value) {
         super(ci, ciType, uiElement);
         this.doubleValue = value;
     }
@@ -54,7 +54,7 @@ import at.treedb.util.ArchiveFileAccess;
 @SuppressWarnings("serial")
 @Entity
 @Table(indexes = { @Index(columnList = "name"), @Index(columnList = "ci"), @Index(columnList = "uiElement"),
-        @Index(columnList = "histId") })
+        @Index(columnList = "histId,validFrom") })
 // LDR: 01.12.2013
 public class CIfile extends CIdata {
     // create an index
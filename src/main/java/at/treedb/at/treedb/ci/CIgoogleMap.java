@@ -35,7 +35,8 @@ import at.treedb.user.User;
  * 
  */
 @SuppressWarnings("serial")
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 @Entity
 public class CIgoogleMap extends CIdata {
 
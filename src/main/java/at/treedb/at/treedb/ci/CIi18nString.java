@@ -15,6 +15,7 @@
 
 package at.treedb.ci;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
@@ -48,7 +49,8 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 // LDR: 12.12.2013
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIi18nString extends CIdata {
     // http://stackoverflow.com/questions/25885992/derby-a-truncation-error-was-encountered-trying-to-shrink-clob-stream-value
     // @Column(columnDefinition="clob")
@@ -71,7 +73,7 @@ public class CIi18nString extends CIdata {
     protected CIi18nString() {
     }
 
-    private CIi18nString(int ci, int ciType, long uiElement, String text, Locale.LANGUAGE language) {
+    CIi18nString(int ci, int ciType, long uiElement, String text, Locale.LANGUAGE language) {
         super(ci, ciType, uiElement);
         this.text = text;
         this.language = language;
@@ -215,8 +217,12 @@ public class CIi18nString extends CIdata {
      */
     static public List<Base> search(Domain domain, String value, Locale.LANGUAGE language, EnumSet<Base.Search> flags,
             SearchLimit limit) throws Exception {
-        return Base.search(domain, CIi18nString.class, EnumSet.of(Fields.text), value,
-                new SearchCriteria[] { new SearchCriteria(Fields.language, language) }, flags, limit, false);
+        SearchCriteria[] criteria = TrigramIndex.getCriteria(CIi18nString.class, domain, value,
+                new SearchCriteria[] { new SearchCriteria(Fields.language, language) }, flags);
+        if (criteria == null) {
+            return new ArrayList<Base>();
+        }
+        return Base.search(domain, CIi18nString.class, EnumSet.of(Fields.text), value, criteria, flags, limit, false);
     }
 
     @Override
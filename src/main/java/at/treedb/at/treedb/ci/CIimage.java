@@ -64,7 +64,7 @@ import at.treedb.user.User;
 // LDOR: 24.06.2014
 @Entity
 @Table(indexes = { @Index(columnList = "name"), @Index(columnList = "ci"), @Index(columnList = "uiElement"),
-        @Index(columnList = "histId") })
+        @Index(columnList = "histId,validFrom") })
 public class CIimage extends CIdata {
 
     private static final long serialVersionUID = 1L;
@@ -347,6 +347,11 @@ public class CIimage extends CIdata {
         return true;
     }
 
+    @Override
+    protected void setLazyLoad() {
+        lazyLoad = true;
+    }
+
     /**
      * Loads a {@code CIimage} per name.
      * 
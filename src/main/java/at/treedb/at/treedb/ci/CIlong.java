@@ -40,7 +40,8 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 // LDR: 25.08.2013
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIlong extends CIdata {
     private long longValue;
 
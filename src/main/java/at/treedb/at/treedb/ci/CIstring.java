@@ -14,10 +14,12 @@
  */
 package at.treedb.ci;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -48,7 +50,8 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 // LDR: 12.12.2013
 @Entity
-@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "ci"), @Index(columnList = "uiElement"),
+        @Index(columnList = "histId,validFrom") })
 public class CIstring extends CIdata {
     @Lob
     @Column(length = 10485760) // 10MB
@@ -67,7 +70,7 @@ public class CIstring extends CIdata {
     protected CIstring() {
     }
 
-    private CIstring(int ci, int ciType, long uiElement, String text) {
+    CIstring(int ci, int ciType, long uiElement, String text) {
         super(ci, ciType, uiElement);
         this.text = text;
     }
@@ -223,6 +226,10 @@ public class CIstring extends CIdata {
      */
     static public List<Base> search(Domain domain, String pattern, SearchCriteria[] criteria,
             EnumSet<Base.Search> flags, SearchLimit limit) throws Exception {
+        criteria = TrigramIndex.getCriteria(CIstring.class, domain, pattern, criteria, flags);
+        if (criteria == null) {
+            return new ArrayList<Base>();
+        }
         return Base.search(domain, CIstring.class, EnumSet.of(CIstring.Fields.text), pattern, criteria, flags, limit,
                 false);
     }
@@ -260,15 +267,32 @@ public class CIstring extends CIdata {
             // load only active entities
             if (date == null) {
                 map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-                list = (List<Base>) dao.query(
-                        "select data from " + CIstring.class.getSimpleName()
-                                + " data where data.ciType = :ciType and data.status = :status and data.text like :search",
-                        map);
+                String cis = "";
+                if (TrigramIndex.isEnabled(CIstring.class)) {
+                    CItype type = (CItype) Base.load(dao, CItype.class, ciType, null);
+                    Set<Integer> set = type == null ? null
+                            : TrigramIndex.getCandidates(CIstring.class, type.getDomain(), ciType, 0, search);
+                    if (set != null && set.isEmpty()) {
+                        list = new ArrayList<Base>();
+                    } else if (set != null) {
+                        map.put("cis", set);
+                        cis = " and data.ci in :cis";
+                    }
+                }
+                if (list == null) {
+                    list = (List<Base>) dao.query("select data from " + CIstring.class.getSimpleName()
+                            + " data where data.ciType = :ciType and data.status = :status and data.text like :search"
+                            + cis, map);
+                }
             } else {
                 map.put("date", date);
                 list = (List<Base>) dao.query("select data from " + CIstring.class.getSimpleName()
-                        + " data where data.ci = :ci and data.uiElement = :uiElement and data.lastModified < :date and (data.deletionDate = null or data.deletionDate > :date) "
-                        + "and data.text like :search order by data.version having max(data.version)", map);
+                        + " data where data.ciType = :ciType and data.validFrom <= :date and (data.validTo is null or data.validTo > :date) and data.text like :search",
+                        map);
+                HashMap<String, Object> fields = new HashMap<String, Object>();
+                fields.put("ciType", ciType);
+                list = addHistoric(dao, CIstring.class, list, null, null, fields, new SearchCriteria[] {
+                        new SearchCriteria(Fields.text, SearchCriteria.ComparisonOperator.LIKE, search) }, date);
             }
 
             if (localDAO) {
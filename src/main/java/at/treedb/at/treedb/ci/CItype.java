@@ -311,6 +311,7 @@ public class CItype extends Base implements Cloneable, Connectable {
      */
     public void setUItab(ArrayList<UItab> tabs) {
         uiTabs = tabs;
+        fieldMap.clear();
         for (UItab t : tabs) {
             for (UIelement u : t.getUIelements()) {
                 fieldMap.put(u.getFieldName(), u);
@@ -45,7 +45,7 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 // LDR: 19.12.2013
 @Entity
-@Table(indexes = { @Index(columnList = "name"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "name"), @Index(columnList = "histId,validFrom") })
 public class Image extends Base implements Cloneable {
 
     public enum Fields {
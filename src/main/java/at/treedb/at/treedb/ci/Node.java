@@ -20,6 +20,8 @@ import java.util.HashMap;
 import java.util.List;
 
 import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 import at.treedb.db.Base;
 import at.treedb.db.ClassID;
@@ -27,6 +29,7 @@ import at.treedb.db.ClassSelector;
 import at.treedb.db.DAO;
 import at.treedb.db.DAOiface;
 import at.treedb.db.DBkey;
+import at.treedb.db.QueryRegistry;
 import at.treedb.domain.Domain;
 import at.treedb.user.User;
 
@@ -37,6 +40,7 @@ import at.treedb.user.User;
  */
 @SuppressWarnings("serial")
 @Entity
+@Table(indexes = { @Index(columnList = "child,parent,validFrom"), @Index(columnList = "histId,validFrom") })
 public class Node extends Base implements Cloneable, ClassSelector {
     /**
      * node types
@@ -134,11 +138,11 @@ public class Node extends Base implements Cloneable, ClassSelector {
             if (child.getHistId() == parent.getHistId()) {
                 throw new Exception("Node.create(): Child and parent are identical!");
             }
-            if (((Connectable) parent).getChildren().contains(child)) {
+            if (domain.getGraph().getChildren((Connectable) parent).contains(child)) {
                 throw new Exception("Node.create(): Child is already conncted with the parent!");
             }
         }
-        if (((Connectable) child).getChildren().contains(parent)) {
+        if (domain.getGraph().getChildren((Connectable) child).contains(parent)) {
             throw new Exception("Node.create(): Circular connection!");
         }
         // special handling for CItype: parent
@@ -226,16 +230,17 @@ public class Node extends Base implements Cloneable, ClassSelector {
         DAOiface dao = DAO.getDAO();
         try {
             dao.beginTransaction();
-            HashMap<String, Object> map = new HashMap<String, Object>();
-            map.put("child", child);
-            map.put("parent", parent);
-            map.put("date", date);
-            List<Node> list = null;
-            list = (List<Node>) dao.query(
-                    "select n from Node n where n.child = :child and n.parent = :parent and n.lastModified < :date and (n.deletionDate = null or n.deletionDate > :date) order by n.version desc",
-                    0, 1, map);
-            if (list.size() == 1) {
-                node = list.get(0);
+            List<Node> list = (List<Node>) dao.query(
+                    QueryRegistry.get(QueryRegistry.Template.NODE_TEMPORAL, Node.class), 0, 1,
+                    new Object[] { child, parent, date });
+            HashMap<String, Object> fields = new HashMap<String, Object>();
+            fields.put("child", child);
+            fields.put("parent", parent);
+            // historic versions without a full copy in the entity table
+            for (Base b : addHistoric(dao, Node.class, list, null, null, fields, null, date)) {
+                if (node == null || b.getVersion() > node.getVersion()) {
+                    node = (Node) b;
+                }
             }
 
             dao.endTransaction();
@@ -0,0 +1,455 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.treedb.db.Base;
+import at.treedb.db.ClassSelector;
+import at.treedb.db.DAOiface;
+import at.treedb.db.DBkey;
+import at.treedb.db.FieldAccessor;
+import at.treedb.db.HistorizationIface.STATUS;
+
+/**
+ * <p>
+ * Ordered in-memory index of the values of the typed {@code CIdata} classes
+ * {@code CIlong}, {@code CIdouble}, {@code CIdate} and {@code CIbigDecimal},
+ * keyed by {@code CItype}, {@code UIelement} and value. The index answers
+ * range and top-K queries with {@code CI} IDs, e.g. all servers with more than
+ * 64GB RAM.
+ * </p>
+ * <p>
+ * A partition ({@code CItype}/{@code UIelement}) is loaded with a single
+ * query on its first use and maintained by the write paths of {@code Base}
+ * after the commit, e.g. by {@code createOrUpdate()}. Unless the index is
+ * declared as authoritative, every query first reads the data elements
+ * modified or deleted since the last query, which covers the writes of other
+ * processes. Bulk statements drop the partitions, the least recently used
+ * partitions are dropped, if the maximal number of partitions is exceeded.
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class RangeIndex {
+    // class -> value field
+    private static final HashMap<Class<?>, String> fields = new HashMap<Class<?>, String>();
+    // overlap of the synchronization queries in milliseconds
+    private static final long SYNC_OVERLAP = 5000;
+    private static volatile boolean authoritative;
+    private static volatile int maxPartitions = 1024;
+    // least recently used partition first - guarded by itself
+    @SuppressWarnings("serial")
+    private static final LinkedHashMap<Key, Partition> partitions = new LinkedHashMap<Key, Partition>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Partition> eldest) {
+            return size() > maxPartitions;
+        }
+    };
+
+    static {
+        fields.put(CIlong.class, CIlong.Fields.longValue.name());
+        fields.put(CIdouble.class, CIdouble.Fields.doubleValue.name());
+        fields.put(CIdate.class, CIdate.Fields.date.name());
+        fields.put(CIbigDecimal.class, CIbigDecimal.Fields.bigDecimalValue.name());
+    }
+
+    /**
+     * Partition key - class, {@code CItype} and {@code UIelement}.
+     */
+    private static class Key {
+        private final Class<?> clazz;
+        private final int ciType;
+        private final long uiElement;
+
+        Key(Class<?> clazz, int ciType, long uiElement) {
+            this.clazz = clazz;
+            this.ciType = ciType;
+            this.uiElement = uiElement;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * clazz.hashCode() + ciType) * 31 + (int) (uiElement ^ (uiElement >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.clazz == clazz && k.ciType == ciType && k.uiElement == uiElement;
+        }
+    }
+
+    /**
+     * Values of a {@code CItype}/{@code UIelement}.
+     */
+    private static class Partition {
+        // value -> CI IDs
+        private final ConcurrentSkipListMap<Object, Set<Integer>> values =
+                new ConcurrentSkipListMap<Object, Set<Integer>>();
+        // CI ID -> value
+        private final ConcurrentHashMap<Integer, Object> cis = new ConcurrentHashMap<Integer, Object>();
+        // CI IDs written during the initial load, {@code null} if the
+        // partition is loaded
+        private HashSet<Integer> written = new HashSet<Integer>();
+        // single-flight of the initial load
+        private final Object loadLock = new Object();
+        // start of the last synchronization with the DB
+        private final AtomicLong synced = new AtomicLong();
+
+        synchronized boolean isLoaded() {
+            return written == null;
+        }
+
+        synchronized void put(int ci, Object value) {
+            set(ci, value);
+            if (written != null) {
+                written.add(ci);
+            }
+        }
+
+        synchronized void remove(int ci) {
+            unset(ci);
+            if (written != null) {
+                written.add(ci);
+            }
+        }
+
+        /**
+         * Completes the initial load - rows of {@code CI}s written during the
+         * load are outdated and skipped.
+         */
+        synchronized void load(Class<?> clazz, List<Object[]> rows) {
+            for (Object[] o : rows) {
+                if (o[1] != null && !written.contains(o[0])) {
+                    set((Integer) o[0], toKey(clazz, o[1]));
+                }
+            }
+            written = null;
+        }
+
+        void synced(long time) {
+            long old = synced.get();
+            while (old < time && !synced.compareAndSet(old, time)) {
+                old = synced.get();
+            }
+        }
+
+        private void set(int ci, Object value) {
+            unset(ci);
+            Set<Integer> set = values.get(value);
+            if (set == null) {
+                set = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+                values.put(value, set);
+            }
+            set.add(ci);
+            cis.put(ci, value);
+        }
+
+        private void unset(int ci) {
+            Object value = cis.remove(ci);
+            if (value != null) {
+                Set<Integer> set = values.get(value);
+                if (set != null) {
+                    set.remove(ci);
+                    if (set.isEmpty()) {
+                        values.remove(value);
+                    }
+                }
+            }
+        }
+    }
+
+    private RangeIndex() {
+    }
+
+    /**
+     * Returns the {@code CI}s with a value inside a range, ordered by value.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            data class - {@code CIlong}, {@code CIdouble}, {@code CIdate}
+     *            or {@code CIbigDecimal}
+     * @param ciType
+     *            {@code CItype} ID
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param from
+     *            lower bound, {@code null} for no lower bound
+     * @param fromInclusive
+     *            {@code true} if the lower bound is included
+     * @param to
+     *            upper bound, {@code null} for no upper bound
+     * @param toInclusive
+     *            {@code true} if the upper bound is included
+     * @return {@code CI} IDs
+     * @throws Exception
+     */
+    public static List<Integer> range(DAOiface dao, Class<? extends CIdata> clazz, @DBkey(CItype.class) int ciType,
+            @DBkey(ClassSelector.class) long uiElement, Object from, boolean fromInclusive, Object to,
+            boolean toInclusive) throws Exception {
+        NavigableMap<Object, Set<Integer>> map = getPartition(dao, clazz, ciType, uiElement).values;
+        if (from != null && to != null) {
+            map = map.subMap(toKey(clazz, from), fromInclusive, toKey(clazz, to), toInclusive);
+        } else if (from != null) {
+            map = map.tailMap(toKey(clazz, from), fromInclusive);
+        } else if (to != null) {
+            map = map.headMap(toKey(clazz, to), toInclusive);
+        }
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (Set<Integer> set : map.values()) {
+            list.addAll(set);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the {@code CI}s with the K highest or lowest values.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            data class - {@code CIlong}, {@code CIdouble}, {@code CIdate}
+     *            or {@code CIbigDecimal}
+     * @param ciType
+     *            {@code CItype} ID
+     * @param uiElement
+     *            {@code UIelement} ID
+     * @param k
+     *            number of {@code CI}s
+     * @param highest
+     *            {@code true} for the highest values, {@code false} for the
+     *            lowest values
+     * @return {@code CI} IDs, ordered by value
+     * @throws Exception
+     */
+    public static List<Integer> top(DAOiface dao, Class<? extends CIdata> clazz, @DBkey(CItype.class) int ciType,
+            @DBkey(ClassSelector.class) long uiElement, int k, boolean highest) throws Exception {
+        NavigableMap<Object, Set<Integer>> map = getPartition(dao, clazz, ciType, uiElement).values;
+        if (highest) {
+            map = map.descendingMap();
+        }
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (Set<Integer> set : map.values()) {
+            for (Integer ci : set) {
+                if (list.size() == k) {
+                    return list;
+                }
+                list.add(ci);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Declares the index as authoritative: the writes of other processes
+     * aren't read before answering a query. Only allowed, if the application
+     * is the only writer of the DB.
+     *
+     * @param authoritative
+     *            {@code true} for trusting the partitions, {@code false}
+     *            (default) for reading the data elements modified by other
+     *            processes
+     */
+    public static void setAuthoritative(boolean authoritative) {
+        RangeIndex.authoritative = authoritative;
+    }
+
+    /**
+     * Sets the maximal number of partitions - the least recently used
+     * partition is dropped.
+     *
+     * @param max
+     *            maximal number of partitions
+     */
+    public static void setMaxPartitions(int max) {
+        maxPartitions = max;
+    }
+
+    /**
+     * Drops all partitions, e.g. after a bulk import.
+     */
+    public static void clear() {
+        synchronized (partitions) {
+            partitions.clear();
+        }
+    }
+
+    /**
+     * Registers the maintenance of the partition for a written data element -
+     * the partition is updated after the commit.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param base
+     *            saved, updated or deleted entity
+     * @throws Exception
+     */
+    public static void update(DAOiface dao, Base base) throws Exception {
+        String field = fields.get(base.getClass());
+        if (field == null) {
+            return;
+        }
+        final CIdata data = (CIdata) base;
+        final Key key = new Key(base.getClass(), data.getCiType(), data.getUiElement());
+        Object value = FieldAccessor.getAccessor(base.getClass()).getField(field).get(base);
+        final Object k = base.getHistStatus() == STATUS.ACTIVE && value != null ? toKey(base.getClass(), value)
+                : null;
+        if (k == null && base.getHistStatus() == STATUS.UPDATED) {
+            // superseded version - the active version is written separately
+            return;
+        }
+        dao.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                Partition p;
+                synchronized (partitions) {
+                    p = partitions.get(key);
+                }
+                if (p == null) {
+                    return;
+                }
+                if (k != null) {
+                    p.put(data.getCi(), k);
+                } else {
+                    p.remove(data.getCi());
+                }
+            }
+        });
+    }
+
+    /**
+     * Converts a value to the key type of a class.
+     */
+    private static Object toKey(Class<?> clazz, Object value) {
+        if (clazz.equals(CIlong.class)) {
+            return ((Number) value).longValue();
+        } else if (clazz.equals(CIdouble.class)) {
+            return ((Number) value).doubleValue();
+        } else if (clazz.equals(CIbigDecimal.class)) {
+            return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+        }
+        // copy - dates are mutable
+        return new Date(((Date) value).getTime());
+    }
+
+    /**
+     * Returns a loaded and synchronized partition. The rows read by the
+     * queries contain the uncommitted writes of the transaction - the
+     * partition is dropped after a rollback.
+     */
+    @SuppressWarnings("unchecked")
+    private static Partition getPartition(DAOiface dao, Class<? extends CIdata> clazz, int ciType, long uiElement)
+            throws Exception {
+        String field = fields.get(clazz);
+        if (field == null) {
+            throw new Exception("RangeIndex.getPartition(): class isn't supported: " + clazz.getSimpleName());
+        }
+        final Key key = new Key(clazz, ciType, uiElement);
+        Partition p;
+        synchronized (partitions) {
+            p = partitions.get(key);
+            if (p == null) {
+                p = new Partition();
+                partitions.put(key, p);
+            }
+        }
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("ciType", ciType);
+        map.put("uiElement", uiElement);
+        boolean changed = false;
+        if (!p.isLoaded()) {
+            synchronized (p.loadLock) {
+                if (!p.isLoaded()) {
+                    long start = System.currentTimeMillis();
+                    map.put("status", STATUS.ACTIVE);
+                    List<Object[]> rows = (List<Object[]>) dao.query("select d.ci, d." + field + " from "
+                            + clazz.getSimpleName()
+                            + " d where d.ciType = :ciType and d.uiElement = :uiElement and d.status = :status", map);
+                    p.synced(start);
+                    p.load(clazz, rows);
+                    changed = true;
+                }
+            }
+        } else if (!authoritative) {
+            // writes of other processes - overlap for clock differences
+            long start = System.currentTimeMillis();
+            map.put("since", new Date(p.synced.get() - SYNC_OVERLAP));
+            List<Object[]> rows = (List<Object[]>) dao.query("select d.ci, d." + field + ", d.status from "
+                    + clazz.getSimpleName() + " d where d.ciType = :ciType and d.uiElement = :uiElement"
+                    + " and (d.lastModified >= :since or d.deletionDate >= :since)", map);
+            // deletions first - a CI may have a deleted and a new data element
+            for (Object[] o : rows) {
+                if (o[2] == STATUS.DELETED) {
+                    p.remove((Integer) o[0]);
+                    changed = true;
+                }
+            }
+            for (Object[] o : rows) {
+                if (o[2] == STATUS.ACTIVE) {
+                    if (o[1] != null) {
+                        p.put((Integer) o[0], toKey(clazz, o[1]));
+                    } else {
+                        p.remove((Integer) o[0]);
+                    }
+                    changed = true;
+                }
+            }
+            p.synced(start);
+        }
+        if (changed) {
+            final Partition partition = p;
+            final boolean[] committed = new boolean[1];
+            dao.afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    committed[0] = true;
+                }
+            });
+            dao.afterCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    if (!committed[0]) {
+                        synchronized (partitions) {
+                            if (partitions.get(key) == partition) {
+                                partitions.remove(key);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        return p;
+    }
+}
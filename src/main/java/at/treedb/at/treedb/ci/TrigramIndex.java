@@ -0,0 +1,626 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import at.treedb.db.Base;
+import at.treedb.db.DAO;
+import at.treedb.db.DAOiface;
+import at.treedb.db.FieldAccessor;
+import at.treedb.db.HistorizationIface.STATUS;
+import at.treedb.db.SearchCriteria;
+import at.treedb.domain.Domain;
+
+/**
+ * <p>
+ * Trigram index of the text of {@code CIdata} types like {@code CIstring} or
+ * {@code CIi18nString}, used for infix searches. The index is partitioned by
+ * class and domain and returns the candidate {@code CI}s of a {@code like}
+ * pattern, optionally restricted to a {@code CItype} and an
+ * {@code UIelement}. The candidates have to be verified by the DB query.
+ * </p>
+ * <p>
+ * A partition is built in the background after the first search or by
+ * {@code rebuild()}, which loads the data of a domain in parallel. Until the
+ * partition is built, the searches fall back to the table scan. The write
+ * paths of {@code Base} keep the partitions up to date after the commit.
+ * Writes of other processes are found by a query of the data elements
+ * modified since the last search, unless the index is declared as
+ * authoritative. Bulk statements drop the partitions.
+ * </p>
+ * <p>
+ * Usage: {@code TrigramIndex.enable(CIstring.class, CIstring.Fields.text)}
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class TrigramIndex {
+    private static final Logger LOGGER = Logger.getLogger(TrigramIndex.class.getName());
+    /**
+     * Maximum number of candidate {@code CI}s - larger candidate sets fall
+     * back to the table scan.
+     */
+    public static final int MAX_CANDIDATES = 1000;
+    // number of data elements loaded per query by rebuild()
+    private static final int LOAD_CHUNK_SIZE = 50;
+    // overlap of the synchronization queries in milliseconds
+    private static final long SYNC_OVERLAP = 5000;
+    private static volatile boolean authoritative;
+
+    // class -> indexed text field
+    private static final ConcurrentHashMap<Class<?>, String> fields = new ConcurrentHashMap<Class<?>, String>();
+    private static final ConcurrentHashMap<Key, Partition> partitions = new ConcurrentHashMap<Key, Partition>();
+
+    /**
+     * Partition key - class and domain.
+     */
+    private static class Key {
+        private final Class<?> clazz;
+        private final int domain;
+
+        Key(Class<?> clazz, int domain) {
+            this.clazz = clazz;
+            this.domain = domain;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clazz.hashCode() + domain;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.clazz == clazz && k.domain == domain;
+        }
+    }
+
+    /**
+     * Indexed data element.
+     */
+    private static class Row {
+        private final int ci;
+        private final int ciType;
+        private final long uiElement;
+        private final long[] trigrams;
+
+        Row(int ci, int ciType, long uiElement, String text) {
+            this.ci = ci;
+            this.ciType = ciType;
+            this.uiElement = uiElement;
+            this.trigrams = getTrigrams(text);
+        }
+    }
+
+    /**
+     * Trigram index of a class/domain.
+     */
+    private static class Partition {
+        // trigram -> DB IDs of the data elements
+        private final ConcurrentHashMap<Long, Set<Integer>> postings = new ConcurrentHashMap<Long, Set<Integer>>();
+        private final ConcurrentHashMap<Integer, Row> rows = new ConcurrentHashMap<Integer, Row>();
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        // DB IDs written during the build, {@code null} if the partition is
+        // built
+        private HashSet<Integer> written = new HashSet<Integer>();
+        // start of the last synchronization with the DB
+        private final AtomicLong synced = new AtomicLong();
+        private volatile Exception failure;
+        private volatile int count;
+
+        synchronized boolean isBuilt() {
+            return written == null;
+        }
+
+        synchronized void put(int id, Row row) {
+            set(id, row);
+            if (written != null) {
+                written.add(id);
+            }
+        }
+
+        synchronized void remove(int id) {
+            unset(id);
+            if (written != null) {
+                written.add(id);
+            }
+        }
+
+        /**
+         * Adds a loaded row - rows of data elements written during the build
+         * are outdated and skipped.
+         */
+        synchronized void load(int id, Row row) {
+            if (!written.contains(id)) {
+                set(id, row);
+            }
+        }
+
+        synchronized void built() {
+            written = null;
+        }
+
+        void synced(long time) {
+            long old = synced.get();
+            while (old < time && !synced.compareAndSet(old, time)) {
+                old = synced.get();
+            }
+        }
+
+        /**
+         * Waits for the end of the build.
+         *
+         * @return number of indexed data elements
+         * @throws Exception
+         *             failure of the build
+         */
+        int await() throws Exception {
+            loaded.await();
+            if (failure != null) {
+                throw new Exception("TrigramIndex.rebuild(): build of the partition failed", failure);
+            }
+            return count;
+        }
+
+        private void set(int id, Row row) {
+            unset(id);
+            for (long t : row.trigrams) {
+                Set<Integer> set = postings.get(t);
+                if (set == null) {
+                    set = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+                    postings.put(t, set);
+                }
+                set.add(id);
+            }
+            rows.put(id, row);
+        }
+
+        private void unset(int id) {
+            Row row = rows.remove(id);
+            if (row != null) {
+                for (long t : row.trigrams) {
+                    Set<Integer> set = postings.get(t);
+                    if (set != null) {
+                        set.remove(id);
+                        if (set.isEmpty()) {
+                            postings.remove(t);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private TrigramIndex() {
+    }
+
+    /**
+     * Enables the index for a {@code CIdata} class.
+     *
+     * @param clazz
+     *            data class
+     * @param field
+     *            text field
+     */
+    public static void enable(Class<? extends CIdata> clazz, Enum<?> field) {
+        fields.put(clazz, field.name());
+    }
+
+    /**
+     * Disables the index for a {@code CIdata} class and drops its partitions.
+     *
+     * @param clazz
+     *            data class
+     */
+    public static void disable(Class<? extends CIdata> clazz) {
+        fields.remove(clazz);
+        for (Key k : partitions.keySet()) {
+            if (k.clazz == clazz) {
+                partitions.remove(k);
+            }
+        }
+    }
+
+    /**
+     * Declares the index as authoritative: the writes of other processes
+     * aren't searched before using a partition. Only allowed, if the
+     * application is the only writer of the DB.
+     *
+     * @param authoritative
+     *            {@code true} for trusting the partitions, {@code false}
+     *            (default) for searching the data elements modified by other
+     *            processes
+     */
+    public static void setAuthoritative(boolean authoritative) {
+        TrigramIndex.authoritative = authoritative;
+    }
+
+    /**
+     * Checks if the index is enabled for a class.
+     *
+     * @param clazz
+     *            data class
+     * @return {@code true} if the index is enabled, {@code false} if not
+     */
+    public static boolean isEnabled(Class<?> clazz) {
+        return fields.containsKey(clazz);
+    }
+
+    /**
+     * Drops all partitions, e.g. after a bulk import.
+     */
+    public static void clear() {
+        partitions.clear();
+    }
+
+    /**
+     * Returns the candidate {@code CI}s of a search pattern. A missing
+     * partition is built in the background - the search falls back to the
+     * table scan until the partition is built.
+     *
+     * @param clazz
+     *            data class
+     * @param domain
+     *            {@code Domain} ID
+     * @param ciType
+     *            {@code CItype} ID, {@code 0} for all types
+     * @param uiElement
+     *            {@code UIelement} ID, {@code 0} for all elements
+     * @param pattern
+     *            search pattern, using the {@code like} wildcards
+     * @return {@code CI} IDs of the candidates, or {@code null} if the index
+     *         can't restrict the search
+     * @throws Exception
+     */
+    public static Set<Integer> getCandidates(Class<? extends CIdata> clazz, int domain, int ciType, long uiElement,
+            String pattern) throws Exception {
+        if (!fields.containsKey(clazz)) {
+            return null;
+        }
+        HashSet<Long> grams = new HashSet<Long>();
+        for (String s : pattern.toUpperCase().split("[%_]")) {
+            for (long t : getTrigrams(s)) {
+                grams.add(t);
+            }
+        }
+        if (grams.isEmpty()) {
+            return null;
+        }
+        Partition p = getPartition(clazz, domain);
+        if (p == null) {
+            return null;
+        }
+        // start with the most selective trigram
+        ArrayList<Set<Integer>> sets = new ArrayList<Set<Integer>>();
+        for (Long t : grams) {
+            Set<Integer> set = p.postings.get(t);
+            if (set == null) {
+                return Collections.emptySet();
+            }
+            sets.add(set);
+        }
+        Set<Integer> smallest = sets.get(0);
+        for (Set<Integer> set : sets) {
+            if (set.size() < smallest.size()) {
+                smallest = set;
+            }
+        }
+        HashSet<Integer> result = new HashSet<Integer>();
+        for (Integer id : smallest) {
+            boolean match = true;
+            for (Set<Integer> set : sets) {
+                if (set != smallest && !set.contains(id)) {
+                    match = false;
+                    break;
+                }
+            }
+            Row row = p.rows.get(id);
+            if (match && row != null && (ciType == 0 || row.ciType == ciType)
+                    && (uiElement == 0 || row.uiElement == uiElement)) {
+                result.add(row.ci);
+                if (result.size() > MAX_CANDIDATES) {
+                    return null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Extends the criteria of a {@code Base.search()} by the candidate
+     * {@code CI}s of the index.
+     *
+     * @param clazz
+     *            data class
+     * @param domain
+     *            {@code Domain} of the search, the index isn't used for
+     *            searches over all domains
+     * @param pattern
+     *            search pattern
+     * @param criteria
+     *            search criteria
+     * @param flags
+     *            search flags, the index isn't used for historic searches
+     * @return extended search criteria, or {@code null} if no {@code CI}
+     *         matches
+     * @throws Exception
+     */
+    public static SearchCriteria[] getCriteria(Class<? extends CIdata> clazz, Domain domain, String pattern,
+            SearchCriteria[] criteria, EnumSet<Base.Search> flags) throws Exception {
+        if (domain == null || (flags != null && flags.contains(Base.Search.HISTORIC))) {
+            return criteria;
+        }
+        Set<Integer> cis = getCandidates(clazz, domain.getHistId(), 0, 0, pattern);
+        if (cis == null) {
+            return criteria;
+        }
+        if (cis.isEmpty()) {
+            return null;
+        }
+        ArrayList<SearchCriteria> list = new ArrayList<SearchCriteria>();
+        if (criteria != null) {
+            list.addAll(Arrays.asList(criteria));
+        }
+        list.add(new SearchCriteria(CIdata.BaseFields.ci, SearchCriteria.ComparisonOperator.IN, cis));
+        return list.toArray(new SearchCriteria[list.size()]);
+    }
+
+    /**
+     * Rebuilds the partition of a class/domain from the DB. The data elements
+     * are loaded in chunks by a pool of threads, each using its own
+     * {@code DAOiface}. A running build of the partition is awaited instead
+     * of starting a second one.
+     *
+     * @param clazz
+     *            data class
+     * @param domain
+     *            {@code Domain} ID
+     * @param threads
+     *            number of loader threads
+     * @return number of indexed data elements
+     * @throws Exception
+     */
+    public static int rebuild(Class<? extends CIdata> clazz, int domain, int threads) throws Exception {
+        String field = fields.get(clazz);
+        if (field == null) {
+            throw new Exception("TrigramIndex.rebuild(): index isn't enabled for " + clazz.getSimpleName());
+        }
+        Key key = new Key(clazz, domain);
+        Partition p = new Partition();
+        while (true) {
+            Partition old = partitions.get(key);
+            if (old != null && old.loaded.getCount() > 0) {
+                return old.await();
+            }
+            if (old == null ? partitions.putIfAbsent(key, p) == null : partitions.replace(key, old, p)) {
+                break;
+            }
+        }
+        build(clazz, field, key, p, threads);
+        return p.await();
+    }
+
+    /**
+     * Registers the maintenance of the partition for a written data element -
+     * the partition is updated after the commit.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param base
+     *            saved, updated or deleted entity
+     * @throws Exception
+     */
+    public static void update(DAOiface dao, Base base) throws Exception {
+        String field = fields.get(base.getClass());
+        if (field == null) {
+            return;
+        }
+        final Key key = new Key(base.getClass(), base.getDomain());
+        final int id = base.getDBid();
+        final Row row;
+        if (base.getHistStatus() == STATUS.ACTIVE) {
+            CIdata data = (CIdata) base;
+            String text = (String) FieldAccessor.getAccessor(base.getClass()).getField(field).get(base);
+            row = new Row(data.getCi(), data.getCiType(), data.getUiElement(), text);
+        } else {
+            row = null;
+        }
+        dao.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                Partition p = partitions.get(key);
+                if (p == null) {
+                    return;
+                }
+                if (row != null) {
+                    p.put(id, row);
+                } else {
+                    p.remove(id);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a built and synchronized partition. A missing partition is
+     * built by a background thread.
+     *
+     * @return partition, or {@code null} if the partition isn't built yet
+     */
+    @SuppressWarnings("unchecked")
+    private static Partition getPartition(final Class<? extends CIdata> clazz, int domain) throws Exception {
+        final Key key = new Key(clazz, domain);
+        Partition p = partitions.get(key);
+        if (p == null) {
+            final Partition n = new Partition();
+            if (partitions.putIfAbsent(key, n) == null) {
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        build(clazz, fields.get(clazz), key, n, Runtime.getRuntime().availableProcessors());
+                    }
+                }, "TrigramIndex");
+                t.setDaemon(true);
+                t.start();
+            }
+            return null;
+        }
+        if (!p.isBuilt()) {
+            return null;
+        }
+        if (!authoritative) {
+            // writes of other processes - overlap for clock differences
+            long start = System.currentTimeMillis();
+            DAOiface dao = DAO.getDAO();
+            List<Object[]> list;
+            try {
+                dao.beginTransaction();
+                HashMap<String, Object> map = new HashMap<String, Object>();
+                map.put("domain", domain);
+                map.put("status", STATUS.ACTIVE);
+                map.put("since", new Date(p.synced.get() - SYNC_OVERLAP));
+                list = (List<Object[]>) dao.query("select d.id, d.ci, d.ciType, d.uiElement, d." + fields.get(clazz)
+                        + " from " + clazz.getSimpleName()
+                        + " d where d.domain = :domain and d.status = :status and d.lastModified >= :since", map);
+                dao.endTransaction();
+            } catch (Exception e) {
+                dao.rollback();
+                throw e;
+            }
+            for (Object[] o : list) {
+                p.put((Integer) o[0], new Row((Integer) o[1], (Integer) o[2], (Long) o[3], (String) o[4]));
+            }
+            p.synced(start);
+        }
+        return p;
+    }
+
+    /**
+     * Builds a registered partition. A failed partition is removed - the
+     * failure is reported to the threads awaiting the build.
+     */
+    @SuppressWarnings("unchecked")
+    private static void build(final Class<? extends CIdata> clazz, final String field, Key key, final Partition p,
+            int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        int count = 0;
+        try {
+            long start = System.currentTimeMillis();
+            List<Integer> ids;
+            DAOiface dao = DAO.getDAO();
+            try {
+                dao.beginTransaction();
+                HashMap<String, Object> map = new HashMap<String, Object>();
+                map.put("domain", key.domain);
+                map.put("status", STATUS.ACTIVE);
+                ids = (List<Integer>) dao.query("select d.id from " + clazz.getSimpleName()
+                        + " d where d.domain = :domain and d.status = :status order by d.id", map);
+                dao.endTransaction();
+            } catch (Exception e) {
+                dao.rollback();
+                throw e;
+            }
+            ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < ids.size(); i += LOAD_CHUNK_SIZE) {
+                final ArrayList<Integer> chunk = new ArrayList<Integer>(
+                        ids.subList(i, Math.min(i + LOAD_CHUNK_SIZE, ids.size())));
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return load(clazz, field, chunk, p);
+                    }
+                }));
+            }
+            for (Future<Integer> f : futures) {
+                count += f.get();
+            }
+            p.synced(start);
+            p.count = count;
+            p.built();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "TrigramIndex.build(): build of " + clazz.getSimpleName() + " failed", e);
+            p.failure = e;
+            partitions.remove(key, p);
+        } finally {
+            executor.shutdown();
+            p.loaded.countDown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int load(Class<? extends CIdata> clazz, String field, List<Integer> ids, Partition p)
+            throws Exception {
+        DAOiface dao = DAO.getDAO();
+        List<Object[]> list;
+        try {
+            dao.beginTransaction();
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("ids", ids);
+            list = (List<Object[]>) dao.query("select d.id, d.ci, d.ciType, d.uiElement, d." + field + " from "
+                    + clazz.getSimpleName() + " d where d.id in :ids", map);
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        for (Object[] o : list) {
+            p.load((Integer) o[0], new Row((Integer) o[1], (Integer) o[2], (Long) o[3], (String) o[4]));
+        }
+        return list.size();
+    }
+
+    /**
+     * Returns the distinct trigrams of an upper case text. A trigram is
+     * packed into a {@code long} - 16 bits per character.
+     */
+    private static long[] getTrigrams(String text) {
+        if (text == null || text.length() < 3) {
+            return new long[0];
+        }
+        String upper = text.toUpperCase();
+        HashSet<Long> set = new HashSet<Long>();
+        for (int i = 0; i + 3 <= upper.length(); ++i) {
+            set.add(((long) upper.charAt(i) << 32) | ((long) upper.charAt(i + 1) << 16) | upper.charAt(i + 2));
+        }
+        long[] grams = new long[set.size()];
+        int i = 0;
+        for (Long l : set) {
+            grams[i++] = l;
+        }
+        return grams;
+    }
+}
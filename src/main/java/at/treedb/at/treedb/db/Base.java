@@ -21,13 +21,18 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
@@ -47,6 +52,9 @@ import at.treedb.backup.ExportIface;
 import at.treedb.ci.CI;
 import at.treedb.ci.Image;
 import at.treedb.ci.ImageDummy;
+import at.treedb.ci.CIViewCache;
+import at.treedb.ci.RangeIndex;
+import at.treedb.ci.TrigramIndex;
 import at.treedb.domain.DBcategory;
 import at.treedb.domain.Domain;
 import at.treedb.i18n.Istring;
@@ -62,7 +70,7 @@ import at.treedb.user.User;
 @SuppressWarnings("serial")
 // DOLR: 29.11.2015
 @MappedSuperclass
-@DBindex(columnList = "histId")
+@DBindex(columnList = "histId,validFrom")
 public abstract class Base implements Serializable, HistorizationIface, ExportIface {
     // internal list for tracking callbacks
     private static HashMap<Class<? extends Base>, HashSet<String>> callbackUpdateFields = new HashMap<Class<? extends Base>, HashSet<String>>();
@@ -80,6 +88,12 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     private Date lastModified;
     @Temporal(TemporalType.TIMESTAMP)
     private Date deletionDate;
+    // validity interval [validFrom, validTo) of this version, validTo is
+    // null for the current version
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date validFrom;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date validTo;
     // historization status
     @Enumerated(EnumType.ORDINAL)
     private STATUS status = STATUS.ACTIVE;
@@ -97,6 +111,242 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     private int modifiedBy;
 
     private static Random random = new Random();;
+    // optional in-memory cache for active entities
+    private static volatile EntityCacheIface entityCache;
+    // maximum number of IDs of an IN clause used by loadMany()
+    protected static final int LOAD_MANY_CHUNK_SIZE = 500;
+    // history storage per class, classes without entry use full copies
+    private static final ConcurrentHashMap<Class<?>, HistoryMode> historyModes =
+            new ConcurrentHashMap<Class<?>, HistoryMode>();
+    // unique values checked by the running saveAll()/updateAll() - key:
+    // constraint, value: historization ID (0 for new entities)
+    private static final ThreadLocal<HashMap<String, Integer>> batchConstraints =
+            new ThreadLocal<HashMap<String, Integer>>();
+
+    /**
+     * Storage of the historic versions of an entity.
+     */
+    public enum HistoryMode {
+        /**
+         * full copies in the table of the entity
+         */
+        FULL,
+        /**
+         * previous values of the changed fields as {@code HistoryDelta}
+         */
+        DELTA,
+        /**
+         * full versions in the separate history table {@code HistoryArchive}
+         */
+        SEPARATE
+    }
+
+    /**
+     * Sets the entity cache used by {@code load()}.
+     *
+     * @param cache
+     *            entity cache, {@code null} disables caching
+     */
+    public static void setEntityCache(EntityCacheIface cache) {
+        entityCache = cache;
+    }
+
+    /**
+     * Returns the entity cache.
+     *
+     * @return entity cache, or {@code null} if caching is disabled
+     */
+    public static EntityCacheIface getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * Enables or disables the delta history for a class. An update of an entity
+     * with delta history stores only the previous values of the changed fields
+     * as {@code HistoryDelta}, instead of a full copy of the entity. This
+     * avoids the duplication of large binary or text fields. Historic versions
+     * are rebuilt on demand, e.g. by {@code load()} with a temporal bound.
+     * 
+     * @param clazz
+     *            entity class, the setting is inherited by sub classes
+     * @param enable
+     *            {@code true} for delta history, {@code false} for full copies
+     */
+    public static void setDeltaHistory(Class<? extends Base> clazz, boolean enable) {
+        setHistoryMode(clazz, enable ? HistoryMode.DELTA : HistoryMode.FULL);
+    }
+
+    /**
+     * Checks if a class uses the delta history.
+     * 
+     * @param clazz
+     *            entity class
+     * @return {@code true} for delta history, {@code false} for full copies
+     */
+    public static boolean isDeltaHistory(Class<?> clazz) {
+        return getHistoryMode(clazz) == HistoryMode.DELTA;
+    }
+
+    /**
+     * Sets the history storage of a class. With {@code HistoryMode.SEPARATE}
+     * superseded versions are moved to the {@code HistoryArchive} table, so
+     * the table of the entity holds only the live rows and the deleted rows,
+     * which remain as tombstones. Existing historic rows can be moved by
+     * {@code HistoryArchive.archive()}.
+     * 
+     * @param clazz
+     *            entity class, the setting is inherited by sub classes
+     * @param mode
+     *            history storage
+     */
+    public static void setHistoryMode(Class<? extends Base> clazz, HistoryMode mode) {
+        if (mode == null || mode == HistoryMode.FULL) {
+            historyModes.remove(clazz);
+        } else {
+            historyModes.put(clazz, mode);
+        }
+    }
+
+    /**
+     * Returns the history storage of a class.
+     * 
+     * @param clazz
+     *            entity class
+     * @return history storage
+     */
+    public static HistoryMode getHistoryMode(Class<?> clazz) {
+        if (historyModes.isEmpty()) {
+            return HistoryMode.FULL;
+        }
+        Class<?> c = clazz;
+        while (c != null && !c.equals(Object.class)) {
+            HistoryMode mode = historyModes.get(c);
+            if (mode != null) {
+                return mode;
+            }
+            c = c.getSuperclass();
+        }
+        return HistoryMode.FULL;
+    }
+
+    /**
+     * Returns an optional secondary lookup key of the entity for the separate
+     * history table, e.g. the {@code CI} of {@code CIdata}.
+     * 
+     * @return lookup key, 0 if not available
+     */
+    protected int getHistoryRef() {
+        return 0;
+    }
+
+    /**
+     * Adds the matching historic versions without a full copy in the entity
+     * table to the result of a temporal query - the versions of the separate
+     * history table, or the versions rebuilt from the delta history.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param list
+     *            result of the temporal query
+     * @param domain
+     *            optional {@code Domain} ID, can be {@code null}
+     * @param refs
+     *            optional secondary lookup keys, e.g. the {@code CI}s of a
+     *            chunk - can be {@code null}
+     * @param fields
+     *            optional map field name/value, can be {@code null}
+     * @param crit
+     *            optional search criteria, can be {@code null}
+     * @param date
+     *            temporal bound
+     * @return complete result
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    protected static List<Base> addHistoric(DAOiface dao, Class<? extends Base> clazz, List<? extends Base> list,
+            Integer domain, Collection<Integer> refs, HashMap<String, Object> fields, SearchCriteria[] crit, Date date)
+                    throws Exception {
+        List<Base> historic;
+        switch (getHistoryMode(clazz)) {
+        case DELTA:
+            historic = HistoryDelta.loadAll(dao, clazz, domain, refs, date);
+            break;
+        case SEPARATE:
+            historic = HistoryArchive.loadAll(dao, clazz, domain, refs, date);
+            break;
+        default:
+            return (List<Base>) list;
+        }
+        ArrayList<Base> result = new ArrayList<Base>(list);
+        HashSet<Integer> ids = new HashSet<Integer>();
+        for (Base b : list) {
+            ids.add(b.getHistId());
+        }
+        for (Base b : historic) {
+            if (!ids.contains(b.getHistId()) && HistoryArchive.matches(b, fields, crit)) {
+                result.add(b);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes an entity from the entity cache - invoked by the DAO after the
+     * commit of a write.
+     *
+     * @param base
+     *            entity
+     */
+    static void invalidateCache(Base base) {
+        EntityCacheIface cache = entityCache;
+        if (cache != null && base != null) {
+            cache.invalidate(base.getClass(), base.getHistId());
+        }
+    }
+
+    /**
+     * Updates the in-memory indexes after writing an entity.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param base
+     *            saved, updated or deleted entity
+     * @throws Exception
+     */
+    protected static void updateIndexes(DAOiface dao, Base base) throws Exception {
+        UniqueIndex.update(dao, base);
+        FullTextIndex.update(dao, base);
+        TrigramIndex.update(dao, base);
+        RangeIndex.update(dao, base);
+        CIViewCache.invalidate(dao, base);
+    }
+
+    /**
+     * Drops the in-memory indexes and the cached views after the commit of a
+     * bulk statement - the indexes don't see the rows written by a bulk
+     * statement and are rebuilt on demand.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     */
+    public static void clearIndexesAfterCommit(DAOiface dao) {
+        dao.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                UniqueIndex.clear();
+                FullTextIndex.clear();
+                TrigramIndex.clear();
+                RangeIndex.clear();
+                try {
+                    CIViewCache.clear();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Base.clearIndexesAfterCommit(): clearing the views failed", e);
+                }
+            }
+        });
+    }
 
     /**
      * Stores a pair class/field for tracking callbacks for fields.
@@ -297,13 +547,15 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     }
 
     /**
-     * Sets the last modification time stamp of the entity.
+     * Sets the last modification time stamp of the entity. The modification
+     * time opens the validity interval of the version.
      * 
      * @param timestamp
      *            modification time
      */
     public void setLastModified(Date timestamp) {
         lastModified = timestamp;
+        validFrom = timestamp;
     }
 
     /**
@@ -316,14 +568,15 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     }
 
     /**
-     * Sets the deletion time stamp of the entity.
+     * Sets the deletion time stamp of the entity. The deletion time closes
+     * the validity interval of the version.
      * 
      * @param delDate
      *            deletion time
      */
     public void setDeletionDate(Date delDate) {
         deletionDate = delDate;
-
+        validTo = delDate;
     }
 
     /**
@@ -335,6 +588,38 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
         return deletionDate;
     }
 
+    /**
+     * Returns the start of the validity interval of this version.
+     * 
+     * @return start of validity (inclusive)
+     */
+    public Date getValidFrom() {
+        return validFrom;
+    }
+
+    /**
+     * Returns the end of the validity interval of this version.
+     * 
+     * @return end of validity (exclusive), {@code null} for the current
+     *         version
+     */
+    public Date getValidTo() {
+        return validTo;
+    }
+
+    /**
+     * Closes the validity interval of a version which is replaced by a newer
+     * version. The interval of a deleted version is already closed.
+     * 
+     * @param date
+     *            modification time of the newer version
+     */
+    public void closeValidity(Date date) {
+        if (validTo == null) {
+            validTo = date;
+        }
+    }
+
     /**
      * Sets the historization status of the entity.
      * 
@@ -524,6 +809,18 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     protected static Base load(DAOiface dao, Class<? extends Base> clazz, @DBkey(value = Base.class) int id, Date date,
             boolean lazy) throws Exception {
         Base base = null;
+        EntityCacheIface cache = null;
+        long generation = 0;
+        if (date == null && entityCache != null && entityCache.isCacheable(clazz)) {
+            cache = entityCache;
+            generation = cache.getGeneration();
+            base = cache.get(clazz, id);
+            if (base != null && !lazy) {
+                return base;
+            }
+        }
+        // loaded state to be cached - without the data of the callback
+        Base loaded = null;
         boolean localDAO = false;
         if (dao == null) {
             dao = DAO.getDAO();
@@ -534,20 +831,39 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
                 dao.beginTransaction();
             }
             List<Base> list = null;
-            HashMap<String, Object> map = new HashMap<String, Object>();
-            map.put("id", id);
-            String className = clazz.getSimpleName();
-            if (date == null) {
-                map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-                list = (List<Base>) dao
-                        .query("select i from " + className + " i where i.histId = :id and i.status = :status", map);
+            if (base != null) {
+                // cache hit - only the lazy loading callback is necessary
+                list = new ArrayList<Base>();
+                list.add(base);
+            } else if (date == null) {
+                list = (List<Base>) dao.query(QueryRegistry.get(QueryRegistry.Template.LOAD_ACTIVE, clazz), id,
+                        at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                if (cache != null && list.size() == 1) {
+                    loaded = (Base) list.get(0).clone();
+                }
             } else {
                 // load all entities
-                map.put("date", date);
-                list = (List<Base>) dao.query(
-                        "select i from " + className
-                                + " i where i.histId = :id and i.lastModified < :date and (i.deletionDate is null or i.deletionDate > :date) order by i.version desc",
-                        0, 1, map);
+                list = (List<Base>) dao.query(QueryRegistry.get(QueryRegistry.Template.LOAD_TEMPORAL, clazz), 0, 1,
+                        new Object[] { id, date });
+                if (list.isEmpty()) {
+                    // historic version without a full copy in the entity
+                    // table
+                    Base b = null;
+                    switch (getHistoryMode(clazz)) {
+                    case DELTA:
+                        b = HistoryDelta.rebuild(dao, clazz, id, date);
+                        break;
+                    case SEPARATE:
+                        b = HistoryArchive.load(dao, clazz, id, date);
+                        break;
+                    default:
+                        break;
+                    }
+                    if (b != null) {
+                        list = new ArrayList<Base>();
+                        list.add(b);
+                    }
+                }
             }
             if (list.size() == 1) {
                 base = list.get(0);
@@ -569,9 +885,173 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
             }
             throw e;
         }
+        if (loaded != null) {
+            cacheAfterCommit(dao, localDAO, cache, clazz, Collections.singletonList(loaded), generation);
+        }
         return base;
     }
 
+    /**
+     * Puts loaded entities into the entity cache. Entities loaded within the
+     * transaction of the caller are cached after its commit - the caller may
+     * have written uncommitted state. Any invalidation in the meantime, e.g.
+     * by the writes of the transaction, rejects the entities.
+     */
+    private static void cacheAfterCommit(DAOiface dao, boolean localDAO, final EntityCacheIface cache,
+            final Class<? extends Base> clazz, final List<Base> loaded, final long generation) {
+        if (localDAO) {
+            for (Base b : loaded) {
+                cache.put(clazz, b, generation);
+            }
+            return;
+        }
+        dao.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (Base b : loaded) {
+                    cache.put(clazz, b, generation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a set of entities with a minimal number of DB round trips.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class to be loaded
+     * @param ids
+     *            historization IDs
+     * @return map historization ID/entity - IDs without an entity are missing
+     * @throws Exception
+     */
+    public static HashMap<Integer, Base> loadMany(DAOiface dao, Class<? extends Base> clazz, int[] ids)
+            throws Exception {
+        return loadMany(dao, clazz, ids, null, false);
+    }
+
+    /**
+     * Loads a set of entities with a minimal number of DB round trips. The IDs
+     * are resolved by chunked {@code IN} queries, instead of one query per ID.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class to be loaded
+     * @param ids
+     *            historization IDs
+     * @param date
+     *            optional temporal bound
+     * @param lazy
+     *            {@code true} for lazy loading
+     * @return map historization ID/entity - IDs without an entity are missing
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<Integer, Base> loadMany(DAOiface dao, Class<? extends Base> clazz, int[] ids, Date date,
+            boolean lazy) throws Exception {
+        HashMap<Integer, Base> result = new HashMap<Integer, Base>();
+        EntityCacheIface cache = null;
+        long generation = 0;
+        if (date == null && entityCache != null && entityCache.isCacheable(clazz)) {
+            cache = entityCache;
+            generation = cache.getGeneration();
+        }
+        // loaded states to be cached - without the data of the callback
+        ArrayList<Base> loaded = new ArrayList<Base>();
+        // remove duplicates and cached entities
+        ArrayList<Integer> missing = new ArrayList<Integer>();
+        HashSet<Integer> set = new HashSet<Integer>();
+        for (int id : ids) {
+            if (!set.add(id)) {
+                continue;
+            }
+            Base base = cache != null ? cache.get(clazz, id) : null;
+            if (base != null) {
+                result.put(id, base);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty() && !lazy) {
+            return result;
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            for (int i = 0; i < missing.size(); i += LOAD_MANY_CHUNK_SIZE) {
+                ArrayList<Integer> chunk = new ArrayList<Integer>(
+                        missing.subList(i, Math.min(i + LOAD_MANY_CHUNK_SIZE, missing.size())));
+                List<Base> list;
+                if (date == null) {
+                    list = (List<Base>) dao.query(QueryRegistry.get(QueryRegistry.Template.LOAD_MANY_ACTIVE, clazz),
+                            chunk, at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                    for (Base b : list) {
+                        if (result.put(b.getHistId(), b) != null) {
+                            throw new Exception("Base.loadMany(): Entity/DB ID is not unique!");
+                        }
+                        if (cache != null) {
+                            loaded.add((Base) b.clone());
+                        }
+                    }
+                } else {
+                    list = (List<Base>) dao.query(QueryRegistry.get(QueryRegistry.Template.LOAD_MANY_TEMPORAL, clazz),
+                            chunk, date);
+                    // the first entity of a historization ID is the latest
+                    // version
+                    for (Base b : list) {
+                        if (!result.containsKey(b.getHistId())) {
+                            result.put(b.getHistId(), b);
+                        }
+                    }
+                }
+            }
+            HistoryMode mode = getHistoryMode(clazz);
+            if (date != null && !missing.isEmpty() && mode != HistoryMode.FULL) {
+                // historic versions without a full copy in the entity table
+                ArrayList<Integer> historic = new ArrayList<Integer>();
+                for (Integer id : missing) {
+                    if (!result.containsKey(id)) {
+                        historic.add(id);
+                    }
+                }
+                if (!historic.isEmpty()) {
+                    if (mode == HistoryMode.DELTA) {
+                        result.putAll(HistoryDelta.loadMany(dao, clazz, historic, date));
+                    } else {
+                        result.putAll(HistoryArchive.loadMany(dao, clazz, historic, date));
+                    }
+                }
+            }
+            if (lazy) {
+                for (Base b : result.values()) {
+                    // callback for loading the binary data
+                    b.callbackAfterLoad(dao);
+                }
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        if (!loaded.isEmpty()) {
+            cacheAfterCommit(dao, localDAO, cache, clazz, loaded, generation);
+        }
+        return result;
+    }
+
     /**
      * Loads all entities of a class.
      * 
@@ -600,20 +1080,16 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
                 dao.beginTransaction();
             }
 
-            String className = clazz.getSimpleName();
-            HashMap<String, Object> map = new HashMap<String, Object>();
             if (date == null) {
                 // load all active entities
-                map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-                list = (List<? extends Base>) dao.query("select i from " + className + " i where i.status = :status",
-                        map);
-            } else {
-                // load all entities with a temporal bound
-                map.put("date", date);
                 list = (List<? extends Base>) dao.query(
-                        "select i from " + className
-                                + " i where i.lastModified < :date and (i.deletionDate is null or i.deletionDate > :date) order by i.version desc",
-                        0, 1, map);
+                        QueryRegistry.get(QueryRegistry.Template.LOAD_ALL_ACTIVE, clazz),
+                        at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+            } else {
+                // load all entities valid at the temporal bound
+                list = (List<? extends Base>) dao
+                        .query(QueryRegistry.get(QueryRegistry.Template.LOAD_ALL_TEMPORAL, clazz), date);
+                list = addHistoric(dao, clazz, list, null, null, null, null, date);
             }
             if (callbackAfterLoad && !list.isEmpty()) {
                 for (Base b : list) {
@@ -659,25 +1135,24 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
             if (localDAO) {
                 dao.beginTransaction();
             }
-            HashMap<String, Object> map = new HashMap<String, Object>();
-            map.put("domain", domain);
-            String criteria = "";
-            if (crit != null) {
-                String critName = crit.getEnumValue().name();
-                criteria += " and data." + critName + " " + crit.getOperator().toString() + " :" + critName;
-                map.put(critName, crit.getData());
-            }
-            String className = clazz.getSimpleName();
             // load only active entities
             if (date == null) {
-                map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-                list = (List<Base>) dao.query("select data from " + className
-                        + " data where data.domain = :domain and data.status = :status" + criteria, map);
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.LOAD_DOMAIN_ACTIVE, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, domain, at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                } else {
+                    list = (List<Base>) dao.query(query, domain, at.treedb.db.HistorizationIface.STATUS.ACTIVE,
+                            crit.getData());
+                }
             } else {
-                map.put("date", date);
-                list = (List<Base>) dao.query("select data from " + className
-                        + " data where data.domain = :domain and data.lastModified < :date and (data.deletionDate = null or data.deletionDate > :date)"
-                        + criteria + " order by data.version having max(data.version)", map);
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.LOAD_DOMAIN_TEMPORAL, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, domain, date);
+                } else {
+                    list = (List<Base>) dao.query(query, domain, date, crit.getData());
+                }
+                list = addHistoric(dao, clazz, list, domain, null, null,
+                        crit != null ? new SearchCriteria[] { crit } : null, date);
             }
             if (!list.isEmpty() && list.get(0).isCallbackAfterLoad()) {
                 for (Base b : list) {
@@ -725,24 +1200,24 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
             if (localDAO) {
                 dao.beginTransaction();
             }
-            HashMap<String, Object> map = new HashMap<String, Object>();
-            String criteria = "";
-            if (crit != null) {
-                String critName = crit.getEnumValue().name();
-                criteria += " and data." + critName + " " + crit.getOperator().toString() + " :" + critName;
-                map.put(critName, crit.getData());
-            }
-            String className = clazz.getSimpleName();
             // load only active entities
             if (date == null) {
-                map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-                list = (List<Base>) dao
-                        .query("select data from " + className + " data where data.status = :status" + criteria, map);
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.LOAD_ALL_ACTIVE, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+                } else {
+                    list = (List<Base>) dao.query(query, at.treedb.db.HistorizationIface.STATUS.ACTIVE,
+                            crit.getData());
+                }
             } else {
-                map.put("date", date);
-                list = (List<Base>) dao.query("select data from " + className
-                        + " data where data.lastModified < :date and (data.deletionDate = null or data.deletionDate > :date)"
-                        + criteria + " order by data.version having max(data.version)", map);
+                CompiledQuery query = QueryRegistry.get(QueryRegistry.Template.LOAD_ALL_TEMPORAL, clazz, crit);
+                if (crit == null) {
+                    list = (List<Base>) dao.query(query, date);
+                } else {
+                    list = (List<Base>) dao.query(query, date, crit.getData());
+                }
+                list = addHistoric(dao, clazz, list, null, null, null,
+                        crit != null ? new SearchCriteria[] { crit } : null, date);
             }
             if (!list.isEmpty() && list.get(0).isCallbackAfterLoad()) {
                 for (Base b : list) {
@@ -929,8 +1404,9 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
             } else {
                 map.put("date", date);
                 list = (List<Base>) dao.query("select data from " + className
-                        + " data where data.lastModified < :date and (data.deletionDate = null or data.deletionDate > :date)"
-                        + criteria + " order by data.version having max(data.version)", map);
+                        + " data where data.validFrom <= :date and (data.validTo is null or data.validTo > :date)"
+                        + criteria, map);
+                list = addHistoric(dao, clazz, list, null, null, null, crit, date);
             }
             if (!list.isEmpty() && list.get(0).isCallbackAfterLoad()) {
                 for (Base b : list) {
@@ -981,18 +1457,86 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
             if (domain != null) {
                 base.setDomain(domain.getHistId());
             }
-
-            if (user != null) {
-                base.setCreatedBy(user.getHistId());
-                base.setModifiedBy(user.getHistId());
+
+            if (user != null) {
+                base.setCreatedBy(user.getHistId());
+                base.setModifiedBy(user.getHistId());
+            }
+            // optional callback for persisting data - same order as saveAll()
+            base.callbackBeforeSave();
+            // save entity to get an ID
+            dao.saveAndFlushIfJPA(base);
+
+            // historization ID = DB ID
+            base.setHistId(base.getDBid());
+            updateIndexes(dao, base);
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Saves a list of new entities with JDBC batching. Constraints are checked
+     * against the DB and between the entities of the list before saving.
+     * Note: Inserts are only batched if the ID generator of the DB dialect
+     * doesn't resolve to {@code IDENTITY} - with identity columns each insert
+     * is executed immediately to obtain the ID, only the flush is batched.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param domain
+     *            domain {@Domain) of the entities.
+     * @param user
+     *            user {@code User} who creates the entities
+     * @param list
+     *            entities to be saved
+     * @throws Exception
+     */
+    public static void saveAll(DAOiface dao, Domain domain, User user, List<? extends Base> list) throws Exception {
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            Date d = new Date();
+            HashMap<String, Integer> batch = beginBatchConstraints();
+            try {
+                for (Base base : list) {
+                    // perform some checks - also between the entities of
+                    // the list
+                    base.checkConstraints(dao, null);
+                }
+            } finally {
+                endBatchConstraints(batch);
+            }
+            for (Base base : list) {
+                base.setCreationTime(d);
+                base.setLastModified(d);
+                if (domain != null) {
+                    base.setDomain(domain.getHistId());
+                }
+                if (user != null) {
+                    base.setCreatedBy(user.getHistId());
+                    base.setModifiedBy(user.getHistId());
+                }
+                // optional callback for persisting data
+                base.callbackBeforeSave();
+            }
+            // historization ID = DB ID - set by the DAO
+            dao.saveAll(list);
+            for (Base base : list) {
+                updateIndexes(dao, base);
             }
-            // save entity to get an ID
-            dao.saveAndFlushIfJPA(base);
-            // optional callback for persisting data
-            base.callbackBeforeSave();
-
-            // historization ID = DB ID
-            base.setHistId(base.getDBid());
             if (localDAO) {
                 dao.endTransaction();
             }
@@ -1019,6 +1563,113 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
         base.id = base.dbVersion = 0;
         // save entity to get an ID
         dao.saveAndFlushIfJPA(base);
+        updateIndexes(dao, base);
+    }
+
+    /**
+     * Help method for restoring a list of entities from the backup with JDBC
+     * batching (see {@link #saveAll(DAOiface, Domain, User, List)} for the
+     * restrictions). This method resets all internal object IDs.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param list
+     *            restored objects
+     * @throws Exception
+     */
+    public static void restoreAll(DAOiface dao, List<? extends Base> list) throws Exception {
+        for (Base base : list) {
+            // reset internal values
+            base.id = base.dbVersion = 0;
+        }
+        dao.saveAll(list);
+        for (Base base : list) {
+            updateIndexes(dao, base);
+        }
+    }
+
+    /**
+     * Rebuilds the validity intervals of the entities of a class, e.g. for
+     * data created before the intervals were maintained or restored from an
+     * older backup. The interval of a version starts with its modification
+     * time and ends with the modification time of the next version, or with
+     * its deletion time. The intervals are adjusted by set-based statements,
+     * the versions aren't loaded - the memory usage doesn't depend on the
+     * number of versions.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @return number of adjusted versions
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static int rebuildValidity(DAOiface dao, Class<? extends Base> clazz) throws Exception {
+        int count = 0;
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            String className = clazz.getSimpleName();
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            count += dao.queryAndExecute(
+                    "update " + className + " i set i.validFrom = i.lastModified where i.validFrom is null", map);
+            count += dao.queryAndExecute("update " + className
+                    + " i set i.validTo = i.deletionDate where i.validTo is null and i.deletionDate is not null", map);
+            // historic versions are closed by the next version - paged by the
+            // DB ID with scalar queries and set-based updates, the versions
+            // aren't loaded as managed entities
+            int last = 0;
+            while (true) {
+                map = new HashMap<String, Object>();
+                map.put("status", STATUS.UPDATED);
+                map.put("last", last);
+                List<Object[]> rows = (List<Object[]>) dao.query("select i.id, i.histId, i.version from " + className
+                        + " i where i.status = :status and i.validTo is null and i.id > :last order by i.id", 0,
+                        LOAD_MANY_CHUNK_SIZE, map);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                HashSet<Integer> ids = new HashSet<Integer>();
+                for (Object[] o : rows) {
+                    ids.add((Integer) o[1]);
+                }
+                HashMap<String, Object> m = new HashMap<String, Object>();
+                m.put("ids", new ArrayList<Integer>(ids));
+                // key: historization ID/version
+                HashMap<Long, Date> modified = new HashMap<Long, Date>();
+                for (Object[] o : (List<Object[]>) dao.query("select i.histId, i.version, i.lastModified from "
+                        + className + " i where i.histId in :ids", m)) {
+                    modified.put(((long) (Integer) o[0] << 32) | (Integer) o[1], (Date) o[2]);
+                }
+                for (Object[] o : rows) {
+                    Date next = modified.get(((long) (Integer) o[1] << 32) | ((Integer) o[2] + 1));
+                    if (next != null) {
+                        m = new HashMap<String, Object>();
+                        m.put("id", o[0]);
+                        m.put("validTo", next);
+                        count += dao.queryAndExecute(
+                                "update " + className + " i set i.validTo = :validTo where i.id = :id", m);
+                    }
+                }
+                last = (Integer) rows.get(rows.size() - 1)[0];
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        return count;
     }
 
     /**
@@ -1155,8 +1806,10 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
                 if (user != null) {
                     base.setModifiedBy(user.getHistId());
                 }
+                // the deleted version remains as tombstone in the entity
+                // table - also for the separate history
                 dao.update(base);
-
+                updateIndexes(dao, base);
                 deleted = true;
             }
             if (localDAO) {
@@ -1172,6 +1825,75 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
         return deleted;
     }
 
+    /**
+     * Deletes all entities of a class belonging to a {@code Domain} with a
+     * single set-based statement, without loading the entities. The deleted
+     * rows remain as tombstones in the entity table, also for classes with
+     * the history mode {@code SEPARATE}. History records
+     * ({@code HistoryDelta}, {@code HistoryArchive}) are only removed by a DB
+     * deletion - a historization deletion leaves them untouched. Managed
+     * entities of the class are detached, the in-memory indexes are dropped
+     * after the commit.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param user
+     *            {@code User} who deletes the entities
+     * @param clazz
+     *            concrete entity class
+     * @param domain
+     *            {@code Domain} ID
+     * @param dbDelete
+     *            {@code true} for deleting the entities form DB, {@code false}
+     *            historization deletion
+     * @return number of deleted rows
+     * @throws Exception
+     */
+    public static int deleteAll(DAOiface dao, User user, Class<? extends Base> clazz,
+            @DBkey(value = Domain.class) int domain, boolean dbDelete) throws Exception {
+        if (!dbDelete && (clazz.equals(HistoryDelta.class) || clazz.equals(HistoryArchive.class))) {
+            return 0;
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        int count;
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("domain", domain);
+            if (dbDelete) {
+                count = dao.queryAndExecute("delete from " + clazz.getSimpleName() + " where domain = :domain", map);
+            } else {
+                map.put("active", STATUS.ACTIVE);
+                map.put("deleted", STATUS.DELETED);
+                map.put("date", new Date());
+                map.put("user", user != null ? user.getHistId() : 0);
+                count = dao.queryAndExecute("update " + clazz.getSimpleName()
+                        + " set status = :deleted, deletionDate = :date, validTo = :date, modifiedBy = :user"
+                        + " where domain = :domain and status = :active", map);
+            }
+            if (count > 0) {
+                // the bulk statement bypasses the persistence context
+                dao.detachAll(clazz);
+                clearIndexesAfterCommit(dao);
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        return count;
+    }
+
     /**
      * Updates an entity.
      * 
@@ -1307,8 +2029,14 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
                         }
                         copy.setDBid(0);
                         copy.resetTransactionVersion();
-
-                        dao.save(copy);
+                        Date d = new Date();
+                        copy.closeValidity(d);
+                        HistoryMode mode = getHistoryMode(base.getClass());
+                        if (mode == HistoryMode.FULL) {
+                            dao.save(copy);
+                        } else if (mode == HistoryMode.SEPARATE) {
+                            HistoryArchive.create(dao, copy);
+                        }
 
                         if (user != null) {
                             base.setModifiedBy(user.getHistId());
@@ -1323,7 +2051,12 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
                         // 3.) update the entity
                         base.update(dao, user, map);
                         base.incVersion();
-                        base.setLastModified(new Date());
+                        base.setLastModified(d);
+                        if (mode == HistoryMode.DELTA) {
+                            // store only the changed fields of the previous
+                            // version
+                            HistoryDelta.create(dao, copy, base);
+                        }
                         dao.update(base);
                     }
                 } else {
@@ -1332,6 +2065,7 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
                     // Image)
                     base.update(dao, user, map);
                 }
+                updateIndexes(dao, base);
                 base.invokeCallbackUpdate(dao, user, map, info);
 
             }
@@ -1346,6 +2080,143 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
         }
     }
 
+    /**
+     * Updates a set of entities within one transaction. All updates are
+     * checked first, entities failing the checks are skipped and reported.
+     * The historic copies and the new versions are written with JDBC
+     * batching, the update callbacks are invoked afterwards.
+     * <p>
+     * The write phase is all-or-nothing - a failed statement of a JDBC batch
+     * can't be assigned to an entity. The exception is thrown, a local
+     * transaction is rolled back and the transaction of a caller has to be
+     * rolled back by the caller. The entities of the batch might contain the
+     * unwritten changes afterwards and have to be reloaded.
+     * </p>
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param user
+     *            {@code User} who updates the entities
+     * @param updates
+     *            map entity/changes
+     * @return map entity/exception of the entities failing the checks
+     * @throws Exception
+     *             if the write phase failed - the whole batch has to be
+     *             rolled back
+     */
+    public static HashMap<Base, Exception> updateAll(DAOiface dao, User user, Map<? extends Base, UpdateMap> updates)
+            throws Exception {
+        HashMap<Base, Exception> failed = new HashMap<Base, Exception>();
+        ArrayList<Base> entities = new ArrayList<Base>();
+        ArrayList<UpdateMap> maps = new ArrayList<UpdateMap>();
+        ArrayList<Object> infos = new ArrayList<Object>();
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            // 1.) check all updates - unique values also between the
+            // entities of the batch
+            HashMap<String, Integer> batch = beginBatchConstraints();
+            try {
+                for (Map.Entry<? extends Base, UpdateMap> e : updates.entrySet()) {
+                    Base base = e.getKey();
+                    UpdateMap map = e.getValue();
+                    try {
+                        if (base.getHistStatus() != HistorizationIface.STATUS.ACTIVE) {
+                            throw new Exception("Base.updateAll(): Updating historic entities isn't allowed!");
+                        }
+                        base.check(map);
+                        if (map.size() == 0) {
+                            continue;
+                        }
+                        infos.add(map.isEntityUpdate() ? base.checkConstraints(dao, map) : null);
+                        entities.add(base);
+                        maps.add(map);
+                    } catch (Exception ex) {
+                        failed.put(base, ex);
+                    }
+                }
+            } finally {
+                endBatchConstraints(batch);
+            }
+            // 2.) historic copies
+            Date d = new Date();
+            ArrayList<Base> previous = new ArrayList<Base>();
+            ArrayList<Base> copies = new ArrayList<Base>();
+            for (int i = 0; i < entities.size(); ++i) {
+                Base base = entities.get(i);
+                if (!maps.get(i).isEntityUpdate()) {
+                    previous.add(null);
+                    continue;
+                }
+                Base copy;
+                synchronized (base) {
+                    copy = (Base) base.clone();
+                }
+                if (copy.getHistStatus() == STATUS.ACTIVE) {
+                    copy.setHistStatus(STATUS.UPDATED);
+                }
+                copy.setDBid(0);
+                copy.resetTransactionVersion();
+                copy.closeValidity(d);
+                HistoryMode mode = getHistoryMode(base.getClass());
+                if (mode == HistoryMode.FULL) {
+                    copies.add(copy);
+                } else if (mode == HistoryMode.SEPARATE) {
+                    HistoryArchive.create(dao, copy);
+                }
+                previous.add(copy);
+            }
+            dao.saveAll(copies);
+            // 3.) new versions - the detached entities are updated in memory,
+            // no re-load is necessary for JPA, because merge() copies the
+            // state
+            ArrayList<Base> updated = new ArrayList<Base>();
+            for (int i = 0; i < entities.size(); ++i) {
+                Base base = entities.get(i);
+                Base copy = previous.get(i);
+                synchronized (base) {
+                    if (copy == null) {
+                        // only referenced data types (e.g. Istring or Image)
+                        base.update(dao, user, maps.get(i));
+                        continue;
+                    }
+                    if (user != null) {
+                        base.setModifiedBy(user.getHistId());
+                    }
+                    base.update(dao, user, maps.get(i));
+                    base.incVersion();
+                    base.setLastModified(d);
+                }
+                if (getHistoryMode(base.getClass()) == HistoryMode.DELTA) {
+                    HistoryDelta.create(dao, copy, base);
+                }
+                updated.add(base);
+            }
+            dao.updateAll(updated);
+            // 4.) callbacks
+            for (int i = 0; i < entities.size(); ++i) {
+                Base base = entities.get(i);
+                updateIndexes(dao, base);
+                base.invokeCallbackUpdate(dao, user, maps.get(i), infos.get(i));
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        return failed;
+    }
+
     /**
      * Search filter
      * 
@@ -1456,6 +2327,22 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
                 map.put("domain", domain.getHistId());
             }
 
+            // restrict the search to the candidates of the full-text index
+            if (flags == null || !flags.contains(Search.HISTORIC)) {
+                Set<Integer> ids = FullTextIndex.getCandidates(dao, clazz, fields, value,
+                        flags != null && flags.contains(Search.EQUALS));
+                if (ids != null) {
+                    if (ids.isEmpty()) {
+                        if (isDAOlocale) {
+                            dao.endTransaction();
+                        }
+                        return new ArrayList<Base>();
+                    }
+                    buf.append("i.id in :ids and ");
+                    map.put("ids", ids);
+                }
+            }
+
             if (criteria != null) {
                 for (SearchCriteria crit : criteria) {
                     String critName = crit.getEnumValue().name();
@@ -1529,17 +2416,11 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
      * @throws Exception
      */
     protected void check(UpdateMap map) throws Exception {
-        Class<?> c = this.getClass();
+        FieldAccessor accessor = FieldAccessor.getAccessor(this.getClass());
         Enum<?>[] list = map.getMap().keySet().toArray(new Enum[map.getMap().keySet().size()]);
         for (Enum<?> field : list) {
             Update u = map.get(field);
-            Field f;
-            try {
-                f = c.getDeclaredField(field.name());
-            } catch (java.lang.NoSuchFieldException e) {
-                f = c.getSuperclass().getDeclaredField(field.name());
-            }
-            f.setAccessible(true);
+            Field f = accessor.getField(field.name());
             switch (u.getType()) {
             case STRING:
                 String value = u.getString();
@@ -1621,49 +2502,16 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
      * @throws Exception
      */
     protected void update(DAOiface dao, User user, UpdateMap map) throws Exception {
-        Class<?> c = this.getClass();
+        FieldAccessor accessor = FieldAccessor.getAccessor(this.getClass());
 
         for (Enum<?> field : map.getMap().keySet()) {
             Update u = map.get(field);
-            Field f;
-            try {
-                f = c.getDeclaredField(field.name());
-            } catch (java.lang.NoSuchFieldException e) {
-                f = c.getSuperclass().getDeclaredField(field.name());
+            Field f = accessor.getField(field.name());
+            // embedded data types
+            if (FieldAccessor.setValue(this, f, u)) {
+                continue;
             }
-            f.setAccessible(true);
             switch (u.getType()) {
-            case STRING:
-                f.set(this, u.getString());
-                break;
-            case DOUBLE:
-                f.set(this, u.getDouble());
-                break;
-            case FLOAT:
-                f.set(this, u.getFloat());
-                break;
-            case LONG:
-                f.set(this, u.getLong());
-                break;
-            case INT:
-                f.set(this, u.getInt());
-                break;
-            case LAZY_BINARY:
-            case BINARY:
-                f.set(this, u.getBinary());
-                break;
-            case BOOLEAN:
-                f.set(this, u.getBoolean());
-                break;
-            case DATE:
-                f.set(this, u.getDate());
-                break;
-            case ENUM:
-                f.set(this, u.getEnum());
-                break;
-            case BIGDECIMAL:
-                f.set(this, u.getBigDecimal());
-                break;
             case ISTRING: {
                 DBkey a = f.getAnnotation(DBkey.class);
                 if (a == null || !a.value().equals(Istring.class)) {
@@ -1758,7 +2606,9 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     }
 
     /**
-     * Updates only embedded data types of an entity.
+     * Updates only embedded data types of an entity. Only the object is
+     * changed - the changes must be written by {@code save()} or
+     * {@code update()}, which maintain the in-memory indexes.
      * 
      * @param map
      *            map containing the changes
@@ -1766,48 +2616,13 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
      * @throws Exception
      */
     public void simpleUpdate(UpdateMap map, boolean strict) throws Exception {
-        Class<?> c = this.getClass();
+        FieldAccessor accessor = FieldAccessor.getAccessor(this.getClass());
 
         for (Enum<?> field : map.getMap().keySet()) {
             Update u = map.get(field);
-            Field f = c.getDeclaredField(field.name());
-            f.setAccessible(true);
-            switch (u.getType()) {
-            case STRING:
-                f.set(this, u.getString());
-                break;
-            case DOUBLE:
-                f.set(this, u.getDouble());
-                break;
-            case FLOAT:
-                f.set(this, u.getFloat());
-                break;
-            case LONG:
-                f.set(this, u.getLong());
-                break;
-            case INT:
-                f.set(this, u.getInt());
-                break;
-            case LAZY_BINARY:
-            case BINARY:
-                f.set(this, u.getBinary());
-                break;
-            case BOOLEAN:
-                f.set(this, u.getBoolean());
-                break;
-            case DATE:
-                f.set(this, u.getDate());
-                break;
-            case ENUM:
-                f.set(this, u.getEnum());
-                break;
-            case BIGDECIMAL:
-                f.set(this, u.getBigDecimal());
-                break;
-            default:
-                if (strict) {
-                    throw new Exception("Base.update(): Type not implemented!");
-                }
+            Field f = accessor.getField(field.name());
+            if (!FieldAccessor.setValue(this, f, u) && strict) {
+                throw new Exception("Base.update(): Type not implemented!");
             }
         }
     }
@@ -1890,12 +2705,19 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     @SuppressWarnings("unchecked")
     public static void checkConstraintPerDomain(DAOiface dao, UpdateMap update, int domain, int dbID, Enum<?> fieldName,
             String value) throws Exception {
+        String entry = fieldName.name();
+        Class<?> clazz = fieldName.getDeclaringClass().getDeclaringClass();
+        String v = getConstraintValue(update, fieldName, value);
+        checkBatchConstraint(clazz, UniqueIndex.Scope.DOMAIN, domain, 0, entry, v, update == null ? 0 : dbID);
+        // a value missing in an authoritative in-memory index is free
+        if (v == null || Boolean.FALSE.equals(UniqueIndex.isConflict(dao, clazz, UniqueIndex.Scope.DOMAIN, domain, 0,
+                entry, v, update == null ? 0 : dbID))) {
+            return;
+        }
         List<Base> list = null;
         HashMap<String, Object> map = new HashMap<String, Object>();
         map.put("domain", domain);
         map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-        String entry = fieldName.name();
-        Class<?> clazz = fieldName.getDeclaringClass().getDeclaringClass();
         if (update == null) {
             map.put(entry, value);
             list = (List<Base>) dao.query("select i from " + clazz.getSimpleName()
@@ -1904,7 +2726,7 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
             Update m = update.get(fieldName);
             if (m != null) {
                 map.put("histId", dbID);
-                map.put("name", m.getString());
+                map.put(entry, m.getString());
                 list = (List<Base>) dao
                         .query("select i from " + clazz.getSimpleName() + " i where i.domain = :domain and i." + entry
                                 + " = :" + entry + " and i.status = :status and i.histId <> :histId", map);
@@ -1912,7 +2734,7 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
         }
         if (list != null && list.size() > 0) {
             throw new Exception(
-                    clazz.getSimpleName() + ".checkConstraints(): Property " + entry + " isn't unique:" + value);
+                    clazz.getSimpleName() + ".checkConstraints(): Property " + entry + " isn't unique:" + v);
         }
     }
 
@@ -1935,11 +2757,17 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     @SuppressWarnings("unchecked")
     public static void checkConstraint(DAOiface dao, UpdateMap update, int dbID, Enum<?> fieldName, String value)
             throws Exception {
+        String entry = fieldName.name();
+        Class<?> clazz = fieldName.getDeclaringClass().getDeclaringClass();
+        String v = getConstraintValue(update, fieldName, value);
+        checkBatchConstraint(clazz, UniqueIndex.Scope.GLOBAL, 0, 0, entry, v, update == null ? 0 : dbID);
+        if (v == null || Boolean.FALSE.equals(UniqueIndex.isConflict(dao, clazz, UniqueIndex.Scope.GLOBAL, 0, 0,
+                entry, v, update == null ? 0 : dbID))) {
+            return;
+        }
         List<Base> list = null;
         HashMap<String, Object> map = new HashMap<String, Object>();
         map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-        String entry = fieldName.name();
-        Class<?> clazz = fieldName.getDeclaringClass().getDeclaringClass();
         if (update == null) {
             map.put(entry, value);
             list = (List<Base>) dao.query("select i from " + clazz.getSimpleName() + " i where i." + entry + " = :"
@@ -1955,7 +2783,7 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
         }
         if (list != null && list.size() > 0) {
             throw new Exception(
-                    clazz.getSimpleName() + ".checkConstraints(): Property " + entry + " isn't unique:" + value);
+                    clazz.getSimpleName() + ".checkConstraints(): Property " + entry + " isn't unique:" + v);
         }
     }
 
@@ -1981,12 +2809,18 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
     @SuppressWarnings("unchecked")
     public static void checkConstraintsPerCI(DAOiface dao, UpdateMap update, int domain, int ciID, int dbID,
             Enum<?> fieldName, String value) throws Exception {
+        Class<?> clazz = fieldName.getDeclaringClass().getDeclaringClass();
+        String entry = fieldName.name();
+        String v = getConstraintValue(update, fieldName, value);
+        checkBatchConstraint(clazz, UniqueIndex.Scope.CI, domain, ciID, entry, v, update == null ? 0 : dbID);
+        if (v == null || Boolean.FALSE.equals(UniqueIndex.isConflict(dao, clazz, UniqueIndex.Scope.CI, domain, ciID,
+                entry, v, update == null ? 0 : dbID))) {
+            return;
+        }
         List<Base> list = null;
         HashMap<String, Object> map = new HashMap<String, Object>();
         map.put("domain", domain);
         map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-        Class<?> clazz = fieldName.getDeclaringClass().getDeclaringClass();
-        String entry = fieldName.name();
         if (update == null) {
             map.put(entry, value);
             map.put("ciId", ciID);
@@ -1998,7 +2832,7 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
             if (m != null) {
                 map.put("histId", dbID);
                 map.put("ciId", ciID);
-                map.put("name", m.getString());
+                map.put(entry, m.getString());
                 list = (List<Base>) dao.query(
                         "select i from " + clazz.getSimpleName() + " i where i.domain = :domain and i." + entry + " = :"
                                 + entry + " and i.ci =:ciId and i.status = :status and i.histId <> :histId",
@@ -2007,8 +2841,88 @@ public abstract class Base implements Serializable, HistorizationIface, ExportIf
         }
         if (list != null && list.size() > 0) {
             throw new Exception(
-                    clazz.getSimpleName() + ".checkConstraints(): Property " + entry + " isn't unique:" + value);
+                    clazz.getSimpleName() + ".checkConstraints(): Property " + entry + " isn't unique:" + v);
+        }
+    }
+
+    /**
+     * Starts the collection of the unique values checked by a batch.
+     * 
+     * @return previous collection of an enclosing batch, or {@code null}
+     */
+    private static HashMap<String, Integer> beginBatchConstraints() {
+        HashMap<String, Integer> previous = batchConstraints.get();
+        batchConstraints.set(new HashMap<String, Integer>());
+        return previous;
+    }
+
+    /**
+     * Ends the collection of the unique values checked by a batch.
+     * 
+     * @param previous
+     *            previous collection returned by
+     *            {@code beginBatchConstraints()}
+     */
+    private static void endBatchConstraints(HashMap<String, Integer> previous) {
+        if (previous == null) {
+            batchConstraints.remove();
+        } else {
+            batchConstraints.set(previous);
+        }
+    }
+
+    /**
+     * Field constraint between the entities of a running batch - a unique
+     * value can only be used by one entity of the batch.
+     * 
+     * @param clazz
+     *            entity class
+     * @param scope
+     *            scope of the field
+     * @param domain
+     *            {@code Domain} ID
+     * @param ci
+     *            {@code CI} ID
+     * @param entry
+     *            field name
+     * @param value
+     *            field value, can be {@code null}
+     * @param histId
+     *            historization ID of the entity, {@code 0} for new entities
+     * @throws Exception
+     */
+    private static void checkBatchConstraint(Class<?> clazz, UniqueIndex.Scope scope, int domain, int ci,
+            String entry, String value, int histId) throws Exception {
+        HashMap<String, Integer> batch = batchConstraints.get();
+        if (batch == null || value == null) {
+            return;
+        }
+        String key = clazz.getName() + "/" + scope + "/" + domain + "/" + ci + "/" + entry + "/" + value;
+        Integer owner = batch.put(key, histId);
+        if (owner != null && (histId == 0 || owner != histId)) {
+            throw new Exception(clazz.getSimpleName() + ".checkConstraints(): Property " + entry
+                    + " isn't unique within the batch:" + value);
+        }
+    }
+
+    /**
+     * Returns the value to be checked by a field constraint.
+     * 
+     * @param update
+     *            update data, {@code null} for a new entity
+     * @param fieldName
+     *            text field name
+     * @param value
+     *            field value of a new entity
+     * @return value to be checked, or {@code null} if the field isn't
+     *         changed
+     */
+    private static String getConstraintValue(UpdateMap update, Enum<?> fieldName, String value) {
+        if (update == null) {
+            return value;
         }
+        Update m = update.get(fieldName);
+        return m == null ? null : m.getString();
     }
 
     public Object clone() throws CloneNotSupportedException {
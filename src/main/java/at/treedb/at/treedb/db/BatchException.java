@@ -0,0 +1,56 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Failure of a batch write - reports the exceptions of all failed entities,
+ * not only the first one.
+ * 
+ * @author Peter Sauer
+ *
+ */
+@SuppressWarnings("serial")
+public class BatchException extends Exception {
+    private final Map<Base, Exception> failed;
+
+    /**
+     * Constructor
+     * 
+     * @param message
+     *            message
+     * @param failed
+     *            map entity/exception of the failed entities
+     */
+    public BatchException(String message, Map<Base, Exception> failed) {
+        super(message + ": " + failed.size() + " failed");
+        this.failed = Collections.unmodifiableMap(new HashMap<Base, Exception>(failed));
+        for (Exception e : failed.values()) {
+            addSuppressed(e);
+        }
+    }
+
+    /**
+     * Returns the failed entities.
+     * 
+     * @return map entity/exception
+     */
+    public Map<Base, Exception> getFailed() {
+        return failed;
+    }
+}
@@ -40,7 +40,8 @@ import at.treedb.domain.Domain;
 
 @SuppressWarnings("serial")
 @Entity
-@Table(indexes = { @Index(columnList = "cacheId"), @Index(columnList = "refHistId"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "cacheId"), @Index(columnList = "refHistId"),
+        @Index(columnList = "histId,validFrom") })
 
 public class CacheEntry extends Base implements Cloneable, ClassSelector {
     private final static long CACHE_LIFETIME = 24 * 60 * 60 * 1000L;
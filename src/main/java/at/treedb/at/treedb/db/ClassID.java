@@ -136,7 +136,7 @@ public enum ClassID {
     /** {@link at.treedb.ui.UIgrouping } */
     UIGROUPINGEND,
     /** {@link at.treedb.ui.UIgroupingEnd } */
-    DBFILE, CIFILE, CIBIGDECIMAL, UIMACRO, CIGOOGLEMAP, UIGOOGLEMAP, SUPPORTED_LANGUAGE, CLAZZ, DBINFO, CACHEENTRY, DBCATEGORY, DBCATEGORYMEMBERSHIP, JSLIB, BLOB, KEYVALUEPAIR, VERSIONINFO, TENANT, EVENT, CIPASSWORD, UIBLOB;
+    DBFILE, CIFILE, CIBIGDECIMAL, UIMACRO, CIGOOGLEMAP, UIGOOGLEMAP, SUPPORTED_LANGUAGE, CLAZZ, DBINFO, CACHEENTRY, DBCATEGORY, DBCATEGORYMEMBERSHIP, JSLIB, BLOB, KEYVALUEPAIR, VERSIONINFO, TENANT, EVENT, CIPASSWORD, UIBLOB, HISTORYDELTA, HISTORYARCHIVE;
 
     /**
      * Returns the corresponding {@code Class} of a class ID.
@@ -243,6 +243,10 @@ public enum ClassID {
             return Tenant.class;
         case EVENT:
             return Event.class;
+        case HISTORYDELTA:
+            return HistoryDelta.class;
+        case HISTORYARCHIVE:
+            return HistoryArchive.class;
         default:
             return null;
         }
@@ -37,7 +37,7 @@ import at.treedb.util.FileAccess;
  */
 
 @Entity
-@Table(indexes = { @Index(columnList = "name"), @Index(columnList = "histId") })
+@Table(indexes = { @Index(columnList = "name"), @Index(columnList = "histId,validFrom") })
 public class Clazz extends Base implements Cloneable {
     private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,42 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+/**
+ * Callback interface for reporting the progress of the
+ * {@code HistoryCompactor}.
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public interface CompactionListenerIface {
+    /**
+     * Reports the progress after every compacted batch.
+     * 
+     * @param stats
+     *            statistics of the running compaction of a class
+     */
+    public void progress(HistoryCompactor.Stats stats);
+
+    /**
+     * Reports an error of a background compaction.
+     * 
+     * @param clazz
+     *            compacted class
+     * @param e
+     *            exception
+     */
+    public void error(Class<? extends Base> clazz, Exception e);
+}
@@ -0,0 +1,93 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+/**
+ * <p>
+ * Immutable JPQL/HQL query template with its ordered named parameters. A
+ * {@code CompiledQuery} is created once by the {@code QueryRegistry} and
+ * reused for every execution. The query string is therefore identical for
+ * every call and the persistence layer can reuse its parsed query plan
+ * (Hibernate query plan cache, JPQL parse cache of the JPA implementations).
+ * </p>
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public class CompiledQuery {
+    private final String query;
+    private final String[] parameters;
+
+    /**
+     * Constructor
+     * 
+     * @param query
+     *            query string
+     * @param parameters
+     *            names of the query parameters, in binding order
+     */
+    public CompiledQuery(String query, String... parameters) {
+        this.query = query;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Returns the query string.
+     * 
+     * @return query string
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns the number of query parameters.
+     * 
+     * @return number of query parameters
+     */
+    public int getParameterCount() {
+        return parameters.length;
+    }
+
+    /**
+     * Returns the name of a query parameter.
+     * 
+     * @param index
+     *            parameter index
+     * @return parameter name
+     */
+    public String getParameter(int index) {
+        return parameters[index];
+    }
+
+    /**
+     * Checks the number of parameter values.
+     * 
+     * @param values
+     *            parameter values
+     * @throws Exception
+     */
+    public void checkParameters(Object[] values) throws Exception {
+        if (values.length != parameters.length) {
+            throw new Exception("CompiledQuery.checkParameters(): " + parameters.length
+                    + " parameter values expected, but " + values.length + " passed for query: " + query);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+}
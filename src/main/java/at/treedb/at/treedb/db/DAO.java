@@ -15,6 +15,8 @@
 
 package at.treedb.db;
 
+import java.util.List;
+
 import at.treedb.db.DAOiface;
 import at.treedb.db.hibernate.DAOhibernate;
 import at.treedb.db.jpa.DAOjpa;
@@ -61,8 +63,34 @@ public class DAO {
         VALIDATE, UPDATE, CREATE
     };
 
+    // JDBC batch size and flush/clear interval of bulk operations
+    public static final int JDBC_BATCH_SIZE = 50;
+
     private static DAOiface daoIface;
 
+    /**
+     * Sets the historization ID of new saved entities to their DB ID. The DB
+     * IDs must be available - after saving (Hibernate) or flushing (JPA) the
+     * entities.
+     * 
+     * @param entities
+     *            saved entities
+     * @return {@code true} if at least one historization ID was set
+     */
+    public static boolean assignHistIds(List<?> entities) {
+        boolean assigned = false;
+        for (Object o : entities) {
+            if (o instanceof HistorizationIface) {
+                HistorizationIface h = (HistorizationIface) o;
+                if (h.getHistId() == 0) {
+                    h.setHistId(h.getDBid());
+                    assigned = true;
+                }
+            }
+        }
+        return assigned;
+    }
+
     /**
      * Sets the DAO.
      * 
@@ -142,6 +170,9 @@ public class DAO {
                 }
             }
             DBinfo.create(daoIface, user, comment);
+        } else {
+            // upgrade the data of older DBs, e.g. the validity intervals
+            DBinfo.upgrade(daoIface, info);
         }
 
         daoIface.endTransaction();
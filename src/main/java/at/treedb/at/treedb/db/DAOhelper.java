@@ -21,15 +21,11 @@ import java.util.HashSet;
 
 import at.treedb.ci.CI;
 import at.treedb.ci.CIblob;
-import at.treedb.ci.CIboolean;
-import at.treedb.ci.CIdate;
-import at.treedb.ci.CIdouble;
+import at.treedb.ci.CIdataBatch;
 import at.treedb.ci.CIfile;
-import at.treedb.ci.CIi18nString;
 import at.treedb.ci.CIimage;
-import at.treedb.ci.CIlong;
-import at.treedb.ci.CIstring;
 import at.treedb.ci.CItype;
+import at.treedb.ci.CIViewCache;
 import at.treedb.ci.Connectable;
 import at.treedb.ci.ConnectionDummy;
 import at.treedb.ci.FileDummy;
@@ -38,6 +34,7 @@ import at.treedb.ci.ImageDummy;
 import at.treedb.ci.MimeType;
 import at.treedb.ci.Node;
 import at.treedb.ci.NodeDummy;
+import at.treedb.domain.CIGraph;
 import at.treedb.domain.Domain;
 import at.treedb.i18n.IstringDummy;
 import at.treedb.i18n.Locale;
@@ -208,15 +205,32 @@ public class DAOhelper {
         }
     }
 
+    /**
+     * Applies the pending connections, disconnections, {@code UItab}s and
+     * {@code UIelement}s to the in-memory graph and publishes the modified
+     * parent/child sets.
+     * 
+     * @throws Exception
+     */
     public void buildConnections() throws Exception {
+        HashSet<Connectable> changed = new HashSet<Connectable>();
+        synchronized (domain.getGraphLock()) {
+            try {
+                applyConnections(changed);
+            } finally {
+                domain.publishGraph(changed);
+            }
+        }
+    }
 
+    private void applyConnections(HashSet<Connectable> changed) throws Exception {
         if (ciConnectList.size() > 0) {
             // connect all CIs
-            synchronized (domain.getCImap()) {
-                for (NodeDummy node : ciConnectList) {
-                    node.getChild().getParents().add(node.getParent());
-                    node.getParent().getChildren().add(node.getChild());
-                }
+            for (NodeDummy node : ciConnectList) {
+                node.getChild().getParents().add(node.getParent());
+                node.getParent().getChildren().add(node.getChild());
+                changed.add(node.getChild());
+                changed.add(node.getParent());
             }
             ciConnectList.clear();
         }
@@ -250,13 +264,13 @@ public class DAOhelper {
             }
 
             // connect all CItypes
-            synchronized (domain.getCItypeMap()) {
-                for (NodeDummy node : ciTypeConnectList) {
-                    node.getChild().getParents().add(node.getParent());
-                    node.getParent().getChildren().add(node.getChild());
-                    // ((Base) node.getChild()).unlock();
-                    // ((Base) node.getParent()).unlock();
-                }
+            for (NodeDummy node : ciTypeConnectList) {
+                node.getChild().getParents().add(node.getParent());
+                node.getParent().getChildren().add(node.getChild());
+                changed.add(node.getChild());
+                changed.add(node.getParent());
+                // ((Base) node.getChild()).unlock();
+                // ((Base) node.getParent()).unlock();
             }
             ciTypeConnectList.clear();
         }
@@ -278,6 +292,8 @@ public class DAOhelper {
                 Connectable p = d.getParent();
                 c.getParents().remove(p);
                 p.getChildren().remove(c);
+                changed.add(c);
+                changed.add(p);
             }
         }
         if (ciDisconnectList.size() > 0) {
@@ -286,6 +302,8 @@ public class DAOhelper {
                 Connectable p = d.getParent();
                 c.getParents().remove(p);
                 p.getChildren().remove(c);
+                changed.add(c);
+                changed.add(p);
             }
         }
     }
@@ -337,7 +355,7 @@ public class DAOhelper {
      */
     public CItype createCItype(String name, String alias, String description, ImageDummy image, int internalId)
             throws Exception {
-        synchronized (domain.getCItypeMap()) {
+        synchronized (domain.getGraphLock()) {
             CItype t = CItype.create(dao, domain, user, name, alias, description, image, internalId);
             domain.putCItype(t);
             return t;
@@ -360,13 +378,14 @@ public class DAOhelper {
      * @throws Exception
      */
     public void removeCItype(CItype type) throws Exception {
-        if (type.getParents().size() > 0) {
-            throw new Exception(
-                    "removeCItype(): Unable to delete CItype. CItype has " + type.getParents().size() + " parent(s)!");
+        CIGraph graph = domain.getGraph();
+        if (graph.getParents(type).size() > 0) {
+            throw new Exception("removeCItype(): Unable to delete CItype. CItype has "
+                    + graph.getParents(type).size() + " parent(s)!");
         }
-        if (type.getChildren().size() > 0) {
-            throw new Exception("removeCItype(): Unable to delete CItype. CItype has " + type.getParents().size()
-                    + " child/children!");
+        if (graph.getChildren(type).size() > 0) {
+            throw new Exception("removeCItype(): Unable to delete CItype. CItype has "
+                    + graph.getChildren(type).size() + " child/children!");
         }
         long count = Base.countRow(dao, CI.class, HistorizationIface.STATUS.ACTIVE, "type =" + type.getHistId());
         if (count > 0) {
@@ -397,7 +416,7 @@ public class DAOhelper {
      * @throws Exception
      */
     public CI createCI(CItype type, String name, String alias, UpdateMap umap) throws Exception {
-        synchronized (domain.getCImap()) {
+        synchronized (domain.getGraphLock()) {
             if (domain.isUniqueCInames() && domain.getCI(name) != null) {
                 throw new Exception("DAOhelper.createCI(): CI name is not unique: " + name);
             }
@@ -421,7 +440,7 @@ public class DAOhelper {
      * @throws Exception
      */
     public CI createCI(CItype type, String name, String alias, boolean inMemory, CI ciContext) throws Exception {
-        synchronized (domain.getCImap()) {
+        synchronized (domain.getGraphLock()) {
             if (name != null) {
                 if (domain.getCI(name) != null) {
                     throw new Exception("DAOhelper.createCI(): CI name is not unique: " + name);
@@ -469,27 +488,26 @@ public class DAOhelper {
     @SuppressWarnings("unchecked")
     public void saveOrUpdateCIdata(CI ci, UpdateCIdata data) throws Exception {
         HashMap<String, Object> map = data.getUpdates();
+        // scalar values: diff against the current data elements, write only
+        // the changes
+        CIdataBatch batch = new CIdataBatch(dao, ci);
         for (String name : map.keySet()) {
             UIelement ui = ci.getCItypeObj().getUIelement(name);
             switch (ui.getDataType()) {
             case CISTRING:
-                CIstring.createOrUpdate(dao, domain, user, ci.getHistId(), ci.getCIType(), ui.getComposedId(),
-                        (String) map.get(name));
+                batch.setString(ui.getComposedId(), (String) map.get(name));
                 break;
             case CILONG:
-                CIlong.createOrUpdate(dao, domain, user, ci.getHistId(), ci.getCIType(), ui.getComposedId(),
-                        (Long) map.get(name));
+                batch.setLong(ui.getComposedId(), (Long) map.get(name));
                 break;
             case CIDOUBLE:
-                CIdouble.createOrUpdate(dao, domain, user, ci.getHistId(), ci.getCIType(), ui.getComposedId(),
-                        (Double) map.get(name));
+                batch.setDouble(ui.getComposedId(), (Double) map.get(name));
                 break;
 
             case CII18NSTRING: {
                 ArrayList<IstringDummy> list = (ArrayList<IstringDummy>) map.get(name);
                 for (IstringDummy d : list) {
-                    CIi18nString.createOrUpdate(dao, domain, user, ci.getHistId(), ci.getCIType(), ui.getComposedId(),
-                            d.getText(), d.getLanguage());
+                    batch.setI18nString(ui.getComposedId(), d.getText(), d.getLanguage());
                 }
                 break;
             }
@@ -517,13 +535,11 @@ public class DAOhelper {
                 break;
             }
             case CIDATE: {
-                CIdate.createOrUpdate(dao, domain, user, ci.getHistId(), ci.getCIType(), ui.getComposedId(),
-                        (Date) map.get(name));
+                batch.setDate(ui.getComposedId(), (Date) map.get(name));
                 break;
             }
             case CIBOOLEAN: {
-                CIboolean.createOrUpdate(dao, domain, user, ci.getHistId(), ci.getCIType(), ui.getComposedId(),
-                        (Boolean) map.get(name));
+                batch.setBoolean(ui.getComposedId(), (Boolean) map.get(name));
                 break;
             }
             case CIBLOB: {
@@ -537,12 +553,15 @@ public class DAOhelper {
             }
 
         }
-
+        batch.write(dao, domain, user);
+        // the data elements are written by several calls - drop the view once more afterwards
+        CIViewCache.invalidate(dao, ci.getHistId());
     }
 
     public void deleteCI(CI ci) throws Exception {
-        if (ci.getChildren().size() > 1) {
-            for (Connectable c : ci.getChildren()) {
+        CIGraph graph = domain.getGraph();
+        if (graph.getChildren(ci).size() > 1) {
+            for (Connectable c : graph.getChildren(ci)) {
                 if (!deletedCIs.contains(c.getId())) {
                     throw new Exception("DAOhelper.delete(): CI has children");
                 }
@@ -550,11 +569,11 @@ public class DAOhelper {
 
         }
         deletedCIs.add(ci.getHistId());
-        for (Connectable parent : ci.getParents()) {
+        for (Connectable parent : graph.getParents(ci)) {
             disconnect(ci, (CI) parent);
         }
         Base.delete(dao, user, ci, false);
-        domain.getCImap().remove(ci.getHistId());
+        domain.removeCI(ci);
     }
 
     public void deleteCIimage(int histID, boolean deleteCache) throws Exception {
@@ -611,7 +630,9 @@ public class DAOhelper {
     }
 
     public void disconnect(CItype child, CItype parent) throws Exception {
-        if (!child.getParents().contains(parent) || (parent != null && !parent.getChildren().contains(child))) {
+        CIGraph graph = domain.getGraph();
+        if (!graph.getParents(child).contains(parent)
+                || (parent != null && !graph.getChildren(parent).contains(child))) {
             throw new Exception("Node.disconnect(): No child/parent relationship for this CItypes!");
         }
         Node.delete(dao, domain, user, child, parent);
@@ -619,7 +640,9 @@ public class DAOhelper {
     }
 
     public void disconnect(CI child, CI parent) throws Exception {
-        if (!child.getParents().contains(parent) || (parent != null && !parent.getChildren().contains(child))) {
+        CIGraph graph = domain.getGraph();
+        if (!graph.getParents(child).contains(parent)
+                || (parent != null && !graph.getChildren(parent).contains(child))) {
             throw new Exception("Node.disconnect(): No child/parent relationship for this CItypes!");
         }
         Node.delete(dao, domain, user, child, parent);
@@ -14,6 +14,7 @@
  */
 package at.treedb.db;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -68,6 +69,17 @@ public interface DAOiface {
      */
     public <T extends HistorizationIface> void update(T entity);
 
+    /**
+     * Updates a collection of entities using JDBC batching. The persistence
+     * context is flushed every {@code DAO.JDBC_BATCH_SIZE} entities, but not
+     * cleared - managed entities stay managed.
+     * 
+     * @param entities
+     *            entities to be updated
+     * @throws Exception
+     */
+    public <T extends HistorizationIface> void updateAll(Collection<T> entities) throws Exception;
+
     /**
      * Persists an entity.
      * 
@@ -76,6 +88,20 @@ public interface DAOiface {
      */
     public <T> void save(T entity) throws Exception;
 
+    /**
+     * Persists a collection of entities using JDBC batching. The persistence
+     * context is flushed every {@code DAO.JDBC_BATCH_SIZE} entities and the
+     * flushed entities are detached - other managed entities aren't touched.
+     * The historization ID of entities without a historization ID is set to
+     * the DB ID. Note: The inserts are only batched if the ID generator isn't
+     * {@code IDENTITY} based, otherwise only the flush is batched.
+     * 
+     * @param entities
+     *            entities to be persisted
+     * @throws Exception
+     */
+    public <T> void saveAll(Collection<T> entities) throws Exception;
+
     /**
      * Saves an entity and invokes a DB flush, if the underlying persistence
      * layer is JPA. This special handling is necessary according the JPA
@@ -97,6 +123,17 @@ public interface DAOiface {
 
     public <T> void detach(T entity) throws Exception;
 
+    /**
+     * Detaches all managed entities of a class, e.g. after a bulk statement
+     * which bypasses the persistence context. Pending changes are flushed
+     * before.
+     * 
+     * @param clazz
+     *            entity class
+     * @throws Exception
+     */
+    public void detachAll(Class<?> clazz) throws Exception;
+
     /**
      * Deletes an entity.
      * 
@@ -156,6 +193,34 @@ public interface DAOiface {
      */
     public List<?> query(String query, int start, int maxResults, HashMap<String, Object> map) throws Exception;
 
+    /**
+     * Query with a compiled query of the {@code QueryRegistry}.
+     * 
+     * @param query
+     *            compiled query
+     * @param values
+     *            parameter values, in the order of the query parameters
+     * @return query result
+     * @throws Exception
+     */
+    public List<?> query(CompiledQuery query, Object... values) throws Exception;
+
+    /**
+     * Query with a compiled query of the {@code QueryRegistry}.
+     * 
+     * @param query
+     *            compiled query
+     * @param start
+     *            start position of the first result, numbered from 0
+     * @param maxResults
+     *            maximum number of results
+     * @param values
+     *            parameter values, in the order of the query parameters
+     * @return query result
+     * @throws Exception
+     */
+    public List<?> query(CompiledQuery query, int start, int maxResults, Object[] values) throws Exception;
+
     /**
      * Query with named parameter including execution - e.g. bulk delete/update
      * 
@@ -193,6 +258,26 @@ public interface DAOiface {
      */
     public void rollback();
 
+    /**
+     * Registers an action, which is executed after the commit of the current
+     * transaction - a rollback discards the action. Without an active
+     * transaction the action is executed immediately.
+     * 
+     * @param action
+     *            action
+     */
+    public void afterCommit(Runnable action);
+
+    /**
+     * Registers an action, which is executed after the commit or the rollback
+     * of the current transaction. Without an active transaction the action is
+     * executed immediately.
+     * 
+     * @param action
+     *            action
+     */
+    public void afterCompletion(Runnable action);
+
     /**
      * Closes the instance of the interface including DB connection closing.
      */
@@ -48,7 +48,8 @@ public class DBentities {
             at.treedb.ui.UIelement.class, at.treedb.ui.UIwikiTextArea.class, at.treedb.ui.UIgrouping.class,
             at.treedb.ui.UIgroupingEnd.class, at.treedb.ui.UIdateField.class, at.treedb.ui.UIcheckbox.class,
             at.treedb.ui.UIslider.class, at.treedb.ui.UIselect.class, at.treedb.ui.UIoption.class,
-            at.treedb.ui.UIblob.class, at.treedb.dbfs.DBfile.class, at.treedb.dbfs.DBFSblock.class
+            at.treedb.ui.UIblob.class, at.treedb.dbfs.DBfile.class, at.treedb.dbfs.DBFSblock.class,
+            at.treedb.db.HistoryDelta.class, at.treedb.db.HistoryArchive.class
 
     };
 
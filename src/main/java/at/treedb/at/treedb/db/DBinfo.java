@@ -15,6 +15,7 @@
 
 package at.treedb.db;
 
+import java.lang.reflect.Modifier;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.UUID;
@@ -40,7 +41,8 @@ public class DBinfo extends Base implements Cloneable {
         user, comment
     }
 
-    public static final String DB_SCHEMA_VERSION = "0.1";
+    // 0.2: validity intervals (validFrom/validTo) of the entities
+    public static final String DB_SCHEMA_VERSION = "0.2";
 
     private String dbSchemaVersion;
 
@@ -107,6 +109,35 @@ public class DBinfo extends Base implements Cloneable {
         return info;
     }
 
+    /**
+     * Upgrades the data of a DB created with an older internal DB schema
+     * version. Versions older than 0.2 are missing the validity intervals,
+     * therefore the intervals of all entities are rebuilt - otherwise the
+     * temporal queries ignore the existing data.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param info
+     *            {@code DBinfo} of the DB
+     * @return {@code true} if the DB was upgraded
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    static boolean upgrade(DAOiface dao, DBinfo info) throws Exception {
+        if (DB_SCHEMA_VERSION.equals(info.dbSchemaVersion)) {
+            return false;
+        }
+        for (Class<?> c : DBentities.getClasses()) {
+            if (Modifier.isAbstract(c.getModifiers()) || !Base.class.isAssignableFrom(c)) {
+                continue;
+            }
+            Base.rebuildValidity(dao, (Class<? extends Base>) c);
+        }
+        info.dbSchemaVersion = DB_SCHEMA_VERSION;
+        dao.update(info);
+        return true;
+    }
+
     /**
      * Loads a {@code Clazz}.
      * 
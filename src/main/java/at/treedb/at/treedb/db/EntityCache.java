@@ -0,0 +1,198 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Size-bounded LRU implementation of the {@code EntityCacheIface}. Entities are
+ * keyed by the pair class/historization ID. The cache can be restricted to a
+ * set of classes, e.g. rarely changing entities like {@code CItype},
+ * {@code User}, {@code Group} or {@code Image}.
+ * </p>
+ * <p>
+ * The cache holds shallow copies of the loaded state. A bulk statement clears
+ * the whole cache, because the affected entities are unknown.
+ * </p>
+ * <p>
+ * Usage: {@code Base.setEntityCache(new EntityCache(10000, CItype.class, User.class))}
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class EntityCache implements EntityCacheIface {
+    private final int maxSize;
+    private final HashSet<Class<?>> classes;
+    private final LinkedHashMap<Key, Base> map;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // synchronized by map
+    private long generation;
+
+    /**
+     * Cache key - pair class/historization ID.
+     */
+    private static class Key {
+        private final Class<?> clazz;
+        private final int histId;
+
+        Key(Class<?> clazz, int histId) {
+            this.clazz = clazz;
+            this.histId = histId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clazz.hashCode() + histId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.histId == histId && k.clazz == clazz;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxSize
+     *            maximum number of cached entities
+     * @param classes
+     *            cached entity classes, if empty all classes are cached
+     */
+    @SuppressWarnings("serial")
+    public EntityCache(int maxSize, Class<?>... classes) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("EntityCache(): maxSize must be greater than 0");
+        }
+        this.maxSize = maxSize;
+        this.classes = new HashSet<Class<?>>();
+        for (Class<?> c : classes) {
+            this.classes.add(c);
+        }
+        map = new LinkedHashMap<Key, Base>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Base> eldest) {
+                return size() > EntityCache.this.maxSize;
+            }
+        };
+    }
+
+    @Override
+    public boolean isCacheable(Class<? extends Base> clazz) {
+        return classes.isEmpty() || classes.contains(clazz);
+    }
+
+    @Override
+    public Base get(Class<? extends Base> clazz, int histId) {
+        Base base;
+        synchronized (map) {
+            base = map.get(new Key(clazz, histId));
+        }
+        if (base == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(base);
+    }
+
+    @Override
+    public long getGeneration() {
+        synchronized (map) {
+            return generation;
+        }
+    }
+
+    @Override
+    public void put(Class<? extends Base> clazz, Base base, long generation) {
+        if (base.getHistStatus() != HistorizationIface.STATUS.ACTIVE) {
+            return;
+        }
+        Base copy = copy(base);
+        if (copy == null) {
+            return;
+        }
+        synchronized (map) {
+            if (this.generation == generation) {
+                map.put(new Key(clazz, base.getHistId()), copy);
+            }
+        }
+    }
+
+    private static Base copy(Base base) {
+        try {
+            return (Base) base.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void invalidate(Class<? extends Base> clazz, int histId) {
+        synchronized (map) {
+            ++generation;
+            // entities can be loaded by their abstract base class
+            Class<?> c = clazz;
+            while (c != null && !c.equals(Object.class)) {
+                map.remove(new Key(c, histId));
+                c = c.getSuperclass();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (map) {
+            ++generation;
+            map.clear();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached entities.
+     *
+     * @return maximum cache size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
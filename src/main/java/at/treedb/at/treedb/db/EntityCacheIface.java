@@ -0,0 +1,106 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+/**
+ * Interface of an in-memory cache for active entities, used by
+ * {@code Base.load()} to avoid a DB round trip for single entity lookups. The
+ * cache stores and returns copies - a returned entity isn't shared with other
+ * threads. Written entities are removed by the DAO after the commit.
+ *
+ * @author Peter Sauer
+ *
+ */
+public interface EntityCacheIface {
+    /**
+     * Returns a copy of a cached entity.
+     *
+     * @param clazz
+     *            class of the entity
+     * @param histId
+     *            historization ID of the entity
+     * @return copy of the cached entity, or {@code null} if the entity isn't
+     *         cached
+     */
+    public Base get(Class<? extends Base> clazz, int histId);
+
+    /**
+     * Returns the current generation of the cache, which is incremented by
+     * every invalidation. The generation is read before loading an entity from
+     * the DB.
+     *
+     * @return generation
+     */
+    public long getGeneration();
+
+    /**
+     * Stores a copy of an active entity. The entity isn't stored, if the cache
+     * was invalidated since the given generation - the loaded state may be
+     * outdated.
+     *
+     * @param clazz
+     *            class used for loading the entity
+     * @param base
+     *            entity
+     * @param generation
+     *            generation of the cache before loading the entity
+     */
+    public void put(Class<? extends Base> clazz, Base base, long generation);
+
+    /**
+     * Removes an entity from the cache.
+     *
+     * @param clazz
+     *            class of the entity
+     * @param histId
+     *            historization ID of the entity
+     */
+    public void invalidate(Class<? extends Base> clazz, int histId);
+
+    /**
+     * Removes all entities from the cache.
+     */
+    public void clear();
+
+    /**
+     * Checks if entities of a class are cached.
+     *
+     * @param clazz
+     *            class of the entity
+     * @return {@code true} if the class is cached, {@code false} if not
+     */
+    public boolean isCacheable(Class<? extends Base> clazz);
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return cache hits
+     */
+    public long getHits();
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return cache misses
+     */
+    public long getMisses();
+
+    /**
+     * Returns the number of cached entities.
+     *
+     * @return cache size
+     */
+    public int size();
+}
@@ -0,0 +1,268 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Registry of the fields of a persisted class. The fields of a class, including
+ * the fields of the super classes, are collected only once and made
+ * accessible. This replaces the repeated {@code getDeclaredField()},
+ * {@code setAccessible()} and {@code getAnnotation()} calls of update and
+ * backup operations.
+ * </p>
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public class FieldAccessor {
+    private static ConcurrentHashMap<Class<?>, FieldAccessor> accessors = new ConcurrentHashMap<Class<?>, FieldAccessor>();
+    // field name/field - fields of a sub class hide fields of a super class
+    private HashMap<String, Field> fieldMap = new HashMap<String, Field>();
+    private List<Field> declaredFields;
+    private List<Field> allFields;
+    private HashMap<Field, Class<?>> dbKeys = new HashMap<Field, Class<?>>();
+    private HashMap<Field, Integer> detachIndex = new HashMap<Field, Integer>();
+
+    private FieldAccessor(Class<?> clazz) {
+        ArrayList<Field> declared = new ArrayList<Field>();
+        ArrayList<Field> all = new ArrayList<Field>();
+        Class<?> c = clazz;
+        while (c != null && !c.equals(Object.class)) {
+            for (Field f : c.getDeclaredFields()) {
+                f.setAccessible(true);
+                if (c == clazz) {
+                    declared.add(f);
+                }
+                all.add(f);
+                if (!fieldMap.containsKey(f.getName())) {
+                    fieldMap.put(f.getName(), f);
+                }
+                DBkey key = f.getAnnotation(DBkey.class);
+                if (key != null) {
+                    dbKeys.put(f, key.value());
+                }
+                Detach detach = f.getAnnotation(Detach.class);
+                if (detach != null) {
+                    detachIndex.put(f, detach.index());
+                }
+            }
+            c = c.getSuperclass();
+        }
+        declaredFields = Collections.unmodifiableList(declared);
+        allFields = Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Returns the field registry of a class.
+     * 
+     * @param clazz
+     *            class
+     * @return {@code FieldAccessor}
+     */
+    public static FieldAccessor getAccessor(Class<?> clazz) {
+        FieldAccessor accessor = accessors.get(clazz);
+        if (accessor == null) {
+            accessor = new FieldAccessor(clazz);
+            FieldAccessor old = accessors.putIfAbsent(clazz, accessor);
+            if (old != null) {
+                accessor = old;
+            }
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns an accessible field of the class or of a super class.
+     * 
+     * @param name
+     *            field name
+     * @return field
+     * @throws NoSuchFieldException
+     */
+    public Field getField(String name) throws NoSuchFieldException {
+        Field f = fieldMap.get(name);
+        if (f == null) {
+            throw new NoSuchFieldException(name);
+        }
+        return f;
+    }
+
+    /**
+     * Returns the accessible fields declared by the class itself.
+     * 
+     * @return field list
+     */
+    public List<Field> getDeclaredFields() {
+        return declaredFields;
+    }
+
+    /**
+     * Returns the accessible fields, including the fields of the super
+     * classes.
+     * 
+     * @return field list
+     */
+    public List<Field> getAllFields() {
+        return allFields;
+    }
+
+    /**
+     * Returns the declared fields of the class which are marked by an
+     * annotation.
+     * 
+     * @param annotation
+     *            {@code DBkey} or {@code Detach}
+     * @return field list
+     */
+    public List<Field> getDeclaredFields(Class<? extends Annotation> annotation) {
+        return filter(declaredFields, annotation);
+    }
+
+    /**
+     * Returns all fields, including the fields of the super classes, which are
+     * marked by an annotation.
+     * 
+     * @param annotation
+     *            {@code DBkey} or {@code Detach}
+     * @return field list
+     */
+    public List<Field> getAllFields(Class<? extends Annotation> annotation) {
+        return filter(allFields, annotation);
+    }
+
+    private List<Field> filter(List<Field> fields, Class<? extends Annotation> annotation) {
+        HashMap<Field, ?> map;
+        if (annotation.equals(DBkey.class)) {
+            map = dbKeys;
+        } else if (annotation.equals(Detach.class)) {
+            map = detachIndex;
+        } else {
+            throw new IllegalArgumentException("FieldAccessor.filter(): annotation not supported: " + annotation);
+        }
+        ArrayList<Field> list = new ArrayList<Field>();
+        for (Field f : fields) {
+            if (map.containsKey(f)) {
+                list.add(f);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the value of the {@code DBkey} annotation of a field.
+     * 
+     * @param f
+     *            field
+     * @return referenced class, or {@code null} if the field isn't a
+     *         {@code DBkey}
+     */
+    public Class<?> getDBkey(Field f) {
+        return dbKeys.get(f);
+    }
+
+    /**
+     * Returns the index of the {@code Detach} annotation of a field.
+     * 
+     * @param f
+     *            field
+     * @return index, or -1 if the field isn't marked for detaching
+     */
+    public int getDetachIndex(Field f) {
+        Integer index = detachIndex.get(f);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Sets a field of an embedded data type. Primitive fields are set without
+     * boxing the value.
+     * 
+     * @param o
+     *            object
+     * @param f
+     *            accessible field
+     * @param u
+     *            update entry
+     * @return {@code true} if the field was set, {@code false} if the update
+     *         type isn't an embedded data type
+     * @throws IllegalAccessException
+     */
+    public static boolean setValue(Object o, Field f, Update u) throws IllegalAccessException {
+        boolean primitive = f.getType().isPrimitive();
+        switch (u.getType()) {
+        case STRING:
+            f.set(o, u.getString());
+            break;
+        case DOUBLE:
+            if (primitive) {
+                f.setDouble(o, u.getDouble());
+            } else {
+                f.set(o, u.getDouble());
+            }
+            break;
+        case FLOAT:
+            if (primitive) {
+                f.setFloat(o, u.getFloat());
+            } else {
+                f.set(o, u.getFloat());
+            }
+            break;
+        case LONG:
+            if (primitive) {
+                f.setLong(o, u.getLong());
+            } else {
+                f.set(o, u.getLong());
+            }
+            break;
+        case INT:
+            if (primitive) {
+                f.setInt(o, u.getInt());
+            } else {
+                f.set(o, u.getInt());
+            }
+            break;
+        case LAZY_BINARY:
+        case BINARY:
+            f.set(o, u.getBinary());
+            break;
+        case BOOLEAN:
+            if (primitive) {
+                f.setBoolean(o, u.getBoolean());
+            } else {
+                f.set(o, u.getBoolean());
+            }
+            break;
+        case DATE:
+            f.set(o, u.getDate());
+            break;
+        case ENUM:
+            f.set(o, u.getEnum());
+            break;
+        case BIGDECIMAL:
+            f.set(o, u.getBigDecimal());
+            break;
+        default:
+            return false;
+        }
+        return true;
+    }
+}
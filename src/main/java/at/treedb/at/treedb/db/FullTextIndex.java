@@ -0,0 +1,464 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.treedb.db.HistorizationIface.STATUS;
+
+/**
+ * <p>
+ * Embedded inverted index of text fields, used by {@code Base.search()} to
+ * restrict the {@code like} search to a small set of candidate entities.
+ * The index maps the upper case tokens (letter/digit sequences) of a field to
+ * the DB IDs of the active entities and supports exact token and token prefix
+ * lookups. DB IDs are used, because entities like {@code Istring} share a
+ * historization ID over several rows.
+ * </p>
+ * <p>
+ * The index is enabled per class, loaded with a single query on the first
+ * search of a field and maintained by the write paths of {@code Base} after
+ * the commit. The candidates are always re-checked by the DB query, therefore
+ * stale entries only widen the candidate set. Writes of other processes are
+ * found by a query of the entities modified since the last search, unless the
+ * index is declared as authoritative. Bulk statements drop the index.
+ * </p>
+ * <p>
+ * Usage: {@code FullTextIndex.enable(Istring.class)}
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class FullTextIndex {
+    /**
+     * Maximum number of candidates - larger candidate sets fall back to the
+     * table scan.
+     */
+    public static final int MAX_CANDIDATES = 1000;
+
+    // overlap of the synchronization queries in milliseconds
+    private static final long SYNC_OVERLAP = 5000;
+    private static volatile boolean authoritative;
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Index>> indexes =
+            new ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Index>>();
+
+    /**
+     * Index of a field.
+     */
+    private static class Index {
+        // token -> DB IDs
+        private final ConcurrentSkipListMap<String, Set<Integer>> postings =
+                new ConcurrentSkipListMap<String, Set<Integer>>();
+        // DB ID -> indexed tokens
+        private final ConcurrentHashMap<Integer, String[]> tokens = new ConcurrentHashMap<Integer, String[]>();
+        // DB IDs written during the initial load, {@code null} if the index
+        // is loaded
+        private HashSet<Integer> written = new HashSet<Integer>();
+        // single-flight of the initial load
+        private final Object loadLock = new Object();
+        // start of the last synchronization with the DB
+        private final AtomicLong synced = new AtomicLong();
+
+        synchronized boolean isLoaded() {
+            return written == null;
+        }
+
+        synchronized void put(int id, String text) {
+            set(id, text);
+            if (written != null) {
+                written.add(id);
+            }
+        }
+
+        synchronized void remove(int id) {
+            unset(id);
+            if (written != null) {
+                written.add(id);
+            }
+        }
+
+        /**
+         * Completes the initial load - rows of entities written during the
+         * load are outdated and skipped.
+         */
+        synchronized void load(List<Object[]> rows) {
+            for (Object[] o : rows) {
+                if (!written.contains(o[0])) {
+                    set((Integer) o[0], (String) o[1]);
+                }
+            }
+            written = null;
+        }
+
+        void synced(long time) {
+            long old = synced.get();
+            while (old < time && !synced.compareAndSet(old, time)) {
+                old = synced.get();
+            }
+        }
+
+        private void set(int id, String text) {
+            unset(id);
+            String[] list = tokenize(text);
+            for (String t : list) {
+                Set<Integer> set = postings.get(t);
+                if (set == null) {
+                    set = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+                    postings.put(t, set);
+                }
+                set.add(id);
+            }
+            tokens.put(id, list);
+        }
+
+        private void unset(int id) {
+            String[] list = tokens.remove(id);
+            if (list != null) {
+                for (String t : list) {
+                    Set<Integer> set = postings.get(t);
+                    if (set != null) {
+                        set.remove(id);
+                        if (set.isEmpty()) {
+                            postings.remove(t);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Search term - token or token prefix.
+     */
+    private static class Term {
+        private final String token;
+        private final boolean prefix;
+
+        Term(String token, boolean prefix) {
+            this.token = token;
+            this.prefix = prefix;
+        }
+    }
+
+    private FullTextIndex() {
+    }
+
+    /**
+     * Enables the index for a class.
+     *
+     * @param clazz
+     *            entity class
+     */
+    public static void enable(Class<? extends Base> clazz) {
+        indexes.putIfAbsent(clazz, new ConcurrentHashMap<String, Index>());
+    }
+
+    /**
+     * Disables the index for a class and drops its data.
+     *
+     * @param clazz
+     *            entity class
+     */
+    public static void disable(Class<? extends Base> clazz) {
+        indexes.remove(clazz);
+    }
+
+    /**
+     * Declares the indexes as authoritative: the writes of other processes
+     * aren't searched before using an index. Only allowed, if the application
+     * is the only writer of the DB.
+     *
+     * @param authoritative
+     *            {@code true} for trusting the indexes, {@code false}
+     *            (default) for searching the entities modified by other
+     *            processes
+     */
+    public static void setAuthoritative(boolean authoritative) {
+        FullTextIndex.authoritative = authoritative;
+    }
+
+    /**
+     * Checks if the index is enabled for a class.
+     *
+     * @param clazz
+     *            entity class
+     * @return {@code true} if the index is enabled, {@code false} if not
+     */
+    public static boolean isEnabled(Class<?> clazz) {
+        return indexes.containsKey(clazz);
+    }
+
+    /**
+     * Drops the data of all indexes, e.g. after a bulk import. The indexes are
+     * reloaded on the next search.
+     */
+    public static void clear() {
+        for (ConcurrentHashMap<String, Index> map : indexes.values()) {
+            map.clear();
+        }
+    }
+
+    /**
+     * Returns the candidates of a search over OR-ed fields.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param fields
+     *            fields to be searched
+     * @param pattern
+     *            search pattern, using the {@code like} wildcards
+     * @param equals
+     *            {@code true} for an exact search
+     * @return DB IDs of the candidates, or {@code null} if the
+     *         index can't restrict the search
+     * @throws Exception
+     */
+    public static Set<Integer> getCandidates(DAOiface dao, Class<?> clazz, Iterable<? extends Enum<?>> fields,
+            String pattern, boolean equals) throws Exception {
+        ConcurrentHashMap<String, Index> map = indexes.get(clazz);
+        if (map == null) {
+            return null;
+        }
+        List<Term> terms = parse(pattern, equals);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        FieldAccessor accessor = FieldAccessor.getAccessor(clazz);
+        HashSet<Integer> result = new HashSet<Integer>();
+        for (Enum<?> field : fields) {
+            if (!accessor.getField(field.name()).getType().equals(String.class)) {
+                return null;
+            }
+            Set<Integer> set = getCandidates(getIndex(dao, clazz, map, field.name()), terms);
+            if (set == null) {
+                return null;
+            }
+            result.addAll(set);
+            if (result.size() > MAX_CANDIDATES) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers the maintenance of the indexes for a written entity - the
+     * indexes are updated after the commit.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param base
+     *            saved, updated or deleted entity
+     * @throws Exception
+     */
+    static void update(DAOiface dao, Base base) throws Exception {
+        final ConcurrentHashMap<String, Index> map = indexes.get(base.getClass());
+        if (map == null || map.isEmpty()) {
+            return;
+        }
+        final boolean active = base.getHistStatus() == STATUS.ACTIVE;
+        final int id = base.getDBid();
+        final HashMap<String, String> texts = new HashMap<String, String>();
+        FieldAccessor accessor = FieldAccessor.getAccessor(base.getClass());
+        for (String field : map.keySet()) {
+            texts.put(field, (String) accessor.getField(field).get(base));
+        }
+        dao.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, String> e : texts.entrySet()) {
+                    Index index = map.get(e.getKey());
+                    if (index == null) {
+                        continue;
+                    }
+                    if (active) {
+                        index.put(id, e.getValue());
+                    } else {
+                        index.remove(id);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Splits a text into upper case tokens.
+     *
+     * @param text
+     *            text
+     * @return tokens
+     */
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        HashSet<String> set = new HashSet<String>();
+        String upper = text.toUpperCase();
+        int start = -1;
+        for (int i = 0; i <= upper.length(); ++i) {
+            if (i < upper.length() && Character.isLetterOrDigit(upper.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                set.add(upper.substring(start, i));
+                start = -1;
+            }
+        }
+        return set.toArray(new String[set.size()]);
+    }
+
+    /**
+     * Extracts the terms of a {@code like} pattern. A token is usable if it
+     * starts at a token boundary - it's an exact token if it also ends at a
+     * token boundary, otherwise a prefix.
+     */
+    private static List<Term> parse(String pattern, boolean equals) {
+        ArrayList<Term> terms = new ArrayList<Term>();
+        String p = pattern.toUpperCase();
+        int start = -1;
+        for (int i = 0; i <= p.length(); ++i) {
+            if (i < p.length() && Character.isLetterOrDigit(p.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                boolean leftWild = !equals && start > 0 && isWildcard(p.charAt(start - 1));
+                boolean rightWild = !equals && i < p.length() && isWildcard(p.charAt(i));
+                if (!leftWild) {
+                    terms.add(new Term(p.substring(start, i), rightWild));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == '%' || c == '_';
+    }
+
+    /**
+     * Intersects the postings of the usable terms.
+     */
+    private static Set<Integer> getCandidates(Index index, List<Term> terms) {
+        Set<Integer> result = null;
+        for (Term t : terms) {
+            Set<Integer> set;
+            if (t.prefix) {
+                set = new HashSet<Integer>();
+                for (Set<Integer> s : index.postings.subMap(t.token, t.token + Character.MAX_VALUE).values()) {
+                    set.addAll(s);
+                    if (set.size() > MAX_CANDIDATES) {
+                        // too unselective
+                        set = null;
+                        break;
+                    }
+                }
+                if (set == null) {
+                    continue;
+                }
+            } else {
+                set = index.postings.get(t.token);
+                if (set == null) {
+                    return Collections.emptySet();
+                }
+            }
+            if (result == null) {
+                result = new HashSet<Integer>(set);
+            } else {
+                result.retainAll(set);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        if (result != null && result.size() > MAX_CANDIDATES) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a loaded and synchronized index. The rows read by the queries
+     * contain the uncommitted writes of the transaction - the index is
+     * dropped after a rollback.
+     */
+    @SuppressWarnings("unchecked")
+    private static Index getIndex(DAOiface dao, Class<?> clazz, final ConcurrentHashMap<String, Index> map,
+            final String field) throws Exception {
+        Index index = map.get(field);
+        if (index == null) {
+            map.putIfAbsent(field, new Index());
+            index = map.get(field);
+        }
+        HashMap<String, Object> param = new HashMap<String, Object>();
+        param.put("status", STATUS.ACTIVE);
+        String query = "select i.id, i." + field + " from " + clazz.getSimpleName() + " i where i.status = :status";
+        boolean changed = false;
+        if (!index.isLoaded()) {
+            synchronized (index.loadLock) {
+                if (!index.isLoaded()) {
+                    long start = System.currentTimeMillis();
+                    List<Object[]> rows = (List<Object[]>) dao.query(query, param);
+                    index.synced(start);
+                    index.load(rows);
+                    changed = true;
+                }
+            }
+        } else if (!authoritative) {
+            // writes of other processes - overlap for clock differences
+            long start = System.currentTimeMillis();
+            param.put("since", new Date(index.synced.get() - SYNC_OVERLAP));
+            for (Object[] o : (List<Object[]>) dao.query(query + " and i.lastModified >= :since", param)) {
+                index.put((Integer) o[0], (String) o[1]);
+                changed = true;
+            }
+            index.synced(start);
+        }
+        if (changed) {
+            final Index i = index;
+            final boolean[] committed = new boolean[1];
+            dao.afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    committed[0] = true;
+                }
+            });
+            dao.afterCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    if (!committed[0]) {
+                        map.remove(field, i);
+                    }
+                }
+            });
+        }
+        return index;
+    }
+}
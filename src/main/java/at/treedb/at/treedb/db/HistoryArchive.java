@@ -0,0 +1,456 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * <p>
+ * Separate history table for entities with {@code HistoryMode.SEPARATE} (see
+ * {@code Base.setHistoryMode()}). Superseded versions are moved from the
+ * table of the entity to this table, the entity table holds only the live
+ * rows and the tombstones of deleted entities. An archived version is stored
+ * with its validity interval and its field values, and rebuilt on demand by
+ * the temporal loads.
+ * </p>
+ * 
+ * @author Peter Sauer
+ */
+@SuppressWarnings("serial")
+@Entity
+@Table(indexes = { @Index(columnList = "ownerId,versionFrom"), @Index(columnList = "ownerRef"),
+        @Index(columnList = "domain,ownerCID"), @Index(columnList = "histId,validFrom") })
+public class HistoryArchive extends Base implements Cloneable, ClassSelector {
+    private ClassID ownerCID;
+    // historization ID of the owner
+    @DBkey(ClassSelector.class)
+    private int ownerId;
+    private int ownerVersion;
+    // optional secondary lookup key of the owner, e.g. the CI of CI data
+    private int ownerRef;
+    // validity interval of the archived version
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date versionFrom;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date versionTo;
+    // compressed map field name/value
+    @Lob
+    @Column(nullable = false)
+    private byte[] data;
+
+    protected HistoryArchive() {
+    }
+
+    private HistoryArchive(Base version, byte[] data) {
+        this.setHistStatus(STATUS.ACTIVE);
+        this.ownerCID = version.getCID();
+        this.ownerId = version.getHistId();
+        this.ownerVersion = version.getVersion();
+        this.ownerRef = version.getHistoryRef();
+        this.versionFrom = version.getValidFrom();
+        this.versionTo = version.getValidTo();
+        this.data = data;
+    }
+
+    @Override
+    public ClassID getCID() {
+        return ClassID.HISTORYARCHIVE;
+    }
+
+    @Override
+    public Class<?> getClass(Field f) {
+        return ownerCID.toClass();
+    }
+
+    /**
+     * Stores a superseded or deleted version of an entity.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param version
+     *            version to be archived
+     * @return {@code HistoryArchive}
+     * @throws Exception
+     */
+    static HistoryArchive create(DAOiface dao, Base version) throws Exception {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        FieldAccessor accessor = FieldAccessor.getAccessor(version.getClass());
+        for (Field f : accessor.getAllFields()) {
+            if (HistoryDelta.isHistorized(accessor, f)) {
+                map.put(f.getName(), f.get(version));
+            }
+        }
+        HistoryArchive archive = new HistoryArchive(version, HistoryDelta.serialize(map));
+        archive.setDomain(version.getDomain());
+        Base.save(dao, null, null, archive);
+        return archive;
+    }
+
+    /**
+     * Moves the historic rows ({@code STATUS.UPDATED}) of a class, e.g.
+     * created before the separate history was enabled, to the history table.
+     * The tombstones of deleted entities remain in the entity table. Every
+     * batch runs in its own transaction.
+     * 
+     * @param clazz
+     *            entity class
+     * @param batchSize
+     *            number of rows per transaction
+     * @return number of moved rows
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static long archive(Class<? extends Base> clazz, int batchSize) throws Exception {
+        long count = 0;
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("status", STATUS.UPDATED);
+        while (true) {
+            DAOiface dao = DAO.getDAO();
+            try {
+                dao.beginTransaction();
+                List<Base> list = (List<Base>) dao.query(
+                        "select i from " + clazz.getSimpleName() + " i where i.status = :status order by i.id", 0,
+                        batchSize, map);
+                for (Base b : list) {
+                    create(dao, b);
+                    dao.delete(b);
+                }
+                dao.endTransaction();
+                if (list.isEmpty()) {
+                    break;
+                }
+                count += list.size();
+            } catch (Exception e) {
+                dao.rollback();
+                throw e;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Loads the archived version of an entity valid at a date.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param histId
+     *            historization ID
+     * @param date
+     *            temporal bound
+     * @return archived version, or {@code null}
+     * @throws Exception
+     */
+    public static Base load(DAOiface dao, Class<? extends Base> clazz, int histId, Date date) throws Exception {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("id", histId);
+        List<Base> list = query(dao, clazz, " and a.ownerId = :id", map, date);
+        if (list.size() > 1) {
+            throw new Exception("HistoryArchive.load(): Entity/DB ID is not unique!");
+        }
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Loads all archived versions of a historization ID valid at a date - for
+     * entities sharing a historization ID, e.g. the language variants of an
+     * {@code Istring}.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param histId
+     *            historization ID
+     * @param date
+     *            temporal bound
+     * @return archived versions
+     * @throws Exception
+     */
+    public static List<Base> loadVersions(DAOiface dao, Class<? extends Base> clazz, int histId, Date date)
+            throws Exception {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("id", histId);
+        return query(dao, clazz, " and a.ownerId = :id", map, date);
+    }
+
+    /**
+     * Loads the archived versions of a set of entities valid at a date.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param ids
+     *            historization IDs
+     * @param date
+     *            temporal bound
+     * @return map historization ID/archived version
+     * @throws Exception
+     */
+    public static HashMap<Integer, Base> loadMany(DAOiface dao, Class<? extends Base> clazz, List<Integer> ids,
+            Date date) throws Exception {
+        HashMap<Integer, Base> result = new HashMap<Integer, Base>();
+        for (int i = 0; i < ids.size(); i += LOAD_MANY_CHUNK_SIZE) {
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("ids", new ArrayList<Integer>(ids.subList(i, Math.min(i + LOAD_MANY_CHUNK_SIZE, ids.size()))));
+            for (Base b : query(dao, clazz, " and a.ownerId in :ids", map, date)) {
+                result.put(b.getHistId(), b);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the archived versions of a class valid at a date.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param domain
+     *            optional {@code Domain} ID, can be {@code null}
+     * @param refs
+     *            optional secondary lookup keys, can be {@code null}
+     * @param date
+     *            temporal bound
+     * @return archived versions
+     * @throws Exception
+     */
+    public static List<Base> loadAll(DAOiface dao, Class<? extends Base> clazz, Integer domain,
+            Collection<Integer> refs, Date date) throws Exception {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        String condition = "";
+        if (domain != null) {
+            condition += " and a.domain = :domain";
+            map.put("domain", domain);
+        }
+        if (refs != null) {
+            condition += " and a.ownerRef in :refs";
+            map.put("refs", refs);
+        }
+        return query(dao, clazz, condition, map, date);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Base> query(DAOiface dao, Class<? extends Base> clazz, String condition,
+            HashMap<String, Object> map, Date date) throws Exception {
+        ArrayList<ClassID> cids = ownerCIDs(clazz);
+        ArrayList<Base> result = new ArrayList<Base>();
+        if (cids.isEmpty()) {
+            return result;
+        }
+        map.put("cids", cids);
+        map.put("date", date);
+        List<HistoryArchive> list = (List<HistoryArchive>) dao.query(
+                "select a from HistoryArchive a where a.ownerCID in :cids and a.versionFrom <= :date and (a.versionTo is null or a.versionTo > :date)"
+                        + condition,
+                map);
+        for (HistoryArchive a : list) {
+            result.add(a.rebuild());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the {@code ClassID}s of a class and its sub classes.
+     * 
+     * @param clazz
+     *            entity class
+     * @return list of {@code ClassID}s
+     */
+    static ArrayList<ClassID> ownerCIDs(Class<?> clazz) {
+        ArrayList<ClassID> cids = new ArrayList<ClassID>();
+        for (ClassID c : ClassID.values()) {
+            Class<?> cl = c.toClass();
+            if (cl != null && clazz.isAssignableFrom(cl)) {
+                cids.add(c);
+            }
+        }
+        return cids;
+    }
+
+    /**
+     * Rebuilds the archived version.
+     * 
+     * @return detached entity
+     * @throws Exception
+     */
+    public Base rebuild() throws Exception {
+        Class<?> clazz = ownerCID.toClass();
+        Constructor<?> c = clazz.getDeclaredConstructor();
+        c.setAccessible(true);
+        Base base = (Base) c.newInstance();
+        FieldAccessor accessor = FieldAccessor.getAccessor(clazz);
+        for (Map.Entry<String, Object> e : HistoryDelta.deserialize(data).entrySet()) {
+            Field f;
+            try {
+                f = accessor.getField(e.getKey());
+            } catch (NoSuchFieldException ex) {
+                // field was removed from the class
+                continue;
+            }
+            f.set(base, e.getValue());
+        }
+        return base;
+    }
+
+    /**
+     * Moves the start of the validity interval of the archived version, e.g.
+     * after the removal of older versions by the {@code HistoryCompactor}.
+     * 
+     * @param from
+     *            new start of the validity interval
+     * @throws Exception
+     */
+    void widen(Date from) throws Exception {
+        versionFrom = from;
+        HashMap<String, Object> map = HistoryDelta.deserialize(data);
+        if (map.containsKey("validFrom")) {
+            map.put("validFrom", from);
+            data = HistoryDelta.serialize(map);
+        }
+    }
+
+    /**
+     * Returns the stored field values.
+     * 
+     * @return map field name/value
+     * @throws Exception
+     */
+    public HashMap<String, Object> getValues() throws Exception {
+        return HistoryDelta.deserialize(data);
+    }
+
+    /**
+     * Replaces the stored field values, e.g. for re-mapping the DB keys of an
+     * import.
+     * 
+     * @param values
+     *            map field name/value
+     * @throws Exception
+     */
+    public void setValues(HashMap<String, Object> values) throws Exception {
+        data = HistoryDelta.serialize(values);
+    }
+
+    /**
+     * Returns the {@code ClassID} of the owner.
+     * 
+     * @return {@code ClassID}
+     */
+    public ClassID getOwnerCID() {
+        return ownerCID;
+    }
+
+    /**
+     * Returns the historization ID of the owner.
+     * 
+     * @return historization ID
+     */
+    public int getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Checks if an archived version matches field values and search criteria.
+     * 
+     * @param base
+     *            archived version
+     * @param fields
+     *            optional map field name/value, can be {@code null}
+     * @param crit
+     *            optional search criteria, can be {@code null}
+     * @return {@code true} if the version matches
+     * @throws Exception
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static boolean matches(Base base, HashMap<String, Object> fields, SearchCriteria[] crit)
+            throws Exception {
+        FieldAccessor accessor = FieldAccessor.getAccessor(base.getClass());
+        if (fields != null) {
+            for (Map.Entry<String, Object> e : fields.entrySet()) {
+                if (!HistoryDelta.isEqual(accessor.getField(e.getKey()).get(base), e.getValue())) {
+                    return false;
+                }
+            }
+        }
+        if (crit != null) {
+            for (SearchCriteria c : crit) {
+                Object value = accessor.getField(c.getEnumValue().name()).get(base);
+                Object data = c.getData();
+                boolean match;
+                switch (c.getOperator()) {
+                case EL:
+                    match = HistoryDelta.isEqual(value, data);
+                    break;
+                case NE:
+                    match = !HistoryDelta.isEqual(value, data);
+                    break;
+                case IN:
+                    match = data != null && ((Collection<?>) data).contains(value);
+                    break;
+                case LIKE:
+                    match = value != null && data != null && Pattern
+                            .matches(Pattern.quote(data.toString()).replace("%", "\\E.*\\Q").replace("_", "\\E.\\Q"),
+                                    value.toString());
+                    break;
+                default:
+                    if (value == null || data == null) {
+                        match = false;
+                        break;
+                    }
+                    int cmp = ((Comparable) value).compareTo(data);
+                    switch (c.getOperator()) {
+                    case GT:
+                        match = cmp > 0;
+                        break;
+                    case LT:
+                        match = cmp < 0;
+                        break;
+                    case GE:
+                        match = cmp >= 0;
+                        break;
+                    default:
+                        match = cmp <= 0;
+                        break;
+                    }
+                    break;
+                }
+                if (!match) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
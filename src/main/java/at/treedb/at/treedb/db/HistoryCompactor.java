@@ -0,0 +1,717 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Compaction of the historization data. Historic copies
+ * ({@code STATUS.UPDATED}), history deltas and the versions of the separate
+ * history table are pruned according a
+ * {@code RetentionPolicy} per class. The entities are processed in batches of
+ * historization IDs, every batch runs in its own transaction and deletes the
+ * selected rows with set-based {@code delete} statements. The current version
+ * of an entity, which holds the historization ID as DB ID, is never deleted,
+ * except a deleted entity is purged completely. Deleted entities which are
+ * still referenced by a DB key of another entity aren't purged.
+ * </p>
+ * <p>
+ * The validity interval of a removed version is taken over by the next newer
+ * version, which is kept - an as-of read of a removed version returns the
+ * next newer version, instead of no version at all.
+ * </p>
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * HistoryCompactor compactor = new HistoryCompactor(500);
+ * compactor.setPolicy(CIstring.class, RetentionPolicy.keepLast(10));
+ * compactor.start(1, TimeUnit.DAYS);
+ * </pre>
+ * </p>
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public class HistoryCompactor {
+    private static final Logger LOGGER = Logger.getLogger(HistoryCompactor.class.getName());
+    // DB key fields per referenced class - key: referenced class
+    private static final ConcurrentHashMap<Class<?>, List<Reference>> references =
+            new ConcurrentHashMap<Class<?>, List<Reference>>();
+    private final int batchSize;
+    private final ConcurrentHashMap<Class<? extends Base>, RetentionPolicy> policies;
+    private volatile CompactionListenerIface listener;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Statistics of the compaction of a class.
+     */
+    public static class Stats {
+        private final Class<? extends Base> clazz;
+        private final long startTime;
+        private long entities;
+        private long deletedVersions;
+        private long deletedDeltas;
+        private long purgedEntities;
+        private long endTime;
+
+        Stats(Class<? extends Base> clazz) {
+            this.clazz = clazz;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the compacted class.
+         * 
+         * @return entity class
+         */
+        public Class<? extends Base> getCompactedClass() {
+            return clazz;
+        }
+
+        /**
+         * Returns the number of processed entities (historization IDs).
+         * 
+         * @return processed entities
+         */
+        public long getEntities() {
+            return entities;
+        }
+
+        /**
+         * Returns the number of deleted historic copies.
+         * 
+         * @return deleted rows
+         */
+        public long getDeletedVersions() {
+            return deletedVersions;
+        }
+
+        /**
+         * Returns the number of deleted history deltas.
+         * 
+         * @return deleted deltas
+         */
+        public long getDeletedDeltas() {
+            return deletedDeltas;
+        }
+
+        /**
+         * Returns the number of purged deleted entities.
+         * 
+         * @return purged entities
+         */
+        public long getPurgedEntities() {
+            return purgedEntities;
+        }
+
+        /**
+         * Returns the elapsed time of the compaction.
+         * 
+         * @return elapsed time in milliseconds
+         */
+        public long getElapsedTime() {
+            return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+        }
+
+        /**
+         * Returns the throughput of the compaction.
+         * 
+         * @return processed entities per second
+         */
+        public double getThroughput() {
+            long elapsed = getElapsedTime();
+            return elapsed > 0 ? entities * 1000.0 / elapsed : entities;
+        }
+
+        /**
+         * Checks if the compaction of the class is finished.
+         * 
+         * @return {@code true} if the compaction is finished
+         */
+        public boolean isFinished() {
+            return endTime > 0;
+        }
+
+        @Override
+        public String toString() {
+            return clazz.getSimpleName() + ": entities=" + entities + " versions=" + deletedVersions + " deltas="
+                    + deletedDeltas + " purged=" + purgedEntities + " time=" + getElapsedTime() + "ms";
+        }
+    }
+
+    /**
+     * Historic copy or delta of an entity.
+     */
+    private static class Version {
+        private final int id;
+        private final int version;
+        private final Date validFrom;
+        private final Date validTo;
+
+        Version(int id, int version, Date validFrom, Date validTo) {
+            this.id = id;
+            this.version = version;
+            this.validFrom = validFrom;
+            this.validTo = validTo;
+        }
+    }
+
+    /**
+     * DB key field of an entity class.
+     */
+    private static class Reference {
+        private final Class<?> owner;
+        private final Field field;
+
+        Reference(Class<?> owner, Field field) {
+            this.owner = owner;
+            this.field = field;
+        }
+    }
+
+    /**
+     * Current version of an entity.
+     */
+    private static class Current {
+        private int id;
+        private int version = -1;
+        private Date validFrom;
+        private Date deletionDate;
+        private boolean deleted;
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param batchSize
+     *            number of historization IDs per transaction
+     */
+    public HistoryCompactor(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("HistoryCompactor(): batchSize must be greater than 0");
+        }
+        this.batchSize = batchSize;
+        policies = new ConcurrentHashMap<Class<? extends Base>, RetentionPolicy>();
+    }
+
+    /**
+     * Sets the retention policy of a class.
+     * 
+     * @param clazz
+     *            entity class, abstract classes aren't supported
+     * @param policy
+     *            retention policy, {@code null} removes the policy
+     */
+    public void setPolicy(Class<? extends Base> clazz, RetentionPolicy policy) {
+        if (Modifier.isAbstract(clazz.getModifiers())) {
+            throw new IllegalArgumentException("HistoryCompactor.setPolicy(): abstract class " + clazz.getSimpleName());
+        }
+        if (policy == null) {
+            policies.remove(clazz);
+        } else {
+            policies.put(clazz, policy);
+        }
+    }
+
+    /**
+     * Sets the progress listener.
+     * 
+     * @param listener
+     *            progress listener, can be {@code null}
+     */
+    public void setListener(CompactionListenerIface listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the periodic background compaction.
+     * 
+     * @param period
+     *            period between two compaction runs
+     * @param unit
+     *            time unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("HistoryCompactor.start(): compaction is already running");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "HistoryCompactor");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Class<? extends Base> clazz : policies.keySet()) {
+                    try {
+                        compact(clazz);
+                    } catch (Exception e) {
+                        CompactionListenerIface l = listener;
+                        if (l != null) {
+                            l.error(clazz, e);
+                        } else {
+                            LOGGER.log(Level.SEVERE, "HistoryCompactor: compaction of " + clazz.getSimpleName()
+                                    + " failed", e);
+                        }
+                    }
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops the background compaction. A running batch is finished.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Compacts all classes with a retention policy.
+     * 
+     * @return statistics per class
+     * @throws Exception
+     */
+    public List<Stats> compactAll() throws Exception {
+        ArrayList<Stats> list = new ArrayList<Stats>();
+        for (Class<? extends Base> clazz : policies.keySet()) {
+            list.add(compact(clazz));
+        }
+        return list;
+    }
+
+    /**
+     * Compacts the historization data of a class.
+     * 
+     * @param clazz
+     *            entity class
+     * @return statistics
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public Stats compact(Class<? extends Base> clazz) throws Exception {
+        RetentionPolicy policy = policies.get(clazz);
+        if (policy == null) {
+            throw new Exception("HistoryCompactor.compact(): no retention policy for " + clazz.getSimpleName());
+        }
+        Stats stats = new Stats(clazz);
+        long now = stats.startTime;
+        boolean delta = Base.isDeltaHistory(clazz);
+        ClassID cid = null;
+        for (ClassID c : ClassID.values()) {
+            if (clazz.equals(c.toClass())) {
+                cid = c;
+                break;
+            }
+        }
+        String className = clazz.getSimpleName();
+        int lastId = 0;
+        while (true) {
+            DAOiface dao = DAO.getDAO();
+            try {
+                dao.beginTransaction();
+                // keyset pagination over the historization IDs - the first
+                // version of an entity holds the historization ID as DB ID
+                HashMap<String, Object> map = new HashMap<String, Object>();
+                map.put("lastId", lastId);
+                List<Integer> ids = (List<Integer>) dao.query("select i.histId from " + className
+                        + " i where i.id = i.histId and i.histId > :lastId order by i.histId", 0, batchSize, map);
+                if (ids.isEmpty()) {
+                    dao.endTransaction();
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+                compactBatch(dao, clazz, cid, delta, policy, ids, now, stats);
+                dao.endTransaction();
+            } catch (Exception e) {
+                dao.rollback();
+                throw e;
+            }
+            CompactionListenerIface l = listener;
+            if (l != null) {
+                l.progress(stats);
+            }
+        }
+        stats.endTime = System.currentTimeMillis();
+        CompactionListenerIface l = listener;
+        if (l != null) {
+            l.progress(stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Compacts a batch of entities.
+     */
+    @SuppressWarnings("unchecked")
+    private void compactBatch(DAOiface dao, Class<? extends Base> clazz, ClassID cid, boolean delta,
+            RetentionPolicy policy, List<Integer> ids, long now, Stats stats) throws Exception {
+        String className = clazz.getSimpleName();
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("ids", ids);
+        map.put("status", HistorizationIface.STATUS.UPDATED);
+        // current versions
+        HashMap<Integer, Current> current = new HashMap<Integer, Current>();
+        List<Object[]> rows = (List<Object[]>) dao
+                .query("select i.histId, i.version, i.validFrom, i.status, i.deletionDate, i.id from " + className
+                        + " i where i.histId in :ids and i.status <> :status", map);
+        for (Object[] o : rows) {
+            Current c = current.get(o[0]);
+            if (c == null) {
+                c = new Current();
+                current.put((Integer) o[0], c);
+            }
+            if ((Integer) o[1] > c.version) {
+                c.version = (Integer) o[1];
+                c.validFrom = (Date) o[2];
+                c.deleted = o[3] == HistorizationIface.STATUS.DELETED;
+                c.deletionDate = (Date) o[4];
+                c.id = (Integer) o[5];
+            }
+        }
+        // historic copies
+        HashMap<Integer, List<Version>> versions = new HashMap<Integer, List<Version>>();
+        rows = (List<Object[]>) dao.query("select i.histId, i.id, i.version, i.validFrom, i.validTo from " + className
+                + " i where i.histId in :ids and i.status = :status order by i.version desc", map);
+        for (Object[] o : rows) {
+            addVersion(versions, (Integer) o[0], new Version((Integer) o[1], (Integer) o[2], (Date) o[3], (Date) o[4]));
+        }
+        // history deltas
+        HashMap<Integer, List<Version>> deltas = new HashMap<Integer, List<Version>>();
+        if (delta) {
+            HashMap<String, Object> m = new HashMap<String, Object>();
+            m.put("ids", ids);
+            m.put("cid", cid);
+            rows = (List<Object[]>) dao.query(
+                    "select d.ownerId, d.id, d.ownerVersion, d.versionFrom, d.versionTo from HistoryDelta d where d.ownerCID = :cid and d.ownerId in :ids order by d.ownerVersion desc",
+                    m);
+            for (Object[] o : rows) {
+                addVersion(deltas, (Integer) o[0],
+                        new Version((Integer) o[1], (Integer) o[2], (Date) o[3], (Date) o[4]));
+            }
+        }
+        // archived versions of the separate history table
+        boolean separate = Base.getHistoryMode(clazz) == Base.HistoryMode.SEPARATE;
+        HashMap<Integer, List<Version>> archived = new HashMap<Integer, List<Version>>();
+        if (separate) {
+            HashMap<String, Object> m = new HashMap<String, Object>();
+            m.put("ids", ids);
+            m.put("cid", cid);
+            rows = (List<Object[]>) dao.query("select a.ownerId, a.id, a.ownerVersion, a.versionFrom, a.versionTo"
+                    + " from HistoryArchive a where a.ownerCID = :cid and a.ownerId in :ids"
+                    + " order by a.ownerVersion desc", m);
+            for (Object[] o : rows) {
+                addVersion(archived, (Integer) o[0],
+                        new Version((Integer) o[1], (Integer) o[2], (Date) o[3], (Date) o[4]));
+            }
+        }
+        ArrayList<Integer> deleteVersions = new ArrayList<Integer>();
+        ArrayList<Integer> deleteDeltas = new ArrayList<Integer>();
+        ArrayList<Integer> deleteArchived = new ArrayList<Integer>();
+        ArrayList<Integer> purge = new ArrayList<Integer>();
+        // new start of the validity interval of kept versions - key: DB ID
+        HashMap<Integer, Date> widenVersions = new HashMap<Integer, Date>();
+        HashMap<Integer, Date> widenDeltas = new HashMap<Integer, Date>();
+        HashMap<Integer, Date> widenArchived = new HashMap<Integer, Date>();
+        for (int histId : ids) {
+            Current c = current.get(histId);
+            if (c == null) {
+                continue;
+            }
+            if (c.deleted && policy.isPurged(c.deletionDate, now)) {
+                purge.add(histId);
+                continue;
+            }
+            List<Version> list = versions.get(histId);
+            if (list != null) {
+                HashSet<Integer> deleted = select(list, c, policy, now);
+                deleteVersions.addAll(deleted);
+                Date from = widen(list, deleted, widenVersions);
+                if (from != null) {
+                    widenVersions.put(c.id, from);
+                }
+            }
+            list = archived.get(histId);
+            if (list != null) {
+                HashSet<Integer> deleted = select(list, c, policy, now);
+                deleteArchived.addAll(deleted);
+                Date from = widen(list, deleted, widenArchived);
+                if (from != null) {
+                    widenVersions.put(c.id, from);
+                }
+            }
+            list = deltas.get(histId);
+            if (list != null) {
+                // deltas are applied from the newest to the oldest one - only
+                // the oldest deltas can be removed
+                boolean retained = true;
+                HashSet<Integer> deleted = new HashSet<Integer>();
+                for (Version v : list) {
+                    if (retained && !policy.isRetained(v.version, c.version, v.validTo, now)) {
+                        retained = false;
+                    }
+                    if (!retained) {
+                        deleted.add(v.id);
+                    }
+                }
+                deleteDeltas.addAll(deleted);
+                Date from = widen(list, deleted, widenDeltas);
+                if (from != null) {
+                    // no delta left - the current version starts earlier
+                    widenVersions.put(c.id, from);
+                }
+            }
+        }
+        if (!purge.isEmpty()) {
+            retainReferenced(dao, clazz, cid, purge);
+        }
+        for (Map.Entry<Integer, Date> e : widenVersions.entrySet()) {
+            HashMap<String, Object> m = new HashMap<String, Object>();
+            m.put("id", e.getKey());
+            m.put("date", e.getValue());
+            dao.queryAndExecute("update " + className + " i set i.validFrom = :date where i.id = :id", m);
+        }
+        for (Map.Entry<Integer, Date> e : widenDeltas.entrySet()) {
+            HistoryDelta d = dao.get(HistoryDelta.class, e.getKey().intValue());
+            if (d != null) {
+                d.widen(e.getValue());
+                dao.update(d);
+            }
+        }
+        for (Map.Entry<Integer, Date> e : widenArchived.entrySet()) {
+            HistoryArchive a = dao.get(HistoryArchive.class, e.getKey().intValue());
+            if (a != null) {
+                a.widen(e.getValue());
+                dao.update(a);
+            }
+        }
+        stats.entities += ids.size();
+        stats.deletedVersions += delete(dao, "delete from " + className + " i where i.id in :ids", deleteVersions);
+        stats.deletedDeltas += delete(dao, "delete from HistoryDelta d where d.id in :ids", deleteDeltas);
+        stats.deletedVersions += delete(dao, "delete from HistoryArchive a where a.id in :ids", deleteArchived);
+        if (!purge.isEmpty()) {
+            stats.deletedVersions += delete(dao, "delete from " + className + " i where i.histId in :ids", purge);
+            if (delta) {
+                HashMap<String, Object> m = new HashMap<String, Object>();
+                m.put("ids", purge);
+                m.put("cid", cid);
+                stats.deletedDeltas += dao
+                        .queryAndExecute("delete from HistoryDelta d where d.ownerCID = :cid and d.ownerId in :ids", m);
+            }
+            if (separate) {
+                HashMap<String, Object> m = new HashMap<String, Object>();
+                m.put("ids", purge);
+                m.put("cid", cid);
+                stats.deletedVersions += dao.queryAndExecute(
+                        "delete from HistoryArchive a where a.ownerCID = :cid and a.ownerId in :ids", m);
+            }
+            stats.purgedEntities += purge.size();
+        }
+    }
+
+    /**
+     * Selects the historic versions of an entity to be removed. The daily
+     * thinning keeps the latest version of a day, the current version
+     * represents the day of its creation.
+     * 
+     * @param list
+     *            historic versions, newest version first
+     * @param c
+     *            current version
+     * @param policy
+     *            retention policy
+     * @param now
+     *            current time
+     * @return DB IDs of the removed versions
+     */
+    private static HashSet<Integer> select(List<Version> list, Current c, RetentionPolicy policy, long now) {
+        HashSet<Long> days = new HashSet<Long>();
+        if (c.validFrom != null) {
+            days.add(RetentionPolicy.getDay(c.validFrom));
+        }
+        HashSet<Integer> deleted = new HashSet<Integer>();
+        for (Version v : list) {
+            if (!policy.isRetained(v.version, c.version, v.validTo, now)) {
+                deleted.add(v.id);
+            } else if (policy.isThinned(v.validTo, now) && v.validFrom != null
+                    && !days.add(RetentionPolicy.getDay(v.validFrom))) {
+                deleted.add(v.id);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Computes the new start of the validity interval of the kept versions,
+     * which follow removed versions.
+     * 
+     * @param list
+     *            versions, newest version first
+     * @param deleted
+     *            DB IDs of the removed versions
+     * @param widen
+     *            map DB ID/new start of the validity interval
+     * @return new start of the validity interval of the current version, or
+     *         {@code null} if the current version is unchanged
+     */
+    private static Date widen(List<Version> list, HashSet<Integer> deleted, HashMap<Integer, Date> widen) {
+        if (deleted.isEmpty()) {
+            return null;
+        }
+        Date from = null;
+        for (int i = list.size() - 1; i >= 0; --i) {
+            Version v = list.get(i);
+            if (deleted.contains(v.id)) {
+                if (from == null) {
+                    from = v.validFrom;
+                }
+            } else if (from != null) {
+                widen.put(v.id, from);
+                from = null;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Removes the historization IDs from the purge list, which are still
+     * referenced by a DB key - purging them would leave dangling references.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            purged class
+     * @param cid
+     *            {@code ClassID} of the purged class
+     * @param purge
+     *            historization IDs to be purged
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    private static void retainReferenced(DAOiface dao, Class<? extends Base> clazz, ClassID cid, List<Integer> purge)
+            throws Exception {
+        for (Reference r : getReferences(clazz)) {
+            if (purge.isEmpty()) {
+                return;
+            }
+            Field f = r.field;
+            String owner = r.owner.getSimpleName();
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            // references of the purged entities themselves are ignored
+            String self = "";
+            if (r.owner.equals(clazz)) {
+                self = " and i.histId not in :self";
+                map.put("self", new ArrayList<Integer>(purge));
+            }
+            if (f.getType().equals(Long.TYPE)) {
+                // composed ID class ID/historization ID
+                ArrayList<Long> keys = new ArrayList<Long>();
+                for (int id : purge) {
+                    keys.add((((long) cid.ordinal()) << 32) | id);
+                }
+                map.put("ids", keys);
+                List<Long> list = (List<Long>) dao.query("select distinct i." + f.getName() + " from " + owner
+                        + " i where i." + f.getName() + " in :ids" + self, map);
+                for (Long key : list) {
+                    purge.remove(Integer.valueOf((int) (key & 0xffffffffL)));
+                }
+            } else {
+                map.put("ids", new ArrayList<Integer>(purge));
+                List<Integer> list = (List<Integer>) dao.query("select distinct i." + f.getName() + " from " + owner
+                        + " i where i." + f.getName() + " in :ids" + self, map);
+                purge.removeAll(list);
+            }
+        }
+    }
+
+    /**
+     * Returns the DB key fields of all entity classes, which can reference a
+     * class. Fields with a class selector are included, their target class
+     * depends on the entity. The history tables are skipped, their entries
+     * are purged together with the entity.
+     * 
+     * @param clazz
+     *            referenced class
+     * @return list of DB key fields
+     */
+    private static List<Reference> getReferences(Class<?> clazz) {
+        List<Reference> list = references.get(clazz);
+        if (list != null) {
+            return list;
+        }
+        list = new ArrayList<Reference>();
+        for (Class<?> c : DBentities.getClasses()) {
+            if (Modifier.isAbstract(c.getModifiers()) || !Base.class.isAssignableFrom(c)
+                    || c.equals(HistoryDelta.class) || c.equals(HistoryArchive.class)) {
+                continue;
+            }
+            FieldAccessor accessor = FieldAccessor.getAccessor(c);
+            for (Field f : accessor.getAllFields(DBkey.class)) {
+                Class<?> key = accessor.getDBkey(f);
+                if ((key.equals(ClassSelector.class) || key.isAssignableFrom(clazz))
+                        && (f.getType().equals(Integer.TYPE) || f.getType().equals(Long.TYPE))) {
+                    list.add(new Reference(c, f));
+                }
+            }
+        }
+        references.put(clazz, list);
+        return list;
+    }
+
+    private static void addVersion(Map<Integer, List<Version>> map, int histId, Version v) {
+        List<Version> list = map.get(histId);
+        if (list == null) {
+            list = new ArrayList<Version>();
+            map.put(histId, list);
+        }
+        list.add(v);
+    }
+
+    /**
+     * Set-based delete of rows given by their IDs.
+     */
+    private static int delete(DAOiface dao, String query, List<Integer> ids) throws Exception {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("ids", ids);
+        return dao.queryAndExecute(query, map);
+    }
+}
@@ -0,0 +1,664 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Transient;
+import javax.persistence.Version;
+
+/**
+ * <p>
+ * Compact history record of an entity with delta history (see
+ * {@code Base.setDeltaHistory()}). Instead of a full copy of the entity, an
+ * update stores only the previous values of the changed fields. Historic
+ * versions are rebuilt on demand by applying the deltas to the current
+ * version, newest delta first.
+ * </p>
+ * 
+ * @author Peter Sauer
+ */
+@SuppressWarnings("serial")
+@Entity
+@Table(indexes = { @Index(columnList = "ownerId,ownerVersion"), @Index(columnList = "histId,validFrom") })
+public class HistoryDelta extends Base implements Cloneable, ClassSelector {
+    private ClassID ownerCID;
+    // historization ID of the owner
+    @DBkey(ClassSelector.class)
+    private int ownerId;
+    // owner version restored by this delta
+    private int ownerVersion;
+    // validity interval of the restored owner version
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date versionFrom;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date versionTo;
+    // compressed map field name/previous value - see serialize()
+    @Lob
+    @Column(nullable = false)
+    private byte[] data;
+
+    protected HistoryDelta() {
+    }
+
+    private HistoryDelta(Base previous, byte[] data) {
+        this.setHistStatus(STATUS.ACTIVE);
+        this.ownerCID = previous.getCID();
+        this.ownerId = previous.getHistId();
+        this.ownerVersion = previous.getVersion();
+        this.versionFrom = previous.getValidFrom();
+        this.versionTo = previous.getValidTo();
+        this.data = data;
+    }
+
+    @Override
+    public ClassID getCID() {
+        return ClassID.HISTORYDELTA;
+    }
+
+    @Override
+    public Class<?> getClass(Field f) {
+        return ownerCID.toClass();
+    }
+
+    /**
+     * Creates the delta between the previous and the current version of an
+     * entity.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param previous
+     *            previous version of the entity
+     * @param current
+     *            current version of the entity
+     * @return {@code HistoryDelta}
+     * @throws Exception
+     */
+    static HistoryDelta create(DAOiface dao, Base previous, Base current) throws Exception {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        FieldAccessor accessor = FieldAccessor.getAccessor(current.getClass());
+        for (Field f : accessor.getAllFields()) {
+            if (!isHistorized(accessor, f)) {
+                continue;
+            }
+            Object o = f.get(previous);
+            if (!isEqual(o, f.get(current))) {
+                map.put(f.getName(), o);
+            }
+        }
+        HistoryDelta delta = new HistoryDelta(previous, serialize(map));
+        delta.setDomain(current.getDomain());
+        Base.save(dao, null, null, delta);
+        return delta;
+    }
+
+    /**
+     * Rebuilds a historic version of an entity.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object), can be {@code null}
+     * @param clazz
+     *            entity class
+     * @param histId
+     *            historization ID
+     * @param version
+     *            historization version
+     * @return historic version of the entity, or {@code null} if the version
+     *         doesn't exist
+     * @throws Exception
+     */
+    public static Base rebuild(DAOiface dao, Class<? extends Base> clazz, int histId, int version)
+            throws Exception {
+        return rebuild(dao, clazz, histId, version, null);
+    }
+
+    /**
+     * Rebuilds the version of an entity valid at a date.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object), can be {@code null}
+     * @param clazz
+     *            entity class
+     * @param histId
+     *            historization ID
+     * @param date
+     *            temporal bound
+     * @return historic version of the entity, or {@code null} if the entity
+     *         doesn't exist at this date
+     * @throws Exception
+     */
+    public static Base rebuild(DAOiface dao, Class<? extends Base> clazz, int histId, Date date) throws Exception {
+        return rebuild(dao, clazz, histId, 0, date);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Base rebuild(DAOiface dao, Class<? extends Base> clazz, int histId, int version, Date date)
+            throws Exception {
+        Base base = null;
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("id", histId);
+            map.put("status", STATUS.UPDATED);
+            // current version - all other rows are full historic copies
+            List<Base> list = (List<Base>) dao.query(
+                    "select i from " + clazz.getSimpleName() + " i where i.histId = :id and i.status <> :status", map);
+            if (list.size() > 1) {
+                throw new Exception("HistoryDelta.rebuild(): Entity/DB ID is not unique!");
+            }
+            if (list.size() == 1) {
+                Base current = list.get(0);
+                if (date != null ? !current.getValidFrom().after(date) : current.getVersion() == version) {
+                    base = current;
+                } else {
+                    map = new HashMap<String, Object>();
+                    map.put("cid", current.getCID());
+                    map.put("id", histId);
+                    String bound;
+                    if (date != null) {
+                        bound = "d.versionTo > :date";
+                        map.put("date", date);
+                    } else {
+                        bound = "d.ownerVersion >= :version";
+                        map.put("version", version);
+                    }
+                    List<HistoryDelta> deltas = (List<HistoryDelta>) dao
+                            .query("select d from HistoryDelta d where d.ownerCID = :cid and d.ownerId = :id and "
+                                    + bound + " order by d.ownerVersion desc", map);
+                    if (!deltas.isEmpty()) {
+                        base = (Base) current.clone();
+                        FieldAccessor accessor = FieldAccessor.getAccessor(base.getClass());
+                        for (HistoryDelta d : deltas) {
+                            d.apply(accessor, base);
+                        }
+                    }
+                }
+                if (base != null) {
+                    if (date != null) {
+                        if (base.getValidFrom().after(date)
+                                || (base.getValidTo() != null && !base.getValidTo().after(date))) {
+                            base = null;
+                        }
+                    } else if (base.getVersion() != version) {
+                        base = null;
+                    }
+                }
+            }
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        return base;
+    }
+
+    /**
+     * Rebuilds the versions of a set of entities valid at a date. The versions
+     * are rebuilt with two queries per chunk of IDs - the current versions and
+     * their deltas - instead of two queries per entity.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param ids
+     *            historization IDs
+     * @param date
+     *            temporal bound
+     * @return map historization ID/historic version - IDs without a version
+     *         at this date are missing
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<Integer, Base> loadMany(DAOiface dao, Class<? extends Base> clazz, List<Integer> ids,
+            Date date) throws Exception {
+        HashMap<Integer, Base> result = new HashMap<Integer, Base>();
+        List<ClassID> cids = HistoryArchive.ownerCIDs(clazz);
+        if (cids.isEmpty()) {
+            return result;
+        }
+        for (int i = 0; i < ids.size(); i += LOAD_MANY_CHUNK_SIZE) {
+            ArrayList<Integer> chunk = new ArrayList<Integer>(
+                    ids.subList(i, Math.min(i + LOAD_MANY_CHUNK_SIZE, ids.size())));
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("ids", chunk);
+            map.put("status", STATUS.UPDATED);
+            // current versions - all other rows are full historic copies
+            List<Base> current = (List<Base>) dao.query(
+                    "select i from " + clazz.getSimpleName() + " i where i.histId in :ids and i.status <> :status",
+                    map);
+            if (current.isEmpty()) {
+                continue;
+            }
+            map = new HashMap<String, Object>();
+            map.put("cids", cids);
+            map.put("ids", chunk);
+            map.put("date", date);
+            List<HistoryDelta> list = (List<HistoryDelta>) dao.query(
+                    "select d from HistoryDelta d where d.ownerCID in :cids and d.ownerId in :ids"
+                            + " and d.versionTo > :date order by d.ownerId, d.ownerVersion desc",
+                    map);
+            HashMap<Integer, ArrayList<HistoryDelta>> deltas = new HashMap<Integer, ArrayList<HistoryDelta>>();
+            for (HistoryDelta d : list) {
+                ArrayList<HistoryDelta> l = deltas.get(d.ownerId);
+                if (l == null) {
+                    l = new ArrayList<HistoryDelta>();
+                    deltas.put(d.ownerId, l);
+                }
+                l.add(d);
+            }
+            for (Base c : current) {
+                Base base = rebuild(c, deltas.get(c.getHistId()), date);
+                if (base != null) {
+                    result.put(base.getHistId(), base);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the historic versions of a class valid at a date - only
+     * entities which are valid at the date with a version older than their
+     * current version are returned.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param domain
+     *            optional {@code Domain} ID, can be {@code null}
+     * @param refs
+     *            optional secondary lookup keys, can be {@code null}
+     * @param date
+     *            temporal bound
+     * @return historic versions
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Base> loadAll(DAOiface dao, Class<? extends Base> clazz, Integer domain,
+            Collection<Integer> refs, Date date) throws Exception {
+        ArrayList<Base> result = new ArrayList<Base>();
+        List<ClassID> cids = HistoryArchive.ownerCIDs(clazz);
+        if (cids.isEmpty()) {
+            return result;
+        }
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("cids", cids);
+        map.put("date", date);
+        String condition = "";
+        if (domain != null) {
+            condition = " and d.domain = :domain";
+            map.put("domain", domain);
+        }
+        List<Integer> ids = (List<Integer>) dao.query(
+                "select distinct d.ownerId from HistoryDelta d where d.ownerCID in :cids and d.versionFrom <= :date"
+                        + " and d.versionTo > :date" + condition,
+                map);
+        for (Base b : loadMany(dao, clazz, ids, date).values()) {
+            if (refs == null || refs.contains(b.getHistoryRef())) {
+                result.add(b);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the version of an entity valid at a date.
+     * 
+     * @param current
+     *            current version of the entity
+     * @param deltas
+     *            deltas of the entity ending after the date, newest delta
+     *            first - can be {@code null}
+     * @param date
+     *            temporal bound
+     * @return version valid at the date, or {@code null}
+     * @throws Exception
+     */
+    private static Base rebuild(Base current, List<HistoryDelta> deltas, Date date) throws Exception {
+        Base base = null;
+        if (!current.getValidFrom().after(date)) {
+            base = current;
+        } else if (deltas != null) {
+            base = (Base) current.clone();
+            FieldAccessor accessor = FieldAccessor.getAccessor(base.getClass());
+            for (HistoryDelta d : deltas) {
+                d.apply(accessor, base);
+            }
+        }
+        if (base != null && (base.getValidFrom().after(date)
+                || (base.getValidTo() != null && !base.getValidTo().after(date)))) {
+            base = null;
+        }
+        return base;
+    }
+
+    /**
+     * Moves the start of the validity interval of the restored owner version,
+     * e.g. after the removal of older deltas by the {@code HistoryCompactor}.
+     * 
+     * @param from
+     *            new start of the validity interval
+     * @throws Exception
+     */
+    void widen(Date from) throws Exception {
+        versionFrom = from;
+        HashMap<String, Object> map = deserialize(data);
+        if (map.containsKey("validFrom")) {
+            map.put("validFrom", from);
+            data = serialize(map);
+        }
+    }
+
+    /**
+     * Restores the previous field values.
+     * 
+     * @param accessor
+     *            field registry of the entity
+     * @param base
+     *            entity
+     * @throws Exception
+     */
+    private void apply(FieldAccessor accessor, Base base) throws Exception {
+        for (Map.Entry<String, Object> e : deserialize(data).entrySet()) {
+            accessor.getField(e.getKey()).set(base, e.getValue());
+        }
+    }
+
+    /**
+     * Checks if a field is part of the history. Persistence layer managed
+     * fields and transient fields are ignored.
+     */
+    static boolean isHistorized(FieldAccessor accessor, Field f) throws Exception {
+        int mod = f.getModifiers();
+        if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.getAnnotation(Transient.class) != null
+                || f.getAnnotation(Id.class) != null || f.getAnnotation(Version.class) != null) {
+            return false;
+        }
+        // hidden fields of a super class
+        return accessor.getField(f.getName()) == f;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a.equals(b);
+    }
+
+    // type tags of the field encoding
+    private static final int FORMAT = 1;
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte SHORT = 4;
+    private static final byte BYTE = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte FLOAT = 8;
+    private static final byte CHAR = 9;
+    private static final byte DATE = 10;
+    private static final byte BYTES = 11;
+    private static final byte BIGDECIMAL = 12;
+    private static final byte BIGINTEGER = 13;
+    private static final byte ENUM = 14;
+
+    /**
+     * Encodes field values - name, type tag and value per field. Only the
+     * types of persistent fields are supported, the encoding doesn't depend
+     * on the Java serialization of the classes.
+     * 
+     * @param map
+     *            map field name/value
+     * @return compressed encoding
+     * @throws Exception
+     */
+    static byte[] serialize(HashMap<String, Object> map) throws Exception {
+        ByteArrayOutputStream bs = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bs));
+        out.writeInt(FORMAT);
+        out.writeInt(map.size());
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            out.writeUTF(e.getKey());
+            write(out, e.getValue());
+        }
+        out.close();
+        return bs.toByteArray();
+    }
+
+    private static void write(DataOutputStream out, Object o) throws Exception {
+        if (o == null) {
+            out.writeByte(NULL);
+        } else if (o instanceof String) {
+            out.writeByte(STRING);
+            byte[] b = ((String) o).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        } else if (o instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) o);
+        } else if (o instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) o);
+        } else if (o instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) o);
+        } else if (o instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) o);
+        } else if (o instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) o);
+        } else if (o instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) o);
+        } else if (o instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) o);
+        } else if (o instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) o);
+        } else if (o instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) o).getTime());
+        } else if (o instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) o).length);
+            out.write((byte[]) o);
+        } else if (o instanceof BigDecimal) {
+            out.writeByte(BIGDECIMAL);
+            out.writeUTF(o.toString());
+        } else if (o instanceof BigInteger) {
+            out.writeByte(BIGINTEGER);
+            out.writeUTF(o.toString());
+        } else if (o instanceof Enum) {
+            out.writeByte(ENUM);
+            out.writeUTF(((Enum<?>) o).getDeclaringClass().getName());
+            out.writeUTF(((Enum<?>) o).name());
+        } else {
+            throw new Exception("HistoryDelta.serialize(): Unsupported field type " + o.getClass().getName());
+        }
+    }
+
+    /**
+     * Decodes field values.
+     * 
+     * @param data
+     *            compressed encoding
+     * @return map field name/value
+     * @throws Exception
+     */
+    static HashMap<String, Object> deserialize(byte[] data) throws Exception {
+        DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+        try {
+            if (in.readInt() != FORMAT) {
+                throw new Exception("HistoryDelta.deserialize(): Unknown format");
+            }
+            int size = in.readInt();
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            for (int i = 0; i < size; ++i) {
+                String name = in.readUTF();
+                map.put(name, read(in));
+            }
+            return map;
+        } finally {
+            in.close();
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object read(DataInputStream in) throws Exception {
+        byte type = in.readByte();
+        switch (type) {
+        case NULL:
+            return null;
+        case STRING: {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+        case INT:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case SHORT:
+            return in.readShort();
+        case BYTE:
+            return in.readByte();
+        case BOOLEAN:
+            return in.readBoolean();
+        case DOUBLE:
+            return in.readDouble();
+        case FLOAT:
+            return in.readFloat();
+        case CHAR:
+            return in.readChar();
+        case DATE:
+            return new Date(in.readLong());
+        case BYTES: {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            return b;
+        }
+        case BIGDECIMAL:
+            return new BigDecimal(in.readUTF());
+        case BIGINTEGER:
+            return new BigInteger(in.readUTF());
+        case ENUM: {
+            // only enum classes are resolved - without initialization
+            Class<?> c = Class.forName(in.readUTF(), false, HistoryDelta.class.getClassLoader());
+            if (!c.isEnum()) {
+                throw new Exception("HistoryDelta.deserialize(): Not an enum " + c.getName());
+            }
+            return Enum.valueOf((Class<? extends Enum>) c, in.readUTF());
+        }
+        default:
+            throw new Exception("HistoryDelta.deserialize(): Unknown type " + type);
+        }
+    }
+
+    /**
+     * Returns the stored previous field values.
+     * 
+     * @return map field name/previous value
+     * @throws Exception
+     */
+    public HashMap<String, Object> getValues() throws Exception {
+        return deserialize(data);
+    }
+
+    /**
+     * Replaces the stored previous field values, e.g. for re-mapping the DB
+     * keys of an import.
+     * 
+     * @param values
+     *            map field name/previous value
+     * @throws Exception
+     */
+    public void setValues(HashMap<String, Object> values) throws Exception {
+        data = serialize(values);
+    }
+
+    /**
+     * Returns the {@code ClassID} of the owner.
+     * 
+     * @return {@code ClassID}
+     */
+    public ClassID getOwnerCID() {
+        return ownerCID;
+    }
+
+    /**
+     * Returns the historization ID of the owner.
+     * 
+     * @return historization ID
+     */
+    public int getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Returns the owner version restored by this delta.
+     * 
+     * @return historization version
+     */
+    public int getOwnerVersion() {
+        return ownerVersion;
+    }
+}
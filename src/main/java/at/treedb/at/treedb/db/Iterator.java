@@ -34,17 +34,14 @@ import at.treedb.domain.Domain;
 public class Iterator {
     private int pageSize;
     private long entitiesNum;
-    private int index;
     private int toRead;
+    private boolean countRows;
+    private int lastId;
     private DAOiface dao;
     private boolean hasNext;
     private HashMap<String, Object> map;
     private String queryString;
-    private String nativeQueryString;
     private ScrollableResults sresult;
-    private List<Integer> idList;
-    private int listIndex;
-    private Class<?> clazz;
 
     /**
      * Constructor
@@ -63,38 +60,95 @@ public class Iterator {
      */
     public Iterator(DAOiface dao, Class<?> clazz, Domain domain, HistorizationIface.STATUS status, int pageSize)
             throws Exception {
+        this(dao, clazz, domain, status, pageSize, true);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            persisted class
+     * @param domain
+     *            optional {@code Domain}, can be {@code null}
+     * @param status
+     *            optional historization status, can be {@code null}
+     * @param pageSize
+     *            entities page size (=iteration step size)
+     * @param countRows
+     *            {@code true} to count the entities in advance, {@code false}
+     *            to skip the count query - {@code getEntitiesNum()} returns
+     *            -1 and the last page can be empty
+     * @throws Exception
+     */
+    public Iterator(DAOiface dao, Class<?> clazz, Domain domain, HistorizationIface.STATUS status, int pageSize,
+            boolean countRows) throws Exception {
+        this(dao, clazz, domain, status, pageSize, countRows, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for iterating a DB ID range without counting the entities in
+     * advance.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            persisted class
+     * @param domain
+     *            optional {@code Domain}, can be {@code null}
+     * @param status
+     *            optional historization status, can be {@code null}
+     * @param pageSize
+     *            entities page size (=iteration step size)
+     * @param fromId
+     *            lower DB ID bound (exclusive)
+     * @param toId
+     *            upper DB ID bound (inclusive)
+     * @throws Exception
+     */
+    public Iterator(DAOiface dao, Class<?> clazz, Domain domain, HistorizationIface.STATUS status, int pageSize,
+            int fromId, int toId) throws Exception {
+        this(dao, clazz, domain, status, pageSize, false, fromId, toId);
+    }
+
+    private Iterator(DAOiface dao, Class<?> clazz, Domain domain, HistorizationIface.STATUS status, int pageSize,
+            boolean countRows, int fromId, int toId) throws Exception {
         this.dao = dao;
         this.pageSize = pageSize;
-        this.clazz = clazz;
-        String where = null;
-        if (domain != null) {
-            where = "domain = " + domain.getHistId();
-        }
-        long size = Base.countRow(dao, clazz, status, where);
-        entitiesNum = size;
-        toRead = (int) size;
-        if (toRead > 0) {
+        this.countRows = countRows;
+        if (countRows) {
+            String where = null;
+            if (domain != null) {
+                where = "domain = " + domain.getHistId();
+            }
+            long size = Base.countRow(dao, clazz, status, where);
+            entitiesNum = size;
+            toRead = (int) size;
+            hasNext = toRead > 0;
+        } else {
+            entitiesNum = -1;
             hasNext = true;
+        }
+        if (hasNext) {
             map = new HashMap<String, Object>();
-            queryString = "select i from " + clazz.getSimpleName() + " i";
-            nativeQueryString = "select id from " + clazz.getSimpleName() + " ";
-            boolean whereClause = false;
+            // keyset pagination - the DB ID of the last read entity is the
+            // start position of the next page
+            queryString = "select i from " + clazz.getSimpleName() + " i where i.id > :lastId";
             if (domain != null) {
                 map.put("domain", domain.getHistId());
-                queryString += " where i.domain = :domain";
-                nativeQueryString += "where domain=" + domain.getHistId();
-                whereClause = true;
+                queryString += " and i.domain = :domain";
             }
             if (status != null) {
                 map.put("status", status);
-                if (whereClause) {
-                    queryString += " and i.status = :status order by i.id";
-                    nativeQueryString += " and status=" + status.ordinal();
-                } else {
-                    queryString += " where i.status = :status order by i.id";
-                    nativeQueryString += "where status=" + status.ordinal();
-                }
+                queryString += " and i.status = :status";
+            }
+            if (toId != Integer.MAX_VALUE) {
+                map.put("toId", toId);
+                queryString += " and i.id <= :toId";
             }
+            lastId = fromId;
+            queryString += " order by i.id";
         }
     }
 
@@ -107,6 +161,23 @@ public class Iterator {
         return hasNext;
     }
 
+    /**
+     * Reads the next page of entities.
+     * 
+     * @param size
+     *            page size
+     * @return entities list
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> readPage(int size) throws Exception {
+        map.put("lastId", lastId);
+        List<Object> list = (List<Object>) dao.query(queryString, 0, size, map);
+        if (!list.isEmpty()) {
+            lastId = ((Base) list.get(list.size() - 1)).getDBid();
+        }
+        return list;
+    }
+
     /**
      * Reads the entities during the iteration step.
      * 
@@ -117,12 +188,10 @@ public class Iterator {
         if (!hasNext) {
             return null;
         }
-        int size = Math.min(pageSize, toRead);
-        @SuppressWarnings("unchecked")
-        List<Object> list = (List<Object>) dao.query(queryString, index, size, map);
-        index += size;
-        toRead -= size;
-        if (toRead == 0) {
+        int size = countRows ? Math.min(pageSize, toRead) : pageSize;
+        List<Object> list = readPage(size);
+        toRead -= list.size();
+        if (list.size() < size || (countRows && toRead <= 0)) {
             hasNext = false;
         }
         return list;
@@ -145,29 +214,27 @@ public class Iterator {
      * <ol>
      * <li>Hibernate: Statless session<br>
      * </li>
-     * <li>JPA/EclipseLink: <a href=
+     * <li>JPA: <a href=
      * "http://wiki.eclipse.org/Using_Advanced_Query_API_%28ELUG%29#Example_107-12">
-     * ReadAllQuery/CursoredStream</a> (streaming data) wasn't really working -
-     * every time the whole entity data set was loaded by the first access!
-     * Actual a native SQL statement is used to pre-load all object IDs. This
-     * list is used to retrieve all objects.</li>
-     * <li>JPA/ObjectDB: Slow query with setting first position/max data set
-     * size.</li>
+     * ReadAllQuery/CursoredStream</a> (streaming data) wasn't really working
+     * for EclipseLink - every time the whole entity data set was loaded by the
+     * first access! Actual every object is read by a keyset query
+     * {@code where i.id > :lastId order by i.id} with a result size of 1,
+     * which is supported by all JPA implementations.</li>
      * </ol>
      * 
      * @return entity object
      * @throws Exception
      */
-    @SuppressWarnings("unchecked")
     public List<Object> nextObject() throws Exception {
         if (!hasNext) {
             return null;
         }
-        int size = 1;
         List<Object> list = null;
         // Hibernate environment
-        if (dao.isHibernate() || dao.getJPAimpl() == DAO.JPA_IMPL.HIBERNATEJPA) {
+        if (dao.isHibernate()) {
             if (sresult == null) {
+                map.put("lastId", lastId);
                 Query query = ((DAOhibernate) dao).createQuery(queryString, map);
                 query.setReadOnly(true);
                 // MIN_VALUE gives hint to JDBC driver to stream results - but
@@ -183,31 +250,14 @@ public class Iterator {
                 list.add(sresult.get(0));
             }
         } else {
-            if (dao.getJPAimpl() != DAO.JPA_IMPL.OBJECTDB) {
-                if (idList == null) {
-                    idList = (List<Integer>) dao.nativeQuery(nativeQueryString);
-                    if (idList.size() == 0) {
-                        return null;
-                    }
-                }
-                if (listIndex < idList.size()) {
-                    list = new ArrayList<Object>();
-                    Object o = Base.load(dao, (Class<? extends Base>) clazz, idList.get(listIndex));
-                    if (o == null) {
-                        throw new Exception("Iterator.nextObject(): loading JPA object for ID " + idList.get(listIndex)
-                                + " failed");
-                    }
-                    list.add(o);
-                    ++listIndex;
-                }
-            } else {
-                // TODO: fallback for ObjectDB - working, but slow, very slow
-                list = (List<Object>) dao.query(queryString, index, size, map);
-            }
+            list = readPage(1);
+        }
+        if (list == null || list.isEmpty()) {
+            hasNext = false;
+            return null;
         }
-        index += size;
-        toRead -= size;
-        if (toRead == 0) {
+        --toRead;
+        if (countRows && toRead <= 0) {
             hasNext = false;
         }
         return list;
@@ -225,7 +275,7 @@ public class Iterator {
     /**
      * Returns the number of DB entities.
      * 
-     * @return number of DB entities
+     * @return number of DB entities, or -1 if the entities weren't counted
      */
     public long getEntitiesNum() {
         return entitiesNum;
@@ -0,0 +1,214 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import at.treedb.domain.Domain;
+
+/**
+ * <p>
+ * Parallel scanner for all entities of a class. The DB ID range of the class
+ * is split into partitions, every partition is read by its own worker thread
+ * with its own {@code DAOiface} and transaction.
+ * </p>
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * PartitionedScanner scanner = new PartitionedScanner(CIstring.class, null, STATUS.ACTIVE, 1000, 4);
+ * long count = scanner.scan(callback);
+ * </pre>
+ * </p>
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public class PartitionedScanner {
+    private Class<?> clazz;
+    private Domain domain;
+    private HistorizationIface.STATUS status;
+    private int pageSize;
+    private int partitions;
+
+    /**
+     * Constructor
+     * 
+     * @param clazz
+     *            persisted class
+     * @param domain
+     *            optional {@code Domain}, can be {@code null}
+     * @param status
+     *            optional historization status, can be {@code null}
+     * @param pageSize
+     *            entities page size of a partition
+     * @param partitions
+     *            number of partitions (=worker threads)
+     */
+    public PartitionedScanner(Class<?> clazz, Domain domain, HistorizationIface.STATUS status, int pageSize,
+            int partitions) {
+        if (pageSize <= 0 || partitions <= 0) {
+            throw new IllegalArgumentException(
+                    "PartitionedScanner(): pageSize and partitions must be greater than 0");
+        }
+        this.clazz = clazz;
+        this.domain = domain;
+        this.status = status;
+        this.pageSize = pageSize;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Constructor - the number of partitions is the number of available
+     * processors.
+     * 
+     * @param clazz
+     *            persisted class
+     * @param domain
+     *            optional {@code Domain}, can be {@code null}
+     * @param status
+     *            optional historization status, can be {@code null}
+     * @param pageSize
+     *            entities page size of a partition
+     */
+    public PartitionedScanner(Class<?> clazz, Domain domain, HistorizationIface.STATUS status, int pageSize) {
+        this(clazz, domain, status, pageSize, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the DB ID range of the class.
+     * 
+     * @return array min/max DB ID, or {@code null} for an empty table
+     * @throws Exception
+     */
+    private int[] getIdRange() throws Exception {
+        DAOiface dao = DAO.getDAO();
+        try {
+            dao.beginTransaction();
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            String query = "select min(i.id), max(i.id) from " + clazz.getSimpleName() + " i";
+            if (domain != null) {
+                map.put("domain", domain.getHistId());
+                query += " where i.domain = :domain";
+            }
+            Object[] range = (Object[]) dao.query(query, map).get(0);
+            dao.endTransaction();
+            if (range[0] == null) {
+                return null;
+            }
+            return new int[] { ((Number) range[0]).intValue(), ((Number) range[1]).intValue() };
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Scans all entities and passes them page by page to the callback.
+     * 
+     * @param callback
+     *            thread-safe callback
+     * @return number of scanned entities
+     * @throws Exception
+     */
+    public long scan(final ScanCallbackIface callback) throws Exception {
+        int[] range = getIdRange();
+        if (range == null) {
+            return 0;
+        }
+        // partitions: (from, to]
+        long span = (long) range[1] - range[0] + 1;
+        int num = (int) Math.min(partitions, span);
+        ArrayList<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        long from = range[0] - 1L;
+        for (int i = 0; i < num; ++i) {
+            final int lower = (int) from;
+            final int upper = i == num - 1 ? range[1] : (int) (range[0] - 1L + span * (i + 1) / num);
+            from = upper;
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return scanPartition(callback, lower, upper);
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(num);
+        long count = 0;
+        try {
+            List<Future<Long>> futures = pool.invokeAll(tasks);
+            for (Future<Long> f : futures) {
+                try {
+                    count += f.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return count;
+    }
+
+    /**
+     * Scans a single partition.
+     * 
+     * @param callback
+     *            callback
+     * @param fromId
+     *            lower DB ID bound (exclusive)
+     * @param toId
+     *            upper DB ID bound (inclusive)
+     * @return number of scanned entities
+     * @throws Exception
+     */
+    private long scanPartition(ScanCallbackIface callback, int fromId, int toId) throws Exception {
+        DAOiface dao = DAO.getDAO();
+        long count = 0;
+        try {
+            dao.beginTransaction();
+            Iterator iter = new Iterator(dao, clazz, domain, status, pageSize, fromId, toId);
+            while (iter.hasNext()) {
+                List<Object> list = iter.next();
+                if (!list.isEmpty()) {
+                    callback.process(dao, list);
+                    count += list.size();
+                }
+            }
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of partitions.
+     * 
+     * @return number of partitions
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Registry of the frequently used queries. Query templates are completed for
+ * an entity class, and optional for the shape of a {@code SearchCriteria},
+ * only once and cached as {@code CompiledQuery}.
+ * </p>
+ * <p>
+ * Usage:
+ * {@code dao.query(QueryRegistry.get(Template.LOAD_ACTIVE, clazz), id, STATUS.ACTIVE)}
+ * </p>
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public class QueryRegistry {
+    /**
+     * Query templates - {@code $class$} is replaced by the entity name,
+     * {@code $criteria$} by an optional search criteria.
+     */
+    public enum Template {
+        /** active version of an entity, parameter: id, status */
+        LOAD_ACTIVE("i", "select i from $class$ i where i.histId = :id and i.status = :status$criteria$", "id",
+                "status"),
+        /** version of an entity valid at a date, parameter: id, date */
+        LOAD_TEMPORAL("i",
+                "select i from $class$ i where i.histId = :id and i.validFrom <= :date and (i.validTo is null or i.validTo > :date)$criteria$ order by i.version desc",
+                "id", "date"),
+        /** active versions of a set of entities, parameter: ids, status */
+        LOAD_MANY_ACTIVE("i", "select i from $class$ i where i.histId in :ids and i.status = :status$criteria$",
+                "ids", "status"),
+        /** versions of a set of entities valid at a date, parameter: ids, date */
+        LOAD_MANY_TEMPORAL("i",
+                "select i from $class$ i where i.histId in :ids and i.validFrom <= :date and (i.validTo is null or i.validTo > :date)$criteria$ order by i.histId, i.version desc",
+                "ids", "date"),
+        /** all active entities, parameter: status */
+        LOAD_ALL_ACTIVE("i", "select i from $class$ i where i.status = :status$criteria$", "status"),
+        /** all entities valid at a date, parameter: date */
+        LOAD_ALL_TEMPORAL("i",
+                "select i from $class$ i where i.validFrom <= :date and (i.validTo is null or i.validTo > :date)$criteria$",
+                "date"),
+        /** active entities of a domain, parameter: domain, status */
+        LOAD_DOMAIN_ACTIVE("i", "select i from $class$ i where i.domain = :domain and i.status = :status$criteria$",
+                "domain", "status"),
+        /** entities of a domain valid at a date, parameter: domain, date */
+        LOAD_DOMAIN_TEMPORAL("i",
+                "select i from $class$ i where i.domain = :domain and i.validFrom <= :date and (i.validTo is null or i.validTo > :date)$criteria$",
+                "domain", "date"),
+        /** node of a child/parent pair valid at a date, parameter: child, parent, date */
+        NODE_TEMPORAL("n",
+                "select n from $class$ n where n.child = :child and n.parent = :parent and n.validFrom <= :date and (n.validTo is null or n.validTo > :date)$criteria$ order by n.version desc",
+                "child", "parent", "date"),
+        /** active file of a domain by its path, parameter: domain, status, path */
+        DBFILE_ACTIVE("f",
+                "select f from $class$ f where f.domain = :domain and f.status = :status and f.filePath = :path$criteria$",
+                "domain", "status", "path"),
+        /** data of a CI/UI element valid at a date, parameter: ci, uiElement, date */
+        CIDATA_TEMPORAL("data",
+                "select data from $class$ data where data.ci = :ci and data.uiElement = :uiElement and data.validFrom <= :date and (data.validTo is null or data.validTo > :date)$criteria$",
+                "ci", "uiElement", "date"),
+        /** active data of a CI/UI element, parameter: ci, uiElement, status */
+        CIDATA_ACTIVE("data",
+                "select data from $class$ data where data.ci = :ci and data.uiElement = :uiElement and data.status = :status$criteria$",
+                "ci", "uiElement", "status"),
+        /** active domain data, parameter: domain, ci, uiElement, status */
+        CIDATA_DOMAIN_ACTIVE("data",
+                "select data from $class$ data where data.domain = :domain and data.ci = :ci and data.uiElement = :uiElement and data.status = :status$criteria$",
+                "domain", "ci", "uiElement", "status"),
+        /** domain data valid at a date, parameter: domain, ci, uiElement, date */
+        CIDATA_DOMAIN_TEMPORAL("data",
+                "select data from $class$ data where data.domain = :domain and data.ci = :ci and data.uiElement = :uiElement and data.validFrom <= :date and (data.validTo is null or data.validTo > :date)$criteria$",
+                "domain", "ci", "uiElement", "date"),
+        /** IDs of the active data of a set of CIs/a UI element, parameter: cis, uiElement, status */
+        CIDATA_MANY_IDS_ACTIVE("data",
+                "select data.histId, data.ci from $class$ data where data.ci in :cis and data.uiElement = :uiElement and data.status = :status$criteria$",
+                "cis", "uiElement", "status"),
+        /** IDs of all versions of the data of a set of CIs/a UI element, parameter: cis, uiElement */
+        CIDATA_MANY_IDS("data",
+                "select distinct data.histId, data.ci from $class$ data where data.ci in :cis and data.uiElement = :uiElement$criteria$",
+                "cis", "uiElement"),
+        /** all active data of a set of CIs, parameter: cis, status */
+        CIDATA_DOCUMENT_ACTIVE("data",
+                "select data from $class$ data where data.ci in :cis and data.status = :status$criteria$", "cis",
+                "status"),
+        /** all data of a set of CIs valid at a date, parameter: cis, date */
+        CIDATA_DOCUMENT_TEMPORAL("data",
+                "select data from $class$ data where data.ci in :cis and data.validFrom <= :date and (data.validTo is null or data.validTo > :date)$criteria$",
+                "cis", "date");
+
+        private String alias;
+        private String template;
+        private String[] parameters;
+
+        private Template(String alias, String template, String... parameters) {
+            this.alias = alias;
+            this.template = template;
+            this.parameters = parameters;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<Class<?>, CompiledQuery>[] queries = new ConcurrentHashMap[Template
+            .values().length];
+    // queries with a search criteria
+    private static ConcurrentHashMap<String, CompiledQuery> criteriaQueries = new ConcurrentHashMap<String, CompiledQuery>();
+
+    static {
+        for (int i = 0; i < queries.length; ++i) {
+            queries[i] = new ConcurrentHashMap<Class<?>, CompiledQuery>();
+        }
+    }
+
+    /**
+     * Returns a compiled query.
+     * 
+     * @param template
+     *            query template
+     * @param clazz
+     *            entity class
+     * @return {@code CompiledQuery}
+     */
+    public static CompiledQuery get(Template template, Class<?> clazz) {
+        ConcurrentHashMap<Class<?>, CompiledQuery> map = queries[template.ordinal()];
+        CompiledQuery query = map.get(clazz);
+        if (query == null) {
+            query = new CompiledQuery(template.template.replace("$class$", clazz.getSimpleName()).replace("$criteria$",
+                    ""), template.parameters);
+            CompiledQuery old = map.putIfAbsent(clazz, query);
+            if (old != null) {
+                query = old;
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Returns a compiled query with an additional search criteria. The value
+     * of the search criteria is the last query parameter.
+     * 
+     * @param template
+     *            query template
+     * @param clazz
+     *            entity class
+     * @param crit
+     *            optional search criteria, can be {@code null}
+     * @return {@code CompiledQuery}
+     */
+    public static CompiledQuery get(Template template, Class<?> clazz, SearchCriteria crit) {
+        if (crit == null) {
+            return get(template, clazz);
+        }
+        String critName = crit.getEnumValue().name();
+        String key = template.name() + ":" + clazz.getName() + ":" + critName + ":" + crit.getOperator().name();
+        CompiledQuery query = criteriaQueries.get(key);
+        if (query == null) {
+            String criteria = " and " + template.alias + "." + critName + " " + crit.getOperator().toString() + " :"
+                    + critName;
+            String[] parameters = new String[template.parameters.length + 1];
+            System.arraycopy(template.parameters, 0, parameters, 0, template.parameters.length);
+            parameters[template.parameters.length] = critName;
+            query = new CompiledQuery(
+                    template.template.replace("$class$", clazz.getSimpleName()).replace("$criteria$", criteria),
+                    parameters);
+            CompiledQuery old = criteriaQueries.putIfAbsent(key, query);
+            if (old != null) {
+                query = old;
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Removes all compiled queries.
+     */
+    public static void clear() {
+        for (ConcurrentHashMap<Class<?>, CompiledQuery> map : queries) {
+            map.clear();
+        }
+        criteriaQueries.clear();
+    }
+}
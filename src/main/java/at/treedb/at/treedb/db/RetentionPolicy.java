@@ -0,0 +1,173 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * <p>
+ * Retention policy for the historic versions of a class, used by the
+ * {@code HistoryCompactor}. Only historic copies ({@code STATUS.UPDATED}) and
+ * history deltas are pruned, the current version of an entity is never
+ * touched. Deleted entities are removed completely, including their history,
+ * only if {@code purgeDeleted()} is set.
+ * </p>
+ * <p>
+ * Usage: {@code RetentionPolicy.keepLast(10).purgeDeleted(365 * RetentionPolicy.DAY)}
+ * </p>
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public class RetentionPolicy {
+    /** one day in milliseconds */
+    public static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private int keepVersions = -1;
+    private long keepMillis = -1;
+    private long thinMillis = -1;
+    private long purgeMillis = -1;
+
+    private RetentionPolicy() {
+    }
+
+    /**
+     * Keeps the last historic versions of an entity.
+     * 
+     * @param versions
+     *            number of historic versions besides the current version
+     * @return {@code RetentionPolicy}
+     */
+    public static RetentionPolicy keepLast(int versions) {
+        if (versions < 0) {
+            throw new IllegalArgumentException("RetentionPolicy.keepLast(): versions must not be negative");
+        }
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.keepVersions = versions;
+        return policy;
+    }
+
+    /**
+     * Keeps the historic versions which were replaced within a time span.
+     * 
+     * @param millis
+     *            time span in milliseconds
+     * @return {@code RetentionPolicy}
+     */
+    public static RetentionPolicy keepNewerThan(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("RetentionPolicy.keepNewerThan(): time span must not be negative");
+        }
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.keepMillis = millis;
+        return policy;
+    }
+
+    /**
+     * Thins the historic versions older than a time span to the last version
+     * of every day. Delta histories can't be thinned, because every delta is
+     * necessary to rebuild the older versions.
+     * 
+     * @param millis
+     *            time span in milliseconds
+     * @return {@code RetentionPolicy}
+     */
+    public static RetentionPolicy thinDaily(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("RetentionPolicy.thinDaily(): time span must not be negative");
+        }
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.thinMillis = millis;
+        return policy;
+    }
+
+    /**
+     * Removes deleted entities, including their history, after a time span.
+     * 
+     * @param millis
+     *            time span in milliseconds after the deletion
+     * @return this {@code RetentionPolicy}
+     */
+    public RetentionPolicy purgeDeleted(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("RetentionPolicy.purgeDeleted(): time span must not be negative");
+        }
+        purgeMillis = millis;
+        return this;
+    }
+
+    /**
+     * Checks if a historic version is retained.
+     * 
+     * @param version
+     *            version of the historic copy
+     * @param currentVersion
+     *            version of the current entity
+     * @param validTo
+     *            end of the validity interval of the historic copy
+     * @param now
+     *            time of the compaction run
+     * @return {@code true} if the version is retained
+     */
+    boolean isRetained(int version, int currentVersion, Date validTo, long now) {
+        if (keepVersions >= 0 && currentVersion - version > keepVersions) {
+            return false;
+        }
+        if (keepMillis >= 0 && validTo != null && validTo.getTime() < now - keepMillis) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a historic version is subject to the daily thinning.
+     * 
+     * @param validTo
+     *            end of the validity interval of the historic copy
+     * @param now
+     *            time of the compaction run
+     * @return {@code true} if only the last version of the day is kept
+     */
+    boolean isThinned(Date validTo, long now) {
+        return thinMillis >= 0 && validTo != null && validTo.getTime() < now - thinMillis;
+    }
+
+    /**
+     * Checks if a deleted entity is removed.
+     * 
+     * @param deletionDate
+     *            deletion time
+     * @param now
+     *            time of the compaction run
+     * @return {@code true} if the entity and its history are removed
+     */
+    boolean isPurged(Date deletionDate, long now) {
+        return purgeMillis >= 0 && deletionDate != null && deletionDate.getTime() < now - purgeMillis;
+    }
+
+    /**
+     * Returns the day of a time stamp, used for the daily thinning.
+     * 
+     * @param date
+     *            time stamp
+     * @return day key
+     */
+    static long getDay(Date date) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        return cal.get(Calendar.YEAR) * 1000L + cal.get(Calendar.DAY_OF_YEAR);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.List;
+
+/**
+ * Callback interface of the {@code PartitionedScanner}.
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public interface ScanCallbackIface {
+    /**
+     * Processes a page of entities. This method is called concurrently by the
+     * worker threads of the scanner and must be thread-safe.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object) of the partition - the
+     *            transaction is managed by the scanner
+     * @param list
+     *            entities of the page
+     * @throws Exception
+     */
+    public void process(DAOiface dao, List<Object> list) throws Exception;
+}
@@ -72,6 +72,12 @@ public class SearchCriteria {
                 return "<=";
             }
         },
+        /** ELEMENT OF - comparison data is a collection **/
+        IN {
+            public String toString() {
+                return "in";
+            }
+        },
 
     };
 
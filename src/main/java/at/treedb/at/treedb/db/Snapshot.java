@@ -0,0 +1,311 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.treedb.domain.Domain;
+
+/**
+ * <p>
+ * Read-only snapshot of a domain at a point in time. All entities are
+ * resolved by their validity interval {@code [validFrom, validTo)}, so every
+ * read of a snapshot sees the same consistent state, regardless of updates
+ * which take place after the snapshot date. Historic versions are never
+ * modified, therefore loaded entities are kept by the snapshot and shared
+ * between its readers. Entities of a snapshot must not be modified.
+ * </p>
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * Snapshot snapshot = Snapshot.open(domain, date);
+ * List&lt;Base&gt; list = snapshot.loadAll(null, CI.class);
+ * Base base = snapshot.load(null, CItype.class, id);
+ * </pre>
+ * </p>
+ * 
+ * @author Peter Sauer
+ * 
+ */
+public class Snapshot {
+    private final int domain;
+    private final Date date;
+    // loaded entities per class, key: historization ID
+    private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Integer, Base>> entities;
+    // entities of the domain per class
+    private final ConcurrentHashMap<Class<?>, List<Base>> classes;
+
+    private Snapshot(int domain, Date date) {
+        this.domain = domain;
+        this.date = date;
+        entities = new ConcurrentHashMap<Class<?>, ConcurrentHashMap<Integer, Base>>();
+        classes = new ConcurrentHashMap<Class<?>, List<Base>>();
+    }
+
+    /**
+     * Opens a snapshot of a domain. A date in the future is limited to the
+     * current time.
+     * 
+     * @param domain
+     *            {@code Domain}
+     * @param date
+     *            snapshot date
+     * @return {@code Snapshot}
+     * @throws Exception
+     */
+    public static Snapshot open(Domain domain, Date date) throws Exception {
+        if (domain == null) {
+            throw new Exception("Snapshot.open(): parameter domain is null!");
+        }
+        return open(domain.getHistId(), date);
+    }
+
+    /**
+     * Opens a snapshot of a domain. A date in the future is limited to the
+     * current time.
+     * 
+     * @param domain
+     *            {@code Domain} ID
+     * @param date
+     *            snapshot date
+     * @return {@code Snapshot}
+     * @throws Exception
+     */
+    public static Snapshot open(@DBkey(value = Domain.class) int domain, Date date) throws Exception {
+        if (date == null) {
+            throw new Exception("Snapshot.open(): parameter date is null!");
+        }
+        Date now = new Date();
+        if (date.after(now)) {
+            date = now;
+        }
+        return new Snapshot(domain, new Date(date.getTime()));
+    }
+
+    /**
+     * Returns the domain ID of the snapshot.
+     * 
+     * @return {@code Domain} ID
+     */
+    public int getDomain() {
+        return domain;
+    }
+
+    /**
+     * Returns the snapshot date.
+     * 
+     * @return snapshot date
+     */
+    public Date getDate() {
+        return new Date(date.getTime());
+    }
+
+    /**
+     * Loads an entity valid at the snapshot date.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object), can be {@code null}
+     * @param clazz
+     *            entity class
+     * @param id
+     *            historization ID
+     * @return entity, or {@code null} if the entity doesn't exist at the
+     *         snapshot date or belongs to another domain
+     * @throws Exception
+     */
+    public Base load(DAOiface dao, Class<? extends Base> clazz, int id) throws Exception {
+        ConcurrentHashMap<Integer, Base> map = getMap(clazz);
+        Base base = map.get(id);
+        if (base != null) {
+            return base;
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            base = Base.load(dao, clazz, id, date);
+            if (localDAO) {
+                // read-only access
+                dao.rollback();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        if (base == null || !inDomain(base)) {
+            return null;
+        }
+        map.put(id, base);
+        return base;
+    }
+
+    /**
+     * Loads a set of entities valid at the snapshot date.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object), can be {@code null}
+     * @param clazz
+     *            entity class
+     * @param ids
+     *            historization IDs
+     * @return map historization ID/entity - IDs without an entity or of
+     *         another domain are missing
+     * @throws Exception
+     */
+    public HashMap<Integer, Base> loadMany(DAOiface dao, Class<? extends Base> clazz, int[] ids) throws Exception {
+        ConcurrentHashMap<Integer, Base> map = getMap(clazz);
+        HashMap<Integer, Base> result = new HashMap<Integer, Base>();
+        ArrayList<Integer> missing = new ArrayList<Integer>();
+        for (int id : ids) {
+            Base base = map.get(id);
+            if (base != null) {
+                result.put(id, base);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        int[] array = new int[missing.size()];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = missing.get(i);
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        HashMap<Integer, Base> loaded;
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            loaded = Base.loadMany(dao, clazz, array, date, false);
+            if (localDAO) {
+                // read-only access
+                dao.rollback();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        for (Base base : loaded.values()) {
+            if (inDomain(base)) {
+                map.put(base.getHistId(), base);
+                result.put(base.getHistId(), base);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if an entity belongs to the snapshot domain - entities without a
+     * domain (e.g. {@code User}) are visible in every snapshot.
+     * 
+     * @param base
+     *            entity
+     * @return {@code true} if the entity is part of the snapshot
+     */
+    private boolean inDomain(Base base) {
+        return base.getDomain() == 0 || base.getDomain() == domain;
+    }
+
+    /**
+     * Loads all entities of a class of the snapshot domain valid at the
+     * snapshot date.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object), can be {@code null}
+     * @param clazz
+     *            entity class
+     * @return list of entities
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public List<Base> loadAll(DAOiface dao, Class<? extends Base> clazz) throws Exception {
+        List<Base> list = classes.get(clazz);
+        if (list != null) {
+            return list;
+        }
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            list = (List<Base>) dao.query(QueryRegistry.get(QueryRegistry.Template.LOAD_DOMAIN_TEMPORAL, clazz),
+                    domain, date);
+            list = Base.addHistoric(dao, clazz, list, domain, null, null, null, date);
+            if (!list.isEmpty() && list.get(0).isCallbackAfterLoad()) {
+                for (Base b : list) {
+                    b.callbackAfterLoad(dao);
+                }
+            }
+            if (localDAO) {
+                // read-only access
+                dao.rollback();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        ConcurrentHashMap<Integer, Base> map = getMap(clazz);
+        for (Base b : list) {
+            map.put(b.getHistId(), b);
+        }
+        List<Base> old = classes.putIfAbsent(clazz, list);
+        return old != null ? old : list;
+    }
+
+    /**
+     * Removes all loaded entities of the snapshot.
+     */
+    public void clear() {
+        entities.clear();
+        classes.clear();
+    }
+
+    private ConcurrentHashMap<Integer, Base> getMap(Class<?> clazz) {
+        ConcurrentHashMap<Integer, Base> map = entities.get(clazz);
+        if (map == null) {
+            map = new ConcurrentHashMap<Integer, Base>();
+            ConcurrentHashMap<Integer, Base> old = entities.putIfAbsent(clazz, map);
+            if (old != null) {
+                map = old;
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Actions of a DAO transaction, which are executed after its end - e.g. the
+ * maintenance of the entity cache and the in-memory indexes. The DAO
+ * implementations record the written entities and execute the actions after
+ * the commit or the rollback of the transaction.
+ * </p>
+ * <p>
+ * Order after a commit: invalidation of the entity cache, commit actions,
+ * completion actions. A rollback invalidates the written entities as well -
+ * a load within the transaction may have seen their uncommitted state - and
+ * executes the completion actions.
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class TransactionActions {
+    private static final Logger LOGGER = Logger.getLogger(TransactionActions.class.getName());
+    private final ArrayList<Runnable> commitActions = new ArrayList<Runnable>();
+    private final ArrayList<Runnable> completionActions = new ArrayList<Runnable>();
+    private final ArrayList<Base> written = new ArrayList<Base>();
+    private boolean bulkWrite;
+
+    /**
+     * Registers an action executed after the commit.
+     *
+     * @param action
+     *            action
+     */
+    public void afterCommit(Runnable action) {
+        commitActions.add(action);
+    }
+
+    /**
+     * Registers an action executed after the commit or the rollback.
+     *
+     * @param action
+     *            action
+     */
+    public void afterCompletion(Runnable action) {
+        completionActions.add(action);
+    }
+
+    /**
+     * Records a written entity - the entity is removed from the entity cache
+     * after the commit.
+     *
+     * @param entity
+     *            saved, updated or deleted entity
+     */
+    public void written(Object entity) {
+        if (entity instanceof Base) {
+            written.add((Base) entity);
+        }
+    }
+
+    /**
+     * Records a bulk statement - the entity cache is cleared after the
+     * commit.
+     */
+    public void bulkWritten() {
+        bulkWrite = true;
+    }
+
+    /**
+     * Executes the actions after a commit.
+     */
+    public void committed() {
+        invalidateWritten();
+        for (Runnable r : commitActions) {
+            run(r);
+        }
+        complete();
+    }
+
+    /**
+     * Executes the actions after a rollback.
+     */
+    public void rolledBack() {
+        invalidateWritten();
+        complete();
+    }
+
+    private void invalidateWritten() {
+        if (bulkWrite) {
+            invalidateAll();
+        } else {
+            for (Base b : written) {
+                invalidate(b);
+            }
+        }
+    }
+
+    private void complete() {
+        for (Runnable r : completionActions) {
+            run(r);
+        }
+        commitActions.clear();
+        completionActions.clear();
+        written.clear();
+    }
+
+    /**
+     * Removes a written entity from the entity cache.
+     *
+     * @param entity
+     *            written entity
+     */
+    public static void invalidate(Object entity) {
+        if (entity instanceof Base) {
+            Base.invalidateCache((Base) entity);
+        }
+    }
+
+    /**
+     * Clears the entity cache, e.g. after a bulk statement.
+     */
+    public static void invalidateAll() {
+        EntityCacheIface cache = Base.getEntityCache();
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Executes an action. The transaction is already finished - a failing
+     * action is logged, but not propagated.
+     *
+     * @param action
+     *            action
+     */
+    public static void run(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "TransactionActions.run(): action failed", e);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.treedb.db.HistorizationIface.STATUS;
+
+/**
+ * <p>
+ * In-memory index of unique text fields, used by the constraint checks of
+ * {@code Base} to avoid a DB query for every save or update. An index covers
+ * the active entities of a class for a field and scope (all domains, domain
+ * or domain/CI) and is loaded with a single query on first use.
+ * </p>
+ * <p>
+ * The index is only consulted, if it's declared as authoritative - i.e. the
+ * application is the only writer of the DB and all writes pass the write
+ * paths of {@code Base}. Otherwise every check queries the DB. A value found
+ * in the index is always re-checked against the DB, a missing value is
+ * trusted. The index is maintained after the commit of a write, bulk
+ * statements drop all indexes. Stale entries (e.g. of entities moved to
+ * another CI) only cause a DB query and are replaced by the next write of the
+ * entity.
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class UniqueIndex {
+    /**
+     * Scope of a unique field.
+     */
+    public enum Scope {
+        /**
+         * unique over all domains
+         */
+        GLOBAL,
+        /**
+         * unique per domain
+         */
+        DOMAIN,
+        /**
+         * unique per domain and CI
+         */
+        CI
+    }
+
+    // class -> field/scope of the unique fields
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Scope>> fields =
+            new ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Scope>>();
+    private static volatile int maxIndexes = 1024;
+    private static volatile boolean authoritative;
+    // index key -> index, least recently used index first - guarded by
+    // itself
+    @SuppressWarnings("serial")
+    private static final LinkedHashMap<Key, Index> indexes = new LinkedHashMap<Key, Index>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Index> eldest) {
+            return size() > maxIndexes;
+        }
+    };
+
+    /**
+     * Index key - class, field, domain and CI.
+     */
+    private static class Key {
+        private final Class<?> clazz;
+        private final String field;
+        private final int domain;
+        private final int ci;
+
+        Key(Class<?> clazz, String field, int domain, int ci) {
+            this.clazz = clazz;
+            this.field = field;
+            this.domain = domain;
+            this.ci = ci;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((31 * clazz.hashCode() + field.hashCode()) * 31 + domain) * 31 + ci;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.clazz == clazz && k.field.equals(field) && k.domain == domain && k.ci == ci;
+        }
+    }
+
+    /**
+     * Index of a field - value/historization ID in both directions.
+     */
+    private static class Index {
+        private final HashMap<String, Integer> values = new HashMap<String, Integer>();
+        private final HashMap<Integer, String> owners = new HashMap<Integer, String>();
+        // historization IDs written during the initial load, {@code null}
+        // if the index is loaded
+        private HashSet<Integer> written = new HashSet<Integer>();
+
+        synchronized boolean isLoaded() {
+            return written == null;
+        }
+
+        synchronized Integer get(String value) {
+            return values.get(value);
+        }
+
+        synchronized void put(int histId, String value) {
+            remove(histId);
+            if (value != null) {
+                Integer old = values.put(value, histId);
+                if (old != null) {
+                    owners.remove(old);
+                }
+                owners.put(histId, value);
+            }
+        }
+
+        synchronized void remove(int histId) {
+            String value = owners.remove(histId);
+            if (value != null) {
+                values.remove(value);
+            }
+            if (written != null) {
+                written.add(histId);
+            }
+        }
+
+        /**
+         * Completes the initial load - rows of entities written during the
+         * load are outdated and skipped.
+         */
+        synchronized void load(List<Object[]> rows) {
+            for (Object[] o : rows) {
+                Integer histId = (Integer) o[0];
+                String value = (String) o[1];
+                if (value != null && !written.contains(histId) && !values.containsKey(value)) {
+                    values.put(value, histId);
+                    owners.put(histId, value);
+                }
+            }
+            written = null;
+        }
+    }
+
+    private UniqueIndex() {
+    }
+
+    /**
+     * Declares the indexes as authoritative: a value missing in the index
+     * isn't checked against the DB. Only allowed, if the application is the
+     * only writer of the DB and doesn't write unique fields bypassing
+     * {@code Base} (e.g. with own bulk statements).
+     *
+     * @param authoritative
+     *            {@code true} for using the indexes, {@code false} (default)
+     *            for checking every value against the DB
+     */
+    public static void setAuthoritative(boolean authoritative) {
+        UniqueIndex.authoritative = authoritative;
+        if (!authoritative) {
+            clear();
+        }
+    }
+
+    /**
+     * Sets the maximal number of indexes - the least recently used index is
+     * dropped.
+     *
+     * @param max
+     *            maximal number of indexes
+     */
+    public static void setMaxIndexes(int max) {
+        maxIndexes = max;
+    }
+
+    /**
+     * Checks a value against the index. Loads the index with a single query,
+     * if the index doesn't exist.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param clazz
+     *            entity class
+     * @param scope
+     *            scope of the field
+     * @param domain
+     *            {@code Domain} ID, ignored for {@code Scope.GLOBAL}
+     * @param ci
+     *            {@code CI} ID, only used for {@code Scope.CI}
+     * @param field
+     *            field name
+     * @param value
+     *            field value
+     * @param histId
+     *            historization ID of the checked entity, {@code 0} for new
+     *            entities
+     * @return {@code Boolean.TRUE} if another entity is indexed with this
+     *         value (conflict candidate), {@code Boolean.FALSE} if the value
+     *         is free, {@code null} if the index can't decide - the index
+     *         isn't authoritative or is loaded by another thread
+     * @throws Exception
+     */
+    public static Boolean isConflict(DAOiface dao, Class<?> clazz, Scope scope, int domain, int ci, String field,
+            String value, int histId) throws Exception {
+        if (!authoritative) {
+            return null;
+        }
+        Index index = getIndex(dao, clazz, scope, domain, ci, field);
+        if (index == null) {
+            return null;
+        }
+        Integer owner = index.get(value);
+        return owner != null && owner != histId;
+    }
+
+    /**
+     * Registers the maintenance of the indexes for a written entity - the
+     * indexes are updated after the commit.
+     *
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param base
+     *            saved, updated or deleted entity
+     * @throws Exception
+     */
+    static void update(DAOiface dao, Base base) throws Exception {
+        ConcurrentHashMap<String, Scope> map = fields.get(base.getClass());
+        // superseded versions don't change the index
+        if (map == null || (base.getHistStatus() != STATUS.ACTIVE && base.getHistStatus() != STATUS.DELETED)) {
+            return;
+        }
+        final boolean active = base.getHistStatus() == STATUS.ACTIVE;
+        final int histId = base.getHistId();
+        final ArrayList<Key> keys = new ArrayList<Key>();
+        final ArrayList<String> values = new ArrayList<String>();
+        FieldAccessor accessor = FieldAccessor.getAccessor(base.getClass());
+        for (Map.Entry<String, Scope> e : map.entrySet()) {
+            int ci = 0;
+            if (e.getValue() == Scope.CI) {
+                ci = accessor.getField("ci").getInt(base);
+            }
+            Field f = accessor.getField(e.getKey());
+            keys.add(createKey(base.getClass(), e.getValue(), base.getDomain(), ci, e.getKey()));
+            values.add((String) f.get(base));
+        }
+        dao.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < keys.size(); ++i) {
+                    Index index;
+                    synchronized (indexes) {
+                        index = indexes.get(keys.get(i));
+                    }
+                    if (index == null) {
+                        continue;
+                    }
+                    if (active) {
+                        index.put(histId, values.get(i));
+                    } else {
+                        index.remove(histId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops all indexes, e.g. after a bulk import.
+     */
+    public static void clear() {
+        synchronized (indexes) {
+            indexes.clear();
+        }
+    }
+
+    private static Key createKey(Class<?> clazz, Scope scope, int domain, int ci, String field) {
+        return new Key(clazz, field, scope == Scope.GLOBAL ? 0 : domain, scope == Scope.CI ? ci : 0);
+    }
+
+    /**
+     * Returns a loaded index. The index is registered before loading, so
+     * writes committed during the load are applied to the index and aren't
+     * overwritten by the loaded rows.
+     *
+     * @return loaded index, or {@code null} if the index is loaded by another
+     *         thread
+     */
+    @SuppressWarnings("unchecked")
+    private static Index getIndex(DAOiface dao, Class<?> clazz, Scope scope, int domain, int ci, String field)
+            throws Exception {
+        Key key = createKey(clazz, scope, domain, ci, field);
+        Index index;
+        synchronized (indexes) {
+            index = indexes.get(key);
+            if (index != null) {
+                return index.isLoaded() ? index : null;
+            }
+            index = new Index();
+            indexes.put(key, index);
+        }
+        ConcurrentHashMap<String, Scope> map = fields.get(clazz);
+        if (map == null) {
+            fields.putIfAbsent(clazz, new ConcurrentHashMap<String, Scope>());
+            map = fields.get(clazz);
+        }
+        map.put(field, scope);
+        HashMap<String, Object> param = new HashMap<String, Object>();
+        param.put("status", STATUS.ACTIVE);
+        StringBuffer buf = new StringBuffer();
+        buf.append("select i.histId, i.").append(field).append(" from ").append(clazz.getSimpleName())
+                .append(" i where i.status = :status");
+        if (scope != Scope.GLOBAL) {
+            param.put("domain", domain);
+            buf.append(" and i.domain = :domain");
+        }
+        if (scope == Scope.CI) {
+            param.put("ci", ci);
+            buf.append(" and i.ci = :ci");
+        }
+        try {
+            index.load((List<Object[]>) dao.query(buf.toString(), param));
+        } catch (Exception e) {
+            drop(key, index);
+            throw e;
+        }
+        // the rows contain the uncommitted writes of the transaction - the
+        // index is dropped after a rollback
+        final Key k = key;
+        final Index i = index;
+        final boolean[] committed = new boolean[1];
+        dao.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                committed[0] = true;
+            }
+        });
+        dao.afterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                if (!committed[0]) {
+                    drop(k, i);
+                }
+            }
+        });
+        return index;
+    }
+
+    private static void drop(Key key, Index index) {
+        synchronized (indexes) {
+            if (indexes.get(key) == index) {
+                indexes.remove(key);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import java.net.URI;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,15 +33,18 @@ import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.EntityKey;
 import org.hibernate.jdbc.Work;
 import org.hibernate.resource.transaction.spi.TransactionStatus;
 import org.hibernate.service.ServiceRegistry;
 import org.hibernate.SessionFactory;
 
+import at.treedb.db.CompiledQuery;
 import at.treedb.db.DAO;
 import at.treedb.db.DAOiface;
 import at.treedb.db.DBentities;
 import at.treedb.db.HistorizationIface;
+import at.treedb.db.TransactionActions;
 import at.treedb.db.DAO.DB;
 import at.treedb.db.DAO.DDL_STRATEGY;
 import at.treedb.db.DAO.JPA_IMPL;
@@ -67,6 +71,8 @@ public class DAOhibernate implements DAOiface, Cloneable {
     private StatelessSession statelessSession;
     private boolean isStatelessSession;
     private Transaction tx;
+    // actions executed after the end of the transaction
+    private TransactionActions actions;
 
     private static final String NOT_SUPPORTED = "not supported for a StatelessSession";
     private static ServiceRegistry serviceRegistry;
@@ -215,7 +221,8 @@ public class DAOhibernate implements DAOiface, Cloneable {
             ReplaceText[] rt = new ReplaceText[] { new ReplaceText("creationDate", (new Date()).toString()),
                     new ReplaceText("hbm2ddl", hbm2ddl), new ReplaceText("dbDriver", dbDriver),
                     new ReplaceText("dbURL", dbURL), new ReplaceText("dialect", hibernateDialect),
-                    new ReplaceText("dbUser", dbUser), new ReplaceText("dbPwd", dbPWD), };
+                    new ReplaceText("dbUser", dbUser), new ReplaceText("dbPwd", dbPWD),
+                    new ReplaceText("batchSize", "" + DAO.JDBC_BATCH_SIZE), };
 
             URI hibernateCfg = DAOhibernate.class.getResource("/hibernateTemplate.cfg.xml").toURI();
 
@@ -342,6 +349,27 @@ public class DAOhibernate implements DAOiface, Cloneable {
         } else {
             session.update(entity);
         }
+        written(entity);
+    }
+
+    @Override
+    public <T extends HistorizationIface> void updateAll(Collection<T> entities) throws Exception {
+        if (isStatelessSession) {
+            throw new Exception(buildErrMsg("updateAll"));
+        }
+        int count = 0;
+        for (T entity : entities) {
+            session.update(entity);
+            written(entity);
+            // flush only - clearing the persistence context would detach
+            // the managed entities of the caller
+            if (++count % DAO.JDBC_BATCH_SIZE == 0) {
+                session.flush();
+            }
+        }
+        if (count % DAO.JDBC_BATCH_SIZE != 0) {
+            session.flush();
+        }
     }
 
     private static String buildErrMsg(String method) {
@@ -355,6 +383,38 @@ public class DAOhibernate implements DAOiface, Cloneable {
         } else {
             session.save(entity);
         }
+        written(entity);
+    }
+
+    @Override
+    public <T> void saveAll(Collection<T> entities) throws Exception {
+        if (isStatelessSession) {
+            throw new Exception(buildErrMsg("saveAll"));
+        }
+        ArrayList<T> batch = new ArrayList<T>();
+        for (T entity : entities) {
+            session.save(entity);
+            written(entity);
+            batch.add(entity);
+            if (batch.size() == DAO.JDBC_BATCH_SIZE) {
+                flushBatch(batch);
+            }
+        }
+        if (!batch.isEmpty()) {
+            flushBatch(batch);
+        }
+    }
+
+    private <T> void flushBatch(ArrayList<T> batch) {
+        // the DB ID is assigned by save()
+        DAO.assignHistIds(batch);
+        session.flush();
+        // detach only the flushed entities - other entities of the session
+        // stay managed
+        for (T e : batch) {
+            session.evict(e);
+        }
+        batch.clear();
     }
 
     @SuppressWarnings("unchecked")
@@ -392,12 +452,31 @@ public class DAOhibernate implements DAOiface, Cloneable {
             while (iter.hasNext()) {
                 String key = iter.next();
                 Object o = map.get(key);
-                q.setParameter(key, o);
+                setParameter(q, key, o);
             }
         }
         return q.list();
     }
 
+    /**
+     * Binds a query parameter - collections are bound as parameter list, e.g.
+     * for {@code i.histId in :ids}.
+     * 
+     * @param q
+     *            Hibernate query object
+     * @param key
+     *            parameter name
+     * @param o
+     *            parameter value
+     */
+    private static void setParameter(Query q, String key, Object o) {
+        if (o instanceof Collection) {
+            q.setParameterList(key, (Collection<?>) o);
+        } else {
+            q.setParameter(key, o);
+        }
+    }
+
     /**
      * Creates a Hibernate query object.
      * 
@@ -419,7 +498,7 @@ public class DAOhibernate implements DAOiface, Cloneable {
             while (iter.hasNext()) {
                 String key = iter.next();
                 Object o = map.get(key);
-                q.setParameter(key, o);
+                setParameter(q, key, o);
             }
         }
         return q;
@@ -438,9 +517,10 @@ public class DAOhibernate implements DAOiface, Cloneable {
             while (iter.hasNext()) {
                 String key = iter.next();
                 Object o = map.get(key);
-                q.setParameter(key, o);
+                setParameter(q, key, o);
             }
         }
+        bulkWritten();
         return q.executeUpdate();
     }
 
@@ -457,7 +537,7 @@ public class DAOhibernate implements DAOiface, Cloneable {
             while (iter.hasNext()) {
                 String key = iter.next();
                 Object o = map.get(key);
-                q.setParameter(key, o);
+                setParameter(q, key, o);
             }
         }
         q.setFirstResult(start);
@@ -465,6 +545,43 @@ public class DAOhibernate implements DAOiface, Cloneable {
         return q.list();
     }
 
+    @Override
+    public List<?> query(CompiledQuery query, Object... values) throws Exception {
+        return createQuery(query, values).list();
+    }
+
+    @Override
+    public List<?> query(CompiledQuery query, int start, int maxResults, Object[] values) throws Exception {
+        Query q = createQuery(query, values);
+        q.setFirstResult(start);
+        q.setMaxResults(maxResults);
+        return q.list();
+    }
+
+    /**
+     * Creates a Hibernate query object for a compiled query.
+     * 
+     * @param query
+     *            compiled query
+     * @param values
+     *            parameter values
+     * @return Hibernate query object
+     * @throws Exception
+     */
+    private Query createQuery(CompiledQuery query, Object[] values) throws Exception {
+        query.checkParameters(values);
+        Query q;
+        if (isStatelessSession) {
+            q = statelessSession.createQuery(query.getQuery());
+        } else {
+            q = session.createQuery(query.getQuery());
+        }
+        for (int i = 0; i < values.length; ++i) {
+            setParameter(q, query.getParameter(i), values[i]);
+        }
+        return q;
+    }
+
     @Override
     public List<?> nativeQuery(String query) throws Exception {
         if (isStatelessSession) {
@@ -482,6 +599,7 @@ public class DAOhibernate implements DAOiface, Cloneable {
         } else {
             sqlQuery = session.createSQLQuery(query);
         }
+        bulkWritten();
         return sqlQuery.executeUpdate();
     }
 
@@ -490,6 +608,7 @@ public class DAOhibernate implements DAOiface, Cloneable {
         session = sessionFactory.getCurrentSession();
         tx = session.beginTransaction();
         isStatelessSession = false;
+        actions = new TransactionActions();
     }
 
     /**
@@ -499,6 +618,7 @@ public class DAOhibernate implements DAOiface, Cloneable {
         statelessSession = sessionFactory.openStatelessSession();
         tx = statelessSession.beginTransaction();
         isStatelessSession = true;
+        actions = new TransactionActions();
     }
 
     /**
@@ -512,8 +632,22 @@ public class DAOhibernate implements DAOiface, Cloneable {
 
     @Override
     public void endTransaction() {
-        if (tx != null && tx.getStatus() == TransactionStatus.ACTIVE) {
-            tx.commit();
+        TransactionActions a = actions;
+        actions = null;
+        boolean committed = false;
+        try {
+            if (tx != null && tx.getStatus() == TransactionStatus.ACTIVE) {
+                tx.commit();
+                committed = true;
+            }
+        } finally {
+            if (a != null) {
+                if (committed) {
+                    a.committed();
+                } else {
+                    a.rolledBack();
+                }
+            }
         }
     }
 
@@ -524,6 +658,7 @@ public class DAOhibernate implements DAOiface, Cloneable {
         } else {
             session.delete(entity);
         }
+        written(entity);
     }
 
     @Override
@@ -547,8 +682,50 @@ public class DAOhibernate implements DAOiface, Cloneable {
 
     @Override
     public void rollback() {
-        if (tx != null && tx.getStatus() == TransactionStatus.ACTIVE) {
-            tx.rollback();
+        TransactionActions a = actions;
+        actions = null;
+        try {
+            if (tx != null && tx.getStatus() == TransactionStatus.ACTIVE) {
+                tx.rollback();
+            }
+        } finally {
+            if (a != null) {
+                a.rolledBack();
+            }
+        }
+    }
+
+    @Override
+    public void afterCommit(Runnable action) {
+        if (actions != null) {
+            actions.afterCommit(action);
+        } else {
+            TransactionActions.run(action);
+        }
+    }
+
+    @Override
+    public void afterCompletion(Runnable action) {
+        if (actions != null) {
+            actions.afterCompletion(action);
+        } else {
+            TransactionActions.run(action);
+        }
+    }
+
+    private void written(Object entity) {
+        if (actions != null) {
+            actions.written(entity);
+        } else {
+            TransactionActions.invalidate(entity);
+        }
+    }
+
+    private void bulkWritten() {
+        if (actions != null) {
+            actions.bulkWritten();
+        } else {
+            TransactionActions.invalidateAll();
         }
     }
 
@@ -559,6 +736,7 @@ public class DAOhibernate implements DAOiface, Cloneable {
         } else {
             session.save(entity);
         }
+        written(entity);
     }
 
     @Override
@@ -587,6 +765,34 @@ public class DAOhibernate implements DAOiface, Cloneable {
         }
     }
 
+    @Override
+    public void detachAll(Class<?> clazz) {
+        // a stateless session has no persistence context
+        if (!isStatelessSession) {
+            session.flush();
+            evictAll(session, clazz);
+        }
+    }
+
+    /**
+     * Evicts all managed entities of a class from a Hibernate session.
+     * 
+     * @param session
+     *            Hibernate session
+     * @param clazz
+     *            entity class
+     */
+    public static void evictAll(Session session, Class<?> clazz) {
+        for (Object o : session.getStatistics().getEntityKeys().toArray()) {
+            EntityKey key = (EntityKey) o;
+            // managed entities are returned from the persistence context
+            Object entity = session.get(key.getEntityName(), key.getIdentifier());
+            if (clazz.isInstance(entity)) {
+                session.evict(entity);
+            }
+        }
+    }
+
     @Override
     public void clear() {
         session.clear();
@@ -18,7 +18,9 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
@@ -34,11 +36,15 @@ import javax.persistence.FlushModeType;
 import javax.persistence.Persistence;
 import javax.persistence.Query;
 
+import org.hibernate.Session;
+
 import at.treedb.db.Base;
+import at.treedb.db.CompiledQuery;
 import at.treedb.db.DAO;
 import at.treedb.db.DAOiface;
 import at.treedb.db.DBentities;
 import at.treedb.db.HistorizationIface;
+import at.treedb.db.TransactionActions;
 import at.treedb.db.DAO.DB;
 import at.treedb.db.DAO.DDL_STRATEGY;
 import at.treedb.db.DAO.JPA_IMPL;
@@ -59,6 +65,8 @@ public class DAOjpa implements DAOiface, Cloneable {
     // private static boolean isSubclassing = false;
     private EntityManager entityManager;
     private EntityTransaction transaction;
+    // actions executed after the end of the transaction
+    private TransactionActions actions;
     private static EntityManagerFactory entityManagerFactory;
     private static JPA_IMPL jpaImpl;
     private static DAO.DB database;
@@ -252,7 +260,7 @@ public class DAOjpa implements DAOiface, Cloneable {
                     new ReplaceText("dbURL", dbURL), new ReplaceText("platform", platform),
                     new ReplaceText("dialect", hibernateDialect), new ReplaceText("dbUser", dbUser),
                     new ReplaceText("dbPwd", dbPWD), new ReplaceText("provider", provider),
-                    new ReplaceText("unitName", unitName),
+                    new ReplaceText("unitName", unitName), new ReplaceText("batchSize", "" + DAO.JDBC_BATCH_SIZE),
 
                     new ReplaceText("mappings", buf.toString()) };
             // read & set up the persistence.xml template
@@ -366,27 +374,90 @@ public class DAOjpa implements DAOiface, Cloneable {
         entityManager = entityManagerFactory.createEntityManager();
         transaction = entityManager.getTransaction();
         transaction.begin();
+        actions = new TransactionActions();
     }
 
     @Override
     public void endTransaction() {
-        if (transaction != null && transaction.isActive()) {
-            transaction.commit();
-        }
-        if (entityManager != null) {
-            entityManager.close();
+        TransactionActions a = actions;
+        actions = null;
+        boolean committed = false;
+        try {
+            if (transaction != null && transaction.isActive()) {
+                transaction.commit();
+                committed = true;
+            }
+            if (entityManager != null) {
+                entityManager.close();
+            }
+        } finally {
+            if (a != null) {
+                if (committed) {
+                    a.committed();
+                } else {
+                    a.rolledBack();
+                }
+            }
         }
     }
 
     @Override
     public <T extends HistorizationIface> void update(T entity) {
         entityManager.merge(entity);
+        written(entity);
+    }
 
+    @Override
+    public <T extends HistorizationIface> void updateAll(Collection<T> entities) {
+        int count = 0;
+        for (T entity : entities) {
+            entityManager.merge(entity);
+            written(entity);
+            // flush only - clearing the persistence context would detach
+            // the managed entities of the caller
+            if (++count % DAO.JDBC_BATCH_SIZE == 0) {
+                entityManager.flush();
+            }
+        }
+        if (count % DAO.JDBC_BATCH_SIZE != 0) {
+            entityManager.flush();
+        }
     }
 
     @Override
     public <T> void save(T entity) {
         entityManager.persist(entity);
+        written(entity);
+    }
+
+    @Override
+    public <T> void saveAll(Collection<T> entities) {
+        ArrayList<T> batch = new ArrayList<T>();
+        for (T entity : entities) {
+            entityManager.persist(entity);
+            written(entity);
+            batch.add(entity);
+            if (batch.size() == DAO.JDBC_BATCH_SIZE) {
+                flushBatch(batch);
+            }
+        }
+        if (!batch.isEmpty()) {
+            flushBatch(batch);
+        }
+    }
+
+    private <T> void flushBatch(ArrayList<T> batch) {
+        entityManager.flush();
+        // the DB IDs are available after the flush
+        if (DAO.assignHistIds(batch)) {
+            entityManager.flush();
+        }
+        // detach only the flushed entities - other entities of the
+        // persistence context stay managed
+        for (T e : batch) {
+            entityManager.detach(e);
+        }
+        batch.clear();
     }
 
     @SuppressWarnings("unchecked")
@@ -394,6 +465,7 @@ public class DAOjpa implements DAOiface, Cloneable {
     public <T extends HistorizationIface> void delete(T entity) {
         T e = (T) entityManager.find(entity.getClass(), entity.getDBid());
         entityManager.remove(e);
+        written(entity);
     }
 
     @Override
@@ -413,6 +485,18 @@ public class DAOjpa implements DAOiface, Cloneable {
         entityManager.getEntityManagerFactory().getCache().evict(clazz, ((Base) entity).getDBid());
     }
 
+    @Override
+    public void detachAll(Class<?> clazz) {
+        entityManager.flush();
+        if (jpaImpl == JPA_IMPL.HIBERNATEJPA) {
+            DAOhibernate.evictAll(entityManager.unwrap(Session.class), clazz);
+        } else {
+            // JPA doesn't enumerate the managed entities - the flushed
+            // persistence context is cleared
+            entityManager.clear();
+        }
+    }
+
     @Override
     public void flush() {
         entityManager.flush();
@@ -425,8 +509,50 @@ public class DAOjpa implements DAOiface, Cloneable {
 
     @Override
     public void rollback() {
-        if (transaction != null && transaction.isActive()) {
-            transaction.rollback();
+        TransactionActions a = actions;
+        actions = null;
+        try {
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+        } finally {
+            if (a != null) {
+                a.rolledBack();
+            }
+        }
+    }
+
+    @Override
+    public void afterCommit(Runnable action) {
+        if (actions != null) {
+            actions.afterCommit(action);
+        } else {
+            TransactionActions.run(action);
+        }
+    }
+
+    @Override
+    public void afterCompletion(Runnable action) {
+        if (actions != null) {
+            actions.afterCompletion(action);
+        } else {
+            TransactionActions.run(action);
+        }
+    }
+
+    private void written(Object entity) {
+        if (actions != null) {
+            actions.written(entity);
+        } else {
+            TransactionActions.invalidate(entity);
+        }
+    }
+
+    private void bulkWritten() {
+        if (actions != null) {
+            actions.bulkWritten();
+        } else {
+            TransactionActions.invalidateAll();
         }
     }
 
@@ -435,6 +561,7 @@ public class DAOjpa implements DAOiface, Cloneable {
         entityManager.persist(entity);
         entityManager.flush();
         entityManager.refresh(entity);
+        written(entity);
     }
 
     public Query createQuery(String query, HashMap<String, Object> map) {
@@ -464,6 +591,39 @@ public class DAOjpa implements DAOiface, Cloneable {
         return q.getResultList();
     }
 
+    @Override
+    public List<?> query(CompiledQuery query, Object... values) throws Exception {
+        return createQuery(query, values).getResultList();
+    }
+
+    @Override
+    public List<?> query(CompiledQuery query, int start, int maxResults, Object[] values) throws Exception {
+        Query q = createQuery(query, values);
+        q.setFirstResult(start);
+        q.setMaxResults(maxResults);
+        return q.getResultList();
+    }
+
+    /**
+     * Creates a JPA query object for a compiled query.
+     * 
+     * @param query
+     *            compiled query
+     * @param values
+     *            parameter values
+     * @return JPA query object
+     * @throws Exception
+     */
+    private Query createQuery(CompiledQuery query, Object[] values) throws Exception {
+        query.checkParameters(values);
+        Query q = entityManager.createQuery(query.getQuery());
+        q.setFlushMode(FlushModeType.COMMIT);
+        for (int i = 0; i < values.length; ++i) {
+            q.setParameter(query.getParameter(i), values[i]);
+        }
+        return q;
+    }
+
     @Override
     public int queryAndExecute(String query, HashMap<String, Object> map) {
         Query q = entityManager.createQuery(query);
@@ -475,6 +635,7 @@ public class DAOjpa implements DAOiface, Cloneable {
                 q.setParameter(key, map.get(key));
             }
         }
+        bulkWritten();
         return q.executeUpdate();
     }
 
@@ -511,6 +672,7 @@ public class DAOjpa implements DAOiface, Cloneable {
     @Override
     public int nativeQueryAndExecute(String query) throws Exception {
         Query q = entityManager.createNativeQuery(query);
+        bulkWritten();
         return q.executeUpdate();
     }
 
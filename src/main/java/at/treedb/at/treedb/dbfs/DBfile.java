@@ -23,6 +23,7 @@ import javax.persistence.Entity;
 import at.treedb.db.Base;
 import at.treedb.db.ClassID;
 import at.treedb.db.DAOiface;
+import at.treedb.db.QueryRegistry;
 import at.treedb.domain.Domain;
 import at.treedb.user.User;
 
@@ -91,13 +92,9 @@ public class DBfile extends Base {
      * @throws Exception
      */
     public static DBfile load(DAOiface dao, Domain domain, String path) throws Exception {
-        HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-        map.put("path", path);
-        map.put("domain", domain.getHistId());
         @SuppressWarnings("unchecked")
-        List<Base> list = (List<Base>) dao.query("select f from " + DBfile.class.getSimpleName()
-                + " f where  f.domain = :domain and f.status = :status and f.filePath = :path", map);
+        List<Base> list = (List<Base>) dao.query(QueryRegistry.get(QueryRegistry.Template.DBFILE_ACTIVE, DBfile.class),
+                domain.getHistId(), at.treedb.db.HistorizationIface.STATUS.ACTIVE, path);
         if (list.size() == 1) {
             DBfile file = (DBfile) list.get(0);
             if (!file.checkIntegrity()) {
@@ -130,13 +127,9 @@ public class DBfile extends Base {
      * @throws Exception
      */
     public static boolean delete(DAOiface dao, Domain domain, User user, String path) throws Exception {
-        HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-        map.put("path", path);
-        map.put("domain", domain.getHistId());
         @SuppressWarnings("unchecked")
-        List<Base> list = (List<Base>) dao.query("select f from " + DBfile.class.getSimpleName()
-                + " f where f.domain = :domain and f.status = :status and f.filePath = :path", map);
+        List<Base> list = (List<Base>) dao.query(QueryRegistry.get(QueryRegistry.Template.DBFILE_ACTIVE, DBfile.class),
+                domain.getHistId(), at.treedb.db.HistorizationIface.STATUS.ACTIVE, path);
         if (list.size() == 1) {
             Base.delete(dao, user, (DBfile) list.get(0), false);
             return true;
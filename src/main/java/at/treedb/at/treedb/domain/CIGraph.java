@@ -0,0 +1,310 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.treedb.ci.CI;
+import at.treedb.ci.CItype;
+import at.treedb.ci.Connectable;
+import at.treedb.db.DBkey;
+
+/**
+ * <p>
+ * Lock-free read view of the in-memory graph of a {@code Domain} - the
+ * {@code CI}s, the {@code CItype}s and frozen copies of their parent/child
+ * sets. Readers traverse the view without locking. The sets are published
+ * copy-on-write per item: writers modify the live sets under the graph lock
+ * and replace the frozen copies of the modified items only.
+ * </p>
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * CIGraph graph = domain.getGraph();
+ * for (Connectable c : graph.getChildren(ci)) {
+ *     ...
+ * }
+ * </pre>
+ * </p>
+ * <p>
+ * Every returned set is a consistent, unmodifiable copy. A traversal may see
+ * modifications of other items published during the traversal. Only the
+ * collections are frozen - the properties of the {@code CI}s and
+ * {@code CItype}s are those of the live objects.
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class CIGraph {
+    private volatile long version;
+    private final Map<Integer, CI> ciIntMap;
+    private final Map<String, CI> ciStrMap;
+    private final Map<Integer, CItype> ciTypeMap;
+    // item -> frozen set, items with empty sets are missing
+    private final ConcurrentHashMap<Connectable, Set<Connectable>> children =
+            new ConcurrentHashMap<Connectable, Set<Connectable>>();
+    private final ConcurrentHashMap<Connectable, Set<Connectable>> parents =
+            new ConcurrentHashMap<Connectable, Set<Connectable>>();
+
+    /**
+     * Constructor - the maps are the thread-safe live maps of the
+     * {@code Domain}.
+     */
+    CIGraph(Map<Integer, CI> cis, Map<String, CI> ciNames, Map<Integer, CItype> types) {
+        this.ciIntMap = Collections.unmodifiableMap(cis);
+        this.ciStrMap = Collections.unmodifiableMap(ciNames);
+        this.ciTypeMap = Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * Publishes the parent/child sets of modified items. The caller holds the
+     * graph lock of the {@code Domain}.
+     *
+     * @param version
+     *            new version
+     * @param changed
+     *            modified items
+     */
+    void publish(long version, Collection<? extends Connectable> changed) {
+        for (Connectable c : changed) {
+            freeze(c, c.getChildren(), children);
+            freeze(c, c.getParents(), parents);
+        }
+        this.version = version;
+    }
+
+    /**
+     * Publishes the parent/child sets of all items, e.g. after loading the
+     * {@code Domain}. The caller holds the graph lock of the {@code Domain}.
+     *
+     * @param version
+     *            new version
+     * @param domain
+     *            {@code Domain}, the root of the {@code CItype} trees
+     */
+    void publishAll(long version, Domain domain) {
+        children.clear();
+        parents.clear();
+        ArrayList<Connectable> all = new ArrayList<Connectable>();
+        all.add(domain);
+        all.addAll(ciIntMap.values());
+        all.addAll(ciTypeMap.values());
+        publish(version, all);
+    }
+
+    private static void freeze(Connectable item, Set<Connectable> live,
+            ConcurrentHashMap<Connectable, Set<Connectable>> map) {
+        if (live.isEmpty()) {
+            map.remove(item);
+        } else {
+            map.put(item, Collections.unmodifiableSet(new HashSet<Connectable>(live)));
+        }
+    }
+
+    /**
+     * Returns the version of the graph. The version is incremented by every
+     * publication of modifications.
+     *
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a {@code CI}.
+     *
+     * @param id
+     *            {@code CI} ID
+     * @return {@code CI}, or {@code null} if the {@code CI} isn't part of the
+     *         graph
+     */
+    public CI getCI(@DBkey(CI.class) int id) {
+        return ciIntMap.get(id);
+    }
+
+    /**
+     * Returns a {@code CI} per name - only available for domains with unique
+     * {@code CI} names.
+     *
+     * @param name
+     *            exact {@code CI} name
+     * @return {@code CI}, or {@code null} if the {@code CI} isn't part of the
+     *         graph
+     */
+    public CI getCI(String name) {
+        return ciStrMap.get(name);
+    }
+
+    /**
+     * Returns a {@code CItype}.
+     *
+     * @param id
+     *            {@code CItype} ID
+     * @return {@code CItype}, or {@code null} if the {@code CItype} isn't part
+     *         of the graph
+     */
+    public CItype getCItype(@DBkey(CItype.class) int id) {
+        return ciTypeMap.get(id);
+    }
+
+    /**
+     * Returns all {@code CI}s.
+     *
+     * @return unmodifiable collection of {@code CI}s
+     */
+    public Collection<CI> getCIs() {
+        return ciIntMap.values();
+    }
+
+    /**
+     * Returns all {@code CItype}s.
+     *
+     * @return unmodifiable collection of {@code CItype}s
+     */
+    public Collection<CItype> getCItypes() {
+        return ciTypeMap.values();
+    }
+
+    /**
+     * Returns the children of an item.
+     *
+     * @param c
+     *            {@code CI}, {@code CItype} or {@code Domain}
+     * @return unmodifiable set of children
+     */
+    public Set<Connectable> getChildren(Connectable c) {
+        Set<Connectable> set = children.get(c);
+        if (set == null) {
+            return Collections.emptySet();
+        }
+        return set;
+    }
+
+    /**
+     * Returns the parents of an item.
+     *
+     * @param c
+     *            {@code CI}, {@code CItype} or {@code Domain}
+     * @return unmodifiable set of parents
+     */
+    public Set<Connectable> getParents(Connectable c) {
+        Set<Connectable> set = parents.get(c);
+        if (set == null) {
+            return Collections.emptySet();
+        }
+        return set;
+    }
+
+    /**
+     * Searches a {@code CI}.
+     *
+     * @param name
+     *            exact name of the {@code CI}
+     * @param ctype
+     *            type of the {@code CI}
+     * @return {@code CI}, or {@code null} if no {@code CI} matches. Warning:
+     *         For domains with not unique {@code CI} names only the first
+     *         occurrence will be returned.
+     */
+    public CI searchCI(String name, CItype ctype) {
+        for (CI c : ciIntMap.values()) {
+            if (c.getCIType() == ctype.getHistId() && c.getName() != null && c.getName().equals(name)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches multiple {@code CI}s by name.
+     *
+     * @param ctype
+     *            type of the {@code CI}s
+     * @param args
+     *            {@code CI} names
+     * @return map containing the search result CI name/CI
+     */
+    public HashMap<String, CI> searchCI(CItype ctype, String... args) {
+        HashMap<String, CI> map = new HashMap<String, CI>();
+        HashSet<String> search = new HashSet<String>();
+        for (String s : args) {
+            search.add(s);
+        }
+        for (CI c : ciIntMap.values()) {
+            if (c.getCIType() == ctype.getHistId() && c.getName() != null) {
+                if (search.contains(c.getName())) {
+                    map.put(c.getName(), c);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Searches recursively a {@code CI} of a certain type starting at a given
+     * {@code CI}.
+     *
+     * @param start
+     *            {@code CI} starting the search
+     * @param name
+     *            name of the {@code CI}
+     * @param ctype
+     *            type of the {@code CI}
+     * @return {@code CI} which matches the requirements, or {@code null}
+     */
+    public CI searchRecursively(CI start, String name, CItype ctype) {
+        if (start.getCIType() == ctype.getHistId() && start.getName() != null && start.getName().equals(name)) {
+            return start;
+        }
+        for (Connectable n : getChildren(start)) {
+            CI result = searchRecursively((CI) n, name, ctype);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Traverses a tree collecting recursive the {@code Connectable} elements -
+     * the children precede their parent.
+     *
+     * @param c
+     *            starting node
+     * @return list of {@code Connectable} elements
+     */
+    public ArrayList<Connectable> traverseElements(Connectable c) {
+        ArrayList<Connectable> al = new ArrayList<Connectable>();
+        traverse(c, al);
+        return al;
+    }
+
+    private void traverse(Connectable c, ArrayList<Connectable> al) {
+        for (Connectable n : getChildren(c)) {
+            traverse(n, al);
+        }
+        al.add(c);
+    }
+}
@@ -15,19 +15,38 @@
 package at.treedb.domain;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Transient;
 
+import at.treedb.backup.ClassDependency;
 import at.treedb.ci.CI;
 import at.treedb.ci.CItype;
 import at.treedb.ci.Connectable;
@@ -51,6 +70,7 @@ import at.treedb.i18n.Locale.LANGUAGE;
 import at.treedb.i18n.Locale.LOCALE;
 import at.treedb.ui.UIelement;
 import at.treedb.ui.UImacro;
+import at.treedb.ui.UIoption;
 import at.treedb.ui.UIselect;
 import at.treedb.ui.UItab;
 import at.treedb.user.Tenant;
@@ -140,13 +160,22 @@ public class Domain extends Base implements Cloneable, Connectable {
     private String uiXMLtext;
     @Transient
     // CI map with the DB id as key
-    private HashMap<Integer, CI> ciIntMap = new HashMap<Integer, CI>();
+    private ConcurrentHashMap<Integer, CI> ciIntMap = new ConcurrentHashMap<Integer, CI>();
     // CI map with the CI name as key
     @Transient
-    private HashMap<String, CI> ciStrMap = new HashMap<String, CI>();
+    private ConcurrentHashMap<String, CI> ciStrMap = new ConcurrentHashMap<String, CI>();
     @Transient
     // CI type map with the DB id as key
-    private HashMap<Integer, CItype> ciTypeMap = new HashMap<Integer, CItype>();
+    private ConcurrentHashMap<Integer, CItype> ciTypeMap = new ConcurrentHashMap<Integer, CItype>();
+    // writers of the CI maps and parent/child sets hold this lock
+    @Transient
+    private Object graphLock = new Object();
+    // lock-free read view of the graph
+    @Transient
+    private CIGraph graph = new CIGraph(ciIntMap, ciStrMap, ciTypeMap);
+    // synchronized by graphLock
+    @Transient
+    private long graphVersion;
     @Transient
     private HashMap<String, UImacro> macroMap = new HashMap<String, UImacro>();
     @Transient
@@ -169,11 +198,37 @@ public class Domain extends Base implements Cloneable, Connectable {
     // GUI text as XML
     @Transient
     private Text guiText;
-    // maps containing all domains
+    // last load or refresh
+    @Transient
+    private Date lastSync = new Date();
+    // overlap of the refresh queries in milliseconds
+    static final long REFRESH_OVERLAP = 5000;
+    // durations of the loading stages
+    @Transient
+    private Map<String, Long> loadTimes = new HashMap<String, Long>();
+    // number of threads loading a domain
+    private static int loadThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // threads loading the stages of all domains - created on demand, guarded
+    // by the class lock
+    private static ThreadPoolExecutor loadExecutor;
+    // maps containing all domains - lock-free reads, modifications are
+    // synchronized by registryLock
     // domain by Id map
-    private static HashMap<Integer, Domain> domainIntMap = new HashMap<Integer, Domain>();
+    private static final ConcurrentHashMap<Integer, Domain> domainIntMap = new ConcurrentHashMap<Integer, Domain>();
     // domain by name map
-    private static HashMap<String, Domain> domainStrMap = new HashMap<String, Domain>();
+    private static final ConcurrentHashMap<String, Domain> domainStrMap = new ConcurrentHashMap<String, Domain>();
+    private static final Object registryLock = new Object();
+    // incremented by every removal from the registry - synchronized by
+    // registryLock
+    private static long registryVersion;
+    // domain ID -> registry version of the last removal
+    private static final HashMap<Integer, Long> removals = new HashMap<Integer, Long>();
+    // registry version of the last clearInternalData() call
+    private static long clearVersion;
+    // running loads per domain ID
+    private static final ConcurrentHashMap<Integer, FutureTask<Domain>> loading =
+            new ConcurrentHashMap<Integer, FutureTask<Domain>>();
+    private static final Logger LOGGER = Logger.getLogger(Domain.class.getName());
 
     public void setRESTiface(RESTiface restIface) {
         this.restIface = restIface;
@@ -219,8 +274,12 @@ public class Domain extends Base implements Cloneable, Connectable {
      * Clears all static internal data.
      */
     public static void clearInternalData() {
-        domainIntMap = new HashMap<Integer, Domain>();
-        domainStrMap = new HashMap<String, Domain>();
+        synchronized (registryLock) {
+            domainIntMap.clear();
+            domainStrMap.clear();
+            removals.clear();
+            clearVersion = ++registryVersion;
+        }
     }
 
     @Override
@@ -293,7 +352,7 @@ public class Domain extends Base implements Cloneable, Connectable {
             ImageDummy bigIcon, String webColor, String treeDBifaceClass, String RESTifaceClass, String HTTPifaceClass,
             EnumSet<Properties> flags, String uuid) throws Exception {
         Domain domain = null;
-        synchronized (domainIntMap) {
+        synchronized (registryLock) {
             // check to prevent duplicate domain names
             List<Base> dList = Base.search(null, Domain.class, EnumSet.of(Domain.privateFields.name), name, null, null,
                     null, false);
@@ -318,16 +377,12 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @throws Exception
      */
     public static void initializeDomain(String name) throws Exception {
-        synchronized (domainIntMap) {
-            Domain domain = domainStrMap.get(name);
-            if (domain == null) {
-                throw new Exception("Domain.initializeDomain(): Domain not found");
-            }
-            if (!domain.isInitialized) {
-                domain = load(name, -1);
-                domainIntMap.put(domain.getHistId(), domain);
-                domainStrMap.put(name, domain);
-            }
+        Domain domain = domainStrMap.get(name);
+        if (domain == null) {
+            throw new Exception("Domain.initializeDomain(): Domain not found");
+        }
+        if (!domain.isInitialized) {
+            loadOnce(null, domain.getHistId(), true);
         }
     }
 
@@ -350,22 +405,151 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @throws Exception
      */
     public static Domain load(String name) throws Exception {
-        Domain domain = null;
-        synchronized (domainIntMap) {
-            domain = domainStrMap.get(name);
+        Domain domain = domainStrMap.get(name);
+        if (domain == null) {
+            // load per name
+            domain = loadOnce(name, -1, false);
+        }
+        return domain;
+    }
 
-            if (domain == null) {
-                // load per name
-                domain = load(name, -1);
+    /**
+     * Loads a {@code Domain} by its name or ID and registers it. Concurrent
+     * loads of the same {@code Domain} are performed only once, all callers
+     * share the result - a name is resolved to the ID first, loads per name
+     * and per ID share the same load. A {@code Domain} unloaded or deleted
+     * during the load isn't registered.
+     * 
+     * @param name
+     *            name of the {@code Domain}, {@code null} for loading by ID
+     * @param id
+     *            ID of the {@code Domain}
+     * @param initialize
+     *            {@code true} for replacing a registered, but not initialized
+     *            {@code Domain}
+     * @return {@code Domain}, or {@code null} if the {@code Domain} doesn't
+     *         exist
+     * @throws Exception
+     */
+    private static Domain loadOnce(String name, int id, final boolean initialize) throws Exception {
+        if (name != null) {
+            id = getId(name);
+            if (id < 0) {
+                return null;
+            }
+        }
+        final int domainId = id;
+        FutureTask<Domain> task = new FutureTask<Domain>(new Callable<Domain>() {
+            @Override
+            public Domain call() throws Exception {
+                long version;
+                synchronized (registryLock) {
+                    // registered by a load finished in the meantime
+                    Domain domain = domainIntMap.get(domainId);
+                    if (domain != null && (domain.isInitialized || !initialize)) {
+                        return domain;
+                    }
+                    version = registryVersion;
+                }
+                Domain domain = load(null, domainId);
                 if (domain == null) {
                     return null;
                 }
-                domainIntMap.put(domain.getHistId(), domain);
-                domainStrMap.put(name, domain);
-
+                synchronized (registryLock) {
+                    Long removed = removals.get(domainId);
+                    if (clearVersion > version || (removed != null && removed > version)) {
+                        // unloaded or deleted during the load
+                        return domain;
+                    }
+                    domainIntMap.put(domain.getHistId(), domain);
+                    domainStrMap.put(domain.getName(), domain);
+                }
+                return domain;
+            }
+        });
+        FutureTask<Domain> running = loading.putIfAbsent(domainId, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(domainId, task);
             }
         }
-        return domain;
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the ID of an active {@code Domain}.
+     * 
+     * @param name
+     *            name of the {@code Domain}
+     * @return ID, or {@code -1} if the {@code Domain} doesn't exist
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    private static int getId(String name) throws Exception {
+        DAOiface dao = DAO.getDAO();
+        List<Integer> list;
+        try {
+            dao.beginTransaction();
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+            map.put("name", name);
+            list = (List<Integer>) dao.query(
+                    "select d.histId from Domain d where d.name = :name and d.status = :status", map);
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        return list.size() == 1 ? list.get(0) : -1;
+    }
+
+    /**
+     * Removes a {@code Domain} from the registry. A running load of the
+     * {@code Domain} doesn't register it afterwards. The caller holds the
+     * registry lock.
+     * 
+     * @param domain
+     *            {@code Domain}
+     */
+    private static void unregister(Domain domain) {
+        domainIntMap.remove(domain.getHistId());
+        domainStrMap.remove(domain.getName());
+        removals.put(domain.getHistId(), ++registryVersion);
+    }
+
+    /**
+     * Removes a deleted {@code Domain} from the registry - again after the
+     * commit, since a load started before the commit still finds the
+     * {@code Domain} in the DB. The caller holds the registry lock.
+     * 
+     * @param dao
+     *            {@code DAOiface} of the deletion, {@code null} for a
+     *            committed deletion
+     * @param domain
+     *            {@code Domain}
+     */
+    private static void unregister(DAOiface dao, final Domain domain) {
+        unregister(domain);
+        if (dao != null) {
+            dao.afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (registryLock) {
+                        unregister(domain);
+                    }
+                }
+            });
+        }
     }
 
     @Override
@@ -379,27 +563,24 @@ public class Domain extends Base implements Cloneable, Connectable {
     }
 
     /**
-     * Gets a {@code Domain} by its ID.
+     * Gets a {@code Domain} by its ID. A failed load is logged.
      * 
      * @param domainID
      *            ID of the {@code Domain}
-     * @return {@code Domain}
-     * @throws Exception
+     * @return {@code Domain}, or {@code null} if the {@code Domain} doesn't
+     *         exist or can't be loaded
      */
     public static Domain get(@DBkey(value = Domain.class) int domainId) {
-        synchronized (domainIntMap) {
-            Domain domain = domainIntMap.get(domainId);
-            if (domain == null) {
-                try {
-                    domain = load(domainId);
-                } catch (Exception e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                    return null;
-                }
+        Domain domain = domainIntMap.get(domainId);
+        if (domain == null) {
+            try {
+                domain = load(domainId);
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Domain.get(): Unable to load domain " + domainId, e);
+                return null;
             }
-            return domain;
         }
+        return domain;
     }
 
     /**
@@ -411,18 +592,10 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @throws Exception
      */
     public static Domain load(@DBkey(value = Domain.class) int id) throws Exception {
-        Domain domain = null;
-        synchronized (domainIntMap) {
-            domain = domainIntMap.get(id);
-            if (domain == null) {
-                // load per id
-                domain = load(null, id);
-                if (domain == null) {
-                    return null;
-                }
-                domainIntMap.put(domain.getHistId(), domain);
-                domainStrMap.put(domain.getName(), domain);
-            }
+        Domain domain = domainIntMap.get(id);
+        if (domain == null) {
+            // load per id
+            domain = loadOnce(null, id, false);
         }
         return domain;
     }
@@ -445,7 +618,7 @@ public class Domain extends Base implements Cloneable, Connectable {
         if (name.equals(newName)) {
             return;
         }
-        synchronized (domainIntMap) {
+        synchronized (registryLock) {
             List<Base> dList = Base.search(null, Domain.class, EnumSet.of(Domain.privateFields.name), newName, null,
                     null, null, false);
             if (dList.size() > 0) {
@@ -484,15 +657,47 @@ public class Domain extends Base implements Cloneable, Connectable {
         return domainStrMap.containsKey(name);
     }
 
+    /**
+     * Returns the optional UI text.
+     * 
+     * @return {@code Istring} ID of the UI text, {@code 0} for none
+     */
+    @DBkey(Istring.class)
+    int getUiText() {
+        return uiText;
+    }
+
+    /**
+     * Returns all loaded domains.
+     * 
+     * @return list of {@code Domain}s
+     */
+    static List<Domain> getLoadedDomains() {
+        return new ArrayList<Domain>(domainIntMap.values());
+    }
+
+    /**
+     * Drops the in-memory graph of a partially assembled {@code Domain}.
+     */
+    void reset() {
+        ciIntMap.clear();
+        ciStrMap.clear();
+        ciTypeMap.clear();
+        macroMap.clear();
+        localeMacroMap.clear();
+        children.clear();
+        parents.clear();
+        publishGraph();
+    }
+
     /**
      * Unloads a domain.
      * 
      * @param domain
      */
     public void unloadDomain(Domain domain) {
-        synchronized (domainIntMap) {
-            domainIntMap.remove(domain.getHistId());
-            domainStrMap.remove(domain.getName());
+        synchronized (registryLock) {
+            unregister(domain);
         }
     }
 
@@ -597,7 +802,129 @@ public class Domain extends Base implements Cloneable, Connectable {
     }
 
     /**
-     * Loads a {@code Domain} by its name or id.
+     * Stage of the {@code Domain} loading - runs within its own transaction on
+     * its own {@code DAOiface} and records its duration.
+     */
+    private abstract static class LoadStage<T> implements Callable<T> {
+        private final String name;
+        private final Map<String, Long> loadTimes;
+
+        LoadStage(String name, Map<String, Long> loadTimes) {
+            this.name = name;
+            this.loadTimes = loadTimes;
+        }
+
+        abstract T load(DAOiface dao) throws Exception;
+
+        @Override
+        public T call() throws Exception {
+            long start = System.currentTimeMillis();
+            DAOiface dao = DAO.getDAO();
+            T result;
+            try {
+                dao.beginTransaction();
+                result = load(dao);
+                dao.endTransaction();
+            } catch (Exception e) {
+                dao.rollback();
+                throw e;
+            }
+            loadTimes.put(name, System.currentTimeMillis() - start);
+            return result;
+        }
+    }
+
+    /**
+     * Returns the result of a loading stage.
+     */
+    private static <T> T getResult(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Submits a loading stage to the shared executor.
+     */
+    private static <T> Future<T> submit(List<Future<?>> futures, Callable<T> stage) {
+        Future<T> future = getLoadExecutor().submit(stage);
+        futures.add(future);
+        return future;
+    }
+
+    /**
+     * Returns a parameter map domain/status.
+     */
+    private static HashMap<String, Object> getLoadParameters(int domain) {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("id", domain);
+        map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+        return map;
+    }
+
+    /**
+     * Sets the number of threads loading the independent parts of a
+     * {@code Domain} concurrently.
+     * 
+     * @param threads
+     *            number of threads
+     */
+    public static synchronized void setLoadThreads(int threads) {
+        loadThreads = Math.max(1, threads);
+        if (loadExecutor != null) {
+            if (loadThreads > loadExecutor.getMaximumPoolSize()) {
+                loadExecutor.setMaximumPoolSize(loadThreads);
+                loadExecutor.setCorePoolSize(loadThreads);
+            } else {
+                loadExecutor.setCorePoolSize(loadThreads);
+                loadExecutor.setMaximumPoolSize(loadThreads);
+            }
+        }
+    }
+
+    /**
+     * Returns the executor loading the stages of the domains - a bounded pool
+     * of daemon threads shared by all loads, idle threads are terminated.
+     */
+    private static synchronized ExecutorService getLoadExecutor() {
+        if (loadExecutor == null) {
+            loadExecutor = new ThreadPoolExecutor(loadThreads, loadThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "DomainLoader-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            loadExecutor.allowCoreThreadTimeOut(true);
+        }
+        return loadExecutor;
+    }
+
+    /**
+     * Returns the durations of the loading stages of the {@code Domain} in
+     * milliseconds, e.g. {@code ciTypes} or {@code nodes}. The entry
+     * {@code total} contains the overall duration.
+     * 
+     * @return map stage/duration
+     */
+    public Map<String, Long> getLoadTimes() {
+        return Collections.unmodifiableMap(loadTimes);
+    }
+
+    /**
+     * Loads a {@code Domain} by its name or id. The {@code Domain} entity is
+     * loaded first, the independent stages (CIs, UI elements, select options,
+     * tabs, CI types, nodes, ...) are loaded concurrently on separate DAOs and
+     * connected afterwards.
      * 
      * @param name
      *            name of the {@code Domain}
@@ -608,7 +935,8 @@ public class Domain extends Base implements Cloneable, Connectable {
      */
     @SuppressWarnings("unchecked")
     private static Domain load(String name, int id) throws Exception {
-
+        long start = System.currentTimeMillis();
+        Map<String, Long> loadTimes = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
         DAOiface dao = DAO.getDAO();
         Domain domain = null;
         try {
@@ -632,133 +960,694 @@ public class Domain extends Base implements Cloneable, Connectable {
                 dao.endTransaction();
                 return null;
             }
-            domain.uniqueCInames = !domain.isProperty(Domain.Properties.CI_NO_UNIQUE_NAMES);
-            domain.locale = new Locale(domain.language, domain.country);
-            // load all supported languages
-            domain.supportedLanguages = SupportedLanguage.loadAll(dao, domain.getHistId());
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        loadTimes.put("domain", System.currentTimeMillis() - start);
+        domain.uniqueCInames = !domain.isProperty(Domain.Properties.CI_NO_UNIQUE_NAMES);
+        domain.locale = new Locale(domain.language, domain.country);
+        if (!DomainSnapshot.load(domain, loadTimes)) {
+            loadStages(domain, loadTimes);
+        }
+        loadTimes.put("total", System.currentTimeMillis() - start);
+        domain.lastSync = new Date(start);
+        domain.loadTimes = loadTimes;
+        domain.isInitialized = true;
+        return domain;
+    }
 
-            map = new HashMap<String, Object>();
-            map.put("id", domain.getHistId());
-            map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+    /**
+     * Loads the independent stages of a {@code Domain} concurrently on
+     * separate DAOs and connects them afterwards.
+     * 
+     * @param domain
+     *            loaded {@code Domain} entity
+     * @param loadTimes
+     *            map stage/duration
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    private static void loadStages(Domain domain, Map<String, Long> loadTimes) throws Exception {
+        final int domainId = domain.getHistId();
+        final int uiText = domain.uiText;
+        final Domain d = domain;
+
+        // futures of this load - cancelled, if a stage fails
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            // load all supported languages
+            Future<List<SupportedLanguage>> languages = submit(futures,
+                    new LoadStage<List<SupportedLanguage>>("languages", loadTimes) {
+                        @Override
+                        List<SupportedLanguage> load(DAOiface dao) throws Exception {
+                            return SupportedLanguage.loadAll(dao, domainId);
+                        }
+                    });
             // load all CIs which resides in memory
-            List<CI> ciList = (List<CI>) dao.query(
-                    "select ci from CI ci where ci.domain = :id and ci.status = :status and ci.inMemory = true", map);
-            // build all hash maps
-            for (CI c : ciList) {
-                domain.ciIntMap.put(c.getHistId(), c);
-                if (domain.uniqueCInames) {
-                    domain.ciStrMap.put(c.getName(), c);
+            Future<List<CI>> cis = submit(futures, new LoadStage<List<CI>>("cis", loadTimes) {
+                @Override
+                List<CI> load(DAOiface dao) throws Exception {
+                    return (List<CI>) dao.query(
+                            "select ci from CI ci where ci.domain = :id and ci.status = :status and ci.inMemory = true",
+                            getLoadParameters(domainId));
                 }
-            }
-
+            });
             // load all UI elements
-            HashMap<Integer, ArrayList<UIelement>> uiMap = new HashMap<Integer, ArrayList<UIelement>>();
-            for (Class<?> c : DBentities.getClasses()) {
-                if (c.getSuperclass() == UIelement.class) {
-                    List<UIelement> ulist = (List<UIelement>) dao.query(
-                            "select t from " + c.getCanonicalName() + " t where t.domain = :id and t.status = :status",
-                            map);
-                    for (UIelement u : ulist) {
-                        ArrayList<UIelement> ul = uiMap.get(u.getUItab());
-                        if (ul == null) {
-                            ul = new ArrayList<UIelement>();
-                            uiMap.put(u.getUItab(), ul);
-                        }
-                        ul.add(u);
-                        if (u instanceof UIselect) {
-                            ((UIselect) u).initOptions(dao);
+            Future<List<UIelement>> elements = submit(futures, new LoadStage<List<UIelement>>("uiElements",
+                    loadTimes) {
+                @Override
+                List<UIelement> load(DAOiface dao) throws Exception {
+                    ArrayList<UIelement> list = new ArrayList<UIelement>();
+                    for (Class<?> c : DBentities.getClasses()) {
+                        if (c.getSuperclass() == UIelement.class) {
+                            list.addAll((List<UIelement>) dao.query("select t from " + c.getCanonicalName()
+                                    + " t where t.domain = :id and t.status = :status", getLoadParameters(domainId)));
                         }
                     }
+                    return list;
+                }
+            });
+            // load the options of all selects
+            Future<HashMap<Integer, UIoption[]>> options = submit(futures,
+                    new LoadStage<HashMap<Integer, UIoption[]>>("uiOptions", loadTimes) {
+                        @Override
+                        HashMap<Integer, UIoption[]> load(DAOiface dao) throws Exception {
+                            return UIoption.loadAll(dao, domainId);
+                        }
+                    });
+            // load UI tabs
+            Future<List<UItab>> tabs = submit(futures, new LoadStage<List<UItab>>("uiTabs", loadTimes) {
+                @Override
+                List<UItab> load(DAOiface dao) throws Exception {
+                    return (List<UItab>) dao.query(
+                            "select t from UItab t where t.domain = :id and t.status = :status order by t.index",
+                            getLoadParameters(domainId));
+                }
+            });
+            // load all CI types
+            Future<List<CItype>> types = submit(futures, new LoadStage<List<CItype>>("ciTypes", loadTimes) {
+                @Override
+                List<CItype> load(DAOiface dao) throws Exception {
+                    return (List<CItype>) dao.query(
+                            "select t from CItype t where t.domain = :id and t.status = :status",
+                            getLoadParameters(domainId));
+                }
+            });
+            // load all nodes
+            Future<List<Node>> nodes = submit(futures, new LoadStage<List<Node>>("nodes", loadTimes) {
+                @Override
+                List<Node> load(DAOiface dao) throws Exception {
+                    HashMap<String, Object> map = getLoadParameters(domainId);
+                    map.put("ctype", at.treedb.ci.Node.ConnectionType.LAZY_NODES);
+                    return (List<Node>) dao.query(
+                            "select n from Node n where n.domain = :id and n.status = :status and n.connectionType < :ctype",
+                            map);
+                }
+            });
+            // load all macros
+            Future<List<? extends Base>> macros = submit(futures,
+                    new LoadStage<List<? extends Base>>("macros", loadTimes) {
+                        @Override
+                        List<? extends Base> load(DAOiface dao) throws Exception {
+                            return UImacro.loadAll(dao, d, null);
+                        }
+                    });
+            // load UI text
+            Future<String> text = submit(futures, new LoadStage<String>("uiText", loadTimes) {
+                @Override
+                String load(DAOiface dao) throws Exception {
+                    return uiText != 0 ? Istring.load(dao, uiText, LANGUAGE.sys).getText() : null;
                 }
+            });
+
+            assemble(domain, getResult(languages), getResult(cis), getResult(elements), getResult(options),
+                    getResult(tabs), getResult(types), getResult(nodes), getResult(macros), getResult(text));
+        } finally {
+            for (Future<?> f : futures) {
+                f.cancel(true);
             }
+        }
+    }
 
-            // load UI tabs
-            List<UItab> uiTab = (List<UItab>) dao
-                    .query("select t from UItab t where t.domain = :id and t.status = :status order by t.index", map);
-            HashMap<Integer, ArrayList<UItab>> tabMap = new HashMap<Integer, ArrayList<UItab>>();
-            for (UItab tab : uiTab) {
-                ArrayList<UItab> t = tabMap.get(tab.getCiType());
-                if (t == null) {
-                    t = new ArrayList<UItab>();
-                    tabMap.put(tab.getCiType(), t);
+    /**
+     * Connects the loaded entities of a {@code Domain} - builds the CI maps,
+     * the {@code CItype}/{@code UItab}/{@code UIelement} lists and the
+     * {@code CI}/{@code CItype} graph.
+     * 
+     * @param domain
+     *            {@code Domain}
+     * @param languages
+     *            supported languages
+     * @param cis
+     *            {@code CI}s residing in memory
+     * @param elements
+     *            UI elements
+     * @param options
+     *            map select ID/options
+     * @param tabs
+     *            UI tabs ordered by index
+     * @param types
+     *            {@code CItype}s
+     * @param nodes
+     *            nodes
+     * @param macros
+     *            macros
+     * @param uiText
+     *            UI text, {@code null} for none
+     * @throws Exception
+     */
+    static void assemble(Domain domain, List<SupportedLanguage> languages, List<CI> cis, List<UIelement> elements,
+            Map<Integer, UIoption[]> options, List<UItab> tabs, List<CItype> types, List<Node> nodes,
+            List<? extends Base> macros, String uiText) throws Exception {
+        domain.supportedLanguages = languages;
+        // build all hash maps
+        for (CI c : cis) {
+            domain.ciIntMap.put(c.getHistId(), c);
+            if (domain.uniqueCInames && c.getName() != null) {
+                domain.ciStrMap.put(c.getName(), c);
+            }
+        }
+
+        HashMap<Integer, ArrayList<UIelement>> uiMap = new HashMap<Integer, ArrayList<UIelement>>();
+        for (UIelement u : elements) {
+            ArrayList<UIelement> ul = uiMap.get(u.getUItab());
+            if (ul == null) {
+                ul = new ArrayList<UIelement>();
+                uiMap.put(u.getUItab(), ul);
+            }
+            ul.add(u);
+            if (u instanceof UIselect) {
+                ((UIselect) u).setOptions(options.get(u.getHistId()));
+            }
+        }
+
+        HashMap<Integer, ArrayList<UItab>> tabMap = new HashMap<Integer, ArrayList<UItab>>();
+        for (UItab tab : tabs) {
+            ArrayList<UItab> t = tabMap.get(tab.getCiType());
+            if (t == null) {
+                t = new ArrayList<UItab>();
+                tabMap.put(tab.getCiType(), t);
+            }
+            ArrayList<UIelement> ul = uiMap.get(tab.getHistId());
+            if (ul != null) {
+                Collections.sort(ul);
+                tab.setUIelements(ul);
+            }
+            t.add(tab);
+        }
+
+        for (CItype t : types) {
+            ArrayList<UItab> l = tabMap.get(t.getHistId());
+            if (l != null) {
+                t.setUItab(l);
+            }
+            domain.ciTypeMap.put(t.getHistId(), t);
+        }
+
+        Map<Integer, CI> ciMap = domain.ciIntMap;
+        Map<Integer, CItype> typeMap = domain.ciTypeMap;
+        // connect all CIs
+        for (Node n : nodes) {
+            if (n.getType() == Node.NodeType.CI) {
+                CI child = ciMap.get(n.getChild());
+                if (child == null) {
+                    throw new Exception("Domain.load(): Missing CI - Node<->CI mismatch!");
+                }
+                CI parent = ciMap.get(n.getParent());
+                if (parent == null) {
+                    throw new Exception("Domain.load(): Missing CI - Node<->CI mismatch!");
                 }
-                ArrayList<UIelement> ul = uiMap.get(tab.getHistId());
-                if (ul != null) {
-                    Collections.sort(ul);
-                    tab.setUIelements(ul);
+                child.getParents().add(parent);
+                parent.getChildren().add(child);
+            } else {
+                CItype child = typeMap.get(n.getChild());
+                if (child == null) {
+                    throw new Exception("Domain.load(): Missing CItype - Node<->CItype mismatch!");
+                }
+                Connectable cparent;
+                if (n.getParent() != Node.PARENT_IS_A_DOMAIN) {
+                    cparent = typeMap.get(n.getParent());
+                    if (cparent == null) {
+                        throw new Exception("Domain.load(): Missing CItype - Node<->CItype mismatch!");
+                    }
+                } else {
+                    cparent = domain;
                 }
-                t.add(tab);
+                child.getParents().add(cparent);
+                cparent.getChildren().add(child);
             }
+        }
 
-            // load all CI types
-            List<CItype> types = (List<CItype>) dao
-                    .query("select t from CItype t where t.domain = :id and t.status = :status", map);
+        for (Base b : macros) {
+            UImacro m = (UImacro) b;
+            addMacro(domain, m);
+        }
+        domain.uiXMLtext = uiText;
+        domain.publishGraph();
+    }
+
+    /**
+     * Returns the time of the last load or refresh of the {@code Domain}.
+     * 
+     * @return time of the last synchronization with the DB
+     */
+    public Date getLastSync() {
+        return lastSync;
+    }
+
+    /**
+     * Patches the in-memory graph of the {@code Domain} with the entities
+     * written since the last load or refresh, e.g. by another process -
+     * {@code CItype}s, {@code CI}s, {@code UItab}s, {@code UIelement}s, select
+     * options, nodes and macros. Changed entities are copied into the existing
+     * objects, new entities are added and deleted entities are removed from
+     * the maps and the parent/child sets. Deleted entities are detected by
+     * their tombstones, also for the history mode {@code SEPARATE}.<br>
+     * Updated nodes aren't detected, nodes are expected to be created and
+     * deleted only. The changes are loaded first, afterwards the graph is
+     * patched under the graph lock and the modified parent/child sets are
+     * published - the graph lock isn't held during the DB queries.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @return number of processed entities
+     * @throws Exception
+     */
+    public synchronized int refresh(DAOiface dao) throws Exception {
+        Date now = new Date();
+        // overlap for clock differences between the processes
+        Date since = new Date(lastSync.getTime() - REFRESH_OVERLAP);
+        Changes changes;
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            changes = loadChanges(dao, since);
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        int count = 0;
+        HashSet<CItype> changedTypes = new HashSet<CItype>();
+        HashSet<Connectable> changed = new HashSet<Connectable>();
+        synchronized (graphLock) {
+            try {
+                count += refreshCItypes(changes.types, changed);
+                count += refreshCIs(changes.cis);
+                count += refreshUItabs(changes.tabs, changedTypes);
+                count += refreshUIelements(changes, changedTypes);
+                count += refreshNodes(changes.nodes, changed);
+                count += refreshMacros(changes.macros);
+                for (CItype t : changedTypes) {
+                    // rebuild the field map
+                    t.setUItab(t.getUItab());
+                }
+            } finally {
+                publishGraph(changed);
+            }
+        }
+        lastSync = now;
+        return count;
+    }
 
-            for (CItype t : types) {
-                ArrayList<UItab> l = tabMap.get(t.getHistId());
-                if (l != null) {
-                    t.setUItab(l);
+    /**
+     * Entities written since the last load or refresh.
+     */
+    private static class Changes {
+        private List<Base> types;
+        private List<Base> cis;
+        private List<Base> tabs;
+        // per UIelement class
+        private ArrayList<List<Base>> elements = new ArrayList<List<Base>>();
+        private List<Base> options;
+        // select ID -> reloaded options
+        private HashMap<Integer, UIoption[]> selectOptions = new HashMap<Integer, UIoption[]>();
+        private List<Base> nodes;
+        private List<Base> macros;
+    }
+
+    /**
+     * Loads the entities written since a point in time. The loaded entities
+     * aren't part of the graph yet - the options of changed selects are
+     * loaded here as well.
+     */
+    private Changes loadChanges(DAOiface dao, Date since) throws Exception {
+        Changes c = new Changes();
+        c.types = loadChanged(dao, CItype.class, "", new HashMap<String, Object>(), since);
+        c.cis = loadChanged(dao, CI.class, "", new HashMap<String, Object>(), since);
+        c.tabs = loadChanged(dao, UItab.class, "", new HashMap<String, Object>(), since);
+        for (Class<?> clazz : DBentities.getClasses()) {
+            if (clazz.getSuperclass() != UIelement.class) {
+                continue;
+            }
+            List<Base> list = loadChanged(dao, clazz, "", new HashMap<String, Object>(), since);
+            for (Base b : list) {
+                if (b.getHistStatus() == STATUS.ACTIVE && b instanceof UIselect) {
+                    // used if the select isn't part of the graph yet
+                    ((UIselect) b).initOptions(dao);
                 }
-                domain.ciTypeMap.put(t.getHistId(), t);
             }
+            c.elements.add(list);
+        }
+        c.options = loadChanged(dao, UIoption.class, "", new HashMap<String, Object>(), since);
+        for (Base b : c.options) {
+            int id = ((UIoption) b).getSelectId();
+            if (!c.selectOptions.containsKey(id)) {
+                UIoption[] options = UIoption.loadList(dao, id, null);
+                c.selectOptions.put(id, options);
+            }
+        }
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("ctype", at.treedb.ci.Node.ConnectionType.LAZY_NODES);
+        c.nodes = loadChanged(dao, Node.class, " and t.connectionType < :ctype", map, since);
+        c.macros = loadChanged(dao, UImacro.class, "", new HashMap<String, Object>(), since);
+        return c;
+    }
 
-            HashMap<Integer, CI> ciMap = domain.ciIntMap;
-            HashMap<Integer, CItype> typeMap = domain.ciTypeMap;
-            map.put("ctype", at.treedb.ci.Node.ConnectionType.LAZY_NODES);
-            // load all nodes
-            List<Node> nodes = (List<Node>) dao.query(
-                    "select n from Node n where n.domain = :id and n.status = :status and n.connectionType < :ctype",
-                    map);
-            // connect all CIs
-            for (Node n : nodes) {
-                if (n.getType() == Node.NodeType.CI) {
-                    CI child = ciMap.get(n.getChild());
-                    if (child == null) {
-                        throw new Exception("Domain.load(): Missing CI - Node<->CI mismatch!");
-                    }
-                    CI parent = ciMap.get(n.getParent());
-                    if (parent == null) {
-                        throw new Exception("Domain.load(): Missing CI - Node<->CI mismatch!");
+    /**
+     * Loads the entities of a class written since a point in time.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Base> loadChanged(DAOiface dao, Class<?> clazz, String filter, HashMap<String, Object> map,
+            Date since) throws Exception {
+        map.put("id", getHistId());
+        map.put("since", since);
+        return (List<Base>) dao.query("select t from " + clazz.getSimpleName()
+                + " t where t.domain = :id and (t.lastModified > :since or t.deletionDate > :since)" + filter, map);
+    }
+
+    /**
+     * Returns the active entities of a list of changed entities.
+     */
+    private static HashMap<Integer, Base> getActive(List<Base> list) {
+        HashMap<Integer, Base> map = new HashMap<Integer, Base>();
+        for (Base b : list) {
+            if (b.getHistStatus() == STATUS.ACTIVE) {
+                map.put(b.getHistId(), b);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the IDs of the deleted entities of a list of changed entities.
+     */
+    private static HashSet<Integer> getDeleted(List<Base> list, HashMap<Integer, Base> active) {
+        HashSet<Integer> set = new HashSet<Integer>();
+        for (Base b : list) {
+            if (b.getHistStatus() == STATUS.DELETED && !active.containsKey(b.getHistId())) {
+                set.add(b.getHistId());
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Removes an element from the parent/child sets.
+     */
+    private static void detach(Connectable c, Collection<Connectable> changed) {
+        changed.add(c);
+        for (Connectable p : c.getParents()) {
+            p.getChildren().remove(c);
+            changed.add(p);
+        }
+        for (Connectable p : c.getChildren()) {
+            p.getParents().remove(c);
+            changed.add(p);
+        }
+        c.getParents().clear();
+        c.getChildren().clear();
+    }
+
+    private int refreshCItypes(List<Base> list, Collection<Connectable> changed) throws Exception {
+        HashMap<Integer, Base> active = getActive(list);
+        for (Base b : active.values()) {
+            CItype old = ciTypeMap.get(b.getHistId());
+            if (old == null) {
+                ciTypeMap.put(b.getHistId(), (CItype) b);
+            } else {
+                DomainSnapshot.copyState(b, old);
+            }
+        }
+        for (Integer id : getDeleted(list, active)) {
+            CItype old = ciTypeMap.remove(id);
+            if (old != null) {
+                detach(old, changed);
+            }
+        }
+        return list.size();
+    }
+
+    /**
+     * Removes a {@code CI} from the internal maps and the parent/child sets.
+     * 
+     * @param ci
+     *            {@code CI}
+     */
+    public void removeCI(CI ci) {
+        synchronized (graphLock) {
+            ciIntMap.remove(ci.getHistId());
+            if (uniqueCInames && ci.getName() != null && ciStrMap.get(ci.getName()) == ci) {
+                ciStrMap.remove(ci.getName());
+            }
+            ArrayList<Connectable> changed = new ArrayList<Connectable>();
+            detach(ci, changed);
+            publishGraph(changed);
+        }
+    }
+
+    private int refreshCIs(List<Base> list) throws Exception {
+        HashMap<Integer, Base> active = getActive(list);
+        for (Base b : active.values()) {
+            CI ci = (CI) b;
+            CI old = ciIntMap.get(ci.getHistId());
+            if (old == null) {
+                if (ci.isInMemory()) {
+                    putCI(ci);
+                }
+            } else if (!ci.isInMemory()) {
+                removeCI(old);
+            } else {
+                String oldName = old.getName();
+                DomainSnapshot.copyState(ci, old);
+                if (uniqueCInames && !Objects.equals(oldName, old.getName())) {
+                    if (oldName != null && ciStrMap.get(oldName) == old) {
+                        ciStrMap.remove(oldName);
                     }
-                    child.getParents().add(parent);
-                    parent.getChildren().add(child);
-                } else {
-                    CItype child = typeMap.get(n.getChild());
-                    if (child == null) {
-                        throw new Exception("Domain.load(): Missing CItype - Node<->CItype mismatch!");
+                    if (old.getName() != null) {
+                        ciStrMap.put(old.getName(), old);
                     }
-                    Connectable cparent;
-                    if (n.getParent() != Node.PARENT_IS_A_DOMAIN) {
-                        cparent = typeMap.get(n.getParent());
-                        if (cparent == null) {
-                            throw new Exception("Domain.load(): Missing CItype - Node<->CItype mismatch!");
+                }
+            }
+        }
+        for (Integer id : getDeleted(list, active)) {
+            CI old = ciIntMap.get(id);
+            if (old != null) {
+                removeCI(old);
+            }
+        }
+        return list.size();
+    }
+
+    /**
+     * Returns all {@code UItab}s of the {@code Domain}.
+     */
+    private HashMap<Integer, UItab> getUItabs() {
+        HashMap<Integer, UItab> map = new HashMap<Integer, UItab>();
+        for (CItype t : ciTypeMap.values()) {
+            for (UItab tab : t.getUItab()) {
+                map.put(tab.getHistId(), tab);
+            }
+        }
+        return map;
+    }
+
+    private int refreshUItabs(List<Base> list, HashSet<CItype> changedTypes) throws Exception {
+        if (list.isEmpty()) {
+            return 0;
+        }
+        HashMap<Integer, UItab> tabs = getUItabs();
+        HashMap<Integer, Base> active = getActive(list);
+        for (Base b : active.values()) {
+            UItab tab = (UItab) b;
+            UItab old = tabs.get(tab.getHistId());
+            if (old != null) {
+                CItype oldType = ciTypeMap.get(old.getCiType());
+                DomainSnapshot.copyState(tab, old);
+                if (oldType != null && oldType.getHistId() == old.getCiType()) {
+                    changedTypes.add(oldType);
+                    continue;
+                }
+                if (oldType != null) {
+                    oldType.getUItab().remove(old);
+                    changedTypes.add(oldType);
+                }
+                tab = old;
+            }
+            CItype type = ciTypeMap.get(tab.getCiType());
+            if (type != null) {
+                type.getUItab().add(tab);
+                changedTypes.add(type);
+            }
+        }
+        for (Integer id : getDeleted(list, active)) {
+            UItab old = tabs.get(id);
+            if (old != null) {
+                CItype type = ciTypeMap.get(old.getCiType());
+                if (type != null) {
+                    type.getUItab().remove(old);
+                    changedTypes.add(type);
+                }
+            }
+        }
+        for (CItype t : changedTypes) {
+            Collections.sort(t.getUItab(), new Comparator<UItab>() {
+                @Override
+                public int compare(UItab a, UItab b) {
+                    return Integer.compare(a.getIndex(), b.getIndex());
+                }
+            });
+        }
+        return list.size();
+    }
+
+    private int refreshUIelements(Changes changes, HashSet<CItype> changedTypes) throws Exception {
+        HashMap<Integer, UItab> tabs = getUItabs();
+        HashMap<Integer, UIelement> elements = new HashMap<Integer, UIelement>();
+        for (UItab tab : tabs.values()) {
+            for (UIelement e : tab.getUIelements()) {
+                elements.put(e.getHistId(), e);
+            }
+        }
+        HashSet<UItab> changedTabs = new HashSet<UItab>();
+        int count = 0;
+        for (List<Base> list : changes.elements) {
+            count += list.size();
+            HashMap<Integer, Base> active = getActive(list);
+            for (Base b : active.values()) {
+                UIelement e = (UIelement) b;
+                UIelement old = elements.get(e.getHistId());
+                if (old != null) {
+                    UItab oldTab = tabs.get(old.getUItab());
+                    DomainSnapshot.copyState(e, old);
+                    if (oldTab != null) {
+                        changedTabs.add(oldTab);
+                        if (oldTab.getHistId() == old.getUItab()) {
+                            continue;
                         }
-                    } else {
-                        cparent = domain;
+                        oldTab.getUIelements().remove(old);
                     }
-                    child.getParents().add(cparent);
-                    cparent.getChildren().add(child);
+                    e = old;
+                }
+                UItab tab = tabs.get(e.getUItab());
+                if (tab != null) {
+                    tab.addUIelement(e);
+                    changedTabs.add(tab);
                 }
             }
+            for (Integer id : getDeleted(list, active)) {
+                UIelement old = elements.get(id);
+                if (old != null) {
+                    UItab tab = tabs.get(old.getUItab());
+                    if (tab != null) {
+                        tab.getUIelements().remove(old);
+                        changedTabs.add(tab);
+                    }
+                }
+            }
+        }
+        // changed select options
+        count += changes.options.size();
+        for (Map.Entry<Integer, UIoption[]> o : changes.selectOptions.entrySet()) {
+            UIelement e = elements.get(o.getKey());
+            if (e instanceof UIselect) {
+                ((UIselect) e).setOptions(o.getValue());
+            }
+        }
+        for (UItab tab : changedTabs) {
+            Collections.sort(tab.getUIelements());
+            CItype type = ciTypeMap.get(tab.getCiType());
+            if (type != null) {
+                changedTypes.add(type);
+            }
+        }
+        return count;
+    }
 
-            // load all macros
-            List<? extends Base> macros = UImacro.loadAll(dao, domain, null);
-            for (Base b : macros) {
-                UImacro m = (UImacro) b;
-                addMacro(domain, m);
+    private int refreshNodes(List<Base> list, Collection<Connectable> changed) throws Exception {
+        HashMap<Integer, Base> active = getActive(list);
+        HashSet<Integer> deleted = getDeleted(list, active);
+        for (Base b : list) {
+            Node n = (Node) b;
+            boolean connect = n.getHistStatus() == STATUS.ACTIVE;
+            if (!connect && !deleted.contains(n.getHistId())) {
+                continue;
             }
-            // load UI text
-            if (domain.uiText != 0) {
-                domain.uiXMLtext = Istring.load(dao, domain.uiText, LANGUAGE.sys).getText();
+            Connectable child;
+            Connectable parent;
+            if (n.getType() == Node.NodeType.CI) {
+                child = ciIntMap.get(n.getChild());
+                parent = ciIntMap.get(n.getParent());
+            } else {
+                child = ciTypeMap.get(n.getChild());
+                parent = n.getParent() == Node.PARENT_IS_A_DOMAIN ? this : ciTypeMap.get(n.getParent());
+            }
+            if (child == null || parent == null) {
+                // e.g. a deleted or lazy loaded CI
+                continue;
+            }
+            if (connect) {
+                child.getParents().add(parent);
+                parent.getChildren().add(child);
+            } else {
+                child.getParents().remove(parent);
+                parent.getChildren().remove(child);
+            }
+            changed.add(child);
+            changed.add(parent);
+        }
+        return list.size();
+    }
 
+    /**
+     * Removes a macro by its ID.
+     */
+    private void removeMacro(int histId) {
+        ArrayList<HashMap<String, UImacro>> maps = new ArrayList<HashMap<String, UImacro>>();
+        maps.add(macroMap);
+        maps.addAll(localeMacroMap.values());
+        for (HashMap<String, UImacro> m : maps) {
+            for (Iterator<UImacro> i = m.values().iterator(); i.hasNext();) {
+                if (i.next().getHistId() == histId) {
+                    i.remove();
+                }
             }
-            dao.endTransaction();
-        } catch (Exception e) {
-            dao.rollback();
-            throw e;
         }
-        domain.isInitialized = true;
-        return domain;
+    }
+
+    private int refreshMacros(List<Base> list) throws Exception {
+        HashMap<Integer, Base> active = getActive(list);
+        for (Base b : active.values()) {
+            // the name or locale may have changed
+            removeMacro(b.getHistId());
+            addMacro(this, (UImacro) b);
+        }
+        for (Integer id : getDeleted(list, active)) {
+            removeMacro(id);
+        }
+        return list.size();
     }
 
     /**
@@ -819,18 +1708,20 @@ public class Domain extends Base implements Cloneable, Connectable {
      *            macro UI macro
      */
     public static void addMacro(Domain domain, UImacro macro) {
-        if (macro.getLocale() == null) {
-            domain.macroMap.put(macro.getName(), macro);
-        } else {
-            // special handling for existing macros, which are changed to a a
-            // language macro
-            domain.macroMap.remove(macro.getName());
-            HashMap<String, UImacro> mmap = domain.localeMacroMap.get(macro.getLocale());
-            if (mmap == null) {
-                mmap = new HashMap<String, UImacro>();
-                domain.localeMacroMap.put(macro.getLocale(), mmap);
+        synchronized (domain.graphLock) {
+            if (macro.getLocale() == null) {
+                domain.macroMap.put(macro.getName(), macro);
+            } else {
+                // special handling for existing macros, which are changed to a a
+                // language macro
+                domain.macroMap.remove(macro.getName());
+                HashMap<String, UImacro> mmap = domain.localeMacroMap.get(macro.getLocale());
+                if (mmap == null) {
+                    mmap = new HashMap<String, UImacro>();
+                    domain.localeMacroMap.put(macro.getLocale(), mmap);
+                }
+                mmap.put(macro.getName(), macro);
             }
-            mmap.put(macro.getName(), macro);
         }
     }
 
@@ -843,10 +1734,12 @@ public class Domain extends Base implements Cloneable, Connectable {
      *            macro
      */
     public static void removeMacro(Domain domain, UImacro macro) {
-        if (macro.getLocale() == null) {
-            domain.getMacroMap().remove(macro.getName());
-        } else {
-            domain.getLMacroMap().get(macro.getLocale()).remove(macro.getName());
+        synchronized (domain.graphLock) {
+            if (macro.getLocale() == null) {
+                domain.getMacroMap().remove(macro.getName());
+            } else {
+                domain.getLMacroMap().get(macro.getLocale()).remove(macro.getName());
+            }
         }
     }
 
@@ -861,18 +1754,21 @@ public class Domain extends Base implements Cloneable, Connectable {
      *            renamed macro
      */
     public static void renameMacro(Domain domain, String oldName, UImacro macro) {
-        if (macro.getLocale() == null) {
-            domain.getMacroMap().remove(oldName);
-            domain.getMacroMap().put(macro.getName(), macro);
-        } else {
-            HashMap<String, UImacro> map = domain.getLMacroMap().get(macro.getLocale());
-            map.remove(oldName);
-            map.put(macro.getName(), macro);
+        synchronized (domain.graphLock) {
+            if (macro.getLocale() == null) {
+                domain.getMacroMap().remove(oldName);
+                domain.getMacroMap().put(macro.getName(), macro);
+            } else {
+                HashMap<String, UImacro> map = domain.getLMacroMap().get(macro.getLocale());
+                map.remove(oldName);
+                map.put(macro.getName(), macro);
+            }
         }
     }
 
     /**
-     * Returns map containing the text macros.
+     * Returns map containing the text macros. The map is live, modifications
+     * hold the graph lock.
      * 
      * @return macro map
      */
@@ -881,7 +1777,8 @@ public class Domain extends Base implements Cloneable, Connectable {
     }
 
     /**
-     * Returns map containing the language text macros.
+     * Returns map containing the language text macros. The map is live,
+     * modifications hold the graph lock.
      * 
      * @return macro map
      */
@@ -928,13 +1825,67 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @throws Exception
      */
     public static void delete(DAOiface dao, User user, Domain domain) throws Exception {
-        synchronized (domainIntMap) {
+        synchronized (registryLock) {
             Base.delete(dao, user, domain, false);
-            domainIntMap.remove(domain.getHistId());
-            domainStrMap.remove(domain.getName());
+            unregister(dao, domain);
         }
     }
 
+    /**
+     * Deletes a {@code Domain} including all its entities. The entities are
+     * deleted with one set-based statement per entity class, referencing
+     * classes before referenced classes.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param user
+     *            {@code User} who deletes a {@code Domain}
+     * @param domain
+     *            {@code Domain} to be deleted
+     * @param dbDelete
+     *            {@code true} for deleting the entities form DB, {@code false}
+     *            historization deletion
+     * @return number of deleted rows
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static long deleteAll(DAOiface dao, User user, Domain domain, boolean dbDelete) throws Exception {
+        long count = 0;
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        synchronized (registryLock) {
+            try {
+                if (localDAO) {
+                    dao.beginTransaction();
+                }
+                for (Class<?> c : ClassDependency.getDeletionOrder()) {
+                    if (Base.class.isAssignableFrom(c) && !c.equals(Domain.class)) {
+                        count += Base.deleteAll(dao, user, (Class<? extends Base>) c, domain.getHistId(), dbDelete);
+                    }
+                }
+                if (dbDelete) {
+                    dao.delete(domain);
+                } else {
+                    Base.delete(dao, user, domain, false);
+                }
+                ++count;
+                if (localDAO) {
+                    dao.endTransaction();
+                }
+            } catch (Exception e) {
+                if (localDAO) {
+                    dao.rollback();
+                }
+                throw e;
+            }
+            unregister(dao, domain);
+        }
+        return count;
+    }
+
     /*
      * private static void deleteDomain(Domain domain, User user) throws
      * Exception { domain.setLastModified(new Date()); DAOiface dao =
@@ -998,11 +1949,14 @@ public class Domain extends Base implements Cloneable, Connectable {
         if (!uniqueCInames) {
             throw new Exception("Domain.getCI(): Not allowed for domains with the property CI_NO_UNIQUE_NAMES");
         }
+        if (name == null) {
+            return null;
+        }
         return ciStrMap.get(name);
     }
 
     /**
-     * Searches a {@code CI}
+     * Searches a {@code CI} - see {@code CIGraph.searchCI()}.
      * 
      * @param name
      *            exact name of the {@code CI}
@@ -1014,29 +1968,7 @@ public class Domain extends Base implements Cloneable, Connectable {
      * 
      */
     public CI searchCI(String name, CItype ctype) {
-        for (CI c : getCImap().values()) {
-            if (c.getCIType() == ctype.getHistId() && c.getName() != null && c.getName().equals(name)) {
-                return c;
-            }
-        }
-        return null;
-    }
-
-    private CI traverseCI(CI c, String name, CItype ctype) {
-        if (c.getCItypeObj().getHistId() == ctype.getHistId() && c.getName().equals(name)) {
-            return c;
-        }
-        HashSet<Connectable> hset = c.getChildren();
-        if (hset.size() == 0) {
-            return null;
-        }
-        for (Connectable n : hset) {
-            CI result = traverseCI((CI) n, name, ctype);
-            if (result != null) {
-                return result;
-            }
-        }
-        return null;
+        return getGraph().searchCI(name, ctype);
     }
 
     /**
@@ -1051,7 +1983,7 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @return CI which match the requirements
      */
     public CI searchRecursively(CI start, String name, CItype ctype) {
-        return traverseCI(start, name, ctype);
+        return getGraph().searchRecursively(start, name, ctype);
     }
 
     /**
@@ -1064,31 +1996,7 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @return map containing the search result CI name/CI
      */
     public HashMap<String, CI> searchCI(CItype ctype, String... args) {
-        HashMap<String, CI> map = new HashMap<String, CI>();
-        HashSet<String> search = new HashSet<String>();
-        for (String s : args) {
-            search.add(s);
-        }
-        for (CI c : getCImap().values()) {
-            if (c.getCIType() == ctype.getHistId() && c.getName() != null) {
-                if (search.contains(c.getName())) {
-                    map.put(c.getName(), c);
-                }
-            }
-        }
-        return map;
-    }
-
-    private void traverse(Connectable c, ArrayList<Connectable> al) {
-        HashSet<Connectable> hset = c.getChildren();
-        if (hset.size() == 0) {
-            al.add(c);
-            return;
-        }
-        for (Connectable n : hset) {
-            traverse(n, al);
-        }
-        al.add(c);
+        return getGraph().searchCI(ctype, args);
     }
 
     /**
@@ -1099,9 +2007,7 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @return list of {@code Connectable} elements
      */
     public ArrayList<Connectable> traverseElemements(Connectable c) {
-        ArrayList<Connectable> al = new ArrayList<Connectable>();
-        traverse(c, al);
-        return al;
+        return getGraph().traverseElements(c);
     }
 
     /**
@@ -1117,8 +2023,15 @@ public class Domain extends Base implements Cloneable, Connectable {
         if (!uniqueCInames) {
             throw new Exception("Domain.getCI(): Not allowed for domains with the property CI_NO_UNIQUE_NAMES");
         }
-        ciStrMap.remove(oldName);
-        ciStrMap.put(ci.getName(), ci);
+        synchronized (graphLock) {
+            if (oldName != null) {
+                ciStrMap.remove(oldName);
+            }
+            if (ci.getName() != null) {
+                ciStrMap.put(ci.getName(), ci);
+            }
+            publishGraph(Collections.singleton(ci));
+        }
     }
 
     /**
@@ -1131,9 +2044,12 @@ public class Domain extends Base implements Cloneable, Connectable {
         if (!ci.isInMemory()) {
             throw new Exception("Domain.putCI(): Not allowed for lazy loading CIs");
         }
-        ciIntMap.put(ci.getHistId(), ci);
-        if (uniqueCInames) {
-            ciStrMap.put(ci.getName(), ci);
+        synchronized (graphLock) {
+            ciIntMap.put(ci.getHistId(), ci);
+            if (uniqueCInames && ci.getName() != null) {
+                ciStrMap.put(ci.getName(), ci);
+            }
+            publishGraph(Collections.singleton(ci));
         }
     }
 
@@ -1155,7 +2071,10 @@ public class Domain extends Base implements Cloneable, Connectable {
      *            {@code CItype}
      */
     public void putCItype(CItype type) {
-        ciTypeMap.put(type.getHistId(), type);
+        synchronized (graphLock) {
+            ciTypeMap.put(type.getHistId(), type);
+            publishGraph(Collections.singleton(type));
+        }
     }
 
     /**
@@ -1166,7 +2085,11 @@ public class Domain extends Base implements Cloneable, Connectable {
      * @return {@code CItype} object
      */
     public CItype removeCItype(CItype type) {
-        return ciTypeMap.remove(type.getHistId());
+        synchronized (graphLock) {
+            CItype t = ciTypeMap.remove(type.getHistId());
+            publishGraph(Collections.singleton(type));
+            return t;
+        }
     }
 
     /**
@@ -1341,23 +2264,71 @@ public class Domain extends Base implements Cloneable, Connectable {
     }
 
     /**
-     * Returns a hash map containing all CIs.
+     * Returns a map containing all CIs. The map is live and thread-safe,
+     * modifications must be done by {@code putCI()} and {@code removeCI()}.
      * 
-     * @return {@code HashMap<Integer, CI>}
+     * @return {@code Map<Integer, CI>}
      */
-    public HashMap<Integer, CI> getCImap() {
+    public Map<Integer, CI> getCImap() {
         return ciIntMap;
     }
 
     /**
-     * Returns a hash map containing all CItypes.
+     * Returns a map containing all CItypes. The map is live and thread-safe,
+     * modifications must be done by {@code putCItype()} and
+     * {@code removeCItype()}.
      * 
-     * @return {@code HashMap<Integer, CItype>}
+     * @return {@code Map<Integer, CItype>}
      */
-    public HashMap<Integer, CItype> getCItypeMap() {
+    public Map<Integer, CItype> getCItypeMap() {
         return ciTypeMap;
     }
 
+    /**
+     * Returns the lock-free read view of the in-memory graph - the
+     * {@code CI}s, {@code CItype}s and frozen copies of their parent/child
+     * sets. Reads never wait for writers.
+     * 
+     * @return {@code CIGraph}
+     */
+    public CIGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the lock of the in-memory graph. Writers of the parent/child
+     * sets hold this lock and call {@code publishGraph()} afterwards.
+     * 
+     * @return graph lock
+     */
+    public Object getGraphLock() {
+        return graphLock;
+    }
+
+    /**
+     * Publishes the modified parent/child sets of some items - only the
+     * copies of these items are replaced.
+     * 
+     * @param changed
+     *            items with modified parent/child sets, e.g. both ends of a
+     *            new connection
+     */
+    public void publishGraph(Collection<? extends Connectable> changed) {
+        synchronized (graphLock) {
+            graph.publish(++graphVersion, changed);
+        }
+    }
+
+    /**
+     * Publishes the parent/child sets of all items, e.g. after loading the
+     * {@code Domain}.
+     */
+    public void publishGraph() {
+        synchronized (graphLock) {
+            graph.publishAll(++graphVersion, this);
+        }
+    }
+
     @Override
     public HashSet<Connectable> getChildren() {
         return children;
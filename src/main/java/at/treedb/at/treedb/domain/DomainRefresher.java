@@ -0,0 +1,106 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.domain;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Low-frequency background poller, which refreshes all loaded domains with
+ * the changes of other processes - see {@code Domain.refresh()}.
+ * </p>
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * DomainRefresher.start(1, TimeUnit.MINUTES);
+ * </pre>
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class DomainRefresher {
+    private static final Logger LOGGER = Logger.getLogger(DomainRefresher.class.getName());
+    private static ScheduledExecutorService executor;
+
+    private DomainRefresher() {
+    }
+
+    /**
+     * Starts the periodic refresh.
+     *
+     * @param period
+     *            period between two refresh runs
+     * @param unit
+     *            time unit of the period
+     */
+    public static synchronized void start(long period, TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("DomainRefresher.start(): refresh is already running");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DomainRefresher");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshAll();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the periodic refresh. A running refresh is finished.
+     */
+    public static synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Refreshes all loaded domains.
+     *
+     * @return number of processed entities
+     */
+    public static int refreshAll() {
+        int count = 0;
+        for (Domain d : Domain.getLoadedDomains()) {
+            if (!d.isInitialized()) {
+                continue;
+            }
+            try {
+                count += d.refresh(null);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "DomainRefresher.refreshAll(): refresh of domain " + d.getName()
+                        + " failed", e);
+            }
+        }
+        return count;
+    }
+}
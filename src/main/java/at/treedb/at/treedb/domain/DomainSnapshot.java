@@ -0,0 +1,633 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.domain;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.Transient;
+
+import at.treedb.ci.CI;
+import at.treedb.ci.CItype;
+import at.treedb.ci.Node;
+import at.treedb.db.Base;
+import at.treedb.db.DAO;
+import at.treedb.db.DAOiface;
+import at.treedb.db.DBentities;
+import at.treedb.db.HistorizationIface.STATUS;
+import at.treedb.i18n.Istring;
+import at.treedb.i18n.Locale.LANGUAGE;
+import at.treedb.i18n.SupportedLanguage;
+import at.treedb.ui.UIelement;
+import at.treedb.ui.UImacro;
+import at.treedb.ui.UIoption;
+import at.treedb.ui.UIselect;
+import at.treedb.ui.UItab;
+
+/**
+ * <p>
+ * Binary snapshot of the in-memory graph of a loaded {@code Domain} - CIs,
+ * {@code CItype}s, {@code UItab}s, {@code UIelement}s, select options, nodes,
+ * macros and supported languages. A snapshot is tagged with the maximum DB ID
+ * per table and its creation time.
+ * </p>
+ * <p>
+ * {@code Domain.load()} reads an existing snapshot memory-mapped and catches
+ * up with the DB per table: only entities written after the snapshot are
+ * loaded and merged. A table whose merged state doesn't match the number of
+ * active entities in the DB is reloaded completely. A missing, stale or
+ * unreadable snapshot results in a regular load.
+ * </p>
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * DomainSnapshot.setDirectory(new File(&quot;/var/treedb/snapshots&quot;));
+ * DomainSnapshot.start(15, TimeUnit.MINUTES);
+ * </pre>
+ * </p>
+ *
+ * @author Peter Sauer
+ *
+ */
+public class DomainSnapshot {
+    private static final Logger LOGGER = Logger.getLogger(DomainSnapshot.class.getName());
+    private static final int FORMAT = 1;
+    private static volatile File directory;
+    private static ScheduledExecutorService executor;
+    private static Thread shutdownHook;
+
+    /**
+     * Serialized content of a snapshot.
+     */
+    private static class Content implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private int format = FORMAT;
+        private int domain;
+        // creation time - entities modified afterwards are caught up
+        private long time;
+        // table -> max. DB ID
+        private HashMap<String, Integer> maxIds = new HashMap<String, Integer>();
+        // table -> active entities
+        private HashMap<String, ArrayList<Base>> entities = new HashMap<String, ArrayList<Base>>();
+    }
+
+    /**
+     * Table of the snapshot - an entity class with an optional filter.
+     */
+    private static class Table {
+        private final String name;
+        private final Class<? extends Base> clazz;
+        private final String filter;
+
+        Table(Class<? extends Base> clazz, String filter) {
+            this.name = clazz.getSimpleName();
+            this.clazz = clazz;
+            this.filter = filter;
+        }
+
+        String query(String condition) {
+            return "select t from " + clazz.getSimpleName() + " t where t.domain = :id and " + condition + filter;
+        }
+
+        HashMap<String, Object> parameters(int domain) {
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("id", domain);
+            if (clazz.equals(Node.class)) {
+                map.put("ctype", Node.ConnectionType.LAZY_NODES);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Read only stream of a memory-mapped file.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private DomainSnapshot() {
+    }
+
+    /**
+     * Sets the directory of the snapshots. Snapshots are neither read nor
+     * written without a directory.
+     *
+     * @param dir
+     *            snapshot directory, {@code null} to disable snapshots
+     * @throws Exception
+     */
+    public static void setDirectory(File dir) throws Exception {
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new Exception("DomainSnapshot.setDirectory(): Unable to create directory " + dir.getAbsolutePath());
+        }
+        directory = dir;
+    }
+
+    /**
+     * Returns the snapshot file of a {@code Domain}.
+     *
+     * @param domain
+     *            {@code Domain} ID
+     * @return snapshot file, or {@code null} if no directory is set
+     */
+    public static File getFile(int domain) {
+        File dir = directory;
+        return dir == null ? null : new File(dir, "domain-" + domain + ".snapshot");
+    }
+
+    /**
+     * Starts writing snapshots of all loaded domains periodically and on
+     * shutdown of the JVM.
+     *
+     * @param period
+     *            period between two snapshots
+     * @param unit
+     *            time unit of the period
+     */
+    public static synchronized void start(long period, TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("DomainSnapshot.start(): snapshots are already running");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DomainSnapshot");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                writeAll();
+            }
+        }, period, period, unit);
+        shutdownHook = new Thread("DomainSnapshot-shutdown") {
+            @Override
+            public void run() {
+                writeAll();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Stops writing snapshots.
+     */
+    public static synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            shutdownHook = null;
+        }
+    }
+
+    /**
+     * Writes the snapshots of all loaded domains.
+     */
+    public static void writeAll() {
+        for (Domain d : Domain.getLoadedDomains()) {
+            try {
+                write(d);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "DomainSnapshot.writeAll(): snapshot of domain " + d.getName()
+                        + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot of a {@code Domain} into the snapshot directory.
+     *
+     * @param domain
+     *            loaded {@code Domain}
+     * @throws Exception
+     */
+    public static void write(Domain domain) throws Exception {
+        File file = getFile(domain.getHistId());
+        if (file == null) {
+            throw new Exception("DomainSnapshot.write(): snapshot directory isn't set");
+        }
+        write(domain, file);
+    }
+
+    /**
+     * Writes the snapshot of a {@code Domain}.
+     *
+     * @param domain
+     *            loaded {@code Domain}
+     * @param file
+     *            snapshot file
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void write(Domain domain, File file) throws Exception {
+        if (!domain.isInitialized()) {
+            throw new Exception("DomainSnapshot.write(): Domain isn't loaded: " + domain.getName());
+        }
+        Content content = new Content();
+        content.domain = domain.getHistId();
+        // markers first - writes during the snapshot are caught up later
+        content.time = System.currentTimeMillis();
+        List<Table> tables = getTables();
+        List<Node> nodes;
+        DAOiface dao = DAO.getDAO();
+        try {
+            dao.beginTransaction();
+            for (Table t : tables) {
+                HashMap<String, Object> map = new HashMap<String, Object>();
+                map.put("id", content.domain);
+                List<Integer> max = (List<Integer>) dao.query(
+                        "select max(t.id) from " + t.clazz.getSimpleName() + " t where t.domain = :id", map);
+                content.maxIds.put(t.name, max.isEmpty() || max.get(0) == null ? 0 : max.get(0));
+            }
+            // nodes aren't part of the in-memory graph
+            Table nt = getTable(tables, Node.class);
+            HashMap<String, Object> map = nt.parameters(content.domain);
+            map.put("status", STATUS.ACTIVE);
+            nodes = (List<Node>) dao.query(nt.query("t.status = :status"), map);
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        for (Table t : tables) {
+            content.entities.put(t.name, new ArrayList<Base>());
+        }
+        // the live collections are collected under the graph lock, the
+        // entities are copied afterwards - an entity modified meanwhile has a
+        // newer modification time and is caught up
+        ArrayList<Base> entities = new ArrayList<Base>();
+        synchronized (domain.getGraphLock()) {
+            if (domain.getSupportedLanguages() != null) {
+                entities.addAll(domain.getSupportedLanguages());
+            }
+            for (CI c : domain.getCImap().values()) {
+                if (c.isInMemory()) {
+                    entities.add(c);
+                }
+            }
+            for (CItype type : domain.getCItypeMap().values()) {
+                entities.add(type);
+                for (UItab tab : type.getUItab()) {
+                    entities.add(tab);
+                    for (UIelement e : tab.getUIelements()) {
+                        entities.add(e);
+                        if (e instanceof UIselect && ((UIselect) e).getOptions() != null) {
+                            entities.addAll(Arrays.asList(((UIselect) e).getOptions()));
+                        }
+                    }
+                }
+            }
+            entities.addAll(domain.getMacroMap().values());
+            for (HashMap<String, UImacro> m : domain.getLMacroMap().values()) {
+                entities.addAll(m.values());
+            }
+        }
+        entities.addAll(nodes);
+        add(content, entities);
+
+        File tmp = File.createTempFile("domain", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeObject(content);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new Exception("DomainSnapshot.write(): Unable to write " + file.getAbsolutePath());
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Loads a {@code Domain} from its snapshot and catches up with the DB.
+     *
+     * @param domain
+     *            loaded {@code Domain} entity
+     * @param loadTimes
+     *            map stage/duration
+     * @return {@code true} if the {@code Domain} was loaded from the snapshot,
+     *         {@code false} if a regular load is necessary
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    static boolean load(Domain domain, Map<String, Long> loadTimes) throws Exception {
+        File file = getFile(domain.getHistId());
+        if (file == null || !file.isFile()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        Content content;
+        try {
+            content = read(file);
+        } catch (Exception e) {
+            // unreadable or incompatible snapshot
+            return false;
+        }
+        if (content.format != FORMAT || content.domain != domain.getHistId()) {
+            return false;
+        }
+        loadTimes.put("snapshotRead", System.currentTimeMillis() - start);
+        start = System.currentTimeMillis();
+        HashMap<String, List<Base>> tables = new HashMap<String, List<Base>>();
+        String uiText = null;
+        DAOiface dao = DAO.getDAO();
+        try {
+            dao.beginTransaction();
+            for (Table t : getTables()) {
+                List<Base> list = catchUp(dao, t, content);
+                if (list == null) {
+                    HashMap<String, Object> map = t.parameters(content.domain);
+                    map.put("status", STATUS.ACTIVE);
+                    list = (List<Base>) dao.query(t.query("t.status = :status"), map);
+                }
+                tables.put(t.name, list);
+            }
+            if (domain.getUiText() != 0) {
+                uiText = Istring.load(dao, domain.getUiText(), LANGUAGE.sys).getText();
+            }
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        loadTimes.put("snapshotCatchUp", System.currentTimeMillis() - start);
+        start = System.currentTimeMillis();
+
+        ArrayList<UIelement> elements = new ArrayList<UIelement>();
+        for (Class<?> c : DBentities.getClasses()) {
+            if (c.getSuperclass() == UIelement.class) {
+                elements.addAll((List<UIelement>) (List<?>) tables.get(c.getSimpleName()));
+            }
+        }
+        List<UItab> tabs = (List<UItab>) (List<?>) tables.get(UItab.class.getSimpleName());
+        Collections.sort(tabs, new Comparator<UItab>() {
+            @Override
+            public int compare(UItab a, UItab b) {
+                return Integer.compare(a.getIndex(), b.getIndex());
+            }
+        });
+        try {
+            Domain.assemble(domain, (List<SupportedLanguage>) (List<?>) tables.get(SupportedLanguage.class
+                    .getSimpleName()), (List<CI>) (List<?>) tables.get(CI.class.getSimpleName()), elements,
+                    getOptions((List<UIoption>) (List<?>) tables.get(UIoption.class.getSimpleName())), tabs,
+                    (List<CItype>) (List<?>) tables.get(CItype.class.getSimpleName()),
+                    (List<Node>) (List<?>) tables.get(Node.class.getSimpleName()),
+                    tables.get(UImacro.class.getSimpleName()), uiText);
+        } catch (Exception e) {
+            // inconsistent snapshot, e.g. a node references a missing CI
+            domain.reset();
+            return false;
+        }
+        loadTimes.put("snapshotAssemble", System.currentTimeMillis() - start);
+        return true;
+    }
+
+    /**
+     * Merges the entities written after the snapshot into the entities of a
+     * table.
+     *
+     * @return merged entities, or {@code null} if the table has to be
+     *         reloaded
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Base> catchUp(DAOiface dao, Table t, Content content) throws Exception {
+        Integer maxId = content.maxIds.get(t.name);
+        ArrayList<Base> list = content.entities.get(t.name);
+        if (maxId == null || list == null) {
+            return null;
+        }
+        LinkedHashMap<Integer, Base> merged = new LinkedHashMap<Integer, Base>();
+        for (Base b : list) {
+            merged.put(b.getHistId(), b);
+        }
+        HashMap<String, Object> map = t.parameters(content.domain);
+        map.put("maxId", maxId);
+        // overlap for clock differences between the processes
+        map.put("time", new Date(content.time - Domain.REFRESH_OVERLAP));
+        List<Base> changed = (List<Base>) dao.query(
+                t.query("(t.id > :maxId or t.lastModified >= :time or t.deletionDate >= :time)"), map);
+        HashMap<Integer, Base> active = new HashMap<Integer, Base>();
+        for (Base b : changed) {
+            if (b.getHistStatus() == STATUS.ACTIVE) {
+                active.put(b.getHistId(), b);
+            }
+        }
+        for (Base b : changed) {
+            if (b.getHistStatus() == STATUS.DELETED && !active.containsKey(b.getHistId())) {
+                merged.remove(b.getHistId());
+            }
+        }
+        merged.putAll(active);
+        // validation - e.g. CIs moved out of memory aren't caught up
+        map = t.parameters(content.domain);
+        map.put("status", STATUS.ACTIVE);
+        List<Long> count = (List<Long>) dao.query(t.query("t.status = :status").replaceFirst("select t ",
+                "select count(t) "), map);
+        if (count.isEmpty() || count.get(0) != merged.size()) {
+            return null;
+        }
+        return new ArrayList<Base>(merged.values());
+    }
+
+    /**
+     * Groups options by select, ordered by index.
+     */
+    private static HashMap<Integer, UIoption[]> getOptions(List<UIoption> list) {
+        HashMap<Integer, ArrayList<UIoption>> map = new HashMap<Integer, ArrayList<UIoption>>();
+        for (UIoption o : list) {
+            ArrayList<UIoption> l = map.get(o.getSelectId());
+            if (l == null) {
+                l = new ArrayList<UIoption>();
+                map.put(o.getSelectId(), l);
+            }
+            l.add(o);
+        }
+        HashMap<Integer, UIoption[]> result = new HashMap<Integer, UIoption[]>();
+        for (Map.Entry<Integer, ArrayList<UIoption>> e : map.entrySet()) {
+            Collections.sort(e.getValue(), new Comparator<UIoption>() {
+                @Override
+                public int compare(UIoption a, UIoption b) {
+                    return Integer.compare(a.getIndex(), b.getIndex());
+                }
+            });
+            result.put(e.getKey(), e.getValue().toArray(new UIoption[e.getValue().size()]));
+        }
+        return result;
+    }
+
+    private static Content read(File file) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+            try {
+                return (Content) in.readObject();
+            } finally {
+                in.close();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Adds copies of entities to the table of their class.
+     */
+    private static void add(Content content, Collection<? extends Base> list) throws Exception {
+        if (list == null) {
+            return;
+        }
+        for (Base b : list) {
+            ArrayList<Base> l = content.entities.get(b.getClass().getSimpleName());
+            if (l != null) {
+                l.add(copy(b));
+            }
+        }
+    }
+
+    /**
+     * Copies the persistent state of an entity - the in-memory graph (fields
+     * annotated with {@code @Transient}) is left at its initial state, like
+     * after loading the entity from the DB.
+     */
+    private static Base copy(Base base) throws Exception {
+        Constructor<? extends Base> c = base.getClass().getDeclaredConstructor();
+        c.setAccessible(true);
+        Base copy = c.newInstance();
+        copyState(base, copy);
+        return copy;
+    }
+
+    /**
+     * Copies the persistent state of an entity into another instance of the
+     * same class. The in-memory graph of the target isn't touched.
+     *
+     * @param from
+     *            source entity
+     * @param to
+     *            target entity
+     * @throws Exception
+     */
+    static void copyState(Base from, Base to) throws Exception {
+        if (from.getClass() != to.getClass()) {
+            throw new Exception("DomainSnapshot.copyState(): class mismatch " + from.getClass().getSimpleName()
+                    + " <-> " + to.getClass().getSimpleName());
+        }
+        for (Class<?> clazz = from.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            for (Field f : clazz.getDeclaredFields()) {
+                int m = f.getModifiers();
+                if (Modifier.isStatic(m) || Modifier.isTransient(m) || f.isAnnotationPresent(Transient.class)) {
+                    continue;
+                }
+                f.setAccessible(true);
+                f.set(to, f.get(from));
+            }
+        }
+    }
+
+    /**
+     * Returns the tables of a snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Table> getTables() {
+        ArrayList<Table> list = new ArrayList<Table>();
+        list.add(new Table(SupportedLanguage.class, ""));
+        list.add(new Table(CI.class, " and t.inMemory = true"));
+        for (Class<?> c : DBentities.getClasses()) {
+            if (c.getSuperclass() == UIelement.class) {
+                list.add(new Table((Class<? extends Base>) c, ""));
+            }
+        }
+        list.add(new Table(UIoption.class, ""));
+        list.add(new Table(UItab.class, ""));
+        list.add(new Table(CItype.class, ""));
+        list.add(new Table(Node.class, " and t.connectionType < :ctype"));
+        list.add(new Table(UImacro.class, ""));
+        return list;
+    }
+
+    private static Table getTable(List<Table> tables, Class<?> clazz) {
+        for (Table t : tables) {
+            if (t.clazz.equals(clazz)) {
+                return t;
+            }
+        }
+        return null;
+    }
+}
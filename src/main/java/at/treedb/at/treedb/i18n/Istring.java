@@ -14,6 +14,7 @@
  */
 package at.treedb.i18n;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -21,7 +22,9 @@ import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.Lob;
+import javax.persistence.Table;
 
 import at.treedb.ci.CI;
 import at.treedb.db.Base;
@@ -30,6 +33,8 @@ import at.treedb.db.DAO;
 import at.treedb.db.DAOiface;
 import at.treedb.db.DBkey;
 import at.treedb.db.HistorizationIface;
+import at.treedb.db.HistoryArchive;
+import at.treedb.db.QueryRegistry;
 import at.treedb.db.SearchCriteria;
 import at.treedb.db.SearchLimit;
 import at.treedb.domain.Domain;
@@ -45,6 +50,7 @@ import at.treedb.user.User;
 
 @SuppressWarnings("serial")
 @Entity
+@Table(indexes = { @Index(columnList = "histId,validFrom") })
 public class Istring extends Base implements Cloneable {
     public enum Fields {
         /**
@@ -230,6 +236,7 @@ public class Istring extends Base implements Cloneable {
             dao.saveAndFlushIfJPA(u);
             // dao.update(u);
             u.setHistId(u.getDBid());
+            updateIndexes(dao, u);
 
             // if DAO is local - end transaction
             if (isDAOlocal) {
@@ -266,16 +273,19 @@ public class Istring extends Base implements Cloneable {
                 copy.setHistStatus(STATUS.UPDATED);
 
             }
+            Date d = new Date();
+            copy.closeValidity(d);
             dao.save(copy);
 
             this.setHistStatus(STATUS.ACTIVE);
-            this.setLastModified(new Date());
+            this.setLastModified(d);
             this.setText(text);
             if (user != null) {
                 this.setModifiedBy(user.getHistId());
             }
             this.incVersion();
             dao.update(this);
+            updateIndexes(dao, this);
             dao.endTransaction();
         } catch (Exception e) {
             dao.rollback();
@@ -355,15 +365,18 @@ public class Istring extends Base implements Cloneable {
                 if (copy.getHistStatus() == STATUS.ACTIVE) {
                     copy.setHistStatus(STATUS.UPDATED);
                 }
+                Date d = new Date();
+                copy.closeValidity(d);
                 dao.save(copy);
 
                 u.setHistStatus(STATUS.ACTIVE);
                 u.setDeletionDate(null);
-                u.setLastModified(new Date());
+                u.setLastModified(d);
                 u.setText(text);
                 u.setModifiedBy(user);
                 u.incVersion();
                 dao.update(u);
+                updateIndexes(dao, u);
 
             }
         } else {
@@ -390,6 +403,7 @@ public class Istring extends Base implements Cloneable {
                 dao.saveAndFlushIfJPA(u);
                 u.setHistId(u.getDBid());
             }
+            updateIndexes(dao, u);
         }
 
         return u;
@@ -533,8 +547,11 @@ public class Istring extends Base implements Cloneable {
                 map.put("date", date);
                 list = (List<Istring>) dao.query(
                         "select s from Istring s where s.histId = :id and s.language = :lang and " + cstmnt
-                                + " and s.lastModified < :date and (s.deletionDate = null or s.deletionDate > :date) order by s.version desc",
+                                + " and s.validFrom <= :date and (s.validTo is null or s.validTo > :date) order by s.version desc",
                         0, limit, map);
+                if (getHistoryMode(Istring.class) == HistoryMode.SEPARATE) {
+                    list = addArchived(dao, list, id, language, country, date);
+                }
                 // one or two strings are possible
                 if (list.size() > 0) {
                     if (list.size() == 1) {
@@ -564,6 +581,57 @@ public class Istring extends Base implements Cloneable {
         }
     }
 
+    /**
+     * Adds the archived versions of the separate history table to the result
+     * of a temporal load - the latest version of each variant is kept, the
+     * country specific variant first.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param list
+     *            result of the temporal load
+     * @param id
+     *            historization ID
+     * @param language
+     *            language
+     * @param country
+     *            optional country, can be {@code null}
+     * @param date
+     *            temporal bound
+     * @return variants valid at the date
+     * @throws Exception
+     */
+    private static List<Istring> addArchived(DAOiface dao, List<Istring> list, int id, Locale.LANGUAGE language,
+            Locale.COUNTRY country, Date date) throws Exception {
+        Istring specific = null;
+        Istring common = null;
+        ArrayList<Base> all = new ArrayList<Base>(list);
+        all.addAll(HistoryArchive.loadVersions(dao, Istring.class, id, date));
+        for (Base b : all) {
+            Istring s = (Istring) b;
+            if (s.getLanguage() != language) {
+                continue;
+            }
+            if (s.getCountry() == null) {
+                if (common == null || s.getVersion() > common.getVersion()) {
+                    common = s;
+                }
+            } else if (country != null && s.getCountry() == country) {
+                if (specific == null || s.getVersion() > specific.getVersion()) {
+                    specific = s;
+                }
+            }
+        }
+        ArrayList<Istring> result = new ArrayList<Istring>();
+        if (specific != null) {
+            result.add(specific);
+        }
+        if (common != null) {
+            result.add(common);
+        }
+        return result;
+    }
+
     /**
      * Loads all language and country variants of a string.
      * 
@@ -578,11 +646,8 @@ public class Istring extends Base implements Cloneable {
         List<Istring> list = null;
         try {
             dao.beginTransaction();
-            HashMap<String, Object> map = new HashMap<String, Object>();
-            map.put("id", id);
-            map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-            list = (List<Istring>) dao.query("select s from Istring s where s.histId = :id and s.status = :status",
-                    map);
+            list = (List<Istring>) dao.query(QueryRegistry.get(QueryRegistry.Template.LOAD_ACTIVE, Istring.class), id,
+                    at.treedb.db.HistorizationIface.STATUS.ACTIVE);
             list.size();
             dao.endTransaction();
         } catch (Exception e) {
@@ -634,11 +699,9 @@ public class Istring extends Base implements Cloneable {
      */
     @SuppressWarnings("unchecked")
     public static int delete(DAOiface dao, User user, int id) throws Exception {
-        HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put("id", id);
-        map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
-        List<Istring> list = (List<Istring>) dao
-                .query("select s from Istring s where s.histId = :id and s.status = :status", map);
+        List<Istring> list = (List<Istring>) dao.query(
+                QueryRegistry.get(QueryRegistry.Template.LOAD_ACTIVE, Istring.class), id,
+                at.treedb.db.HistorizationIface.STATUS.ACTIVE);
         int count = list.size();
         for (Istring s : list) {
 
@@ -648,6 +711,7 @@ public class Istring extends Base implements Cloneable {
                 s.setModifiedBy(user.getHistId());
             }
             dao.update(s);
+            updateIndexes(dao, s);
 
         }
         return count;
@@ -687,6 +751,7 @@ public class Istring extends Base implements Cloneable {
                     s.setModifiedBy(user.getHistId());
                 }
                 dao.update(s);
+                updateIndexes(dao, s);
 
             }
             dao.endTransaction();
@@ -737,6 +802,7 @@ public class Istring extends Base implements Cloneable {
                     s.setModifiedBy(user.getHistId());
                 }
                 dao.update(s);
+                updateIndexes(dao, s);
 
             }
         } catch (Exception e) {
@@ -780,6 +846,7 @@ public class Istring extends Base implements Cloneable {
             if (user != null) {
                 s.setModifiedBy(user.getHistId());
             }
+            updateIndexes(dao, s);
         }
         return count;
     }
@@ -823,6 +890,7 @@ public class Istring extends Base implements Cloneable {
                 s.setModifiedBy(user.getHistId());
             }
             dao.update(s);
+            updateIndexes(dao, s);
         }
         return deleted;
     }
@@ -14,6 +14,8 @@
  */
 package at.treedb.ui;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -149,8 +151,19 @@ public class UIoption extends Base implements Cloneable {
             } else {
                 map.put("date", date);
                 list = (List<Base>) dao.query("select data from " + UIoption.class.getSimpleName()
-                        + " data where data.selectID = :selectid and data.lastModified < :date and (data.deletionDate = null or data.deletionDate > :date) "
-                        + " order by data.version having max(data.version)", map);
+                        + " data where data.selectId = :selectid and data.validFrom <= :date and (data.validTo is null or data.validTo > :date) order by data.index",
+                        map);
+                if (getHistoryMode(UIoption.class) != HistoryMode.FULL) {
+                    HashMap<String, Object> fields = new HashMap<String, Object>();
+                    fields.put("selectId", selectId);
+                    list = addHistoric(dao, UIoption.class, list, null, null, fields, null, date);
+                    Collections.sort(list, new Comparator<Base>() {
+                        @Override
+                        public int compare(Base o1, Base o2) {
+                            return Integer.compare(((UIoption) o1).getIndex(), ((UIoption) o2).getIndex());
+                        }
+                    });
+                }
 
             }
 
@@ -176,6 +189,55 @@ public class UIoption extends Base implements Cloneable {
 
     }
 
+    /**
+     * Loads the active options of all selects of a domain with a single query.
+     * 
+     * @param dao
+     *            {@code DAOiface} (data access object)
+     * @param domain
+     *            {@code Domain} ID
+     * @return map select ID/options ordered by index
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<Integer, UIoption[]> loadAll(DAOiface dao, @DBkey(Domain.class) int domain)
+            throws Exception {
+        List<UIoption> list = null;
+        boolean localDAO = false;
+        if (dao == null) {
+            dao = DAO.getDAO();
+            localDAO = true;
+        }
+        try {
+            if (localDAO) {
+                dao.beginTransaction();
+            }
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            map.put("domain", domain);
+            map.put("status", at.treedb.db.HistorizationIface.STATUS.ACTIVE);
+            list = (List<UIoption>) dao.query("select data from " + UIoption.class.getSimpleName()
+                    + " data where data.domain = :domain and data.status = :status order by data.selectId, data.index",
+                    map);
+            if (localDAO) {
+                dao.endTransaction();
+            }
+        } catch (Exception e) {
+            if (localDAO) {
+                dao.rollback();
+            }
+            throw e;
+        }
+        HashMap<Integer, UIoption[]> result = new HashMap<Integer, UIoption[]>();
+        int start = 0;
+        for (int i = 1; i <= list.size(); ++i) {
+            if (i == list.size() || list.get(i).getSelectId() != list.get(start).getSelectId()) {
+                result.put(list.get(start).getSelectId(), list.subList(start, i).toArray(new UIoption[i - start]));
+                start = i;
+            }
+        }
+        return result;
+    }
+
     /*
      * public void update(User user, long l) throws Exception { UpdateMap map =
      * new UpdateMap(UIoption.Fields.class);
@@ -60,6 +60,17 @@ public class UIselect extends UIelement {
         options = UIoption.loadList(dao, this.getHistId(), null);
     }
 
+    /**
+     * Sets the options, e.g. loaded by {@code UIoption.loadAll()}.
+     * 
+     * @param options
+     *            options ordered by index, {@code null} for none
+     */
+    public void setOptions(UIoption[] options) {
+        this.options = options;
+        valueMap = null;
+    }
+
     protected UIselect(UItab uiTab, String fieldName, Istring displayName, Istring description, boolean mandatory,
             Istring mandatoryError, SelectType selectType, boolean multiSelect, int rows,
             boolean nullSelectionAllowed) {
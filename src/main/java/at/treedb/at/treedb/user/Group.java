@@ -43,7 +43,7 @@ import at.treedb.db.UpdateMap;
  */
 @SuppressWarnings("serial")
 @Entity
-@Table(name = "m_group", indexes = { @Index(columnList = "histId") })
+@Table(name = "m_group", indexes = { @Index(columnList = "histId,validFrom") })
 public class Group extends Base implements Cloneable {
     static private HashMap<Integer, Group> buildInMap = new HashMap<Integer, Group>();
     static private HashSet<String> buildInSet = new HashSet<String>();
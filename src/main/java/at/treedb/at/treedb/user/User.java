@@ -51,7 +51,7 @@ import at.treedb.util.BCrypt;
  */
 
 @Entity
-@Table(name = "m_user", indexes = { @Index(columnList = "email"), @Index(columnList = "histId") })
+@Table(name = "m_user", indexes = { @Index(columnList = "email"), @Index(columnList = "histId,validFrom") })
 // some DBs have a problem with a table named user - e.g. Derby DB
 public class User extends Base implements Cloneable {
     final public static int USER_SYSTEM_ID = 0;
@@ -0,0 +1,77 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.ci;
+
+import java.util.Arrays;
+import java.util.List;
+
+import at.treedb.db.DAO;
+import at.treedb.db.DAOTestCase;
+import at.treedb.db.DAOiface;
+
+/**
+ * Tests of the range index for {@code CIlong} values.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public class RangeIndexTest extends DAOTestCase {
+    private static final long UI_ELEMENT = 1;
+
+    private static List<Integer> range(int ciType, Long from, Long to) throws Exception {
+        DAOiface dao = DAO.getDAO();
+        dao.beginTransaction();
+        try {
+            List<Integer> list = RangeIndex.range(dao, CIlong.class, ciType, UI_ELEMENT, from, true, to, true);
+            dao.endTransaction();
+            return list;
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+    }
+
+    private static List<Integer> top(int ciType, int k) throws Exception {
+        DAOiface dao = DAO.getDAO();
+        dao.beginTransaction();
+        try {
+            List<Integer> list = RangeIndex.top(dao, CIlong.class, ciType, UI_ELEMENT, k, true);
+            dao.endTransaction();
+            return list;
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+    }
+
+    public void testRangeAndUpdate() throws Exception {
+        int ciType = nextCI();
+        int ci1 = nextCI();
+        int ci2 = nextCI();
+        int ci3 = nextCI();
+        CIlong.create(null, null, null, ci1, ciType, UI_ELEMENT, 10);
+        CIlong.create(null, null, null, ci2, ciType, UI_ELEMENT, 20);
+        CIlong.create(null, null, null, ci3, ciType, UI_ELEMENT, 30);
+
+        assertEquals(Arrays.asList(ci2, ci3), range(ciType, 15L, null));
+        assertEquals(Arrays.asList(ci1, ci2), range(ciType, null, 20L));
+        assertEquals(Arrays.asList(ci3), top(ciType, 1));
+
+        // the partition is maintained after the commit
+        CIlong.createOrUpdate(null, null, null, ci1, ciType, UI_ELEMENT, 40);
+        assertEquals(Arrays.asList(ci1), top(ciType, 1));
+        assertEquals(Arrays.asList(ci2, ci3, ci1), range(ciType, null, null));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import junit.framework.TestCase;
+import at.treedb.db.DAO.DB;
+import at.treedb.db.DAO.DDL_STRATEGY;
+import at.treedb.db.DAO.PERSISTENCE_CFG_CREATE_STRATEGY;
+
+/**
+ * Base class of the tests using a DB - an in-memory HSQLDB, created once for
+ * all tests.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public abstract class DAOTestCase extends TestCase {
+    private static boolean initialized;
+    // IDs of CIs, which are only used by one test
+    private static int nextCI = 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        synchronized (DAOTestCase.class) {
+            if (!initialized) {
+                DAO.createDAOiface(DAOiface.PERSISTENCE_LAYER.HIBERNATE, null, DB.HSQLDB, DDL_STRATEGY.CREATE,
+                        "jdbc:hsqldb:mem:treedb", "sa", "", PERSISTENCE_CFG_CREATE_STRATEGY.TEMPORARY, null);
+                initialized = true;
+            }
+        }
+    }
+
+    /**
+     * Returns a {@code CI} ID, which isn't used by other tests.
+     * 
+     * @return {@code CI} ID
+     */
+    protected static synchronized int nextCI() {
+        return ++nextCI;
+    }
+
+    /**
+     * Waits, so that two time stamps differ.
+     * 
+     * @throws InterruptedException
+     */
+    protected static void tick() throws InterruptedException {
+        Thread.sleep(20);
+    }
+}
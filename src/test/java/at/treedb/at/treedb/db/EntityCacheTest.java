@@ -0,0 +1,104 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import at.treedb.ci.CIstring;
+
+/**
+ * Tests of the entity cache - filling and invalidation by the DAO
+ * transactions.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public class EntityCacheTest extends DAOTestCase {
+    private static final long UI_ELEMENT = 1;
+    private EntityCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new EntityCache(100, CIstring.class);
+        Base.setEntityCache(cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Base.setEntityCache(null);
+        super.tearDown();
+    }
+
+    private static UpdateMap text(String text) throws Exception {
+        UpdateMap map = new UpdateMap(CIstring.Fields.class);
+        map.addString(CIstring.Fields.text, text);
+        return map;
+    }
+
+    public void testLoadFillsCache() throws Exception {
+        CIstring s = CIstring.create(null, null, null, nextCI(), 0, UI_ELEMENT, "cached");
+        assertNull(cache.get(CIstring.class, s.getHistId()));
+        Base.load(null, CIstring.class, s.getHistId());
+        CIstring c = (CIstring) cache.get(CIstring.class, s.getHistId());
+        assertNotNull(c);
+        assertEquals("cached", c.getData());
+    }
+
+    public void testCommitInvalidates() throws Exception {
+        CIstring s = CIstring.create(null, null, null, nextCI(), 0, UI_ELEMENT, "old");
+        s = (CIstring) Base.load(null, CIstring.class, s.getHistId());
+        assertNotNull(cache.get(CIstring.class, s.getHistId()));
+        Base.update(null, null, s, text("new"));
+        assertNull(cache.get(CIstring.class, s.getHistId()));
+        assertEquals("new", ((CIstring) Base.load(null, CIstring.class, s.getHistId())).getData());
+    }
+
+    public void testCallerTransactionCachesAfterCommit() throws Exception {
+        CIstring s = CIstring.create(null, null, null, nextCI(), 0, UI_ELEMENT, "text");
+        DAOiface dao = DAO.getDAO();
+        dao.beginTransaction();
+        try {
+            Base.load(dao, CIstring.class, s.getHistId());
+            assertNull(cache.get(CIstring.class, s.getHistId()));
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        assertNotNull(cache.get(CIstring.class, s.getHistId()));
+    }
+
+    public void testRollbackEvicts() throws Exception {
+        CIstring s = CIstring.create(null, null, null, nextCI(), 0, UI_ELEMENT, "committed");
+        int id = s.getHistId();
+        Base.load(null, CIstring.class, id);
+        DAOiface dao = DAO.getDAO();
+        dao.beginTransaction();
+        Base.update(dao, null, (CIstring) Base.load(dao, CIstring.class, id), text("uncommitted"));
+        dao.rollback();
+        assertNull(cache.get(CIstring.class, id));
+        assertEquals("committed", ((CIstring) Base.load(null, CIstring.class, id)).getData());
+        assertEquals("committed", ((CIstring) cache.get(CIstring.class, id)).getData());
+    }
+
+    public void testStalePutIsRejected() throws Exception {
+        CIstring s = CIstring.create(null, null, null, nextCI(), 0, UI_ELEMENT, "stale");
+        long generation = cache.getGeneration();
+        cache.invalidate(CIstring.class, s.getHistId());
+        cache.put(CIstring.class, s, generation);
+        assertNull(cache.get(CIstring.class, s.getHistId()));
+        cache.put(CIstring.class, s, cache.getGeneration());
+        assertNotNull(cache.get(CIstring.class, s.getHistId()));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the encoding of the previous field values.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public class HistoryDeltaTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("null", null);
+        map.put("string", "text \u00e4\u00f6\u00fc");
+        map.put("int", 42);
+        map.put("long", 42L << 40);
+        map.put("short", (short) 7);
+        map.put("byte", (byte) -1);
+        map.put("boolean", true);
+        map.put("double", 3.25);
+        map.put("float", 1.5f);
+        map.put("char", 'x');
+        map.put("date", new Date(1234567890L));
+        map.put("bytes", new byte[] { 1, 2, 3 });
+        map.put("bigDecimal", new BigDecimal("12345.6789"));
+        map.put("bigInteger", new BigInteger("123456789012345678901234567890"));
+        map.put("enum", HistorizationIface.STATUS.UPDATED);
+
+        HashMap<String, Object> result = HistoryDelta.deserialize(HistoryDelta.serialize(map));
+        assertEquals(map.size(), result.size());
+        for (String name : map.keySet()) {
+            if (name.equals("bytes")) {
+                assertTrue(Arrays.equals((byte[]) map.get(name), (byte[]) result.get(name)));
+            } else {
+                assertEquals(name, map.get(name), result.get(name));
+            }
+        }
+        assertTrue(result.containsKey("null"));
+    }
+
+    public void testUnsupportedType() {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("list", new ArrayList<String>());
+        try {
+            HistoryDelta.serialize(map);
+            fail("unsupported type accepted");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    public void testUnknownData() {
+        try {
+            HistoryDelta.deserialize(new byte[] { 1, 2, 3 });
+            fail("unknown data accepted");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+}
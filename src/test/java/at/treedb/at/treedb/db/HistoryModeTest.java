@@ -0,0 +1,114 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.Date;
+import java.util.HashMap;
+
+import at.treedb.ci.CIstring;
+
+/**
+ * Tests of the temporal loads of updated entities for the history modes.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public class HistoryModeTest extends DAOTestCase {
+    private static final long UI_ELEMENT = 1;
+
+    @Override
+    protected void tearDown() throws Exception {
+        Base.setHistoryMode(CIstring.class, Base.HistoryMode.FULL);
+        super.tearDown();
+    }
+
+    private static void update(int id, String text) throws Exception {
+        UpdateMap map = new UpdateMap(CIstring.Fields.class);
+        map.addString(CIstring.Fields.text, text);
+        Base.update(null, null, Base.load(null, CIstring.class, id), map);
+    }
+
+    private static String load(int id, Date date) throws Exception {
+        CIstring s = (CIstring) Base.load(null, CIstring.class, id, date);
+        return s == null ? null : s.getData();
+    }
+
+    /**
+     * Writes three versions of an entity.
+     * 
+     * @param dates
+     *            filled with a date before the creation and dates after each
+     *            write
+     * @return historization ID
+     */
+    private static int writeVersions(Date[] dates) throws Exception {
+        dates[0] = new Date();
+        tick();
+        int id = CIstring.create(null, null, null, nextCI(), 0, UI_ELEMENT, "v1").getHistId();
+        tick();
+        dates[1] = new Date();
+        tick();
+        update(id, "v2");
+        tick();
+        dates[2] = new Date();
+        tick();
+        update(id, "v3");
+        tick();
+        dates[3] = new Date();
+        return id;
+    }
+
+    /**
+     * Loads the versions valid at the dates of {@code writeVersions()}.
+     */
+    private static void checkVersions(int id, Date[] dates) throws Exception {
+        assertNull(load(id, dates[0]));
+        assertEquals("v1", load(id, dates[1]));
+        assertEquals("v2", load(id, dates[2]));
+        assertEquals("v3", load(id, dates[3]));
+        assertEquals("v3", load(id, null));
+    }
+
+    public void testFullHistory() throws Exception {
+        Date[] dates = new Date[4];
+        checkVersions(writeVersions(dates), dates);
+    }
+
+    public void testDeltaHistory() throws Exception {
+        Base.setDeltaHistory(CIstring.class, true);
+        Date[] dates = new Date[4];
+        checkVersions(writeVersions(dates), dates);
+    }
+
+    public void testSeparateHistory() throws Exception {
+        Base.setHistoryMode(CIstring.class, Base.HistoryMode.SEPARATE);
+        Date[] dates = new Date[4];
+        checkVersions(writeVersions(dates), dates);
+    }
+
+    public void testRebuildValidity() throws Exception {
+        Date[] dates = new Date[4];
+        int id = writeVersions(dates);
+        // versions of a DB without validity intervals
+        DAOiface dao = DAO.getDAO();
+        dao.beginTransaction();
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("id", id);
+        dao.queryAndExecute("update CIstring i set i.validTo = null where i.histId = :id", map);
+        dao.endTransaction();
+        assertTrue(Base.rebuildValidity(null, CIstring.class) >= 2);
+        checkVersions(id, dates);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.ArrayList;
+
+import at.treedb.ci.CIstring;
+
+/**
+ * Tests of the keyset pagination of the {@code Iterator}.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public class IteratorTest extends DAOTestCase {
+    private static final long UI_ELEMENT = 1;
+
+    public void testPages() throws Exception {
+        int ci = nextCI();
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 7; ++i) {
+            ids.add(CIstring.create(null, null, null, ci, 0, UI_ELEMENT + i, "text" + i).getDBid());
+        }
+        ArrayList<Integer> read = new ArrayList<Integer>();
+        long count;
+        DAOiface dao = DAO.getDAO();
+        dao.beginTransaction();
+        try {
+            count = Base.countRow(dao, CIstring.class, HistorizationIface.STATUS.ACTIVE, null);
+            Iterator iter = new Iterator(dao, CIstring.class, null, HistorizationIface.STATUS.ACTIVE, 3, false);
+            while (iter.hasNext()) {
+                for (Object o : iter.next()) {
+                    read.add(((Base) o).getDBid());
+                }
+            }
+            iter.close();
+            dao.endTransaction();
+        } catch (Exception e) {
+            dao.rollback();
+            throw e;
+        }
+        // ascending DB IDs, no entity skipped or read twice
+        assertEquals(count, read.size());
+        for (int i = 1; i < read.size(); ++i) {
+            assertTrue(read.get(i - 1) < read.get(i));
+        }
+        assertTrue(read.containsAll(ids));
+    }
+}
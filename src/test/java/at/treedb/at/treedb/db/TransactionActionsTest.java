@@ -0,0 +1,81 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the actions executed after the end of a transaction.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public class TransactionActionsTest extends TestCase {
+
+    private static Runnable record(final ArrayList<String> log, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(name);
+            }
+        };
+    }
+
+    public void testCommit() {
+        ArrayList<String> log = new ArrayList<String>();
+        TransactionActions actions = new TransactionActions();
+        actions.afterCompletion(record(log, "completion"));
+        actions.afterCommit(record(log, "commit"));
+        actions.committed();
+        assertEquals(2, log.size());
+        assertEquals("commit", log.get(0));
+        assertEquals("completion", log.get(1));
+    }
+
+    public void testRollback() {
+        ArrayList<String> log = new ArrayList<String>();
+        TransactionActions actions = new TransactionActions();
+        actions.afterCommit(record(log, "commit"));
+        actions.afterCompletion(record(log, "completion"));
+        actions.rolledBack();
+        assertEquals(1, log.size());
+        assertEquals("completion", log.get(0));
+    }
+
+    public void testActionsAreExecutedOnce() {
+        ArrayList<String> log = new ArrayList<String>();
+        TransactionActions actions = new TransactionActions();
+        actions.afterCommit(record(log, "commit"));
+        actions.committed();
+        actions.committed();
+        assertEquals(1, log.size());
+    }
+
+    public void testFailingActionDoesntStopOthers() {
+        ArrayList<String> log = new ArrayList<String>();
+        TransactionActions actions = new TransactionActions();
+        actions.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("failing action");
+            }
+        });
+        actions.afterCommit(record(log, "commit"));
+        actions.committed();
+        assertEquals(1, log.size());
+    }
+}
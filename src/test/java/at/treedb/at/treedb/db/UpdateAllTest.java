@@ -0,0 +1,76 @@
+/*
+* (C) Copyright 2014-2016 Peter Sauer (http://treedb.at/).
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package at.treedb.db;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import at.treedb.ci.CIstring;
+import at.treedb.db.HistorizationIface.STATUS;
+
+/**
+ * Tests of the batch update {@code Base.updateAll()}.
+ * 
+ * @author Peter Sauer
+ *
+ */
+public class UpdateAllTest extends DAOTestCase {
+    private static final long UI_ELEMENT = 1;
+
+    private static UpdateMap text(String text) throws Exception {
+        UpdateMap map = new UpdateMap(CIstring.Fields.class);
+        map.addString(CIstring.Fields.text, text);
+        return map;
+    }
+
+    private static String load(int id) throws Exception {
+        return ((CIstring) Base.load(null, CIstring.class, id)).getData();
+    }
+
+    public void testUpdateAll() throws Exception {
+        int ci = nextCI();
+        CIstring a = CIstring.create(null, null, null, ci, 0, UI_ELEMENT, "a");
+        CIstring b = CIstring.create(null, null, null, ci, 0, UI_ELEMENT + 1, "b");
+        LinkedHashMap<Base, UpdateMap> updates = new LinkedHashMap<Base, UpdateMap>();
+        updates.put(Base.load(null, CIstring.class, a.getHistId()), text("a2"));
+        updates.put(Base.load(null, CIstring.class, b.getHistId()), text("b2"));
+        assertTrue(Base.updateAll(null, null, updates).isEmpty());
+        assertEquals("a2", load(a.getHistId()));
+        assertEquals("b2", load(b.getHistId()));
+    }
+
+    public void testFailedChecksAreReported() throws Exception {
+        int ci = nextCI();
+        CIstring a = CIstring.create(null, null, null, ci, 0, UI_ELEMENT, "a");
+        CIstring b = CIstring.create(null, null, null, ci, 0, UI_ELEMENT + 1, "b");
+        CIstring c = CIstring.create(null, null, null, ci, 0, UI_ELEMENT + 2, "c");
+        Base historic = Base.load(null, CIstring.class, b.getHistId());
+        Base other = Base.load(null, CIstring.class, c.getHistId());
+        historic.setHistStatus(STATUS.UPDATED);
+        other.setHistStatus(STATUS.DELETED);
+        LinkedHashMap<Base, UpdateMap> updates = new LinkedHashMap<Base, UpdateMap>();
+        updates.put(Base.load(null, CIstring.class, a.getHistId()), text("a2"));
+        updates.put(historic, text("b2"));
+        updates.put(other, text("c2"));
+        HashMap<Base, Exception> failed = Base.updateAll(null, null, updates);
+        assertEquals(2, failed.size());
+        assertTrue(failed.containsKey(historic));
+        assertTrue(failed.containsKey(other));
+        // the valid updates are written
+        assertEquals("a2", load(a.getHistId()));
+        assertEquals("b", load(b.getHistId()));
+        assertEquals("c", load(c.getHistId()));
+    }
+}